@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import android.arch.persistence.room.Room;
+import android.database.SQLException;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Integration test for {@link GroupCommitQueue}, with a writer thread that only runs when told.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class GroupCommitQueueTest {
+
+    private ToDoDatabase mDatabase;
+
+    private List<Runnable> mWriterQueue;
+
+    private GroupCommitQueue mQueue;
+
+    private List<String> mRun;
+
+    private List<String> mCommitted;
+
+    private List<String> mFailed;
+
+    @Before
+    public void setup() {
+        mDatabase = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(),
+                ToDoDatabase.class).build();
+        mWriterQueue = new ArrayList<>();
+        mQueue = new GroupCommitQueue(mDatabase, new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                mWriterQueue.add(command);
+            }
+        });
+        mRun = new ArrayList<>();
+        mCommitted = new ArrayList<>();
+        mFailed = new ArrayList<>();
+    }
+
+    @After
+    public void cleanUp() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void writesQueuedWhileWriterIsBusy_committedByOneFlush() {
+        // Given 3 writes queued before the writer thread gets to them
+        mQueue.enqueue(new SaveWrite(new Task("1", "", "1", false, 100)));
+        mQueue.enqueue(new SaveWrite(new Task("2", "", "2", false, 200)));
+        mQueue.enqueue(new SaveWrite(new Task("3", "", "3", false, 300)));
+
+        // Then only one flush was handed to the writer thread
+        assertThat(mWriterQueue.size(), is(1));
+
+        // When it runs, all of them are committed in order
+        mWriterQueue.remove(0).run();
+        assertThat(mCommitted.toString(), is("[1, 2, 3]"));
+        assertThat(mDatabase.taskDao().getTasks().size(), is(3));
+
+        // And the next write gets a flush of its own
+        mQueue.enqueue(new SaveWrite(new Task("4", "", "4", false, 400)));
+        assertThat(mWriterQueue.size(), is(1));
+    }
+
+    @Test
+    public void failingWrite_onlyItIsLost() {
+        // Given a batch with a write that fails between 2 that don't
+        mQueue.enqueue(new SaveWrite(new Task("1", "", "1", false, 100)));
+        mQueue.enqueue(new SaveWrite(new Task("2", "", "2", false, 200)) {
+            @Override
+            void run() {
+                super.run();
+                mDatabase.query("SELECT * FROM no_such_table", null).close();
+            }
+        });
+        mQueue.enqueue(new SaveWrite(new Task("3", "", "3", false, 300)));
+
+        // When the batch is flushed
+        mWriterQueue.remove(0).run();
+
+        // Then the other writes are committed, and the failing one is rolled back
+        assertThat(mCommitted.toString(), is("[1, 3]"));
+        assertThat(mFailed.toString(), is("[2]"));
+        assertThat(mDatabase.taskDao().getTasks().size(), is(2));
+        assertThat(mDatabase.taskDao().getTaskById("2") == null, is(true));
+    }
+
+    @Test
+    public void repeatedToggles_coalesceIntoLastWrite() {
+        // Given a task being saved while the writer is busy, then toggled 3 times
+        mQueue.enqueue(new SaveWrite(new Task("1", "", "1", false, 100)));
+        mQueue.enqueue(new CompletedWrite("1", true));
+        mQueue.enqueue(new CompletedWrite("1", false));
+        mQueue.enqueue(new CompletedWrite("1", true));
+
+        // When the queue is flushed
+        mWriterQueue.remove(0).run();
+
+        // Then the save and the last toggle are written, and every write hears it committed
+        assertThat(mRun.toString(), is("[1, 1]"));
+        assertThat(mCommitted.toString(), is("[1, 1, 1, 1]"));
+        assertThat(mDatabase.taskDao().getTaskById("1").isCompleted(), is(true));
+    }
+
+    @Test
+    public void writeToAllTasks_isNotCoalescedAcross() {
+        // Given a task completed, completed tasks cleared, then the task activated again
+        mQueue.enqueue(new SaveWrite(new Task("1", "", "1", false, 100)));
+        mQueue.enqueue(new CompletedWrite("1", true));
+        mQueue.enqueue(new GroupCommitQueue.Write() {
+            @Override
+            void run() {
+                mDatabase.taskDao().hideCompletedTasks(1);
+            }
+        });
+        mQueue.enqueue(new CompletedWrite("1", false));
+
+        // When the queue is flushed
+        mWriterQueue.remove(0).run();
+
+        // Then the clear still saw the task completed
+        assertThat(mRun.toString(), is("[1, 1, 1]"));
+        assertThat(mDatabase.taskDao().getTaskById("1") == null, is(true));
+    }
+
+    private class SaveWrite extends GroupCommitQueue.Write {
+
+        private final Task mTask;
+
+        SaveWrite(Task task) {
+            super(task.getId(), GroupCommitQueue.FIELDS_ALL);
+            mTask = task;
+        }
+
+        @Override
+        void run() {
+            mRun.add(mTask.getId());
+            mDatabase.taskDao().insertTask(mTask);
+        }
+
+        @Override
+        void onCommitted() {
+            mCommitted.add(mTask.getId());
+        }
+
+        @Override
+        void onFailed(@NonNull SQLException e) {
+            mFailed.add(mTask.getId());
+        }
+    }
+
+    private class CompletedWrite extends GroupCommitQueue.Write {
+
+        private final String mTaskId;
+
+        private final boolean mCompleted;
+
+        CompletedWrite(String taskId, boolean completed) {
+            super(taskId, GroupCommitQueue.FIELDS_COMPLETED);
+            mTaskId = taskId;
+            mCompleted = completed;
+        }
+
+        @Override
+        void run() {
+            mRun.add(mTaskId);
+            mDatabase.taskDao().updateCompletedAt(mTaskId, mCompleted, 200);
+        }
+
+        @Override
+        void onCommitted() {
+            mCommitted.add(mTaskId);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import android.arch.persistence.room.Room;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
+import com.example.android.architecture.blueprints.todoapp.util.SingleExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Integration test for {@link JournalTasksDataSource}.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class JournalTasksDataSourceTest {
+
+    private static final String DATABASE_NAME = "journal-test.db";
+
+    private static final int SAVED_TASKS = 500;
+
+    private Context mContext;
+
+    private ToDoDatabase mDatabase;
+
+    private File mFile;
+
+    private JournalTasksDataSource mDataSource;
+
+    @Before
+    public void setup() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDatabase = Room.inMemoryDatabaseBuilder(mContext, ToDoDatabase.class).build();
+        mFile = new File(mContext.getCacheDir(), "test.journal");
+        mFile.delete();
+        mDataSource = new JournalTasksDataSource(new SingleExecutors(), mDatabase, mFile);
+    }
+
+    @After
+    public void cleanUp() {
+        mDataSource.closeJournal();
+        mDatabase.close();
+        mFile.delete();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void savedTasks_areLoadedAfterReopenAndQueuedInOutbox() {
+        // Given 2 tasks saved and one of them completed
+        Task task1 = new Task("Title1", "", "1", false, 100);
+        Task task2 = new Task("Title2", "", "2", false, 200);
+        mDataSource.saveTask(task1);
+        mDataSource.saveTask(task2);
+        TasksDataSource.WriteCallback writeCallback = mock(TasksDataSource.WriteCallback.class);
+        mDataSource.setTaskCompleted(task1, true, writeCallback);
+        verify(writeCallback).onWriteCompleted();
+
+        // When the journal is opened again
+        mDataSource.closeJournal();
+        TasksDataSource.LoadTasksCallback callback = mock(TasksDataSource.LoadTasksCallback.class);
+        mDataSource.getTasks(callback);
+
+        // Then the tasks are loaded from it, and the changes wait in the outbox
+        verify(callback).onTasksLoaded(Arrays.asList(task1, task2));
+        assertThat(mDatabase.outboxDao().getEntryCount(), is(3));
+    }
+
+    @Test
+    public void replaceAllTasks_keepsTasksWithPendingChanges() {
+        // Given a task changed locally and not sent yet
+        Task local = new Task("Local", "", "1", false, 100);
+        mDataSource.saveTask(local);
+
+        // When a backend snapshot without it arrives
+        Task remote = new Task("Remote", "", "2", false, 200);
+        mDataSource.replaceAllTasks(Arrays.asList(new Task("Old", "", "1", false, 50), remote));
+
+        // Then the local change is kept next to the snapshot
+        TasksDataSource.LoadTasksCallback callback = mock(TasksDataSource.LoadTasksCallback.class);
+        mDataSource.getTasks(callback);
+        verify(callback).onTasksLoaded(Arrays.asList(local, remote));
+    }
+
+    /**
+     * Saves the same tasks to the journal and to Room, each committed on its own, and loads them
+     * after opening both stores again.
+     */
+    @Test
+    public void reopenedJournal_loadsWhatRoomLoads() {
+        List<Task> tasks = createTasks();
+
+        // Room, on a file so opening it again has to read it
+        ToDoDatabase database = Room.databaseBuilder(mContext, ToDoDatabase.class, DATABASE_NAME)
+                .addCallback(ToDoDatabase.SEARCH_INDEX_CALLBACK).build();
+        TasksLocalDataSource.clearInstance();
+        saveAll(TasksLocalDataSource.getInstance(new SingleExecutors(), database), tasks);
+        database.close();
+        TasksLocalDataSource.clearInstance();
+        database = Room.databaseBuilder(mContext, ToDoDatabase.class, DATABASE_NAME)
+                .addCallback(ToDoDatabase.SEARCH_INDEX_CALLBACK).build();
+        List<Task> fromRoom =
+                loadAll(TasksLocalDataSource.getInstance(new SingleExecutors(), database));
+        database.close();
+        TasksLocalDataSource.clearInstance();
+
+        // The journal, with the outbox in the in-memory database
+        saveAll(mDataSource, tasks);
+        mDataSource.closeJournal();
+        List<Task> fromJournal = loadAll(mDataSource);
+
+        assertThat(fromJournal, is(tasks));
+        assertThat(fromJournal, is(fromRoom));
+        for (int i = 0; i < tasks.size(); i++) {
+            assertThat(fromJournal.get(i).isCompleted(), is(tasks.get(i).isCompleted()));
+            assertThat(fromJournal.get(i).getUpdatedAt(), is(tasks.get(i).getUpdatedAt()));
+        }
+    }
+
+    private static void saveAll(TasksDataSource dataSource, List<Task> tasks) {
+        for (Task task : tasks) {
+            dataSource.saveTask(task);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Task> loadAll(TasksDataSource dataSource) {
+        TasksDataSource.LoadTasksCallback callback = mock(TasksDataSource.LoadTasksCallback.class);
+        dataSource.getTasks(callback);
+        ArgumentCaptor<List> tasks = ArgumentCaptor.forClass(List.class);
+        verify(callback).onTasksLoaded(tasks.capture());
+        return tasks.getValue();
+    }
+
+    /**
+     * Recent tasks, so Room doesn't move the completed ones to the archive on opening.
+     */
+    private static List<Task> createTasks() {
+        long now = System.currentTimeMillis();
+        Task[] tasks = new Task[SAVED_TASKS];
+        for (int i = 0; i < SAVED_TASKS; i++) {
+            tasks[i] = new Task("Errand number " + i, "Before lunch, if there is time",
+                    String.valueOf(i), i % 4 == 0, now + i);
+        }
+        return Arrays.asList(tasks);
+    }
+}
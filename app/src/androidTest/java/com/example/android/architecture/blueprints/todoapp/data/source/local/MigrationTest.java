@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.db.framework.FrameworkSQLiteOpenHelperFactory;
+import android.arch.persistence.room.testing.MigrationTestHelper;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Upgrades databases created at older versions, from the schemas Room exported for them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MigrationTest {
+
+    private static final String TEST_DB = "migration-test";
+
+    @Rule
+    public MigrationTestHelper mHelper = new MigrationTestHelper(
+            InstrumentationRegistry.getInstrumentation(),
+            ToDoDatabase.class.getCanonicalName(),
+            new FrameworkSQLiteOpenHelperFactory());
+
+    @Test
+    public void migrate6To8_addsTheArchiveWithItsDeletionColumn() throws Exception {
+        // Given a version 6 database, with the search index version 5 added, and a task
+        SupportSQLiteDatabase db = mHelper.createDatabase(TEST_DB, 6);
+        TaskSearch.createIndex(db);
+        db.execSQL("INSERT INTO tasks (entryid, title, description, completed, updatedat, "
+                + "deletion) VALUES ('1', 'Paint the fence', 'White', 1, 1000, 0)");
+        db.close();
+
+        // When it is upgraded to version 8
+        db = mHelper.runMigrationsAndValidate(TEST_DB, 8, true,
+                ToDoDatabase.MIGRATION_6_7, ToDoDatabase.MIGRATION_7_8);
+
+        // Then the task is kept, and archived rows get the soft-delete marker, live by default
+        assertThat(queryLong(db, "SELECT COUNT(*) FROM tasks WHERE entryid = '1'"), is(1L));
+        db.execSQL("INSERT INTO archived_tasks (entryid, title, description, updatedat) "
+                + "SELECT entryid, title, description, updatedat FROM tasks");
+        assertThat(queryLong(db, "SELECT deletion FROM archived_tasks WHERE entryid = '1'"),
+                is(0L));
+        assertThat(queryLong(db, "SELECT COUNT(*) FROM archived_tasks_fts "
+                + "WHERE archived_tasks_fts MATCH 'fence'"), is(1L));
+    }
+
+    @Test
+    public void migrate1To8_keepsTasks() throws Exception {
+        // Given a version 1 database with a task
+        SupportSQLiteDatabase db = mHelper.createDatabase(TEST_DB, 1);
+        db.execSQL("INSERT INTO tasks (entryid, title, description, completed) "
+                + "VALUES ('1', 'Paint the fence', 'White', 0)");
+        db.close();
+
+        // When it is upgraded through every version to 8
+        db = mHelper.runMigrationsAndValidate(TEST_DB, 8, true,
+                ToDoDatabase.MIGRATION_1_2, ToDoDatabase.MIGRATION_2_3,
+                ToDoDatabase.MIGRATION_3_4, ToDoDatabase.MIGRATION_4_5,
+                ToDoDatabase.MIGRATION_5_6, ToDoDatabase.MIGRATION_6_7,
+                ToDoDatabase.MIGRATION_7_8);
+
+        // Then the task is live, older than any change, and found by search
+        assertThat(queryLong(db, "SELECT updatedat + deletion FROM tasks WHERE entryid = '1'"),
+                is(0L));
+        assertThat(queryLong(db, "SELECT COUNT(*) FROM tasks_fts WHERE tasks_fts MATCH 'fence'"),
+                is(1L));
+        assertThat(queryLong(db, "SELECT COUNT(*) FROM archived_tasks"), is(0L));
+    }
+
+    private static long queryLong(SupportSQLiteDatabase db, String sql) {
+        Cursor cursor = db.query(sql);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
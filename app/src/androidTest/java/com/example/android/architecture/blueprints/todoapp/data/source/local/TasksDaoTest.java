@@ -140,12 +140,12 @@ public class TasksDaoTest {
     }
 
     @Test
-    public void deleteTasksAndGettingTasks() {
+    public void hideTasksAndGettingTasks() {
         //Given a task inserted
         mDatabase.taskDao().insertTask(TASK);
 
-        //When deleting all tasks
-        mDatabase.taskDao().deleteTasks();
+        //When hiding all tasks
+        mDatabase.taskDao().hideTasks(1);
 
         //When getting the tasks
         List<Task> tasks = mDatabase.taskDao().getTasks();
@@ -154,12 +154,12 @@ public class TasksDaoTest {
     }
 
     @Test
-    public void deleteCompletedTasksAndGettingTasks() {
+    public void hideCompletedTasksAndGettingTasks() {
         //Given a completed task inserted
         mDatabase.taskDao().insertTask(TASK);
 
-        //When deleting completed tasks
-        mDatabase.taskDao().deleteCompletedTasks();
+        //When hiding completed tasks
+        mDatabase.taskDao().hideCompletedTasks(1);
 
         //When getting the tasks
         List<Task> tasks = mDatabase.taskDao().getTasks();
@@ -167,6 +167,60 @@ public class TasksDaoTest {
         assertThat(tasks.size(), is(0));
     }
 
+    @Test
+    public void getTaskSummaries_leavesOutDescriptionsOfTitledTasks() {
+        // Given a task with a title and one without
+        mDatabase.taskDao().insertTask(TASK);
+        mDatabase.taskDao().insertTask(new Task("", "description2", "id2", false));
+
+        // When getting the task summaries
+        List<Task> summaries = mDatabase.taskDao().getTaskSummaries();
+
+        // Only the task without a title keeps its description, the list shows it instead
+        assertThat(summaries.size(), is(2));
+        for (Task summary : summaries) {
+            if (summary.getId().equals("id")) {
+                assertTask(summary, "id", "title", null, true);
+            } else {
+                assertTask(summary, "id2", "", "description2", false);
+            }
+        }
+    }
+
+    @Test
+    public void getTasksByCompleted_returnsOnlyMatchingTasks() {
+        // Given a completed and an active task inserted
+        mDatabase.taskDao().insertTask(TASK);
+        mDatabase.taskDao().insertTask(new Task("title2", "description2", "id2", false));
+
+        // When getting the active and the completed tasks
+        List<Task> activeTasks = mDatabase.taskDao().getTasksByCompleted(false);
+        List<Task> completedTasks = mDatabase.taskDao().getTasksByCompleted(true);
+
+        // Each list only has the task with that state
+        assertThat(activeTasks.size(), is(1));
+        assertTask(activeTasks.get(0), "id2", "title2", null, false);
+        assertThat(completedTasks.size(), is(1));
+        assertTask(completedTasks.get(0), "id", "title", null, true);
+    }
+
+    @Test
+    public void getTaskCounts_countsPerCompletedState() {
+        // Given one completed and two active tasks inserted
+        mDatabase.taskDao().insertTask(TASK);
+        mDatabase.taskDao().insertTask(new Task("title2", "description2", "id2", false));
+        mDatabase.taskDao().insertTask(new Task("title3", "description3", "id3", false));
+
+        // When counting the tasks
+        List<TaskCount> counts = mDatabase.taskDao().getTaskCounts();
+
+        // There is one row per state
+        assertThat(counts.size(), is(2));
+        for (TaskCount count : counts) {
+            assertThat(count.getCount(), is(count.isCompleted() ? 1 : 2));
+        }
+    }
+
     private void assertTask(Task task, String id, String title,
             String description, boolean completed) {
         assertThat(task, notNullValue());
@@ -21,17 +21,20 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyList;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 import android.arch.persistence.room.Room;
+import android.database.Cursor;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.filters.LargeTest;
 import android.support.test.runner.AndroidJUnit4;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskChanges;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
 import com.example.android.architecture.blueprints.todoapp.util.SingleExecutors;
 
@@ -39,7 +42,10 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -64,12 +70,12 @@ public class TasksLocalDataSourceTest {
         // using an in-memory database for testing, since it doesn't survive killing the process
         mDatabase = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(),
                 ToDoDatabase.class)
+                .addCallback(ToDoDatabase.SEARCH_INDEX_CALLBACK)
                 .build();
-        TasksDao tasksDao = mDatabase.taskDao();
 
         // Make sure that we're not keeping a reference to the wrong instance.
         TasksLocalDataSource.clearInstance();
-        mLocalDataSource = TasksLocalDataSource.getInstance(new SingleExecutors(), tasksDao);
+        mLocalDataSource = TasksLocalDataSource.getInstance(new SingleExecutors(), mDatabase);
     }
 
     @After
@@ -131,6 +137,32 @@ public class TasksLocalDataSourceTest {
         });
     }
 
+    @Test
+    public void setTaskCompleted_reportsWriteAndTaskIsComplete() {
+        // Initialize mock for the callback.
+        TasksDataSource.WriteCallback callback = mock(TasksDataSource.WriteCallback.class);
+        // Given a new task in the persistent repository
+        final Task newTask = new Task(TITLE, "");
+        mLocalDataSource.saveTask(newTask);
+
+        // When completed in the persistent repository with a write callback
+        mLocalDataSource.setTaskCompleted(newTask, true, callback);
+
+        // Then the write is reported and the task can be retrieved as complete
+        verify(callback).onWriteCompleted();
+        mLocalDataSource.getTask(newTask.getId(), new TasksDataSource.GetTaskCallback() {
+            @Override
+            public void onTaskLoaded(Task task) {
+                assertThat(task.isCompleted(), is(true));
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                fail("Callback error");
+            }
+        });
+    }
+
     @Test
     public void activateTask_retrievedTaskIsActive() {
         // Initialize mock for the callback.
@@ -190,6 +222,78 @@ public class TasksLocalDataSourceTest {
         verify(callback3).onTaskLoaded(newTask3);
     }
 
+    @Test
+    public void completeTask_summary_queuesTheStoredDescription() {
+        // Given a task with a title and a description
+        Task task = new Task(TITLE, "The description");
+        mLocalDataSource.saveTask(task);
+
+        // When it is completed from the list, which only has its summary
+        mLocalDataSource.completeTask(task.toSummary());
+
+        // Then the outbox entry, which the replay sends as a full save, keeps the description
+        List<OutboxEntry> entries = mDatabase.outboxDao().getOldestEntries(10);
+        Task sentTask = entries.get(entries.size() - 1).toTask();
+        assertThat(sentTask.getDescription(), is("The description"));
+        assertThat(sentTask.isCompleted(), is(true));
+    }
+
+    @Test
+    public void restoreDeletedTasks_bringsBackClearedTasksAndQueuesThem() {
+        // Given a completed and an active task, and the completed tasks cleared
+        final Task completedTask = new Task(TITLE, "", true);
+        mLocalDataSource.saveTask(completedTask);
+        final Task activeTask = new Task(TITLE2, "");
+        mLocalDataSource.saveTask(activeTask);
+        mLocalDataSource.clearCompletedTasks();
+        int outboxEntries = mDatabase.outboxDao().getEntryCount();
+
+        // When the clear is undone
+        mLocalDataSource.restoreDeletedTasks();
+
+        // Then the completed task is back, and queued to be saved on the backend again
+        TasksDataSource.GetTaskCallback callback = mock(TasksDataSource.GetTaskCallback.class);
+        mLocalDataSource.getTask(completedTask.getId(), callback);
+        verify(callback).onTaskLoaded(completedTask);
+        assertThat(mDatabase.outboxDao().getEntryCount(), is(outboxEntries + 1));
+    }
+
+    @Test
+    public void clearCompletedTasks_purgesRowsOfTheDeletionBefore() {
+        // Given a task cleared twice over
+        mLocalDataSource.saveTask(new Task(TITLE, "", true));
+        mLocalDataSource.clearCompletedTasks();
+        Task secondTask = new Task(TITLE2, "", true);
+        mLocalDataSource.saveTask(secondTask);
+        mLocalDataSource.clearCompletedTasks();
+
+        // When the latest clear is undone
+        mLocalDataSource.restoreDeletedTasks();
+
+        // Then its task is back, and the row of the clear before was purged
+        assertThat(mDatabase.taskDao().getTasks(), is(Collections.singletonList(secondTask)));
+        assertThat(countRows(), is(1));
+    }
+
+    @Test
+    public void deleteAllTasks_manyTasks_purgedInBatches() {
+        // Given more tasks than a purge batch
+        int taskCount = TasksLocalDataSource.PURGE_BATCH_SIZE * 2 + 1;
+        for (int i = 0; i < taskCount; i++) {
+            mLocalDataSource.saveTask(new Task(TITLE + i, ""));
+        }
+
+        // When they are all deleted, then a task is deleted so the delete can't be undone anymore
+        mLocalDataSource.deleteAllTasks();
+        assertThat(countRows(), is(taskCount));
+        Task task = new Task(TITLE2, "");
+        mLocalDataSource.saveTask(task);
+        mLocalDataSource.deleteTask(task.getId());
+
+        // Then every hidden row is purged, a batch at a time
+        assertThat(countRows(), is(0));
+    }
+
     @Test
     public void deleteAllTasks_emptyListOfRetrievedTask() {
         // Given a new task in the persistent repository and a mocked callback
@@ -242,4 +346,242 @@ public class TasksLocalDataSourceTest {
             }
         });
     }
+
+    @Test
+    public void applyTaskChanges_updatesChangedAndDeletesTombstonedTasks() {
+        // Given 2 tasks that came from the backend
+        Task task1 = new Task(TITLE, "", "1", false, 100);
+        Task task2 = new Task(TITLE2, "", "2", false, 200);
+        mLocalDataSource.replaceAllTasks(Arrays.asList(task1, task2));
+
+        // When the changes since then say that task 1 was completed and task 2 was deleted
+        TaskChanges changes = new TaskChanges(
+                Collections.singletonList(new Task(TITLE, "", "1", true, 300)),
+                Collections.singletonList("2"), 300);
+        TasksDataSource.LoadTaskChangesCallback callback =
+                mock(TasksDataSource.LoadTaskChangesCallback.class);
+        mLocalDataSource.applyTaskChanges(changes, callback);
+
+        // Then only the changed task is left, with its new state
+        List<Task> tasks = mDatabase.taskDao().getTasks();
+        assertThat(tasks.size(), is(1));
+        assertThat(tasks.get(0).isCompleted(), is(true));
+        assertThat(tasks.get(0).getUpdatedAt(), is(300L));
+        verify(callback).onTaskChangesLoaded(any(TaskChanges.class));
+    }
+
+    @Test
+    public void applyTaskChanges_skipsTasksWithPendingChanges() {
+        // Given a task saved locally that wasn't sent to the remote yet
+        Task task = new Task(TITLE, "", "1", false, 100);
+        mLocalDataSource.saveTask(task);
+
+        // When a change to it comes from the backend
+        TasksDataSource.LoadTaskChangesCallback callback =
+                mock(TasksDataSource.LoadTaskChangesCallback.class);
+        mLocalDataSource.applyTaskChanges(new TaskChanges(
+                Collections.singletonList(new Task(TITLE2, "", "1", true, 300)),
+                Collections.<String>emptyList(), 300), callback);
+
+        // Then the local state is kept, and the callback is told nothing was applied
+        assertThat(mDatabase.taskDao().getTaskById("1").getTitle(), is(TITLE));
+        ArgumentCaptor<TaskChanges> applied = ArgumentCaptor.forClass(TaskChanges.class);
+        verify(callback).onTaskChangesLoaded(applied.capture());
+        assertThat(applied.getValue().isEmpty(), is(true));
+    }
+
+    @Test
+    public void searchTasks_ranksTitleMatchesFirst() {
+        // Given a task with the word in its description and a later one with it in its title
+        Task inDescription = new Task(TITLE, "Buy milk", "1", false, 100);
+        Task inTitle = new Task("Milk the cow", "", "2", false, 200);
+        Task other = new Task(TITLE2, "Eggs", "3", false, 300);
+        mLocalDataSource.saveTask(inDescription);
+        mLocalDataSource.saveTask(inTitle);
+        mLocalDataSource.saveTask(other);
+
+        // When searching for the start of the word
+        TasksDataSource.LoadTasksCallback callback = mock(TasksDataSource.LoadTasksCallback.class);
+        mLocalDataSource.searchTasks("mil", callback);
+
+        // Then both matches are found as summaries, the title match first
+        verify(callback).onTasksLoaded(
+                Arrays.asList(inTitle.toSummary(), inDescription.toSummary()));
+    }
+
+    @Test
+    public void searchTasks_afterTaskIsSavedAgain_findsItOnce() {
+        // Given a task that was saved with a new title
+        mLocalDataSource.saveTask(new Task("Walk the dog", "", "1", false, 100));
+        mLocalDataSource.saveTask(new Task("Walk the cat", "", "1", false, 200));
+
+        // Then the search finds it by its new title only, once
+        TasksDataSource.LoadTasksCallback callback = mock(TasksDataSource.LoadTasksCallback.class);
+        mLocalDataSource.searchTasks("walk", callback);
+        verify(callback).onTasksLoaded(Collections.singletonList(
+                new Task("Walk the cat", "", "1", false, 200).toSummary()));
+
+        TasksDataSource.LoadTasksCallback dogCallback =
+                mock(TasksDataSource.LoadTasksCallback.class);
+        mLocalDataSource.searchTasks("dog", dogCallback);
+        verify(dogCallback).onTasksLoaded(Collections.<Task>emptyList());
+    }
+
+    @Test
+    public void oldCompletedTask_isArchived_andOnlyReadForCompletedTasksAndSearch() {
+        // Given a task completed long ago, one completed just now and an old active one
+        Task oldTask = new Task("Paint the fence", "White", "1", true, 1000);
+        Task recentTask = new Task(TITLE2, "", "2", true, System.currentTimeMillis());
+        Task activeTask = new Task(TITLE3, "", "3", false, 1000);
+        mLocalDataSource.saveTask(oldTask);
+        mLocalDataSource.saveTask(recentTask);
+        mLocalDataSource.saveTask(activeTask);
+
+        // When the app starts again
+        restartDataSource();
+
+        // Then the old completed task has left the tasks table
+        assertThat(mDatabase.taskDao().getTasks(), is(Arrays.asList(recentTask, activeTask)));
+        // And it is still one of the completed tasks, found by search and opened by id
+        TasksDataSource.LoadTasksCallback completedCallback =
+                mock(TasksDataSource.LoadTasksCallback.class);
+        mLocalDataSource.getTasksByCompleted(true, completedCallback);
+        verify(completedCallback).onTasksLoaded(
+                Arrays.asList(recentTask.toSummary(), oldTask.toSummary()));
+        TasksDataSource.LoadTasksCallback searchCallback =
+                mock(TasksDataSource.LoadTasksCallback.class);
+        mLocalDataSource.searchTasks("fence", searchCallback);
+        verify(searchCallback).onTasksLoaded(Collections.singletonList(oldTask.toSummary()));
+        TasksDataSource.GetTaskCallback taskCallback = mock(TasksDataSource.GetTaskCallback.class);
+        mLocalDataSource.getTask("1", taskCallback);
+        verify(taskCallback).onTaskLoaded(oldTask);
+    }
+
+    @Test
+    public void getTaskCounts_countsArchivedTasksAsCompleted() {
+        // Given an archived task, a recent completed one and an active one
+        mLocalDataSource.saveTask(new Task(TITLE, "", "1", true, 1000));
+        mLocalDataSource.saveTask(new Task(TITLE2, "", "2", true, System.currentTimeMillis()));
+        mLocalDataSource.saveTask(new Task(TITLE3, "", "3", false, 1000));
+        restartDataSource();
+
+        // When the tasks are counted
+        TasksDataSource.LoadTaskCountsCallback callback =
+                mock(TasksDataSource.LoadTaskCountsCallback.class);
+        mLocalDataSource.getTaskCounts(callback);
+
+        // Then the archived task is one of the completed ones
+        verify(callback).onTaskCountsLoaded(1, 2);
+    }
+
+    @Test
+    public void activateTask_archivedTask_movesItBack() {
+        // Given an archived task
+        Task oldTask = new Task(TITLE, "", "1", true, 1000);
+        mLocalDataSource.saveTask(oldTask);
+        restartDataSource();
+        assertThat(countRows(), is(0));
+
+        // When it is activated
+        mLocalDataSource.activateTask(oldTask);
+
+        // Then it is an active task in the tasks table again
+        List<Task> tasks = mDatabase.taskDao().getTasks();
+        assertThat(tasks, is(Collections.singletonList(oldTask)));
+        assertThat(tasks.get(0).isCompleted(), is(false));
+        TasksDataSource.LoadTasksCallback callback = mock(TasksDataSource.LoadTasksCallback.class);
+        mLocalDataSource.getTasksByCompleted(true, callback);
+        verify(callback).onDataNotAvailable();
+    }
+
+    @Test
+    public void clearCompletedTasks_clearsArchivedTasks_andUndoBringsThemBack() {
+        // Given an archived task
+        Task oldTask = new Task(TITLE, "", "1", true, 1000);
+        mLocalDataSource.saveTask(oldTask);
+        restartDataSource();
+
+        // When the completed tasks are cleared
+        mLocalDataSource.clearCompletedTasks();
+
+        // Then it is hidden where it is, gone from the completed tasks and from search
+        assertThat(countRows(), is(0));
+        TasksDataSource.LoadTasksCallback callback = mock(TasksDataSource.LoadTasksCallback.class);
+        mLocalDataSource.getTasksByCompleted(true, callback);
+        verify(callback).onDataNotAvailable();
+        TasksDataSource.LoadTasksCallback searchCallback =
+                mock(TasksDataSource.LoadTasksCallback.class);
+        mLocalDataSource.searchTasks(TITLE, searchCallback);
+        verify(searchCallback).onTasksLoaded(Collections.<Task>emptyList());
+
+        // And undoing the clear brings it back, still archived
+        mLocalDataSource.restoreDeletedTasks();
+        assertThat(countRows(), is(0));
+        TasksDataSource.LoadTasksCallback restoredCallback =
+                mock(TasksDataSource.LoadTasksCallback.class);
+        mLocalDataSource.getTasksByCompleted(true, restoredCallback);
+        verify(restoredCallback).onTasksLoaded(Collections.singletonList(oldTask.toSummary()));
+    }
+
+    @Test
+    public void clearCompletedTasks_archivedTasksArePurgedOnceTheUndoIsGone() {
+        // Given an archived task, cleared
+        mLocalDataSource.saveTask(new Task(TITLE, "", "1", true, 1000));
+        restartDataSource();
+        mLocalDataSource.clearCompletedTasks();
+
+        // When the app starts again, which can't undo the clear anymore
+        restartDataSource();
+
+        // Then its row is deleted for good
+        assertThat(countArchivedRows("1"), is(0));
+    }
+
+    @Test
+    public void deleteTask_archivedTask_isHiddenUntilThePurge() {
+        // Given an archived task
+        mLocalDataSource.saveTask(new Task(TITLE, "", "1", true, 1000));
+        restartDataSource();
+
+        // When it is deleted
+        mLocalDataSource.deleteTask("1");
+
+        // Then it is gone from the completed tasks, but its row is only marked
+        TasksDataSource.LoadTasksCallback callback = mock(TasksDataSource.LoadTasksCallback.class);
+        mLocalDataSource.getTasksByCompleted(true, callback);
+        verify(callback).onDataNotAvailable();
+        assertThat(countArchivedRows("deletion != 0"), is(1));
+
+        // And the next purge deletes it for good
+        restartDataSource();
+        assertThat(countArchivedRows("1"), is(0));
+    }
+
+    /**
+     * A new instance schedules the work left for after the app starts: the purge and archiving.
+     */
+    private void restartDataSource() {
+        TasksLocalDataSource.clearInstance();
+        mLocalDataSource = TasksLocalDataSource.getInstance(new SingleExecutors(), mDatabase);
+    }
+
+    private int countArchivedRows(String where) {
+        Cursor cursor = mDatabase.query("SELECT COUNT(*) FROM archived_tasks WHERE " + where, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countRows() {
+        Cursor cursor = mDatabase.query("SELECT COUNT(*) FROM tasks", null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
 }
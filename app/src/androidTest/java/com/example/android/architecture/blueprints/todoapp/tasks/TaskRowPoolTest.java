@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.tasks;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+
+import android.app.Instrumentation;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.CheckBox;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import com.example.android.architecture.blueprints.todoapp.R;
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link TaskRowPool}.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class TaskRowPoolTest {
+
+    private Instrumentation mInstrumentation;
+
+    private ContextThemeWrapper mContext;
+
+    private FrameLayout mParent;
+
+    private int mRowCount;
+
+    @Before
+    public void setup() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mContext = new ContextThemeWrapper(InstrumentationRegistry.getTargetContext(),
+                R.style.AppTheme);
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mParent = new FrameLayout(mContext);
+            }
+        });
+        mRowCount = TaskRowPool.getVisibleRowCount(mContext);
+    }
+
+    @Test
+    public void pool_inflatesOneScreenOfRows() {
+        TaskRowPool pool = createFilledPool();
+
+        assertThat(pool.size(), is(mRowCount));
+        for (int i = 0; i < mRowCount; i++) {
+            View row = pool.obtain();
+            assertNotNull(row);
+            assertNotNull(row.findViewById(R.id.title));
+        }
+        assertThat(pool.obtain() == null, is(true));
+    }
+
+    /**
+     * Binds the first screen of rows like the first frame after the tasks arrive does.
+     */
+    @Test
+    public void firstScreenBind_inflatesNoRow() {
+        TaskRowPool pool = createFilledPool();
+
+        int inflated = bindFirstScreen(pool, createTasks("Pooled"));
+
+        // Every row came from the pool, which is used up
+        assertThat(inflated, is(0));
+        assertThat(pool.size(), is(0));
+    }
+
+    private TaskRowPool createFilledPool() {
+        final TaskRowPool[] pool = new TaskRowPool[1];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                pool[0] = new TaskRowPool(mContext, mParent);
+            }
+        });
+        for (int i = 0; i < 250 && pool[0].size() < mRowCount; i++) {
+            SystemClock.sleep(20);
+            mInstrumentation.waitForIdleSync();
+        }
+        return pool[0];
+    }
+
+    /**
+     * @return the number of rows that had to be inflated.
+     */
+    private int bindFirstScreen(final TaskRowPool pool, final List<Task> tasks) {
+        final int[] inflated = new int[1];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                int width = View.MeasureSpec.makeMeasureSpec(
+                        mContext.getResources().getDisplayMetrics().widthPixels,
+                        View.MeasureSpec.EXACTLY);
+                int height = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED);
+                LayoutInflater inflater = LayoutInflater.from(mContext);
+
+                for (Task task : tasks) {
+                    View row = pool.obtain();
+                    if (row == null) {
+                        row = inflater.inflate(R.layout.task_item, mParent, false);
+                        inflated[0]++;
+                    }
+                    ((TextView) row.findViewById(R.id.title)).setText(task.getTitleForList());
+                    ((CheckBox) row.findViewById(R.id.complete)).setChecked(task.isCompleted());
+                    row.measure(width, height);
+                    row.layout(0, 0, row.getMeasuredWidth(), row.getMeasuredHeight());
+                }
+            }
+        });
+        return inflated[0];
+    }
+
+    private List<Task> createTasks(String prefix) {
+        List<Task> tasks = new ArrayList<>(mRowCount);
+        for (int i = 0; i < mRowCount; i++) {
+            tasks.add(new Task(prefix + " errand number " + i + " before lunch", "", i % 4 == 0));
+        }
+        return tasks;
+    }
+}
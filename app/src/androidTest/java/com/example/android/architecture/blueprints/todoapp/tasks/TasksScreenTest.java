@@ -17,13 +17,15 @@
 package com.example.android.architecture.blueprints.todoapp.tasks;
 
 import android.support.test.InstrumentationRegistry;
+import android.support.test.espresso.NoMatchingViewException;
+import android.support.test.espresso.ViewAssertion;
 import android.support.test.filters.SdkSuppress;
 import android.support.test.rule.ActivityTestRule;
 import android.support.test.runner.AndroidJUnit4;
 import android.support.test.filters.LargeTest;
+import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
 import android.view.View;
-import android.widget.ListView;
 
 import com.example.android.architecture.blueprints.todoapp.Injection;
 import com.example.android.architecture.blueprints.todoapp.R;
@@ -96,11 +98,11 @@ public class TasksScreenTest {
             };
 
     /**
-     * A custom {@link Matcher} which matches an item in a {@link ListView} by its text.
+     * A custom {@link Matcher} which matches an item in a {@link RecyclerView} by its text.
      * <p>
      * View constraints:
      * <ul>
-     * <li>View must be a child of a {@link ListView}
+     * <li>View must be a child of a {@link RecyclerView}
      * <ul>
      *
      * @param itemText the text to match
@@ -112,13 +114,29 @@ public class TasksScreenTest {
             @Override
             public boolean matchesSafely(View item) {
                 return allOf(
-                        isDescendantOfA(isAssignableFrom(ListView.class)),
+                        isDescendantOfA(isAssignableFrom(RecyclerView.class)),
                         withText(itemText)).matches(item);
             }
 
             @Override
             public void describeTo(Description description) {
-                description.appendText("is isDescendantOfA LV with text " + itemText);
+                description.appendText("is isDescendantOfA RV with text " + itemText);
+            }
+        };
+    }
+
+    /**
+     * Checks that a task row isn't shown. Rows that leave the {@link RecyclerView} are recycled,
+     * so unlike ListView rows they are usually gone from the hierarchy, or not displayed
+     * while their removal is still running.
+     */
+    private static ViewAssertion isNotShown() {
+        return new ViewAssertion() {
+            @Override
+            public void check(View view, NoMatchingViewException noViewFoundException) {
+                if (view != null) {
+                    matches(not(isDisplayed())).check(view, noViewFoundException);
+                }
             }
         };
     }
@@ -184,7 +202,7 @@ public class TasksScreenTest {
         viewAllTasks();
         onView(withItemText(TITLE1)).check(matches(isDisplayed()));
         viewActiveTasks();
-        onView(withItemText(TITLE1)).check(matches(not(isDisplayed())));
+        onView(withItemText(TITLE1)).check(isNotShown());
         viewCompletedTasks();
         onView(withItemText(TITLE1)).check(matches(isDisplayed()));
     }
@@ -206,7 +224,7 @@ public class TasksScreenTest {
         viewActiveTasks();
         onView(withItemText(TITLE1)).check(matches(isDisplayed()));
         viewCompletedTasks();
-        onView(withItemText(TITLE1)).check(matches(not(isDisplayed())));
+        onView(withItemText(TITLE1)).check(isNotShown());
     }
 
     @Test
@@ -262,8 +280,8 @@ public class TasksScreenTest {
         onView(withText(R.string.menu_clear)).perform(click());
 
         //Verify that completed tasks are not shown
-        onView(withItemText(TITLE1)).check(matches(not(isDisplayed())));
-        onView(withItemText(TITLE2)).check(matches(not(isDisplayed())));
+        onView(withItemText(TITLE1)).check(isNotShown());
+        onView(withItemText(TITLE2)).check(isNotShown());
     }
 
     @Test
@@ -281,7 +299,7 @@ public class TasksScreenTest {
 
         // Verify it was deleted
         viewAllTasks();
-        onView(withText(TITLE1)).check(matches(not(isDisplayed())));
+        onView(withText(TITLE1)).check(isNotShown());
     }
 
     @Test
@@ -405,7 +423,7 @@ public class TasksScreenTest {
         viewActiveTasks();
 
         // then no tasks should appear
-        onView(withText(TITLE1)).check(matches(not(isDisplayed())));
+        onView(withText(TITLE1)).check(isNotShown());
 
         // when rotating the screen
         TestUtils.rotateOrientation(mTasksActivityTestRule.getActivity());
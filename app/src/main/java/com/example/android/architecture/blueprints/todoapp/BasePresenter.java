@@ -20,4 +20,11 @@ public interface BasePresenter {
 
     void start(); //一个开始的方法,每一个Presenter都应该具备的能力
 
+    /**
+     * Called when the view goes inactive. Pending reads are cancelled and their callbacks let go
+     * of, so they don't keep the view in memory. {@link #start()} is called again when it comes
+     * back.
+     */
+    void stop(); //和start()对应，View不可见时调用
+
 }
@@ -34,6 +34,8 @@ public interface AddEditTaskContract {
 
         void showTasksList(); //界面上展示Task列表吗？对的，就是这样的业务。View上就是把EditTask页面要关闭掉，就会展示TasksList页
 
+        void showSaveError(); //保存失败了，留在编辑页，输入的内容还在，可以再点一次保存
+
         void setTitle(String title); //设置标题，业务逻辑上，不同的入口进来后，AddEditTask页面要根据是新建、还是编辑、展示对应的标题
 
         void setDescription(String description); //设置Task详情，在业务上，当进入AddEditTask页后，如果是编辑，View上需要展示要编辑的内容
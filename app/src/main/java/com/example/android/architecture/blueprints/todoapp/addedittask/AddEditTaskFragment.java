@@ -72,6 +72,12 @@ public class AddEditTaskFragment extends Fragment implements AddEditTaskContract
         //我这么理解比较风骚
     }
 
+    @Override
+    public void onPause() {
+        mPresenter.stop(); //View不可见了，还没回来的请求就不要了，免得回调一直拉着fragment
+        super.onPause();
+    }
+
     /**
      * 嘿嘿，就是这个方法，在AddEditTaskPresenter的构造方法里调用，而AddEditTaskPresenter是在AddEditTaskActivity创建的哦
      * @param presenter
@@ -126,6 +132,11 @@ public class AddEditTaskFragment extends Fragment implements AddEditTaskContract
         Snackbar.make(mTitle, getString(R.string.empty_task_message), Snackbar.LENGTH_LONG).show();
     }
 
+    @Override
+    public void showSaveError() {
+        Snackbar.make(mTitle, getString(R.string.saving_task_error), Snackbar.LENGTH_LONG).show();
+    }
+
     /**
      *  展示TasksList，怎么展示呢，把当前的EditTaskActivity，finish掉
      */
@@ -20,7 +20,10 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.Cancellable;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
+import com.example.android.architecture.blueprints.todoapp.util.EspressoIdlingResource;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -33,7 +36,7 @@ public class AddEditTaskPresenter implements AddEditTaskContract.Presenter,
         TasksDataSource.GetTaskCallback {
 
     @NonNull
-    private final TasksDataSource mTasksRepository; //Task仓库对象，TasksDataSource
+    private final TasksRepository mTasksRepository; //Task仓库对象，保存时要选持久化级别
 
     @NonNull
     private final AddEditTaskContract.View mAddTaskView; //AddEditTaskContract.View对象
@@ -43,6 +46,9 @@ public class AddEditTaskPresenter implements AddEditTaskContract.Presenter,
 
     private boolean mIsDataMissing; //是否数据丢失的标志位
 
+    @Nullable
+    private Cancellable mPopulateRequest; //最近一次从仓库拿Task的请求
+
     /**
      * Creates a presenter for the add/edit view.
      *
@@ -51,7 +57,7 @@ public class AddEditTaskPresenter implements AddEditTaskContract.Presenter,
      * @param addTaskView the add/edit view
      * @param shouldLoadDataFromRepo whether data needs to be loaded or not (for config changes)
      */
-    public AddEditTaskPresenter(@Nullable String taskId, @NonNull TasksDataSource tasksRepository,
+    public AddEditTaskPresenter(@Nullable String taskId, @NonNull TasksRepository tasksRepository,
             @NonNull AddEditTaskContract.View addTaskView, boolean shouldLoadDataFromRepo) {
         mTaskId = taskId; //传进来的Task id
         mTasksRepository = checkNotNull(tasksRepository); //传进来的Tasks仓库对象
@@ -72,6 +78,13 @@ public class AddEditTaskPresenter implements AddEditTaskContract.Presenter,
         }
     }
 
+    @Override
+    public void stop() {
+        if (mPopulateRequest != null) {
+            mPopulateRequest.cancel(); //mIsDataMissing还是true，回来的时候start()会重新拿
+        }
+    }
+
     /**
      * 保存Task
      * @param title 标题
@@ -94,7 +107,10 @@ public class AddEditTaskPresenter implements AddEditTaskContract.Presenter,
         if (isNewTask()) { //如果是新的Task
             throw new RuntimeException("populateTask() was called but task is new."); //抛出RuntimeException异常，提示为"populateTask() was called but task is new."
         }
-        mTasksRepository.getTask(mTaskId, this); //旧的Task，通过TaskId，调用Task仓库对象的getTask
+        if (mPopulateRequest != null) {
+            mPopulateRequest.cancel(); //上一次的还没回来的话，结果就不要了
+        }
+        mPopulateRequest = mTasksRepository.getTask(mTaskId, this); //旧的Task，通过TaskId，调用Task仓库对象的getTask
         //getTask方法需要一个GetTaskCallback对象，我们传this进去就可以了，因为 AddEditTaskPresenter 实现了GetTaskCallback接口
     }
 
@@ -150,8 +166,7 @@ public class AddEditTaskPresenter implements AddEditTaskContract.Presenter,
         if (newTask.isEmpty()) { //判断Task是否为空
             mAddTaskView.showEmptyTaskError(); //如果为空，展示空Task的Error提示
         } else {  //不为空
-            mTasksRepository.saveTask(newTask); //放入Task仓库中，存储Task
-            mAddTaskView.showTasksList(); //马上finish掉当前的edit页，展示TasksList页
+            save(newTask); //放入Task仓库中，存储Task
         }
     }
 
@@ -164,7 +179,40 @@ public class AddEditTaskPresenter implements AddEditTaskContract.Presenter,
         if (isNewTask()) { //如果是新的Task
             throw new RuntimeException("updateTask() was called but task is new."); //直接抛出RuntimeException异常，给的描述："updateTask() was called but task is new."
         }
-        mTasksRepository.saveTask(new Task(title, description, mTaskId)); //去仓库保存Task
-        mAddTaskView.showTasksList(); // After an edit, go back to the list. //更新完了之后，back返回到Task列表页
+        save(new Task(title, description, mTaskId)); //去仓库保存Task
+    }
+
+    /**
+     * Goes back to the list once the task is committed locally, so a failed write can still be
+     * reported here, with what was typed kept to try again. The commit is a single short
+     * transaction, the list then shows the task from the cache.
+     */
+    private void save(Task task) {
+        // The app is busy until the write lands, Espresso waits for it
+        EspressoIdlingResource.increment();
+        mTasksRepository.saveTask(task, TasksRepository.Durability.LOCAL,
+                new TasksDataSource.WriteCallback() {
+                    @Override
+                    public void onWriteCompleted() {
+                        writeDone();
+                        if (mAddTaskView.isActive()) {
+                            mAddTaskView.showTasksList(); // After an edit, go back to the list. //写进数据库了再返回到Task列表页
+                        }
+                    }
+
+                    @Override
+                    public void onWriteFailed() {
+                        writeDone();
+                        if (mAddTaskView.isActive()) {
+                            mAddTaskView.showSaveError();
+                        }
+                    }
+                });
+    }
+
+    private static void writeDone() {
+        if (!EspressoIdlingResource.getIdlingResource().isIdleNow()) {
+            EspressoIdlingResource.decrement();
+        }
     }
 }
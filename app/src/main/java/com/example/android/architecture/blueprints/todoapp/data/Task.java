@@ -19,6 +19,7 @@ package com.example.android.architecture.blueprints.todoapp.data;
 import android.arch.persistence.room.ColumnInfo;
 import android.arch.persistence.room.Entity;
 import android.arch.persistence.room.Ignore;
+import android.arch.persistence.room.Index;
 import android.arch.persistence.room.PrimaryKey;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -26,12 +27,10 @@ import android.support.annotation.Nullable;
 import com.google.common.base.Objects;
 import com.google.common.base.Strings;
 
-import java.util.UUID;
-
 /**
  * Immutable model class for a Task.
  */
-@Entity(tableName = "tasks") //表结构，Task，即是表结构，每一个对象又代表一条记录
+@Entity(tableName = "tasks", indices = {@Index("completed")}) //表结构，Task，即是表结构，每一个对象又代表一条记录
 public final class Task {
 
     @PrimaryKey
@@ -50,6 +49,15 @@ public final class Task {
     @ColumnInfo(name = "completed")
     private final boolean mCompleted; //完成状态，Task的状态
 
+    @ColumnInfo(name = "updatedat")
+    private final long mUpdatedAt; //最后修改时间，增量同步用它和水位线比较
+
+    @ColumnInfo(name = "deletion")
+    private final long mDeletion; //软删除标记，0表示没删
+
+    @Ignore
+    private final boolean mSummary; //列表用的精简版，没有加载详细描述
+
 
 
 
@@ -61,7 +69,7 @@ public final class Task {
      */
     @Ignore
     public Task(@Nullable String title, @Nullable String description) {
-        this(title, description, UUID.randomUUID().toString(), false);
+        this(title, description, TaskId.newId(), false);
     }
 
     /**
@@ -86,7 +94,7 @@ public final class Task {
      */
     @Ignore
     public Task(@Nullable String title, @Nullable String description, boolean completed) {
-        this(title, description, UUID.randomUUID().toString(), completed);
+        this(title, description, TaskId.newId(), completed);
     }
 
     /**
@@ -98,12 +106,60 @@ public final class Task {
      * @param id          id of the task           唯一的id
      * @param completed   true if the task is completed, false if it's active 任务状态（是否活跃）
      */
+    @Ignore
     public Task(@Nullable String title, @Nullable String description,
                 @NonNull String id, boolean completed) {
+        this(title, description, id, completed, System.currentTimeMillis());
+    }
+
+    /**
+     * Use this constructor to keep the modification time of a Task, for example when it comes
+     * from the database or from the backend.
+     * 五个参数的构造方法
+     * @param title       title of the task
+     * @param description description of the task
+     * @param id          id of the task
+     * @param completed   true if the task is completed, false if it's active
+     * @param updatedAt   time of the last change, in milliseconds since the epoch
+     */
+    @Ignore
+    public Task(@Nullable String title, @Nullable String description,
+                @NonNull String id, boolean completed, long updatedAt) {
+        this(title, description, id, completed, updatedAt, 0, false);
+    }
+
+    /**
+     * Used by Room, which also reads the soft-delete marker of the row. See
+     * {@link #getDeletion()}.
+     * 六个参数的构造方法，Room用的就是它
+     */
+    public Task(@Nullable String title, @Nullable String description,
+                @NonNull String id, boolean completed, long updatedAt, long deletion) {
+        this(title, description, id, completed, updatedAt, deletion, false);
+    }
+
+    @Ignore
+    private Task(@Nullable String title, @Nullable String description,
+                 @NonNull String id, boolean completed, long updatedAt, long deletion,
+                 boolean summary) {
         mId = id;
         mTitle = title;
         mDescription = description;
         mCompleted = completed;
+        mUpdatedAt = updatedAt;
+        mDeletion = deletion;
+        mSummary = summary;
+    }
+
+    /**
+     * Creates the summary of a task, as read for the list. The description is only kept when
+     * the title is empty, since the list then shows the description instead.
+     * 列表用的精简版Task，详细描述要用的时候再加载
+     */
+    public static Task summaryOf(@Nullable String title, @Nullable String description,
+                                 @NonNull String id, boolean completed, long updatedAt) {
+        return new Task(title, Strings.isNullOrEmpty(title) ? description : null, id, completed,
+                updatedAt, 0, true);
     }
 
     /**
@@ -165,6 +221,51 @@ public final class Task {
         return mCompleted;
     }
 
+    /**
+     * The time of the last change. Tasks stored by the backend carry the time the backend
+     * accepted the change, which is what sync watermarks are compared against.
+     * @return 最后修改时间
+     */
+    public long getUpdatedAt() {
+        return mUpdatedAt;
+    }
+
+    /**
+     * The soft-delete marker of the stored row: 0 for a live task, otherwise the number of the
+     * clear or delete that hid it, which can still be undone. Reads skip hidden rows, so every
+     * task the app gets is live.
+     * @return 软删除标记
+     */
+    public long getDeletion() {
+        return mDeletion;
+    }
+
+    /**
+     * A summary has everything the list shows, but its description may be missing. Load the task
+     * by id when the description is needed.
+     * @return 是否只是列表用的精简版
+     */
+    public boolean isSummary() {
+        return mSummary;
+    }
+
+    /**
+     * @return the summary of this task, or the task itself if it is one
+     */
+    public Task toSummary() {
+        return mSummary ? this : summaryOf(mTitle, mDescription, mId, mCompleted, mUpdatedAt);
+    }
+
+    /**
+     * Marks the task completed or active now. A summary stays a summary, so a missing
+     * description isn't mistaken for an empty one.
+     * @return 修改了完成状态的新Task
+     */
+    public Task withCompleted(boolean completed) {
+        return new Task(mTitle, mDescription, mId, completed, System.currentTimeMillis(), 0,
+                mSummary);
+    }
+
     /**
      *
      * @return 如果不是完成状态，那就是代表是活跃状态
@@ -0,0 +1,461 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.common.base.Charsets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact binary format for batches of {@link Task}s, for sync payloads and snapshot files.
+ * <p>
+ * A batch is a 4 byte header (magic, version, flags) followed by the records, optionally
+ * deflated, and an end marker. Each record is:
+ * <ul>
+ * <li>a flags byte (completed, id form, title present, description present),</li>
+ * <li>the id, as 16 bytes when it is a canonical ULID or UUID (see {@link TaskId}) and as a
+ * string otherwise,</li>
+ * <li>the title and the description, through a string dictionary so that repeated values only
+ * cost a varint reference,</li>
+ * <li>the modification time, as a zigzag varint delta from the previous record.</li>
+ * </ul>
+ * Strings are UTF-8 with a varint length. 任务批量的二进制编码，比JSON小很多
+ */
+public final class TaskBatchCodec {
+
+    private static final byte MAGIC_0 = 'T';
+
+    private static final byte MAGIC_1 = 'B';
+
+    private static final byte VERSION = 1;
+
+    private static final byte HEADER_COMPRESSED = 0x01;
+
+    private static final int RECORD_COMPLETED = 0x01;
+
+    private static final int RECORD_BINARY_ID = 0x02;
+
+    private static final int RECORD_HAS_TITLE = 0x04;
+
+    private static final int RECORD_HAS_DESCRIPTION = 0x08;
+
+    private static final int RECORD_ULID_ID = 0x10;
+
+    private static final int RECORD_END = 0x80;
+
+    /**
+     * Caps the memory used by the dictionary on both sides. Strings seen after the dictionary is
+     * full are written as literals.
+     */
+    private static final int MAX_DICTIONARY_SIZE = 4096;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private TaskBatchCodec() {
+        // Only static helpers and the nested reader and writer.
+    }
+
+    /**
+     * Encodes a whole batch in memory.
+     */
+    @NonNull
+    public static byte[] encode(@NonNull List<Task> tasks, boolean compress) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            Writer writer = new Writer(out, compress);
+            for (Task task : tasks) {
+                writer.write(task);
+            }
+            writer.close();
+        } catch (IOException e) {
+            // A ByteArrayOutputStream never throws.
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a whole batch in memory.
+     *
+     * @throws IOException if the bytes are not a valid batch.
+     */
+    @NonNull
+    public static List<Task> decode(@NonNull byte[] bytes) throws IOException {
+        Reader reader = new Reader(new ByteArrayInputStream(bytes));
+        try {
+            return reader.readAll();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Streams tasks into a batch. {@link #close()} writes the end marker and closes the
+     * underlying stream.
+     */
+    public static final class Writer implements Closeable {
+
+        private final OutputStream mOut;
+
+        @Nullable
+        private final Deflater mDeflater;
+
+        // Records are assembled here, so the underlying stream only sees large writes.
+        private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+        private int mCount;
+
+        private final Map<String, Integer> mDictionary = new HashMap<>();
+
+        private long mLastUpdatedAt;
+
+        private boolean mClosed;
+
+        public Writer(@NonNull OutputStream out, boolean compress) throws IOException {
+            checkNotNull(out);
+            out.write(new byte[] {MAGIC_0, MAGIC_1, VERSION, compress ? HEADER_COMPRESSED : 0});
+            if (compress) {
+                mDeflater = new Deflater(Deflater.BEST_SPEED);
+                mOut = new DeflaterOutputStream(out, mDeflater, BUFFER_SIZE);
+            } else {
+                mDeflater = null;
+                mOut = out;
+            }
+        }
+
+        public void write(@NonNull Task task) throws IOException {
+            checkNotNull(task);
+            if (mClosed) {
+                throw new IOException("Writer is closed");
+            }
+            int flags = 0;
+            UUID bits = TaskId.parseUlid(task.getId());
+            if (bits != null) {
+                flags |= RECORD_ULID_ID;
+            } else {
+                bits = TaskId.parseUuid(task.getId());
+                if (bits != null) {
+                    flags |= RECORD_BINARY_ID;
+                }
+            }
+            if (task.isCompleted()) {
+                flags |= RECORD_COMPLETED;
+            }
+            if (task.getTitle() != null) {
+                flags |= RECORD_HAS_TITLE;
+            }
+            if (task.getDescription() != null) {
+                flags |= RECORD_HAS_DESCRIPTION;
+            }
+            ensureCapacity(1 + 16);
+            mBuffer[mCount++] = (byte) flags;
+
+            if (bits != null) {
+                writeLong(bits.getMostSignificantBits());
+                writeLong(bits.getLeastSignificantBits());
+            } else {
+                writeLiteral(task.getId());
+            }
+            if (task.getTitle() != null) {
+                writeString(task.getTitle());
+            }
+            if (task.getDescription() != null) {
+                writeString(task.getDescription());
+            }
+            long delta = task.getUpdatedAt() - mLastUpdatedAt;
+            writeVarLong((delta << 1) ^ (delta >> 63)); //zigzag，时间可能往回走
+            mLastUpdatedAt = task.getUpdatedAt();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                ensureCapacity(1);
+                mBuffer[mCount++] = (byte) RECORD_END;
+                flushBuffer();
+                mOut.close();
+            } finally {
+                if (mDeflater != null) {
+                    mDeflater.end();
+                }
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            Integer index = mDictionary.get(value);
+            if (index != null) {
+                writeVarLong(index + 1);
+                return;
+            }
+            writeVarLong(0);
+            writeLiteral(value);
+            if (mDictionary.size() < MAX_DICTIONARY_SIZE) {
+                mDictionary.put(value, mDictionary.size());
+            }
+        }
+
+        private void writeLiteral(String value) throws IOException {
+            byte[] bytes = value.getBytes(Charsets.UTF_8);
+            writeVarLong(bytes.length);
+            if (bytes.length > mBuffer.length - mCount) {
+                flushBuffer();
+                if (bytes.length > mBuffer.length) {
+                    mOut.write(bytes);
+                    return;
+                }
+            }
+            System.arraycopy(bytes, 0, mBuffer, mCount, bytes.length);
+            mCount += bytes.length;
+        }
+
+        private void writeLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                mBuffer[mCount++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                mBuffer[mCount++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mBuffer[mCount++] = (byte) value;
+        }
+
+        private void ensureCapacity(int bytes) throws IOException {
+            if (mBuffer.length - mCount < bytes) {
+                flushBuffer();
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            mOut.write(mBuffer, 0, mCount);
+            mCount = 0;
+        }
+    }
+
+    /**
+     * Streams tasks out of a batch, one at a time.
+     */
+    public static final class Reader implements Closeable {
+
+        private final InputStream mIn;
+
+        @Nullable
+        private final Inflater mInflater;
+
+        private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+        private int mPosition;
+
+        private int mLimit;
+
+        private final List<String> mDictionary = new ArrayList<>();
+
+        private long mLastUpdatedAt;
+
+        private boolean mFinished;
+
+        public Reader(@NonNull InputStream in) throws IOException {
+            checkNotNull(in);
+            if (in.read() != MAGIC_0 || in.read() != MAGIC_1) {
+                throw new IOException("Not a task batch");
+            }
+            int version = in.read();
+            if (version != VERSION) {
+                throw new IOException("Unsupported task batch version " + version);
+            }
+            int flags = in.read();
+            if (flags < 0) {
+                throw new EOFException();
+            }
+            if ((flags & HEADER_COMPRESSED) != 0) {
+                mInflater = new Inflater();
+                mIn = new InflaterInputStream(in, mInflater, BUFFER_SIZE);
+            } else {
+                mInflater = null;
+                mIn = in;
+            }
+        }
+
+        /**
+         * @return the next task, or null once the end of the batch was reached.
+         * @throws IOException if the batch is truncated or malformed.
+         */
+        @Nullable
+        public Task read() throws IOException {
+            if (mFinished) {
+                return null;
+            }
+            int flags = readByte();
+            if (flags == RECORD_END) {
+                mFinished = true;
+                return null;
+            }
+
+            String id;
+            if ((flags & RECORD_ULID_ID) != 0) {
+                id = TaskId.formatUlid(readLong(), readLong());
+            } else if ((flags & RECORD_BINARY_ID) != 0) {
+                id = new UUID(readLong(), readLong()).toString();
+            } else {
+                id = readLiteral();
+            }
+            String title = (flags & RECORD_HAS_TITLE) != 0 ? readString() : null;
+            String description = (flags & RECORD_HAS_DESCRIPTION) != 0 ? readString() : null;
+            long zigzag = readVarLong();
+            mLastUpdatedAt += (zigzag >>> 1) ^ -(zigzag & 1);
+            return new Task(title, description, id, (flags & RECORD_COMPLETED) != 0,
+                    mLastUpdatedAt);
+        }
+
+        @NonNull
+        public List<Task> readAll() throws IOException {
+            List<Task> tasks = new ArrayList<>();
+            Task task;
+            while ((task = read()) != null) {
+                tasks.add(task);
+            }
+            return tasks;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                mIn.close();
+            } finally {
+                if (mInflater != null) {
+                    mInflater.end();
+                }
+            }
+        }
+
+        private String readString() throws IOException {
+            long reference = readVarLong();
+            if (reference == 0) {
+                String value = readLiteral();
+                if (mDictionary.size() < MAX_DICTIONARY_SIZE) {
+                    mDictionary.add(value);
+                }
+                return value;
+            }
+            if (reference > mDictionary.size()) {
+                throw new IOException("Unknown dictionary entry " + reference);
+            }
+            return mDictionary.get((int) reference - 1);
+        }
+
+        private String readLiteral() throws IOException {
+            long length = readVarLong();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("String too long: " + length);
+            }
+            int size = (int) length;
+            if (size <= mBuffer.length) {
+                require(size);
+                String value = new String(mBuffer, mPosition, size, Charsets.UTF_8);
+                mPosition += size;
+                return value;
+            }
+            byte[] bytes = new byte[size];
+            int offset = mLimit - mPosition;
+            System.arraycopy(mBuffer, mPosition, bytes, 0, offset);
+            mPosition = mLimit;
+            while (offset < size) {
+                int count = mIn.read(bytes, offset, size - offset);
+                if (count < 0) {
+                    throw new EOFException();
+                }
+                offset += count;
+            }
+            return new String(bytes, Charsets.UTF_8);
+        }
+
+        private long readLong() throws IOException {
+            require(8);
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (mBuffer[mPosition++] & 0xFF);
+            }
+            return value;
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        private int readByte() throws IOException {
+            if (mPosition == mLimit) {
+                require(1);
+            }
+            return mBuffer[mPosition++] & 0xFF;
+        }
+
+        /**
+         * Makes sure the next {@code bytes} bytes are in the buffer.
+         */
+        private void require(int bytes) throws IOException {
+            if (mLimit - mPosition >= bytes) {
+                return;
+            }
+            int remaining = mLimit - mPosition;
+            System.arraycopy(mBuffer, mPosition, mBuffer, 0, remaining);
+            mPosition = 0;
+            mLimit = remaining;
+            while (mLimit < bytes) {
+                int count = mIn.read(mBuffer, mLimit, mBuffer.length - mLimit);
+                if (count < 0) {
+                    throw new EOFException();
+                }
+                mLimit += count;
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable set of changes made to the backend after a watermark.
+ * <p>
+ * Deleted tasks are reported as tombstones, i.e. only by id, so that a client that still holds
+ * them knows to drop them. 增量同步的结果：改过的Task、被删掉的Task id、新的水位线
+ */
+public final class TaskChanges {
+
+    @NonNull
+    private final List<Task> mChangedTasks;
+
+    @NonNull
+    private final List<String> mDeletedTaskIds;
+
+    private final long mWatermark;
+
+    /**
+     * @param changedTasks   tasks that were created or modified after the requested watermark.
+     * @param deletedTaskIds ids of the tasks that were deleted after the requested watermark.
+     * @param watermark      watermark to ask for the next changes with.
+     */
+    public TaskChanges(@NonNull List<Task> changedTasks, @NonNull List<String> deletedTaskIds,
+                       long watermark) {
+        mChangedTasks = Collections.unmodifiableList(checkNotNull(changedTasks));
+        mDeletedTaskIds = Collections.unmodifiableList(checkNotNull(deletedTaskIds));
+        mWatermark = watermark;
+    }
+
+    @NonNull
+    public List<Task> getChangedTasks() {
+        return mChangedTasks;
+    }
+
+    @NonNull
+    public List<String> getDeletedTaskIds() {
+        return mDeletedTaskIds;
+    }
+
+    public long getWatermark() {
+        return mWatermark;
+    }
+
+    public boolean isEmpty() {
+        return mChangedTasks.isEmpty() && mDeletedTaskIds.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "TaskChanges with " + mChangedTasks.size() + " changed and "
+                + mDeletedTaskIds.size() + " deleted tasks up to " + mWatermark;
+    }
+}
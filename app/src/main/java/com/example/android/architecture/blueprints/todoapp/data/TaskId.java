@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates and parses task ids.
+ * <p>
+ * New ids are ULIDs: a 48 bit millisecond timestamp followed by 80 random bits, written as 26
+ * Crockford base32 characters. They sort in creation order, so inserts land at the end of the
+ * primary key index instead of at random places, and they are 10 characters shorter than a UUID.
+ * Ids created by older versions are UUID strings and stay valid. Both forms hold 128 bits, which
+ * {@link #parseUlid(String)} and {@link #parseUuid(String)} return as a {@link UUID} used as a
+ * plain 128 bit value. 按时间排序的id，插入时总是追加在索引末尾
+ */
+public final class TaskId {
+
+    @VisibleForTesting
+    static final int ULID_LENGTH = 26;
+
+    private static final char[] ENCODING = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    private static final byte[] DECODING = new byte[128];
+
+    static {
+        Arrays.fill(DECODING, (byte) -1);
+        for (int i = 0; i < ENCODING.length; i++) {
+            DECODING[ENCODING[i]] = (byte) i;
+        }
+    }
+
+    // Ids don't need to be unguessable, only unique, so a plain Random is enough. Unlike the
+    // SecureRandom behind UUID.randomUUID() it never blocks on the entropy pool.
+    private static final Random sRandom = new Random();
+
+    private static final Object sLock = new Object();
+
+    private static long sLastTime;
+
+    private static long sLastHigh;
+
+    private static long sLastLow;
+
+    private TaskId() {
+        // Only static helpers.
+    }
+
+    /**
+     * @return a new id, greater than every id this process created before.
+     */
+    @NonNull
+    public static String newId() {
+        return newId(System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    @NonNull
+    static String newId(long time) {
+        long high;
+        long low;
+        synchronized (sLock) {
+            if (time <= sLastTime) {
+                // Same millisecond, or the clock went back: keep the order by counting up from
+                // the previous id. 同一毫秒内，随机部分加一，保证单调递增
+                low = sLastLow + 1;
+                high = low == 0 ? sLastHigh + 1 : sLastHigh;
+            } else {
+                sLastTime = time;
+                high = (time << 16) | (sRandom.nextInt() & 0xFFFF);
+                low = sRandom.nextLong();
+            }
+            sLastHigh = high;
+            sLastLow = low;
+        }
+        return formatUlid(high, low);
+    }
+
+    /**
+     * Writes a 128 bit value as a ULID.
+     */
+    @NonNull
+    public static String formatUlid(long high, long low) {
+        char[] chars = new char[ULID_LENGTH];
+        for (int i = ULID_LENGTH - 1; i >= 0; i--) {
+            chars[i] = ENCODING[(int) (low & 31)];
+            low = (low >>> 5) | (high << 59);
+            high >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return the 128 bits of {@code id} if it is a ULID in canonical (upper case) form, so that
+     * {@link #formatUlid(long, long)} gives it back unchanged, and null otherwise.
+     */
+    @Nullable
+    public static UUID parseUlid(@NonNull String id) {
+        if (id.length() != ULID_LENGTH || id.charAt(0) > '7') {
+            return null;
+        }
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < ULID_LENGTH; i++) {
+            char c = id.charAt(i);
+            int digit = c < DECODING.length ? DECODING[c] : -1;
+            if (digit < 0) {
+                return null;
+            }
+            high = (high << 5) | (low >>> 59);
+            low = (low << 5) | digit;
+        }
+        return new UUID(high, low);
+    }
+
+    /**
+     * @return the UUID if {@code id} is in canonical form, so that it survives a round trip
+     * through its 128 bit form unchanged, and null otherwise.
+     */
+    @Nullable
+    public static UUID parseUuid(@NonNull String id) {
+        if (id.length() != 36 || id.charAt(8) != '-' || id.charAt(13) != '-'
+                || id.charAt(18) != '-' || id.charAt(23) != '-') {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(id);
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the creation time of a ULID, or -1 for ids in any other form.
+     */
+    public static long getCreationTime(@NonNull String id) {
+        UUID bits = parseUlid(id);
+        return bits == null ? -1 : bits.getMostSignificantBits() >>> 16;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Handle to a read started on a {@link TasksDataSource}. 读请求的取消句柄
+ * <p>
+ * Cancelling tells the data source that the result isn't wanted anymore: the callback won't be
+ * invoked, and work that hasn't started yet is skipped. It may be called from any thread, more
+ * than once, and after the callback ran, in which case it does nothing.
+ */
+public class Cancellable {
+
+    private boolean mCancelled;
+
+    private List<Runnable> mCancelActions; //取消时要执行的动作，比如把还没发出的消息从Handler中移除
+
+    public void cancel() {
+        List<Runnable> actions;
+        synchronized (this) {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            actions = mCancelActions;
+            mCancelActions = null;
+        }
+        if (actions != null) {
+            for (Runnable action : actions) {
+                action.run();
+            }
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Runs {@code action} when this is cancelled, right away if it already is.
+     */
+    public void doOnCancel(@NonNull Runnable action) {
+        checkNotNull(action);
+        synchronized (this) {
+            if (!mCancelled) {
+                if (mCancelActions == null) {
+                    mCancelActions = new ArrayList<>(2);
+                }
+                mCancelActions.add(action);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /**
+     * Cancels {@code request}, a read this one waits for, together with this one. Null is
+     * ignored, so the handles of mocked data sources can be passed as they are.
+     */
+    public void cancelWith(@Nullable final Cancellable request) {
+        if (request == null) {
+            return;
+        }
+        doOnCancel(new Runnable() {
+            @Override
+            public void run() {
+                request.cancel();
+            }
+        });
+    }
+}
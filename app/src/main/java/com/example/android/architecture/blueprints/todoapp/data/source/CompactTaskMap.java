@@ -0,0 +1,623 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskId;
+import com.google.common.base.Charsets;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Memory-lean replacement for the {@code LinkedHashMap<String, Task>} cache of
+ * {@link TasksRepository}.
+ * <p>
+ * Tasks are not kept as objects. Each task is a slot in parallel arrays:
+ * <ul>
+ * <li>ULID and UUID ids as two longs (other ids as Strings),</li>
+ * <li>titles as an index into a pool where each distinct title is stored once,</li>
+ * <li>descriptions as UTF-8 bytes, only decoded when a task is read,</li>
+ * <li>the completed and summary flags and the modification time as primitives.</li>
+ * </ul>
+ * Which slots hold a task and which of those are completed is also kept in two {@link BitSet}s,
+ * so {@link #getByCompleted(boolean)}, {@link #countCompleted()} and {@link #removeCompleted()}
+ * work on 64 slots per step and only touch the slots they return. {@link #hideCompleted()} keeps
+ * the completed tasks in their slots, hidden, so a clear can be undone without a copy of the map.
+ * {@link Task} objects are built on demand by {@link #get(Object)} and the iterators. Iteration
+ * follows insertion order, and putting an existing id keeps its position, like a
+ * {@link java.util.LinkedHashMap}. Not thread safe, like the map it replaces.
+ * 省内存的缓存：Task拆成几个数组存，用到的时候才创建Task对象
+ */
+final class CompactTaskMap extends AbstractMap<String, Task> {
+
+    private static final int FLAG_COMPLETED = 0x01;
+
+    private static final int FLAG_ULID = 0x02;
+
+    private static final int FLAG_UUID = 0x04;
+
+    private static final int FLAG_HAS_TITLE = 0x08;
+
+    private static final int FLAG_HAS_DESCRIPTION = 0x10;
+
+    private static final int FLAG_SUMMARY = 0x20;
+
+    private static final int FLAG_HIDDEN = 0x40;
+
+    private static final int FLAG_REMOVED = 0x80;
+
+    private static final int NO_TITLE = -1;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final int MIN_CAPACITY = 16;
+
+    // Slots, in insertion order. Removed slots are skipped and reclaimed when the arrays are full.
+    private byte[] mFlags;
+
+    private long[] mIdBits; //每个id占两个long
+
+    @Nullable
+    private String[] mOtherIds; //既不是ULID也不是UUID的id，用到才分配
+
+    private int[] mTitles;
+
+    private byte[][] mDescriptions;
+
+    private long[] mUpdatedAt;
+
+    // Slots holding a task, and those of them that are completed. 按slot存的位图，一位一个Task
+    private BitSet mLive;
+
+    private BitSet mCompleted;
+
+    // Slots hidden by hideCompleted, until they are restored or dropped. 隐藏的slot，撤销时还原
+    private BitSet mHidden;
+
+    private int mSlotCount;
+
+    private int mSize;
+
+    private final List<String> mTitlePool = new ArrayList<>();
+
+    private final Map<String, Integer> mTitleIndex = new HashMap<>();
+
+    // Open addressing table of slot + 1, 0 meaning empty. Entries of removed slots stay until the
+    // table is rebuilt, lookups skip them.
+    private int[] mTable;
+
+    private int mModCount;
+
+    @Nullable
+    private Set<Entry<String, Task>> mEntrySet;
+
+    CompactTaskMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    CompactTaskMap(@NonNull Map<String, Task> tasks) {
+        allocate(Math.max(MIN_CAPACITY, tasks.size()));
+        putAll(tasks);
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && findSlot((String) key) >= 0;
+    }
+
+    @Override
+    public Task get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int slot = findSlot((String) key);
+        return slot < 0 ? null : materialize(slot);
+    }
+
+    @Override
+    public Task put(String key, Task task) {
+        checkNotNull(task);
+        if (!key.equals(task.getId())) {
+            throw new IllegalArgumentException("Tasks are stored under their own id");
+        }
+        int slot = findSlot(key);
+        Task previous = null;
+        if (slot >= 0) {
+            previous = materialize(slot);
+        } else {
+            if (mSlotCount == mFlags.length) {
+                makeRoom();
+            }
+            slot = mSlotCount++;
+            writeId(slot, key);
+            insertIntoTable(slot);
+            mSize++;
+        }
+        writeValues(slot, task);
+        mModCount++;
+        return previous;
+    }
+
+    @Override
+    public Task remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int slot = findSlot((String) key);
+        if (slot < 0) {
+            return null;
+        }
+        Task previous = materialize(slot);
+        removeSlot(slot);
+        mModCount++;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        mTitlePool.clear();
+        mTitleIndex.clear();
+        mOtherIds = null;
+        mSlotCount = 0;
+        mSize = 0;
+        allocate(MIN_CAPACITY);
+        mModCount++;
+    }
+
+    @NonNull
+    @Override
+    public Set<Entry<String, Task>> entrySet() {
+        if (mEntrySet == null) {
+            mEntrySet = new AbstractSet<Entry<String, Task>>() {
+                @Override
+                public Iterator<Entry<String, Task>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return mSize;
+                }
+
+                @Override
+                public void clear() {
+                    CompactTaskMap.this.clear();
+                }
+            };
+        }
+        return mEntrySet;
+    }
+
+    /**
+     * @return the number of distinct titles kept in the pool, for tests.
+     */
+    int getTitlePoolSize() {
+        return mTitlePool.size();
+    }
+
+    /**
+     * @return the bytes of the slot arrays, the bit sets and the lookup table, for tests.
+     * References count 4 bytes, as with compressed pointers, and array headers are left out.
+     */
+    long getSlotBytes() {
+        long bytes = mFlags.length + mIdBits.length * 8L + mTitles.length * 4L
+                + mDescriptions.length * 4L + mUpdatedAt.length * 8L + mTable.length * 4L
+                + mLive.size() / 8 + mCompleted.size() / 8;
+        if (mOtherIds != null) {
+            bytes += mOtherIds.length * 4L;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the bytes of the UTF-8 descriptions of the tasks, for tests.
+     */
+    long getDescriptionBytes() {
+        long bytes = 0;
+        for (int slot = mLive.nextSetBit(0); slot >= 0; slot = mLive.nextSetBit(slot + 1)) {
+            if (mDescriptions[slot] != null) {
+                bytes += mDescriptions[slot].length;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of completed tasks, without reading them.
+     */
+    int countCompleted() {
+        return mCompleted.cardinality();
+    }
+
+    /**
+     * @return the completed or the active tasks, in insertion order.
+     */
+    @NonNull
+    List<Task> getByCompleted(boolean completed) {
+        BitSet slots = mCompleted;
+        if (!completed) {
+            slots = (BitSet) mLive.clone();
+            slots.andNot(mCompleted); //活着的减去已完成的，就是未完成的
+        }
+        List<Task> tasks = new ArrayList<>(slots.cardinality());
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            tasks.add(materialize(slot));
+        }
+        return tasks;
+    }
+
+    /**
+     * Removes the completed tasks.
+     *
+     * @return the ids of the removed tasks.
+     */
+    @NonNull
+    List<String> removeCompleted() {
+        List<String> removedIds = new ArrayList<>(mCompleted.cardinality());
+        for (int slot = mCompleted.nextSetBit(0); slot >= 0;
+                slot = mCompleted.nextSetBit(slot + 1)) {
+            removedIds.add(idOf(slot));
+            removeSlot(slot);
+        }
+        if (!removedIds.isEmpty()) {
+            mModCount++;
+        }
+        return removedIds;
+    }
+
+    /**
+     * Removes the completed tasks from the map but keeps them in their slots, so
+     * {@link #restoreHidden()} can put them back where they were. Like {@link #removeCompleted()}
+     * it only touches the completed slots. Tasks hidden by an earlier call are dropped first.
+     *
+     * @return the ids of the hidden tasks.
+     */
+    @NonNull
+    List<String> hideCompleted() {
+        dropHidden();
+        List<String> hiddenIds = new ArrayList<>(mCompleted.cardinality());
+        for (int slot = mCompleted.nextSetBit(0); slot >= 0;
+                slot = mCompleted.nextSetBit(slot + 1)) {
+            hiddenIds.add(idOf(slot));
+            mFlags[slot] |= FLAG_HIDDEN;
+            mSize--;
+        }
+        mHidden.or(mCompleted);
+        mLive.andNot(mCompleted);
+        mCompleted.clear();
+        if (!hiddenIds.isEmpty()) {
+            mModCount++;
+        }
+        return hiddenIds;
+    }
+
+    /**
+     * Puts back the tasks of the latest {@link #hideCompleted()}. Only valid if none of them was
+     * put again since, the map doesn't check.
+     */
+    void restoreHidden() {
+        for (int slot = mHidden.nextSetBit(0); slot >= 0; slot = mHidden.nextSetBit(slot + 1)) {
+            mFlags[slot] &= ~FLAG_HIDDEN;
+            mLive.set(slot);
+            mCompleted.set(slot); //隐藏的都是已完成的
+            mSize++;
+        }
+        if (!mHidden.isEmpty()) {
+            mHidden.clear();
+            mModCount++;
+        }
+    }
+
+    /**
+     * Removes the tasks of the latest {@link #hideCompleted()} for good, once they can't be
+     * restored anymore. 撤销不了了，隐藏的slot当成删掉的
+     */
+    void dropHidden() {
+        for (int slot = mHidden.nextSetBit(0); slot >= 0; slot = mHidden.nextSetBit(slot + 1)) {
+            mFlags[slot] = (byte) FLAG_REMOVED;
+            if (mOtherIds != null) {
+                mOtherIds[slot] = null;
+            }
+            mDescriptions[slot] = null;
+        }
+        mHidden.clear();
+    }
+
+    private void allocate(int capacity) {
+        mFlags = new byte[capacity];
+        mIdBits = new long[capacity * 2];
+        mTitles = new int[capacity];
+        mDescriptions = new byte[capacity][];
+        mUpdatedAt = new long[capacity];
+        mLive = new BitSet(capacity);
+        mCompleted = new BitSet(capacity);
+        mHidden = new BitSet();
+        if (mOtherIds != null) {
+            mOtherIds = new String[capacity];
+        }
+        mTable = new int[tableSizeFor(capacity)];
+    }
+
+    /**
+     * Called when every slot is used: drops the removed and hidden slots if that frees enough of
+     * them, otherwise doubles the capacity.
+     */
+    private void makeRoom() {
+        int capacity = mSize * 2 < mFlags.length ? mFlags.length : mFlags.length * 2;
+        byte[] flags = mFlags;
+        long[] idBits = mIdBits;
+        String[] otherIds = mOtherIds;
+        int[] titles = mTitles;
+        byte[][] descriptions = mDescriptions;
+        long[] updatedAt = mUpdatedAt;
+        int slotCount = mSlotCount;
+        List<String> titlePool = new ArrayList<>(mTitlePool);
+
+        allocate(capacity);
+        mTitlePool.clear();
+        mTitleIndex.clear();
+        mSlotCount = 0;
+        for (int i = 0; i < slotCount; i++) {
+            if ((flags[i] & (FLAG_REMOVED | FLAG_HIDDEN)) != 0) {
+                continue;
+            }
+            int slot = mSlotCount++;
+            mFlags[slot] = flags[i];
+            mIdBits[slot * 2] = idBits[i * 2];
+            mIdBits[slot * 2 + 1] = idBits[i * 2 + 1];
+            if (otherIds != null) {
+                mOtherIds[slot] = otherIds[i];
+            }
+            // Titles only used by removed tasks are dropped from the pool here.
+            mTitles[slot] = titles[i] == NO_TITLE ? NO_TITLE : internTitle(titlePool.get(titles[i]));
+            mDescriptions[slot] = descriptions[i];
+            mUpdatedAt[slot] = updatedAt[i];
+            mLive.set(slot);
+            mCompleted.set(slot, (flags[i] & FLAG_COMPLETED) != 0);
+            insertIntoTable(slot);
+        }
+    }
+
+    private void writeId(int slot, String id) {
+        UUID bits = TaskId.parseUlid(id);
+        int flags = FLAG_ULID;
+        if (bits == null) {
+            bits = TaskId.parseUuid(id);
+            flags = FLAG_UUID;
+        }
+        if (bits != null) {
+            mIdBits[slot * 2] = bits.getMostSignificantBits();
+            mIdBits[slot * 2 + 1] = bits.getLeastSignificantBits();
+        } else {
+            flags = 0;
+            if (mOtherIds == null) {
+                mOtherIds = new String[mFlags.length];
+            }
+            mOtherIds[slot] = id;
+        }
+        mFlags[slot] = (byte) flags;
+    }
+
+    private void writeValues(int slot, Task task) {
+        int flags = mFlags[slot] & (FLAG_ULID | FLAG_UUID);
+        if (task.isCompleted()) {
+            flags |= FLAG_COMPLETED;
+        }
+        if (task.isSummary()) {
+            flags |= FLAG_SUMMARY;
+        }
+        if (task.getTitle() != null) {
+            flags |= FLAG_HAS_TITLE;
+            mTitles[slot] = internTitle(task.getTitle());
+        } else {
+            mTitles[slot] = NO_TITLE;
+        }
+        String description = task.getDescription();
+        if (description != null) {
+            flags |= FLAG_HAS_DESCRIPTION;
+            mDescriptions[slot] = description.isEmpty()
+                    ? EMPTY : description.getBytes(Charsets.UTF_8);
+        } else {
+            mDescriptions[slot] = null;
+        }
+        mUpdatedAt[slot] = task.getUpdatedAt();
+        mFlags[slot] = (byte) flags;
+        mLive.set(slot);
+        mCompleted.set(slot, task.isCompleted());
+    }
+
+    private int internTitle(String title) {
+        Integer index = mTitleIndex.get(title);
+        if (index == null) {
+            index = mTitlePool.size();
+            mTitlePool.add(title);
+            mTitleIndex.put(title, index);
+        }
+        return index;
+    }
+
+    private void removeSlot(int slot) {
+        mFlags[slot] = (byte) FLAG_REMOVED;
+        if (mOtherIds != null) {
+            mOtherIds[slot] = null;
+        }
+        mDescriptions[slot] = null;
+        mLive.clear(slot);
+        mCompleted.clear(slot);
+        mSize--;
+    }
+
+    private Task materialize(int slot) {
+        int flags = mFlags[slot];
+        String title = (flags & FLAG_HAS_TITLE) != 0 ? mTitlePool.get(mTitles[slot]) : null;
+        String description = null;
+        if ((flags & FLAG_HAS_DESCRIPTION) != 0) {
+            byte[] bytes = mDescriptions[slot];
+            description = bytes.length == 0 ? "" : new String(bytes, Charsets.UTF_8);
+        }
+        boolean completed = (flags & FLAG_COMPLETED) != 0;
+        if ((flags & FLAG_SUMMARY) != 0) {
+            return Task.summaryOf(title, description, idOf(slot), completed, mUpdatedAt[slot]);
+        }
+        return new Task(title, description, idOf(slot), completed, mUpdatedAt[slot]);
+    }
+
+    private String idOf(int slot) {
+        int flags = mFlags[slot];
+        long high = mIdBits[slot * 2];
+        long low = mIdBits[slot * 2 + 1];
+        if ((flags & FLAG_ULID) != 0) {
+            return TaskId.formatUlid(high, low);
+        } else if ((flags & FLAG_UUID) != 0) {
+            return new UUID(high, low).toString();
+        }
+        return mOtherIds[slot];
+    }
+
+    /**
+     * @return the slot holding {@code id}, or -1.
+     */
+    private int findSlot(String id) {
+        int flags = FLAG_ULID;
+        UUID bits = TaskId.parseUlid(id);
+        if (bits == null) {
+            bits = TaskId.parseUuid(id);
+            flags = FLAG_UUID;
+        }
+        if (bits == null) {
+            flags = 0;
+        }
+        long high = bits == null ? 0 : bits.getMostSignificantBits();
+        long low = bits == null ? 0 : bits.getLeastSignificantBits();
+        int hash = bits == null ? id.hashCode() : hash(high, low);
+
+        int mask = mTable.length - 1;
+        for (int i = spread(hash) & mask; mTable[i] != 0; i = (i + 1) & mask) {
+            int slot = mTable[i] - 1;
+            int slotFlags = mFlags[slot];
+            if ((slotFlags & (FLAG_REMOVED | FLAG_HIDDEN)) != 0
+                    || (slotFlags & (FLAG_ULID | FLAG_UUID)) != flags) {
+                continue;
+            }
+            if (bits == null) {
+                if (id.equals(mOtherIds[slot])) {
+                    return slot;
+                }
+            } else if (mIdBits[slot * 2] == high && mIdBits[slot * 2 + 1] == low) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void insertIntoTable(int slot) {
+        int hash = (mFlags[slot] & (FLAG_ULID | FLAG_UUID)) != 0
+                ? hash(mIdBits[slot * 2], mIdBits[slot * 2 + 1])
+                : mOtherIds[slot].hashCode();
+        int mask = mTable.length - 1;
+        int i = spread(hash) & mask;
+        while (mTable[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        mTable[i] = slot + 1;
+    }
+
+    private static int hash(long high, long low) {
+        long h = high ^ low;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int spread(int hash) {
+        return hash * 0x9E3779B9;
+    }
+
+    /**
+     * Keeps the table at most half full.
+     */
+    private static int tableSizeFor(int capacity) {
+        int size = Integer.highestOneBit(capacity) * 2;
+        return size < capacity * 2 ? size * 2 : size;
+    }
+
+    private class EntryIterator implements Iterator<Entry<String, Task>> {
+
+        private int mNext = nextSlot(0);
+
+        private int mLast = -1;
+
+        private int mExpectedModCount = mModCount;
+
+        @Override
+        public boolean hasNext() {
+            return mNext < mSlotCount;
+        }
+
+        @Override
+        public Entry<String, Task> next() {
+            if (mModCount != mExpectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (mNext >= mSlotCount) {
+                throw new NoSuchElementException();
+            }
+            mLast = mNext;
+            mNext = nextSlot(mNext + 1);
+            Task task = materialize(mLast);
+            return new SimpleImmutableEntry<>(task.getId(), task);
+        }
+
+        @Override
+        public void remove() {
+            if (mLast < 0) {
+                throw new IllegalStateException();
+            }
+            if (mModCount != mExpectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            // Removing only marks the slot, so the positions of the other slots don't move.
+            removeSlot(mLast);
+            mLast = -1;
+            mExpectedModCount = ++mModCount;
+        }
+
+        private int nextSlot(int from) {
+            int slot = mLive.nextSetBit(from); //跳过删掉的slot，一次看64个
+            return slot < 0 ? mSlotCount : slot;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Registers the read callbacks of a presenter for as long as its view is active.
+ * 把Presenter的回调和View的生命周期绑在一起
+ * <p>
+ * The data source only gets a small forwarding callback. When the view goes inactive,
+ * {@link #detach()} cancels the pending reads and drops the references to the real callbacks, so
+ * a data source that still holds the forwarding callback, in a {@link android.os.Handler} message
+ * for example, no longer keeps the presenter and its view in memory. Reads made while detached
+ * are not started at all.
+ * <p>
+ * Must be used on the main thread.
+ */
+public class LifecycleCallbacks {
+
+    private final Set<Binding> mBindings = new LinkedHashSet<>(); //还没回调的读请求
+
+    private boolean mAttached = true;
+
+    public boolean isAttached() {
+        return mAttached;
+    }
+
+    /**
+     * Called when the view becomes active again, e.g. from {@code onResume()}.
+     */
+    public void attach() {
+        mAttached = true;
+    }
+
+    /**
+     * Called when the view goes inactive, e.g. from {@code onPause()}.
+     */
+    public void detach() {
+        mAttached = false;
+        List<Binding> bindings = new ArrayList<>(mBindings);
+        for (Binding binding : bindings) {
+            binding.mRequest.cancel(); //取消的同时也会解绑
+        }
+    }
+
+    public Cancellable getTasks(@NonNull TasksDataSource dataSource,
+            @NonNull TasksDataSource.LoadTasksCallback callback) {
+        checkNotNull(dataSource);
+        LoadTasksBinding binding = new LoadTasksBinding(checkNotNull(callback));
+        if (mAttached) {
+            binding.mRequest.cancelWith(dataSource.getTasks(binding));
+        }
+        return register(binding);
+    }
+
+    public Cancellable getTaskSummaries(@NonNull TasksDataSource dataSource,
+            @NonNull TasksDataSource.LoadTasksCallback callback) {
+        checkNotNull(dataSource);
+        LoadTasksBinding binding = new LoadTasksBinding(checkNotNull(callback));
+        if (mAttached) {
+            binding.mRequest.cancelWith(dataSource.getTaskSummaries(binding));
+        }
+        return register(binding);
+    }
+
+    public Cancellable getTasksByCompleted(@NonNull TasksDataSource dataSource, boolean completed,
+            @NonNull TasksDataSource.LoadTasksCallback callback) {
+        checkNotNull(dataSource);
+        LoadTasksBinding binding = new LoadTasksBinding(checkNotNull(callback));
+        if (mAttached) {
+            binding.mRequest.cancelWith(dataSource.getTasksByCompleted(completed, binding));
+        }
+        return register(binding);
+    }
+
+    public Cancellable getTaskCounts(@NonNull TasksDataSource dataSource,
+            @NonNull TasksDataSource.LoadTaskCountsCallback callback) {
+        checkNotNull(dataSource);
+        LoadTaskCountsBinding binding = new LoadTaskCountsBinding(checkNotNull(callback));
+        if (mAttached) {
+            binding.mRequest.cancelWith(dataSource.getTaskCounts(binding));
+        }
+        return register(binding);
+    }
+
+    public Cancellable searchTasks(@NonNull TasksDataSource dataSource, @NonNull String query,
+            @NonNull TasksDataSource.LoadTasksCallback callback) {
+        checkNotNull(dataSource);
+        checkNotNull(query);
+        LoadTasksBinding binding = new LoadTasksBinding(checkNotNull(callback));
+        if (mAttached) {
+            binding.mRequest.cancelWith(dataSource.searchTasks(query, binding));
+        }
+        return register(binding);
+    }
+
+    public Cancellable searchTaskTitles(@NonNull TasksRepository repository, @NonNull String query,
+            @NonNull TasksDataSource.LoadTasksCallback callback) {
+        checkNotNull(repository);
+        checkNotNull(query);
+        LoadTasksBinding binding = new LoadTasksBinding(checkNotNull(callback));
+        if (mAttached) {
+            binding.mRequest.cancelWith(repository.searchTaskTitles(query, binding));
+        }
+        return register(binding);
+    }
+
+    public Cancellable getTask(@NonNull TasksDataSource dataSource, @NonNull String taskId,
+            @NonNull TasksDataSource.GetTaskCallback callback) {
+        checkNotNull(dataSource);
+        checkNotNull(taskId);
+        GetTaskBinding binding = new GetTaskBinding(checkNotNull(callback));
+        if (mAttached) {
+            binding.mRequest.cancelWith(dataSource.getTask(taskId, binding));
+        }
+        return register(binding);
+    }
+
+    /**
+     * @return the number of reads still waiting for their callback, for tests
+     */
+    int getPendingCount() {
+        return mBindings.size();
+    }
+
+    private Cancellable register(final Binding binding) {
+        if (!mAttached) {
+            binding.mRequest.cancel();
+        } else if (!binding.mDelivered) { //缓存命中的话已经同步回调过了
+            mBindings.add(binding);
+            binding.mRequest.doOnCancel(new Runnable() {
+                @Override
+                public void run() {
+                    binding.unbind();
+                }
+            });
+        }
+        return binding.mRequest;
+    }
+
+    private abstract class Binding {
+
+        final Cancellable mRequest = new Cancellable();
+
+        boolean mDelivered;
+
+        void onDelivered() {
+            mDelivered = true;
+            mBindings.remove(this);
+        }
+
+        void unbind() {
+            mBindings.remove(this);
+            clearCallback();
+        }
+
+        abstract void clearCallback();
+    }
+
+    private final class LoadTasksBinding extends Binding
+            implements TasksDataSource.LoadTasksCallback {
+
+        @Nullable
+        private TasksDataSource.LoadTasksCallback mCallback;
+
+        LoadTasksBinding(TasksDataSource.LoadTasksCallback callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        void clearCallback() {
+            mCallback = null;
+        }
+
+        @Override
+        public void onTasksLoaded(List<Task> tasks) {
+            TasksDataSource.LoadTasksCallback callback = mCallback;
+            onDelivered();
+            if (callback != null) {
+                callback.onTasksLoaded(tasks);
+            }
+        }
+
+        @Override
+        public void onDataNotAvailable() {
+            TasksDataSource.LoadTasksCallback callback = mCallback;
+            onDelivered();
+            if (callback != null) {
+                callback.onDataNotAvailable();
+            }
+        }
+    }
+
+    private final class LoadTaskCountsBinding extends Binding
+            implements TasksDataSource.LoadTaskCountsCallback {
+
+        @Nullable
+        private TasksDataSource.LoadTaskCountsCallback mCallback;
+
+        LoadTaskCountsBinding(TasksDataSource.LoadTaskCountsCallback callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        void clearCallback() {
+            mCallback = null;
+        }
+
+        @Override
+        public void onTaskCountsLoaded(int activeTasks, int completedTasks) {
+            TasksDataSource.LoadTaskCountsCallback callback = mCallback;
+            onDelivered();
+            if (callback != null) {
+                callback.onTaskCountsLoaded(activeTasks, completedTasks);
+            }
+        }
+
+        @Override
+        public void onDataNotAvailable() {
+            TasksDataSource.LoadTaskCountsCallback callback = mCallback;
+            onDelivered();
+            if (callback != null) {
+                callback.onDataNotAvailable();
+            }
+        }
+    }
+
+    private final class GetTaskBinding extends Binding implements TasksDataSource.GetTaskCallback {
+
+        @Nullable
+        private TasksDataSource.GetTaskCallback mCallback;
+
+        GetTaskBinding(TasksDataSource.GetTaskCallback callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        void clearCallback() {
+            mCallback = null;
+        }
+
+        @Override
+        public void onTaskLoaded(Task task) {
+            TasksDataSource.GetTaskCallback callback = mCallback;
+            onDelivered();
+            if (callback != null) {
+                callback.onTaskLoaded(task);
+            }
+        }
+
+        @Override
+        public void onDataNotAvailable() {
+            TasksDataSource.GetTaskCallback callback = mCallback;
+            onDelivered();
+            if (callback != null) {
+                callback.onDataNotAvailable();
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository.Durability;
+
+/**
+ * How long the acknowledged saves of {@link TasksRepository} took to reach each level of
+ * {@link Durability}, counted from the call. 每一级持久化花了多长时间
+ * <p>
+ * Only touched on the main thread, where the repository reports the saves.
+ */
+public final class SaveLatencies {
+
+    private final int[] mCounts = new int[Durability.values().length];
+
+    private final long[] mTotalNanos = new long[Durability.values().length];
+
+    private final long[] mMaxNanos = new long[Durability.values().length];
+
+    SaveLatencies() {
+    }
+
+    void record(@NonNull Durability durability, long nanos) {
+        int level = durability.ordinal();
+        mCounts[level]++;
+        mTotalNanos[level] += nanos;
+        mMaxNanos[level] = Math.max(mMaxNanos[level], nanos);
+    }
+
+    /**
+     * @return how many saves reached {@code durability}
+     */
+    public int getCount(@NonNull Durability durability) {
+        return mCounts[durability.ordinal()];
+    }
+
+    /**
+     * @return the average time the saves took to reach {@code durability}, 0 if none did
+     */
+    public long getMeanNanos(@NonNull Durability durability) {
+        int level = durability.ordinal();
+        return mCounts[level] == 0 ? 0 : mTotalNanos[level] / mCounts[level];
+    }
+
+    /**
+     * @return the longest time a save took to reach {@code durability}, 0 if none did
+     */
+    public long getMaxNanos(@NonNull Durability durability) {
+        return mMaxNanos[durability.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("SaveLatencies");
+        for (Durability durability : Durability.values()) {
+            builder.append(' ').append(durability).append(": ").append(getCount(durability))
+                    .append(" saves, mean ").append(getMeanNanos(durability) / 1000)
+                    .append(" us, max ").append(getMaxNanos(durability) / 1000).append(" us");
+        }
+        return builder.toString();
+    }
+}
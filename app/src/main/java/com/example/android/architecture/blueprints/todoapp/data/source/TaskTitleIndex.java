@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory n-gram index of the task titles, for searching while the user types.
+ * 任务标题的内存索引，边打字边搜索用
+ * <p>
+ * Every word of a title is indexed by its first character, its two-character substrings and its
+ * three-character substrings. A query word of one character then matches the titles with a word
+ * starting with it, and a longer one the titles with a word containing it. A task matches when
+ * it matches every word of the query. Titles are kept in lower case, split into words the way
+ * the full-text search of the local data source splits queries.
+ * <p>
+ * Updating one title only touches that title's grams, so the index can follow every change of
+ * the cache. Not thread safe, like the cache it follows.
+ */
+final class TaskTitleIndex {
+
+    private static final String WORD_SEPARATOR = "[^\\p{L}\\p{N}]+";
+
+    private static final char PREFIX_MARK = '^'; //不会出现在词里，用来区分首字母和普通的gram
+
+    // The lower-case words of each indexed title, to un-index it and to check the matches
+    private final Map<String, String[]> mWords = new HashMap<>();
+
+    // gram -> ids of the tasks with a title word that has it
+    private final Map<String, Set<String>> mPostings = new HashMap<>();
+
+    void put(@NonNull String taskId, @Nullable String title) {
+        checkNotNull(taskId);
+        String[] words = toWords(title);
+        String[] indexedWords = mWords.get(taskId);
+        if (indexedWords != null) {
+            if (Arrays.equals(indexedWords, words)) {
+                return; //标题没变，比如只是标记完成
+            }
+            unindex(taskId, indexedWords);
+        }
+        mWords.put(taskId, words);
+        for (String word : words) {
+            for (String gram : toGrams(word)) {
+                Set<String> taskIds = mPostings.get(gram);
+                if (taskIds == null) {
+                    taskIds = new HashSet<>();
+                    mPostings.put(gram, taskIds);
+                }
+                taskIds.add(taskId);
+            }
+        }
+    }
+
+    void remove(@NonNull String taskId) {
+        String[] indexedWords = mWords.remove(checkNotNull(taskId));
+        if (indexedWords != null) {
+            unindex(taskId, indexedWords);
+        }
+    }
+
+    void clear() {
+        mWords.clear();
+        mPostings.clear();
+    }
+
+    int size() {
+        return mWords.size();
+    }
+
+    /**
+     * @return the ids of the tasks whose title matches every word of {@code query}, the ones
+     * where the words start title words first, then by title. Empty if the query has no words.
+     */
+    @NonNull
+    List<String> search(@NonNull String query) {
+        final String[] queryWords = toWords(query);
+        if (queryWords.length == 0) {
+            return new ArrayList<>();
+        }
+
+        Set<String> matches = null;
+        for (String queryWord : queryWords) {
+            Set<String> candidates = getCandidates(queryWord);
+            if (matches == null) {
+                matches = new HashSet<>(candidates);
+            } else {
+                matches.retainAll(candidates);
+            }
+            if (matches.isEmpty()) {
+                return new ArrayList<>();
+            }
+        }
+
+        // The grams of a longer word may come from different title words, check the word itself
+        final Map<String, Integer> scores = new HashMap<>();
+        final Map<String, String> titles = new HashMap<>();
+        List<String> taskIds = new ArrayList<>(matches.size());
+        for (String taskId : matches) {
+            String[] titleWords = mWords.get(taskId);
+            int score = getScore(titleWords, queryWords);
+            if (score >= 0) {
+                scores.put(taskId, score);
+                titles.put(taskId, Arrays.toString(titleWords));
+                taskIds.add(taskId);
+            }
+        }
+        Collections.sort(taskIds, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int byScore = scores.get(b) - scores.get(a);
+                if (byScore != 0) {
+                    return byScore;
+                }
+                int byTitle = titles.get(a).compareTo(titles.get(b));
+                return byTitle != 0 ? byTitle : a.compareTo(b);
+            }
+        });
+        return taskIds;
+    }
+
+    private Set<String> getCandidates(String queryWord) {
+        if (queryWord.length() < 3) {
+            String gram = queryWord.length() == 1 ? PREFIX_MARK + queryWord : queryWord;
+            Set<String> taskIds = mPostings.get(gram);
+            return taskIds == null ? Collections.<String>emptySet() : taskIds;
+        }
+        Set<String> smallest = null;
+        for (int i = 0; i + 3 <= queryWord.length(); i++) {
+            Set<String> taskIds = mPostings.get(queryWord.substring(i, i + 3));
+            if (taskIds == null) {
+                return Collections.emptySet();
+            }
+            if (smallest == null || taskIds.size() < smallest.size()) {
+                smallest = taskIds; //用最短的那个列表，后面反正要逐个检查
+            }
+        }
+        return smallest;
+    }
+
+    /**
+     * @return -1 if a query word is in none of the title words, otherwise one point for each
+     * query word that starts a title word, and one more if the first starts the title
+     */
+    private static int getScore(String[] titleWords, String[] queryWords) {
+        int score = 0;
+        for (String queryWord : queryWords) {
+            boolean found = false;
+            boolean starts = false;
+            for (String titleWord : titleWords) {
+                if (titleWord.startsWith(queryWord)) {
+                    found = true;
+                    starts = true;
+                    break;
+                }
+                found |= queryWord.length() > 1 && titleWord.contains(queryWord);
+            }
+            if (!found) {
+                return -1;
+            }
+            if (starts) {
+                score++;
+            }
+        }
+        if (titleWords.length > 0 && titleWords[0].startsWith(queryWords[0])) {
+            score++;
+        }
+        return score;
+    }
+
+    private void unindex(String taskId, String[] words) {
+        for (String word : words) {
+            for (String gram : toGrams(word)) {
+                Set<String> taskIds = mPostings.get(gram);
+                if (taskIds != null) {
+                    taskIds.remove(taskId);
+                    if (taskIds.isEmpty()) {
+                        mPostings.remove(gram);
+                    }
+                }
+            }
+        }
+    }
+
+    private static Set<String> toGrams(String word) {
+        Set<String> grams = new HashSet<>();
+        grams.add(PREFIX_MARK + word.substring(0, 1));
+        for (int length = 2; length <= 3; length++) {
+            for (int i = 0; i + length <= word.length(); i++) {
+                grams.add(word.substring(i, i + length));
+            }
+        }
+        return grams;
+    }
+
+    private static String[] toWords(@Nullable String text) {
+        if (text == null) {
+            return new String[0];
+        }
+        List<String> words = new ArrayList<>();
+        for (String word : text.toLowerCase(Locale.getDefault()).split(WORD_SEPARATOR)) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words.toArray(new String[words.size()]);
+    }
+}
@@ -19,6 +19,7 @@ package com.example.android.architecture.blueprints.todoapp.data.source;
 import android.support.annotation.NonNull;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskChanges;
 
 import java.util.List;
 
@@ -54,12 +55,82 @@ public interface TasksDataSource { //不仅自己具备很多方法，还有俩
         void onDataNotAvailable(); //当数据没有获得
     }
 
-    void getTasks(@NonNull LoadTasksCallback callback); //返回所有的Tasks(读操作）
+    /**
+     * 统计Task数量的回调
+     */
+    interface LoadTaskCountsCallback {
+
+        void onTaskCountsLoaded(int activeTasks, int completedTasks); //活动的和已完成的数量
+
+        void onDataNotAvailable();
+    }
+
+    /**
+     * 增量同步的回调
+     */
+    interface LoadTaskChangesCallback {
+
+        void onTaskChangesLoaded(TaskChanges changes); //水位线之后的修改
+
+        void onDataNotAvailable();
+    }
+
+    /**
+     * 写操作的回调，告诉调用方写入是否生效
+     */
+    interface WriteCallback {
+
+        void onWriteCompleted(); //写入已经生效
+
+        void onWriteFailed(); //写入失败，调用方需要回滚
+    }
+
+    /**
+     * Reads take a callback and return a {@link Cancellable} for the read. Cancelling it means the
+     * callback is never invoked, and work that hasn't started yet is skipped.
+     */
+    Cancellable getTasks(@NonNull LoadTasksCallback callback); //返回所有的Tasks(读操作）
+
+    Cancellable getTask(@NonNull String taskId, @NonNull GetTaskCallback callback); //获得一条Task（读操作）
+
+    /**
+     * Like {@link #getTasks(LoadTasksCallback)}, but for the task list: the tasks may be
+     * summaries without their description (see {@link Task#isSummary()}), so loading them costs
+     * what their titles cost. Use {@link #getTask(String, GetTaskCallback)} for the full task.
+     */
+    Cancellable getTaskSummaries(@NonNull LoadTasksCallback callback); //列表用的精简版Tasks（读操作）
+
+    /**
+     * Like {@link #getTaskSummaries(LoadTasksCallback)}, but only returns the tasks that are
+     * completed, or only the active ones. A data source that stores the tasks can do the
+     * filtering where they are stored.
+     */
+    Cancellable getTasksByCompleted(boolean completed,
+            @NonNull LoadTasksCallback callback); //只获得已完成或者活动的Tasks（读操作）
 
-    void getTask(@NonNull String taskId, @NonNull GetTaskCallback callback); //获得一条Task（读操作）
+    /**
+     * Counts the active and the completed tasks without loading them.
+     * {@link LoadTaskCountsCallback#onDataNotAvailable()} is fired when there are no tasks.
+     */
+    Cancellable getTaskCounts(@NonNull LoadTaskCountsCallback callback); //统计Tasks数量（读操作）
+
+    /**
+     * Finds the tasks whose title or description has the words of {@code query}, best match
+     * first. Like {@link #getTaskSummaries(LoadTasksCallback)} the tasks may be summaries. No match
+     * is an empty list, {@link LoadTasksCallback#onDataNotAvailable()} means the search couldn't
+     * be done.
+     */
+    Cancellable searchTasks(@NonNull String query,
+            @NonNull LoadTasksCallback callback); //按关键词搜索Tasks（读操作）
 
     void saveTask(@NonNull Task task); //保存一条Task（增操作）
 
+    /**
+     * Like {@link #saveTask(Task)}, and reports back on the main thread once the task is stored
+     * by this data source, or that storing it failed.
+     */
+    void saveTask(@NonNull Task task, @NonNull WriteCallback callback); //带结果回调的保存（增操作）
+
     void completeTask(@NonNull Task task); //修改一条Task为完成状态（改操作）
 
     void completeTask(@NonNull String taskId); //透过taskId也可以将一条Task标记为完成状态（写操作)
@@ -68,11 +139,48 @@ public interface TasksDataSource { //不仅自己具备很多方法，还有俩
 
     void activateTask(@NonNull String taskId); //通过传入taskId，修改为activate记录（写操作)
 
+    /**
+     * Marks a task completed or active, like {@link #completeTask(Task)} and
+     * {@link #activateTask(Task)}, and reports back on the main thread whether the write took
+     * effect. Callers can show the change before it lands and roll it back if it fails.
+     */
+    void setTaskCompleted(@NonNull Task task, boolean completed,
+            @NonNull WriteCallback callback); //带结果回调的标记（写操作）
+
     void clearCompletedTasks(); //清空所有已完成的Task(删）
 
     void refreshTasks(); //刷新Tasks（读操作）
 
     void deleteAllTasks(); //删除所有的Tasks(删操作）
 
+    /**
+     * Brings back the tasks removed by the latest {@link #clearCompletedTasks()} or
+     * {@link #deleteAllTasks()}. Only the latest one can be undone, and only until the next
+     * change to the tasks.
+     */
+    void restoreDeletedTasks(); //撤销最近一次清空（写操作）
+
     void deleteTask(@NonNull String taskId); //通过taskId，删除一条Task（删操作）
+
+    /**
+     * Replaces every stored task with a snapshot that came from the backend. Unlike
+     * {@link #saveTask(Task)} this is not a user change, so it is never sent back to the remote.
+     */
+    void replaceAllTasks(@NonNull List<Task> tasks); //用服务端的数据整体替换（写操作）
+
+    /**
+     * Loads the changes made after {@code watermark}, including tombstones for deleted tasks.
+     * Pass the watermark of the returned {@link TaskChanges} to the next call.
+     */
+    Cancellable getTaskChanges(long watermark, @NonNull LoadTaskChangesCallback callback); //增量读取（读操作）
+
+    /**
+     * Applies changes that came from the backend. Like {@link #replaceAllTasks(List)} this is not
+     * a user change, so it is never sent back to the remote. A task that still has local changes
+     * waiting to be sent keeps its local state, so the callback is given the changes that were
+     * applied, on the main thread. {@link LoadTaskChangesCallback#onDataNotAvailable()} means
+     * nothing was applied.
+     */
+    void applyTaskChanges(@NonNull TaskChanges changes,
+            @NonNull LoadTaskChangesCallback callback); //把服务端的增量写进来（写操作），回调里是真正写进去的部分
 }
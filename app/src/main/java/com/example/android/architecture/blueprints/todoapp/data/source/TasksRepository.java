@@ -22,6 +22,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskChanges;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -40,6 +41,22 @@ import java.util.Map;
  */
 public class TasksRepository implements TasksDataSource {
 
+    /**
+     * How far a save has to get before {@link #saveTask(Task, Durability, WriteCallback)}
+     * acknowledges it. 保存要落到哪一级才算完成
+     */
+    public enum Durability {
+
+        /** In the cache, so every read sees it. Acknowledged right away. */
+        MEMORY,
+
+        /** Committed to the local database, so it survives the process. */
+        LOCAL,
+
+        /** Acknowledged by the remote data source. */
+        REMOTE
+    }
+
     private static TasksRepository INSTANCE = null; //看样子，要整个单例了
 
     private final TasksDataSource mTasksRemoteDataSource; //远程数据来源的Task引用
@@ -60,6 +77,59 @@ public class TasksRepository implements TasksDataSource {
      */
     boolean mCacheIsDirty = false;
 
+    /**
+     * Watermark of the last sync with the remote data source, 0 until the tasks were loaded from
+     * it once. Once set, refreshing only asks for the changes made after it. This variable has
+     * package local visibility so it can be accessed from tests.
+     * 上一次同步的水位线，刷新时只拉取这之后的修改
+     */
+    long mSyncWatermark = 0;
+
+    /**
+     * Keeps the cache in a {@link CompactTaskMap} instead of a {@link LinkedHashMap}.
+     * 省内存模式，适合任务很多、内存又小的设备
+     */
+    private boolean mMemoryLeanCache = false;
+
+    /**
+     * Incremented whenever the cached tasks change or are marked dirty, see
+     * {@link #getDataVersion()}.
+     */
+    private long mDataVersion = 0;
+
+    /**
+     * True while the cache was filled by a list read, see {@link #getTaskSummaries}. It then
+     * holds summaries, and every task that goes into it is stored as one, so the cache weighs
+     * what the titles weigh. {@link #getTasks} reads the full tasks again.
+     * 缓存里放的是不是精简版的Task
+     */
+    private boolean mCacheHasSummaries = false;
+
+    /**
+     * Index of the titles in the cache, see {@link #searchTaskTitles}. Built from the cache on
+     * the first search and kept in step with it from then on, null until then.
+     * 缓存里标题的索引，第一次搜索的时候才建
+     */
+    @Nullable
+    private TaskTitleIndex mTitleIndex;
+
+    private final SaveLatencies mSaveLatencies = new SaveLatencies();
+
+    /**
+     * The cache as it was before the latest {@link #clearCompletedTasks()} or
+     * {@link #deleteAllTasks()}, for {@link #restoreDeletedTasks()}. The cache that replaced it
+     * shares its immutable tasks instead of copying them, and undoing swaps the two back. A
+     * {@link CompactTaskMap} cache isn't replaced by a clear, it is its own snapshot and only
+     * hides the completed tasks, see {@link CompactTaskMap#hideCompleted()}. Only
+     * kept while {@link #mDataVersion} is still {@link #mUndoDataVersion}. This variable has
+     * package local visibility so it can be accessed from tests.
+     * 撤销用的快照，旧的缓存整个留着
+     */
+    @Nullable
+    Map<String, Task> mUndoSnapshot;
+
+    private long mUndoDataVersion;
+
 
     /** 私有的构造方法的目的：
      * Prevent direct instantiation. 预防直接实例化，就是预防用构造方法直接生成一个对象，大牛你真牛b
@@ -97,37 +167,85 @@ public class TasksRepository implements TasksDataSource {
         INSTANCE = null;
     }
 
+    /**
+     * Switches the cache between plain {@link Task} objects and a memory-lean layout, which
+     * stores the tasks in compact arrays, shares repeated titles and only builds {@link Task}
+     * objects when they are read. Cached tasks are kept.
+     * <p>
+     * The lean layout costs a little time on every read, so use it for very large accounts or
+     * low-RAM devices. It also keeps the completed state as a bit column, so filtering the active
+     * or completed tasks, counting them and clearing the completed ones only read the tasks they
+     * return instead of every cached task.
+     */
+    public void setMemoryLeanCache(boolean memoryLean) {
+        if (mMemoryLeanCache == memoryLean) {
+            return;
+        }
+        mMemoryLeanCache = memoryLean;
+        if (mCachedTasks != null) {
+            Map<String, Task> cachedTasks = mCachedTasks;
+            mCachedTasks = newCache();
+            mCachedTasks.putAll(cachedTasks);
+        }
+        releaseUndo(); //快照还是旧的布局，不换回去了
+    }
+
+    /**
+     * Returns a number that grows every time the tasks a read would return may have changed: a
+     * write, a sync or {@link #refreshTasks()}. A screen that remembers the version it last
+     * rendered can skip reloading while it stays the same. 数据版本号，没变就不用重新加载
+     */
+    public long getDataVersion() {
+        return mDataVersion;
+    }
+
+    /**
+     * Returns how long the saves of {@link #saveTask(Task, Durability, WriteCallback)} took to
+     * reach each level of durability.
+     */
+    @NonNull
+    public SaveLatencies getSaveLatencies() {
+        return mSaveLatencies;
+    }
+
     /**
      * Gets tasks from cache, local data source (SQLite) or remote data source, whichever is
      * available first.
      * 从缓存Map中获得Tasks，本地仓库或者远程仓库，无论哪个先获得
      * Note: {@link LoadTasksCallback#onDataNotAvailable()} is fired if all data sources fail to
      * get the data.
+     * <p>
+     * Cancelling the returned request also cancels the data source read it is waiting for. A
+     * result that arrives anyway still refreshes the cache, it just isn't handed to
+     * {@code callback}.
      */
     @Override
-    public void getTasks(@NonNull final LoadTasksCallback callback) {
+    public Cancellable getTasks(@NonNull final LoadTasksCallback callback) {
         checkNotNull(callback); //先检查LoadTasksCallback不为null
+        final Cancellable request = new Cancellable();
 
         // Respond immediately with cache if available and not dirty
         // 缓存Map不为空&&标志位是没有清空缓存
-        if (mCachedTasks != null && !mCacheIsDirty) {
+        if (mCachedTasks != null && !mCacheIsDirty && !mCacheHasSummaries) {
             callback.onTasksLoaded(new ArrayList<>(mCachedTasks.values())); //从Map中将value都取出来，所有的value整合为一个List
                                                                             //然后传入ArrayList，以生成一个ArrayList对象
                                                                             //紧接着调用LoadTasksCallback的onTasksLoaded（）方法
                                                                             //将ArrayList传进去
-            return; //走到这个分支，上面的语句执行完，这里直接中断
+            return request; //走到这个分支，上面的语句执行完，这里直接中断
         }
 
         if (mCacheIsDirty) { //如果缓存中的是脏数据?还是没数据？这个标志位到底是干啥的？
             // If the cache is dirty we need to fetch new data from the network.
-            getTasksFromRemoteDataSource(callback); //如果cache数据不好，我们需要从网络（后端）拿取新的数据
+            getTasksFromRemoteDataSource(request, false, callback); //如果cache数据不好，我们需要从网络（后端）拿取新的数据
         } else { //如果cache的数据比较理想, 从可以获得的本地数据中查询，如果还是不行，再从网络查询
             // Query the local storage if available. If not, query the network.
-            mTasksLocalDataSource.getTasks(new LoadTasksCallback() {
+            request.cancelWith(mTasksLocalDataSource.getTasks(new LoadTasksCallback() {
                 @Override
                 public void onTasksLoaded(List<Task> tasks) {
-                    refreshCache(tasks); //刷新缓存
-                    callback.onTasksLoaded(new ArrayList<>(mCachedTasks.values())); //把缓存Map中的Values，全部取出来，组成List，传给onTasksLoaded
+                    refreshCache(tasks, false); //刷新缓存
+                    if (!request.isCancelled()) {
+                        callback.onTasksLoaded(new ArrayList<>(mCachedTasks.values())); //把缓存Map中的Values，全部取出来，组成List，传给onTasksLoaded
+                    }
                 }
 
                 /**
@@ -135,10 +253,233 @@ public class TasksRepository implements TasksDataSource {
                  */
                 @Override
                 public void onDataNotAvailable() {
-                    getTasksFromRemoteDataSource(callback); //从远程服务器获取数据
+                    if (!request.isCancelled()) {
+                        getTasksFromRemoteDataSource(request, false, callback); //从远程服务器获取数据，已经取消的话就不用去了
+                    }
+                }
+            }));
+        }
+        return request;
+    }
+
+    /**
+     * Gets the tasks for the list, from the cache, the local data source or the remote data
+     * source like {@link #getTasks(LoadTasksCallback)}. What is loaded for the list is cached as
+     * summaries, the descriptions are only loaded by {@link #getTask(String, GetTaskCallback)}.
+     */
+    @Override
+    public Cancellable getTaskSummaries(@NonNull final LoadTasksCallback callback) {
+        checkNotNull(callback);
+        final Cancellable request = new Cancellable();
+
+        if (mCachedTasks != null && !mCacheIsDirty) {
+            callback.onTasksLoaded(new ArrayList<>(mCachedTasks.values())); //完整的Task也能拿来展示
+            return request;
+        }
+
+        if (mCacheIsDirty) {
+            getTasksFromRemoteDataSource(request, true, callback);
+        } else {
+            request.cancelWith(mTasksLocalDataSource.getTaskSummaries(new LoadTasksCallback() {
+                @Override
+                public void onTasksLoaded(List<Task> tasks) {
+                    refreshCache(tasks, true);
+                    if (!request.isCancelled()) {
+                        callback.onTasksLoaded(new ArrayList<>(mCachedTasks.values()));
+                    }
+                }
+
+                @Override
+                public void onDataNotAvailable() {
+                    if (!request.isCancelled()) {
+                        getTasksFromRemoteDataSource(request, true, callback);
+                    }
+                }
+            }));
+        }
+        return request;
+    }
+
+    /**
+     * Gets the completed or the active tasks. When the cache is dirty, or holds every task and
+     * the active ones are asked for, this filters the result of {@link #getTaskSummaries}.
+     * Otherwise only the matching rows are read from the local data source, and the cache stays
+     * as it was since it would only hold part of the tasks. The completed tasks always come from
+     * there: it may have archived old ones, which are left out of the cache and only read here
+     * and by {@link #searchTasks}. Like a search, a read started after a change sees it.
+     */
+    @Override
+    public Cancellable getTasksByCompleted(final boolean completed,
+            @NonNull final LoadTasksCallback callback) {
+        checkNotNull(callback);
+        CompactTaskMap columns = getCompactCache();
+        if (columns != null && !completed) {
+            callback.onTasksLoaded(columns.getByCompleted(false)); //直接按位图取
+            return new Cancellable();
+        }
+        if (mCacheIsDirty || (mCachedTasks != null && !completed)) {
+            return getTaskSummaries(new LoadTasksCallback() {
+                @Override
+                public void onTasksLoaded(List<Task> tasks) {
+                    callback.onTasksLoaded(filterByCompleted(tasks, completed));
+                }
+
+                @Override
+                public void onDataNotAvailable() {
+                    callback.onDataNotAvailable();
                 }
             });
         }
+
+        final Cancellable request = new Cancellable();
+        request.cancelWith(mTasksLocalDataSource.getTasksByCompleted(completed,
+                new LoadTasksCallback() {
+            @Override
+            public void onTasksLoaded(List<Task> tasks) {
+                if (!request.isCancelled()) {
+                    callback.onTasksLoaded(tasks);
+                }
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                if (!request.isCancelled()) { //可能只是没有这种状态的Task，走完整的加载去确认
+                    request.cancelWith(getTaskSummaries(new LoadTasksCallback() {
+                        @Override
+                        public void onTasksLoaded(List<Task> tasks) {
+                            callback.onTasksLoaded(filterByCompleted(tasks, completed));
+                        }
+
+                        @Override
+                        public void onDataNotAvailable() {
+                            callback.onDataNotAvailable();
+                        }
+                    }));
+                }
+            }
+        }));
+        return request;
+    }
+
+    /**
+     * Counts the active and the completed tasks. Unless the cache is dirty the counting is left to
+     * the local data source, even when every task is cached: like
+     * {@link #getTasksByCompleted(boolean, LoadTasksCallback)} it has to take in the archived
+     * tasks, which the cache leaves out.
+     */
+    @Override
+    public Cancellable getTaskCounts(@NonNull final LoadTaskCountsCallback callback) {
+        checkNotNull(callback);
+        final LoadTasksCallback countingCallback = new LoadTasksCallback() {
+            @Override
+            public void onTasksLoaded(List<Task> tasks) {
+                int completedTasks = filterByCompleted(tasks, true).size();
+                callback.onTaskCountsLoaded(tasks.size() - completedTasks, completedTasks);
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                callback.onDataNotAvailable();
+            }
+        };
+        if (mCacheIsDirty) {
+            return getTaskSummaries(countingCallback);
+        }
+
+        final Cancellable request = new Cancellable();
+        request.cancelWith(mTasksLocalDataSource.getTaskCounts(new LoadTaskCountsCallback() {
+            @Override
+            public void onTaskCountsLoaded(int activeTasks, int completedTasks) {
+                if (!request.isCancelled()) {
+                    callback.onTaskCountsLoaded(activeTasks, completedTasks);
+                }
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                if (!request.isCancelled()) { //本地没有Task，和getTasks一样去远程拿
+                    request.cancelWith(getTaskSummaries(countingCallback));
+                }
+            }
+        }));
+        return request;
+    }
+
+    /**
+     * Searches the local data source only: it holds every task the repository has seen, and its
+     * writes run in order on the disk thread, so a search started after a change sees it.
+     */
+    @Override
+    public Cancellable searchTasks(@NonNull String query,
+            @NonNull LoadTasksCallback callback) {
+        checkNotNull(query);
+        checkNotNull(callback);
+        return mTasksLocalDataSource.searchTasks(query, callback); //本地库有全文索引，远程就不问了
+    }
+
+    /**
+     * Finds the tasks whose title has the words of {@code query}, or words starting with them,
+     * for searching as the user types. While the cache holds every task they are matched by an
+     * in-memory index of the titles, and only the archived tasks, which the cache leaves out, are
+     * searched in the local data source and come after them. Otherwise this is
+     * {@link #searchTasks}, which also looks at the descriptions.
+     */
+    public Cancellable searchTaskTitles(@NonNull final String query,
+            @NonNull final LoadTasksCallback callback) {
+        checkNotNull(query);
+        checkNotNull(callback);
+        if (mCachedTasks == null || mCacheIsDirty) {
+            return searchTasks(query, callback); //缓存还没有全部的Task，只能去查库
+        }
+        if (mTitleIndex == null) {
+            mTitleIndex = new TaskTitleIndex();
+            for (Task task : mCachedTasks.values()) {
+                mTitleIndex.put(task.getId(), task.getTitle());
+            }
+        }
+        final List<Task> tasks = getTitleMatches(mTitleIndex, mCachedTasks, query);
+
+        final Cancellable request = new Cancellable();
+        request.cancelWith(mTasksLocalDataSource.searchTasks(query, new LoadTasksCallback() {
+            @Override
+            public void onTasksLoaded(List<Task> found) {
+                if (request.isCancelled()) {
+                    return;
+                }
+                // What the cache doesn't have is archived, its titles are matched like the others
+                Map<String, Task> archivedTasks = new LinkedHashMap<>();
+                TaskTitleIndex archivedTitles = new TaskTitleIndex();
+                for (Task task : found) {
+                    if (mCachedTasks == null || !mCachedTasks.containsKey(task.getId())) {
+                        archivedTasks.put(task.getId(), task);
+                        archivedTitles.put(task.getId(), task.getTitle());
+                    }
+                }
+                tasks.addAll(getTitleMatches(archivedTitles, archivedTasks, query));
+                callback.onTasksLoaded(tasks);
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                if (!request.isCancelled()) {
+                    callback.onTasksLoaded(tasks); //归档查不了，缓存里的结果还是对的
+                }
+            }
+        }));
+        return request;
+    }
+
+    private static List<Task> getTitleMatches(TaskTitleIndex titleIndex, Map<String, Task> tasks,
+            String query) {
+        List<String> taskIds = titleIndex.search(query);
+        List<Task> matches = new ArrayList<>(taskIds.size());
+        for (String taskId : taskIds) {
+            Task task = tasks.get(taskId);
+            if (task != null) {
+                matches.add(task);
+            }
+        }
+        return matches;
     }
 
     /**
@@ -148,15 +489,101 @@ public class TasksRepository implements TasksDataSource {
     @Override
     public void saveTask(@NonNull Task task) {
         checkNotNull(task); //先检查Task是否为null
+        mTasksLocalDataSource.saveTask(task); //本地先保存Task，同时记下要同步到远程的修改
         mTasksRemoteDataSource.saveTask(task); //远程服务器保存Task
-        mTasksLocalDataSource.saveTask(task); //本地也保存Task
 
         // Do in memory cache update to keep the app UI up to date
         // 在内存缓存中更新，以保证应用的UI也更新
         if (mCachedTasks == null) {
-            mCachedTasks = new LinkedHashMap<>(); //要是缓存Map为null，就new一个对象是了
+            mCachedTasks = newCache(); //要是缓存Map为null，就new一个对象是了
+        }
+        mCachedTasks.put(task.getId(), forCache(task)); //没想到大神在内存到LinkedHashMap还保留了Task对象
+        indexTitle(task);
+        dataChanged();
+    }
+
+    /**
+     * Like {@link #saveTask(Task, Durability, WriteCallback)} with {@link Durability#LOCAL}.
+     */
+    @Override
+    public void saveTask(@NonNull Task task, @NonNull WriteCallback callback) {
+        saveTask(task, Durability.LOCAL, callback);
+    }
+
+    /**
+     * Saves a task like {@link #saveTask(Task)} and reports on the main thread once it reached
+     * {@code durability}. An interactive edit can go on at {@link Durability#MEMORY} while an
+     * import waits for {@link Durability#LOCAL}. The time each level took is recorded in
+     * {@link #getSaveLatencies()}.
+     * <p>
+     * Like {@link #setTaskCompleted}, the cache is updated right away and rolled back if the
+     * local write fails, and the remote data source is only told about the task once it is
+     * stored locally. {@link WriteCallback#onWriteFailed()} is fired if the local write fails,
+     * even after a {@link Durability#MEMORY} acknowledgement so the caller learns the task was
+     * rolled back, or for {@link Durability#REMOTE} if the remote can't be reached, in which case
+     * the task stays stored locally and is sent later.
+     *
+     * @return a handle for the save: cancelling it only means {@code callback} is never invoked,
+     * the save goes on
+     */
+    public Cancellable saveTask(@NonNull final Task task, @NonNull final Durability durability,
+            @NonNull final WriteCallback callback) {
+        checkNotNull(task);
+        checkNotNull(durability);
+        checkNotNull(callback);
+        final long startNanos = System.nanoTime();
+        final Cancellable request = new Cancellable();
+
+        if (mCachedTasks == null) {
+            mCachedTasks = newCache();
         }
-        mCachedTasks.put(task.getId(), task); //没想到大神在内存到LinkedHashMap还保留了Task对象
+        final Task savedTask = forCache(task);
+        final Task previousTask = mCachedTasks.put(task.getId(), savedTask);
+        indexTitle(task);
+        dataChanged();
+        mSaveLatencies.record(Durability.MEMORY, System.nanoTime() - startNanos);
+        if (durability == Durability.MEMORY) {
+            callback.onWriteCompleted(); //内存里已经有了，直接算完成
+        }
+
+        mTasksLocalDataSource.saveTask(task, new WriteCallback() {
+            @Override
+            public void onWriteCompleted() {
+                mSaveLatencies.record(Durability.LOCAL, System.nanoTime() - startNanos);
+                if (durability != Durability.REMOTE) {
+                    mTasksRemoteDataSource.saveTask(task);
+                    if (durability == Durability.LOCAL && !request.isCancelled()) {
+                        callback.onWriteCompleted();
+                    }
+                    return;
+                }
+                mTasksRemoteDataSource.saveTask(task, new WriteCallback() {
+                    @Override
+                    public void onWriteCompleted() {
+                        mSaveLatencies.record(Durability.REMOTE, System.nanoTime() - startNanos);
+                        if (!request.isCancelled()) {
+                            callback.onWriteCompleted();
+                        }
+                    }
+
+                    @Override
+                    public void onWriteFailed() {
+                        if (!request.isCancelled()) {
+                            callback.onWriteFailed();
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onWriteFailed() {
+                rollBack(savedTask, previousTask);
+                if (!request.isCancelled()) {
+                    callback.onWriteFailed(); //MEMORY已经报过成功了，也要告诉调用方被回滚了
+                }
+            }
+        });
+        return request;
     }
 
     /**
@@ -166,18 +593,20 @@ public class TasksRepository implements TasksDataSource {
     @Override
     public void completeTask(@NonNull Task task) {
         checkNotNull(task);                      //检查Task不为null
-        mTasksRemoteDataSource.completeTask(task); //远程仓库标记Task
         mTasksLocalDataSource.completeTask(task); //本地仓库标记Task
+        mTasksRemoteDataSource.completeTask(task); //远程仓库标记Task
 
         //从传入的Task中取title、取详细描述、取TaskId，然后new一个Task
-        Task completedTask = new Task(task.getTitle(), task.getDescription(), task.getId(), true);
+        Task completedTask = forCache(task.withCompleted(true));
 
 
         // Do in memory cache update to keep the app UI up to date
         if (mCachedTasks == null) {
-            mCachedTasks = new LinkedHashMap<>();
+            mCachedTasks = newCache();
         }
         mCachedTasks.put(task.getId(), completedTask);
+        indexTitle(completedTask);
+        dataChanged();
     }
 
     /**
@@ -200,16 +629,18 @@ public class TasksRepository implements TasksDataSource {
     @Override
     public void activateTask(@NonNull Task task) {
         checkNotNull(task); //先判断Task对象是否为null
-        mTasksRemoteDataSource.activateTask(task); //先去标记远程仓库中的Task，作者大牛是用一个LinkedHashMap在内存中模拟的，理解成服务器上的Task即可
-        mTasksLocalDataSource.activateTask(task);  //再去标记本地仓库（数据库中）的Task
+        mTasksLocalDataSource.activateTask(task);  //先去标记本地仓库（数据库中）的Task
+        mTasksRemoteDataSource.activateTask(task); //再去标记远程仓库中的Task，作者大牛是用一个LinkedHashMap在内存中模拟的，理解成服务器上的Task即可
 
-        Task activeTask = new Task(task.getTitle(), task.getDescription(), task.getId()); //然后new一个新的Task对象，要把传入的Task的title、描述、id都给新的Task对象
+        Task activeTask = forCache(task.withCompleted(false)); //然后new一个新的Task对象，要把传入的Task的title、描述、id都给新的Task对象
 
         // Do in memory cache update to keep the app UI up to date
         if (mCachedTasks == null) { //如果内存中缓存的mCachedTask为空
-            mCachedTasks = new LinkedHashMap<>(); //new一个LinkedHashMap对象
+            mCachedTasks = newCache(); //new一个LinkedHashMap对象
         }
         mCachedTasks.put(task.getId(), activeTask); //用task的id作为key，Task对象作为value，放入到缓存的Map中
+        indexTitle(activeTask);
+        dataChanged();
     }
 
     /**
@@ -222,23 +653,124 @@ public class TasksRepository implements TasksDataSource {
         activateTask(getTaskWithId(taskId)); //最终还是调用了 activateTask(Task)
     }
 
+    /**
+     * Updates the cache right away, so the next read already sees the change, and restores the
+     * previous cached task if the local write fails. The remote data source is only told about
+     * the change once it is stored locally.
+     */
+    @Override
+    public void setTaskCompleted(@NonNull final Task task, final boolean completed,
+            @NonNull final WriteCallback callback) {
+        checkNotNull(task);
+        checkNotNull(callback);
+
+        if (mCachedTasks == null) {
+            mCachedTasks = newCache();
+        }
+        final Task updatedTask = forCache(task.withCompleted(completed));
+        final Task previousTask = mCachedTasks.put(task.getId(), updatedTask); //乐观更新，先改缓存
+        indexTitle(updatedTask);
+        dataChanged();
+
+        mTasksLocalDataSource.setTaskCompleted(task, completed, new WriteCallback() {
+            @Override
+            public void onWriteCompleted() {
+                if (completed) {
+                    mTasksRemoteDataSource.completeTask(task);
+                } else {
+                    mTasksRemoteDataSource.activateTask(task);
+                }
+                callback.onWriteCompleted();
+            }
+
+            @Override
+            public void onWriteFailed() {
+                rollBack(updatedTask, previousTask);
+                callback.onWriteFailed();
+            }
+        });
+    }
+
+    /**
+     * Puts {@code previousTask} back in the cache after a failed write of {@code writtenTask},
+     * or removes the task if it wasn't cached before. Only rolls back if nothing replaced the
+     * optimistic value in the meantime. The compact cache hands out copies, so compare by value.
+     */
+    private void rollBack(@NonNull Task writtenTask, @Nullable Task previousTask) {
+        String taskId = writtenTask.getId();
+        Task cachedTask = mCachedTasks == null ? null : mCachedTasks.get(taskId);
+        if (writtenTask.equals(cachedTask)
+                && cachedTask.isCompleted() == writtenTask.isCompleted()) {
+            if (previousTask != null) {
+                mCachedTasks.put(taskId, previousTask);
+                indexTitle(previousTask);
+            } else {
+                mCachedTasks.remove(taskId);
+                unindexTitle(taskId);
+            }
+            dataChanged();
+        }
+    }
+
     @Override
     public void clearCompletedTasks() {
-        mTasksRemoteDataSource.clearCompletedTasks(); //先清空模拟的远程仓库中的Task
-        mTasksLocalDataSource.clearCompletedTasks(); //再次清苦本地数据库中保存的Task
+        mTasksLocalDataSource.clearCompletedTasks(); //先清空本地数据库中保存的Task
+        mTasksRemoteDataSource.clearCompletedTasks(); //再清空模拟的远程仓库中的Task
 
         // Do in memory cache update to keep the app UI up to date
         if (mCachedTasks == null) {
-            mCachedTasks = new LinkedHashMap<>(); //如果缓存的mCachedTasks对象为空，那就new一个好了，如果没有缓存的Task，那肯定为null啊
+            mCachedTasks = newCache(); //如果缓存的mCachedTasks对象为空，那就new一个好了，如果没有缓存的Task，那肯定为null啊
         }
 
-        Iterator<Map.Entry<String, Task>> it = mCachedTasks.entrySet().iterator(); //先拿cachedTasks的由Map.Entry组成的Set，然后再找Set的迭代器
-        while (it.hasNext()) {  //开始遍历，每一个元素为Map.Entry
-            Map.Entry<String, Task> entry = it.next();
-            if (entry.getValue().isCompleted()) { //value就是Task，如果Task的状态为Completed
-                it.remove(); //干掉该元素，元素为整个Map.Entry,即从LinkedHashMap中干掉一个元素
+        releaseUndo(); //上一次的撤销作废了，先放掉，别把这次隐藏的也删了
+        Map<String, Task> snapshot = mCachedTasks;
+        if (mCachedTasks instanceof CompactTaskMap) {
+            // Only the completed slots are touched, they stay in place for undo
+            for (String taskId : ((CompactTaskMap) mCachedTasks).hideCompleted()) {
+                unindexTitle(taskId);
+            }
+        } else {
+            mCachedTasks = new LinkedHashMap<>(snapshot); //只复制了引用，Task对象是共享的
+            Iterator<Map.Entry<String, Task>> it = mCachedTasks.entrySet().iterator(); //先拿cachedTasks的由Map.Entry组成的Set，然后再找Set的迭代器
+            while (it.hasNext()) {  //开始遍历，每一个元素为Map.Entry
+                Map.Entry<String, Task> entry = it.next();
+                if (entry.getValue().isCompleted()) { //value就是Task，如果Task的状态为Completed
+                    unindexTitle(entry.getKey());
+                    it.remove(); //干掉该元素，元素为整个Map.Entry,即从LinkedHashMap中干掉一个元素
+                }
             }
         }
+        dataChanged();
+        keepForUndo(snapshot);
+    }
+
+    /**
+     * Undoes the latest {@link #clearCompletedTasks()} or {@link #deleteAllTasks()}, if nothing
+     * changed the tasks since, see {@link #canRestoreDeletedTasks()}. The cache is swapped back
+     * to its snapshot, and the data sources bring back what they removed.
+     */
+    @Override
+    public void restoreDeletedTasks() {
+        if (!canRestoreDeletedTasks()) {
+            return;
+        }
+        mTasksLocalDataSource.restoreDeletedTasks();
+        mTasksRemoteDataSource.restoreDeletedTasks();
+
+        if (mUndoSnapshot instanceof CompactTaskMap) {
+            ((CompactTaskMap) mUndoSnapshot).restoreHidden(); //把隐藏的已完成任务放回原位
+        }
+        mCachedTasks = mUndoSnapshot; //换回去就行了，不用一条条插回来
+        mTitleIndex = null; //下次搜索时重建
+        dataChanged();
+    }
+
+    /**
+     * @return whether {@link #restoreDeletedTasks()} would undo something: a clear or delete of
+     * every task was the latest change to the tasks.
+     */
+    public boolean canRestoreDeletedTasks() {
+        return mUndoSnapshot != null && mUndoDataVersion == mDataVersion;
     }
 
     /**
@@ -253,31 +785,39 @@ public class TasksRepository implements TasksDataSource {
      * 对这个方法有点懵逼啊
      */
     @Override
-    public void getTask(@NonNull final String taskId, @NonNull final GetTaskCallback callback) {
+    public Cancellable getTask(@NonNull final String taskId,
+            @NonNull final GetTaskCallback callback) {
         checkNotNull(taskId); //先检查是否为null
         checkNotNull(callback); //继续检查callback
+        final Cancellable request = new Cancellable();
 
-        Task cachedTask = getTaskWithId(taskId); //通过id，获取到Map中缓存的Task对象，让我们进去看看getTaskWithId（id）方法是怎么做的
+        final Task cachedTask = getTaskWithId(taskId); //通过id，获取到Map中缓存的Task对象，让我们进去看看getTaskWithId（id）方法是怎么做的
 
-        // Respond immediately with cache if available
-        if (cachedTask != null) { //如果获取到Map中缓存的Task后
+        // Respond immediately with cache if available. A summary is missing its description.
+        if (cachedTask != null && !cachedTask.isSummary()) { //如果获取到Map中缓存的Task后
             callback.onTaskLoaded(cachedTask); //调用GetTaskCallback中的 onTaskLoaded（）方法
-            return; //方法结束掉
+            return request; //方法结束掉
         }
 
         // Load from server/persisted if needed.
 
         // Is the task in the local data source? If not, query the network.
         // 牛逼，方法内调用getTask（id，callback），递归用法啊，大神牛逼啊
-        mTasksLocalDataSource.getTask(taskId, new GetTaskCallback() { //就用传入的taskId，一个GetTaskCallback的匿名对象（也可成为匿名内部类，毕竟实现了GetTaskCallback接口嘛）
+        request.cancelWith(mTasksLocalDataSource.getTask(taskId, new GetTaskCallback() { //就用传入的taskId，一个GetTaskCallback的匿名对象（也可成为匿名内部类，毕竟实现了GetTaskCallback接口嘛）
             @Override
             public void onTaskLoaded(Task task) { //这Task，传入的是Map中缓存的那个Task啊
                 // Do in memory cache update to keep the app UI up to date
                 if (mCachedTasks == null) {
-                    mCachedTasks = new LinkedHashMap<>();
+                    mCachedTasks = newCache();
+                }
+                if (cachedTask == null || !mCacheHasSummaries) { //缓存里已经有精简版的话就不用再放了
+                    mCachedTasks.put(task.getId(), forCache(task)); //只有Task不为null的时候，才会调用这个方法嘛
+                    indexTitle(task);
+                    dataChanged();
+                }
+                if (!request.isCancelled()) {
+                    callback.onTaskLoaded(task);
                 }
-                mCachedTasks.put(task.getId(), task); //只有Task不为null的时候，才会调用这个方法嘛
-                callback.onTaskLoaded(task);
             }
 
             /**
@@ -285,15 +825,24 @@ public class TasksRepository implements TasksDataSource {
              */
             @Override
             public void onDataNotAvailable() {
-                mTasksRemoteDataSource.getTask(taskId, new GetTaskCallback() { //去远程仓库拿Task
+                if (request.isCancelled()) {
+                    return;
+                }
+                request.cancelWith(mTasksRemoteDataSource.getTask(taskId, new GetTaskCallback() { //去远程仓库拿Task
                     @Override
                     public void onTaskLoaded(Task task) {
                         // Do in memory cache update to keep the app UI up to date 使用内存缓存更新，以保证app中展示最新的数据
                         if (mCachedTasks == null) {
-                            mCachedTasks = new LinkedHashMap<>(); // 有序的哈希表，默认是用插入Entry的顺序作为遍历元素时的顺序
+                            mCachedTasks = newCache(); // 有序的哈希表，默认是用插入Entry的顺序作为遍历元素时的顺序
+                        }
+                        if (cachedTask == null || !mCacheHasSummaries) {
+                            mCachedTasks.put(task.getId(), forCache(task)); // //向里面插入 key value、key是Task的id、value就是Task对象
+                            indexTitle(task);
+                            dataChanged();
+                        }
+                        if (!request.isCancelled()) {
+                            callback.onTaskLoaded(task); //把Task对象传到回调的onnTaskLoaded方法
                         }
-                        mCachedTasks.put(task.getId(), task); // //向里面插入 key value、key是Task的id、value就是Task对象
-                        callback.onTaskLoaded(task); //把Task对象传到回调的onnTaskLoaded方法
                     }
 
                     /**
@@ -303,11 +852,14 @@ public class TasksRepository implements TasksDataSource {
                      */
                     @Override
                     public void onDataNotAvailable() {
-                        callback.onDataNotAvailable();
+                        if (!request.isCancelled()) {
+                            callback.onDataNotAvailable();
+                        }
                     }
-                });
+                }));
             }
-        });
+        }));
+        return request;
     }
 
     /**
@@ -316,6 +868,7 @@ public class TasksRepository implements TasksDataSource {
     @Override
     public void refreshTasks() {
         mCacheIsDirty = true;
+        dataChanged(); //下一次读可能拿到新数据
     }
 
     /**
@@ -323,13 +876,16 @@ public class TasksRepository implements TasksDataSource {
      */
     @Override
     public void deleteAllTasks() {
-        mTasksRemoteDataSource.deleteAllTasks(); //先把远程仓库（服务器）的Tasks都干掉
-        mTasksLocalDataSource.deleteAllTasks(); //再把本地数据库中都Tasks都干掉
+        mTasksLocalDataSource.deleteAllTasks(); //先把本地数据库中都Tasks都干掉
+        mTasksRemoteDataSource.deleteAllTasks(); //再把远程仓库（服务器）的Tasks都干掉
 
-        if (mCachedTasks == null) {
-            mCachedTasks = new LinkedHashMap<>(); //为了防止mCachedTasks为空，就加了判断
+        Map<String, Task> snapshot = mCachedTasks != null ? mCachedTasks : newCache();
+        mCachedTasks = newCache(); //旧的缓存留给撤销用，换个空的
+        if (mTitleIndex != null) {
+            mTitleIndex.clear();
         }
-        mCachedTasks.clear(); //清空内存中缓存的Task
+        dataChanged();
+        keepForUndo(snapshot);
     }
 
     /**
@@ -338,23 +894,89 @@ public class TasksRepository implements TasksDataSource {
      */
     @Override
     public void deleteTask(@NonNull String taskId) {
-        mTasksRemoteDataSource.deleteTask(checkNotNull(taskId)); //先删除远程仓库的Task
-        mTasksLocalDataSource.deleteTask(checkNotNull(taskId)); //再删除本地数据库中的Task
+        mTasksLocalDataSource.deleteTask(checkNotNull(taskId)); //先删除本地数据库中的Task
+        mTasksRemoteDataSource.deleteTask(checkNotNull(taskId)); //再删除远程仓库的Task
 
         mCachedTasks.remove(taskId); //如果缓存中也有的话，连内存缓存中的也要干掉，完美
+        unindexTitle(taskId);
+        dataChanged();
+    }
+
+    /**
+     * Replaces the cache and the local data source with a snapshot from the backend.
+     */
+    @Override
+    public void replaceAllTasks(@NonNull List<Task> tasks) {
+        checkNotNull(tasks);
+        refreshCache(tasks, mCacheHasSummaries); //保持缓存原来的样子
+        refreshLocalDataSource(tasks);
+    }
+
+    @Override
+    public Cancellable getTaskChanges(long watermark,
+            @NonNull LoadTaskChangesCallback callback) {
+        return mTasksRemoteDataSource.getTaskChanges(watermark, checkNotNull(callback));
+    }
+
+    /**
+     * Applies changes from the backend to the local data source, and then the ones it applied to
+     * the cache, so a task with local changes still waiting for the remote keeps them in both.
+     */
+    @Override
+    public void applyTaskChanges(@NonNull TaskChanges changes,
+            @NonNull final LoadTaskChangesCallback callback) {
+        checkNotNull(changes);
+        checkNotNull(callback);
+        mTasksLocalDataSource.applyTaskChanges(changes, new LoadTaskChangesCallback() {
+            @Override
+            public void onTaskChangesLoaded(TaskChanges applied) {
+                if (mCachedTasks == null) {
+                    mCachedTasks = newCache();
+                }
+                for (Task task : applied.getChangedTasks()) {
+                    mCachedTasks.put(task.getId(), forCache(task));
+                    indexTitle(task);
+                }
+                for (String taskId : applied.getDeletedTaskIds()) {
+                    mCachedTasks.remove(taskId);
+                    unindexTitle(taskId);
+                }
+                mCacheIsDirty = false;
+                dataChanged();
+                callback.onTaskChangesLoaded(applied);
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                callback.onDataNotAvailable();
+            }
+        });
     }
 
     /**
      * 从远程仓库获得Tasks
+     * The first time, every task is loaded. After that only the changes since the last sync are
+     * loaded and applied on top of the cache.
+     * @param request the caller's request, the remote read is cancelled with it
+     * @param summaries true to cache the tasks as summaries, for a list read
      * @param callback 一个LoadTasksCallback对象
      */
-    private void getTasksFromRemoteDataSource(@NonNull final LoadTasksCallback callback) {
-        mTasksRemoteDataSource.getTasks(new LoadTasksCallback() { //调用远程仓库的任务
+    private void getTasksFromRemoteDataSource(@NonNull final Cancellable request,
+            final boolean summaries, @NonNull final LoadTasksCallback callback) {
+        // Changes can only be applied to a cache that has what the caller wants
+        if (mSyncWatermark > 0 && mCachedTasks != null && (summaries || !mCacheHasSummaries)) {
+            getTaskChangesFromRemoteDataSource(request, callback); //已经同步过了，只拉增量
+            return;
+        }
+        request.cancelWith(mTasksRemoteDataSource.getTasks(new LoadTasksCallback() { //调用远程仓库的任务
             @Override
             public void onTasksLoaded(List<Task> tasks) {
-                refreshCache(tasks); //刷新一下有序的哈希表，进入看看怎么刷的
+                mSyncWatermark = getLatestUpdate(tasks); //快照里最新的修改时间就是水位线
+                refreshCache(tasks, summaries); //刷新一下有序的哈希表，进入看看怎么刷的
                 refreshLocalDataSource(tasks); //更新本地仓库数据
-                callback.onTasksLoaded(new ArrayList<>(mCachedTasks.values()));//把缓存的Task List，传入到LoadTasksCallback对象中的onTasksLoaded方法中
+                if (!request.isCancelled()) {
+                    callback.onTasksLoaded(new ArrayList<>(mCachedTasks.values()));//把缓存的Task List，传入到LoadTasksCallback对象中的onTasksLoaded方法中
+                }
             }
 
             /**
@@ -363,34 +985,154 @@ public class TasksRepository implements TasksDataSource {
              */
             @Override
             public void onDataNotAvailable() {
-                callback.onDataNotAvailable();
+                if (!request.isCancelled()) {
+                    callback.onDataNotAvailable();
+                }
             }
-        });
+        }));
+    }
+
+    private void getTaskChangesFromRemoteDataSource(@NonNull final Cancellable request,
+            @NonNull final LoadTasksCallback callback) {
+        request.cancelWith(mTasksRemoteDataSource.getTaskChanges(mSyncWatermark,
+                new LoadTaskChangesCallback() {
+            @Override
+            public void onTaskChangesLoaded(TaskChanges changes) {
+                applyTaskChanges(changes, new LoadTaskChangesCallback() { //只写入变化的部分
+                    @Override
+                    public void onTaskChangesLoaded(TaskChanges applied) {
+                        mSyncWatermark = applied.getWatermark();
+                        if (!request.isCancelled()) {
+                            callback.onTasksLoaded(new ArrayList<>(mCachedTasks.values()));
+                        }
+                    }
+
+                    @Override
+                    public void onDataNotAvailable() {
+                        if (!request.isCancelled()) {
+                            callback.onDataNotAvailable();
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                if (!request.isCancelled()) {
+                    callback.onDataNotAvailable();
+                }
+            }
+        }));
+    }
+
+    /**
+     * Every change up to the latest modification time in a backend snapshot is contained in it,
+     * so that time can be used as the watermark for the next sync.
+     */
+    private static long getLatestUpdate(List<Task> tasks) {
+        long latest = 0;
+        for (Task task : tasks) {
+            latest = Math.max(latest, task.getUpdatedAt());
+        }
+        return latest;
+    }
+
+    private static List<Task> filterByCompleted(List<Task> tasks, boolean completed) {
+        List<Task> filtered = new ArrayList<>();
+        for (Task task : tasks) {
+            if (task.isCompleted() == completed) {
+                filtered.add(task);
+            }
+        }
+        return filtered;
     }
 
-    private void refreshCache(List<Task> tasks) { //接受一个List
+    private void refreshCache(List<Task> tasks, boolean summaries) { //接受一个List
         if (mCachedTasks == null) { //这个内存缓存用的有序哈希表，服了啊
-            mCachedTasks = new LinkedHashMap<>(); //new 一个 呗
+            mCachedTasks = newCache(); //new 一个 呗
         }
         mCachedTasks.clear(); //把有序哈希表中的元素全部干掉，即把所有Entry都干掉
+        mCacheHasSummaries = summaries;
+        mTitleIndex = null; //整个换掉了，下次搜索时重建
         for (Task task : tasks) { //遍历传入的线性表
-            mCachedTasks.put(task.getId(), task); //把List中的每一个Task对象，统统放到哈希表中，Task的id作为key，Task对象作为value
+            mCachedTasks.put(task.getId(), forCache(task)); //把List中的每一个Task对象，统统放到哈希表中，Task的id作为key，Task对象作为value
         }
         mCacheIsDirty = false; //更新标志位了，缓存是否为脏的，更新为false，即否
+        dataChanged();
     }
 
 
     /**
      * 刷新本地仓库数据
+     * The local data source swaps its contents in one go, and doesn't queue the backend data to be
+     * sent back to the backend.
      * @param tasks 接受一个Task组成的线性表
      */
     private void refreshLocalDataSource(List<Task> tasks) {
-        mTasksLocalDataSource.deleteAllTasks(); //先把本地仓库中，所有的Task都删除掉
-        for (Task task : tasks) { //然后把传入进来的List中的Task全部再放到本地仓库里
-            mTasksLocalDataSource.saveTask(task); //风骚操作啊
+        mTasksLocalDataSource.replaceAllTasks(tasks); //整体替换本地仓库中的Task
+    }
+
+    /**
+     * Keeps {@link #mTitleIndex}, once built, in step with a task put into the cache.
+     */
+    private void indexTitle(Task task) {
+        if (mTitleIndex != null) {
+            mTitleIndex.put(task.getId(), task.getTitle());
+        }
+    }
+
+    private void unindexTitle(String taskId) {
+        if (mTitleIndex != null) {
+            mTitleIndex.remove(taskId);
         }
     }
 
+    /**
+     * Marks the cached tasks as changed, see {@link #getDataVersion()}. Every change to the cache
+     * goes through here, so the undo snapshot is let go as soon as it can't be restored anymore
+     * instead of holding the old cache until the next clear.
+     */
+    private void dataChanged() {
+        mDataVersion++;
+        if (mUndoDataVersion != mDataVersion) {
+            releaseUndo(); //撤销已经不可能了，旧缓存可以回收了
+        }
+    }
+
+    private void releaseUndo() {
+        if (mUndoSnapshot instanceof CompactTaskMap) {
+            ((CompactTaskMap) mUndoSnapshot).dropHidden();
+        }
+        mUndoSnapshot = null;
+    }
+
+    /**
+     * Must be called right after the {@link #dataChanged()} of the clear or delete.
+     */
+    private void keepForUndo(Map<String, Task> snapshot) {
+        mUndoSnapshot = snapshot;
+        mUndoDataVersion = mDataVersion;
+    }
+
+    private Task forCache(Task task) {
+        return mCacheHasSummaries ? task.toSummary() : task;
+    }
+
+    /**
+     * @return the cache when it is a {@link CompactTaskMap} holding every task, null otherwise.
+     */
+    @Nullable
+    private CompactTaskMap getCompactCache() {
+        if (mCacheIsDirty || !(mCachedTasks instanceof CompactTaskMap)) {
+            return null;
+        }
+        return (CompactTaskMap) mCachedTasks;
+    }
+
+    private Map<String, Task> newCache() {
+        return mMemoryLeanCache ? new CompactTaskMap() : new LinkedHashMap<String, Task>();
+    }
+
     /**
      *
      * @param id 要传入的Task id
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.arch.persistence.room.RoomDatabase;
+import android.database.SQLException;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Group commit for the writes of {@link TasksLocalDataSource}: the writes that queue up while the
+ * writer thread is busy run together in one transaction, so they share one journal flush instead
+ * of each paying for its own. 组提交：排队的写操作放在一个事务里一起提交
+ * <p>
+ * There is no timer. A write that finds the writer idle is committed right away, on its own, and
+ * the writes that arrive while that commit runs form the next batch, so a burst of writes is
+ * batched without slowing down a single one. Writes commit in the order they were queued, and a
+ * read started on the writer thread after a write was queued sees it: the flush that takes the
+ * write is already ahead of the read, and it doesn't return until the queue is empty.
+ * <p>
+ * If a batch fails, its writes are committed again one by one, so only the write that fails is
+ * lost.
+ * <p>
+ * Writes to the same task coalesce while they wait: last writer wins. A write that overwrites
+ * everything a pending write of the same task wrote takes its place, so a checkbox toggled ten
+ * times while the writer is busy costs one update and one outbox entry. The write that was taken
+ * over is still told its outcome, the one of the write that replaced it. A write that isn't tied
+ * to one task, like clearing the completed tasks, reads the state the writes before it left, so
+ * nothing coalesces across it.
+ */
+final class GroupCommitQueue {
+
+    @VisibleForTesting
+    static final int MAX_BATCH_SIZE = 64; //一个事务最多放这么多写操作，免得事务太大
+
+    /** The write sets whether the task is completed. */
+    static final int FIELDS_COMPLETED = 1;
+
+    /** The write replaces or deletes the whole task. */
+    static final int FIELDS_ALL = FIELDS_COMPLETED | 2;
+
+    /**
+     * One write, run inside the transaction of its batch on the writer thread.
+     */
+    abstract static class Write {
+
+        @Nullable
+        private final String mTaskId;
+
+        private final int mFields;
+
+        // The pending writes this one took the place of, oldest first
+        private List<Write> mReplaced;
+
+        /**
+         * A write that isn't tied to one task. It never coalesces, and writes queued after it
+         * don't coalesce with the ones queued before it.
+         */
+        Write() {
+            this(null, 0);
+        }
+
+        /**
+         * A write to one task that sets {@code fields}, one of {@link #FIELDS_COMPLETED} and
+         * {@link #FIELDS_ALL}.
+         */
+        Write(@Nullable String taskId, int fields) {
+            mTaskId = taskId;
+            mFields = fields;
+        }
+
+        abstract void run();
+
+        /**
+         * Called on the writer thread once the write is committed.
+         */
+        void onCommitted() {
+        }
+
+        /**
+         * Called on the writer thread if the write was rolled back. By default the exception is
+         * thrown on, as it was before the writes were batched.
+         */
+        void onFailed(@NonNull SQLException e) {
+            throw e;
+        }
+
+        private boolean isBarrier() {
+            return mTaskId == null;
+        }
+
+        private boolean overwrites(Write pending) {
+            return !isBarrier() && mTaskId.equals(pending.mTaskId)
+                    && (mFields & pending.mFields) == pending.mFields;
+        }
+
+        private void replace(Write pending) {
+            if (mReplaced == null) {
+                mReplaced = new ArrayList<>();
+            }
+            if (pending.mReplaced != null) {
+                mReplaced.addAll(pending.mReplaced);
+                pending.mReplaced = null;
+            }
+            mReplaced.add(pending);
+        }
+
+        private void committed() {
+            if (mReplaced != null) {
+                for (Write replaced : mReplaced) {
+                    replaced.onCommitted();
+                }
+            }
+            onCommitted();
+        }
+
+        private void failed(SQLException e) {
+            RuntimeException unhandled = null;
+            if (mReplaced != null) {
+                for (Write replaced : mReplaced) {
+                    try {
+                        replaced.onFailed(e);
+                    } catch (RuntimeException failure) {
+                        if (unhandled == null) {
+                            unhandled = failure;
+                        }
+                    }
+                }
+            }
+            try {
+                onFailed(e);
+            } catch (RuntimeException failure) {
+                if (unhandled == null) {
+                    unhandled = failure;
+                }
+            }
+            if (unhandled != null) {
+                throw unhandled;
+            }
+        }
+    }
+
+    private final RoomDatabase mDatabase;
+
+    private final Executor mWriterThread;
+
+    // Guarded by itself
+    private final ArrayDeque<Write> mPendingWrites = new ArrayDeque<>();
+
+    private boolean mFlushScheduled; //已经有flush在writer线程排队或者在跑了
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    GroupCommitQueue(@NonNull RoomDatabase database, @NonNull Executor writerThread) {
+        mDatabase = checkNotNull(database);
+        mWriterThread = checkNotNull(writerThread);
+    }
+
+    void enqueue(@NonNull Write write) {
+        checkNotNull(write);
+        synchronized (mPendingWrites) {
+            coalesce(write);
+            mPendingWrites.add(write);
+            if (mFlushScheduled) {
+                return; //正在排队的flush会带上它
+            }
+            mFlushScheduled = true;
+        }
+        mWriterThread.execute(mFlush);
+    }
+
+    /**
+     * Takes the pending writes of the same task that {@code write} overwrites out of the queue,
+     * back to the last barrier. Must hold the lock.
+     */
+    private void coalesce(Write write) {
+        if (write.isBarrier()) {
+            return;
+        }
+        List<Write> replaced = null;
+        Iterator<Write> pending = mPendingWrites.descendingIterator();
+        while (pending.hasNext()) {
+            Write earlier = pending.next();
+            if (earlier.isBarrier()) {
+                break;
+            }
+            if (write.overwrites(earlier)) {
+                pending.remove();
+                if (replaced == null) {
+                    replaced = new ArrayList<>();
+                }
+                replaced.add(0, earlier); //倒着找的，插到前面保持先后顺序
+            }
+        }
+        if (replaced != null) {
+            for (Write earlier : replaced) {
+                write.replace(earlier);
+            }
+        }
+    }
+
+    private void flush() {
+        while (true) {
+            List<Write> batch;
+            synchronized (mPendingWrites) {
+                if (mPendingWrites.isEmpty()) {
+                    mFlushScheduled = false;
+                    return;
+                }
+                batch = new ArrayList<>(Math.min(mPendingWrites.size(), MAX_BATCH_SIZE));
+                while (batch.size() < MAX_BATCH_SIZE && !mPendingWrites.isEmpty()) {
+                    batch.add(mPendingWrites.poll());
+                }
+            }
+            try {
+                commit(batch);
+            } catch (RuntimeException e) {
+                // The writer thread may go down with it, the writes queued behind still get a flush
+                boolean flushAgain;
+                synchronized (mPendingWrites) {
+                    flushAgain = !mPendingWrites.isEmpty();
+                    mFlushScheduled = flushAgain;
+                }
+                if (flushAgain) {
+                    mWriterThread.execute(mFlush);
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void commit(final List<Write> batch) {
+        try {
+            mDatabase.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    for (Write write : batch) {
+                        write.run();
+                    }
+                }
+            });
+        } catch (SQLException e) {
+            if (batch.size() == 1) {
+                batch.get(0).failed(e);
+            } else {
+                commitOneByOne(batch); //整个事务回滚了，挨个重来，只让出错的那个失败
+            }
+            return;
+        }
+        for (Write write : batch) {
+            write.committed();
+        }
+    }
+
+    private void commitOneByOne(List<Write> batch) {
+        RuntimeException failure = null;
+        for (final Write write : batch) {
+            try {
+                mDatabase.runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        write.run();
+                    }
+                });
+            } catch (SQLException e) {
+                try {
+                    write.failed(e);
+                } catch (RuntimeException unhandled) {
+                    if (failure == null) {
+                        failure = unhandled; //先把后面的写完，再抛出来
+                    }
+                }
+                continue;
+            }
+            write.committed();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
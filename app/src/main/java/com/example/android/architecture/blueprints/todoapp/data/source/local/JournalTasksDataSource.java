@@ -0,0 +1,703 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskChanges;
+import com.example.android.architecture.blueprints.todoapp.data.source.Cancellable;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
+import com.example.android.architecture.blueprints.todoapp.util.AppExecutors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Alternative to {@link TasksLocalDataSource} that keeps the tasks in a {@link TaskJournal}
+ * instead of the tasks table. 用追加日志代替Room存任务
+ * <p>
+ * Everything runs on the disk thread, which owns the journal. The journal is opened and replayed
+ * by the first read or write. A write appends one record to the mapped file right away, and the
+ * file is synced once the writes queued behind it are appended too, so a burst of writes pays for
+ * one sync. The mutations still go to the outbox table of the database, so the outbox remote
+ * data source sends them as before. They are inserted after the sync, in one transaction per
+ * sync: a crash in between keeps the change on the device but doesn't send it.
+ * <p>
+ * When most of the file is old versions of the tasks, it is compacted on the disk thread after
+ * the pending writes. Searching scans the tasks in memory, there is no full-text index.
+ */
+public class JournalTasksDataSource implements TasksDataSource {
+
+    private static final String TAG = "JournalTasksDataSource";
+
+    private static volatile JournalTasksDataSource INSTANCE;
+
+    private final AppExecutors mAppExecutors;
+
+    private final ToDoDatabase mDatabase;
+
+    private final File mFile;
+
+    // Everything below is only touched on the disk thread.
+    @Nullable
+    private TaskJournal mJournal;
+
+    private boolean mSyncScheduled;
+
+    // Outbox entries and callbacks of the records appended since the last sync
+    private final List<OutboxEntry> mUnsyncedOutbox = new ArrayList<>();
+
+    private final List<Runnable> mUnsyncedCallbacks = new ArrayList<>();
+
+    // The tasks removed by the latest clear or delete of every task, for restoreDeletedTasks
+    private List<Task> mLatestDeletion = new ArrayList<>();
+
+    private final Runnable mSync = new Runnable() {
+        @Override
+        public void run() {
+            sync();
+        }
+    };
+
+    @VisibleForTesting
+    JournalTasksDataSource(@NonNull AppExecutors appExecutors, @NonNull ToDoDatabase database,
+            @NonNull File file) {
+        mAppExecutors = checkNotNull(appExecutors);
+        mDatabase = checkNotNull(database);
+        mFile = checkNotNull(file);
+    }
+
+    /**
+     * @param database for the outbox
+     * @param file     the journal, created if it doesn't exist
+     */
+    public static JournalTasksDataSource getInstance(@NonNull AppExecutors appExecutors,
+            @NonNull ToDoDatabase database, @NonNull File file) {
+        if (INSTANCE == null) {
+            synchronized (JournalTasksDataSource.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new JournalTasksDataSource(appExecutors, database, file);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Note: {@link LoadTasksCallback#onDataNotAvailable()} is fired if there are no tasks or the
+     * journal can't be opened.
+     */
+    @Override
+    public Cancellable getTasks(@NonNull final LoadTasksCallback callback) {
+        checkNotNull(callback);
+        return read(new Read() {
+            @Override
+            List<Task> read(TaskJournal journal) {
+                return journal.getTasks();
+            }
+        }, callback);
+    }
+
+    @Override
+    public Cancellable getTask(@NonNull final String taskId,
+            @NonNull final GetTaskCallback callback) {
+        checkNotNull(taskId);
+        checkNotNull(callback);
+        final Cancellable request = new Cancellable();
+        mAppExecutors.diskIO().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (request.isCancelled()) {
+                    return;
+                }
+                TaskJournal journal = getJournal();
+                final Task task = journal == null ? null : journal.getTask(taskId);
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (request.isCancelled()) {
+                            return;
+                        }
+                        if (task != null) {
+                            callback.onTaskLoaded(task);
+                        } else {
+                            callback.onDataNotAvailable();
+                        }
+                    }
+                });
+            }
+        });
+        return request;
+    }
+
+    @Override
+    public Cancellable getTaskSummaries(@NonNull LoadTasksCallback callback) {
+        checkNotNull(callback);
+        return read(new Read() {
+            @Override
+            List<Task> read(TaskJournal journal) {
+                return toSummaries(journal.getTasks(), null);
+            }
+        }, callback);
+    }
+
+    /**
+     * Note: {@link LoadTasksCallback#onDataNotAvailable()} is fired if no task has that completed
+     * state.
+     */
+    @Override
+    public Cancellable getTasksByCompleted(final boolean completed,
+            @NonNull LoadTasksCallback callback) {
+        checkNotNull(callback);
+        return read(new Read() {
+            @Override
+            List<Task> read(TaskJournal journal) {
+                return toSummaries(journal.getTasks(), completed);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Cancellable getTaskCounts(@NonNull final LoadTaskCountsCallback callback) {
+        checkNotNull(callback);
+        return read(new Read() {
+            @Override
+            List<Task> read(TaskJournal journal) {
+                return journal.getTasks();
+            }
+        }, new LoadTasksCallback() {
+            @Override
+            public void onTasksLoaded(List<Task> tasks) {
+                int completedTasks = 0;
+                for (Task task : tasks) {
+                    if (task.isCompleted()) {
+                        completedTasks++;
+                    }
+                }
+                callback.onTaskCountsLoaded(tasks.size() - completedTasks, completedTasks);
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                callback.onDataNotAvailable();
+            }
+        });
+    }
+
+    /**
+     * Finds the tasks that have, for every word of {@code query}, a word starting with it, the
+     * ones that have them all in the title first.
+     */
+    @Override
+    public Cancellable searchTasks(@NonNull final String query,
+            @NonNull final LoadTasksCallback callback) {
+        checkNotNull(query);
+        checkNotNull(callback);
+        final Cancellable request = new Cancellable();
+        mAppExecutors.diskIO().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (request.isCancelled()) {
+                    return;
+                }
+                TaskJournal journal = getJournal();
+                final List<Task> tasks = journal == null
+                        ? new ArrayList<Task>() : search(journal.getTasks(), query);
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!request.isCancelled()) {
+                            callback.onTasksLoaded(tasks);
+                        }
+                    }
+                });
+            }
+        });
+        return request;
+    }
+
+    @Override
+    public void saveTask(@NonNull final Task task) {
+        checkNotNull(task);
+        write(new Write() {
+            @Override
+            void edit(TaskJournal.Edit edit) throws IOException {
+                edit.put(task);
+                addToOutbox(new OutboxEntry(OutboxEntry.OP_SAVE, task));
+            }
+        });
+    }
+
+    @Override
+    public void saveTask(@NonNull final Task task, @NonNull WriteCallback callback) {
+        checkNotNull(task);
+        write(new Write(callback) {
+            @Override
+            void edit(TaskJournal.Edit edit) throws IOException {
+                edit.put(task);
+                addToOutbox(new OutboxEntry(OutboxEntry.OP_SAVE, task));
+            }
+        });
+    }
+
+    @Override
+    public void completeTask(@NonNull Task task) {
+        setCompleted(task, true, null);
+    }
+
+    @Override
+    public void completeTask(@NonNull String taskId) {
+        // Not required for the local data source because the {@link TasksRepository} handles
+        // converting from a {@code taskId} to a {@link task} using its cached data.
+    }
+
+    @Override
+    public void activateTask(@NonNull Task task) {
+        setCompleted(task, false, null);
+    }
+
+    @Override
+    public void activateTask(@NonNull String taskId) {
+        // Not required for the local data source because the {@link TasksRepository} handles
+        // converting from a {@code taskId} to a {@link task} using its cached data.
+    }
+
+    /**
+     * Note: {@link WriteCallback#onWriteFailed()} is fired if the journal can't be written.
+     */
+    @Override
+    public void setTaskCompleted(@NonNull Task task, boolean completed,
+            @NonNull WriteCallback callback) {
+        setCompleted(task, completed, checkNotNull(callback));
+    }
+
+    @Override
+    public void clearCompletedTasks() {
+        write(new Write() {
+            @Override
+            void edit(TaskJournal.Edit edit) throws IOException {
+                mLatestDeletion = new ArrayList<>();
+                for (Task task : mJournal.getTasks()) {
+                    if (task.isCompleted()) {
+                        mLatestDeletion.add(task);
+                    }
+                }
+                edit.clearCompleted();
+                addToOutbox(new OutboxEntry(OutboxEntry.OP_CLEAR_COMPLETED, (String) null));
+            }
+        });
+    }
+
+    @Override
+    public void refreshTasks() {
+        // Not required because the {@link TasksRepository} handles the logic of refreshing the
+        // tasks from all the available data sources.
+    }
+
+    @Override
+    public void deleteAllTasks() {
+        write(new Write() {
+            @Override
+            void edit(TaskJournal.Edit edit) throws IOException {
+                mLatestDeletion = mJournal.getTasks();
+                edit.deleteAll();
+                addToOutbox(new OutboxEntry(OutboxEntry.OP_DELETE_ALL, (String) null));
+            }
+        });
+    }
+
+    /**
+     * The journal has no soft deletes: the removed tasks are kept in memory and appended again in
+     * one record, so the undo doesn't survive a restart of the app.
+     */
+    @Override
+    public void restoreDeletedTasks() {
+        write(new Write() {
+            @Override
+            void edit(TaskJournal.Edit edit) throws IOException {
+                for (Task task : mLatestDeletion) {
+                    edit.put(task);
+                    addToOutbox(new OutboxEntry(OutboxEntry.OP_SAVE, task));
+                }
+                mLatestDeletion = new ArrayList<>();
+            }
+        });
+    }
+
+    @Override
+    public void deleteTask(@NonNull final String taskId) {
+        checkNotNull(taskId);
+        write(new Write() {
+            @Override
+            void edit(TaskJournal.Edit edit) throws IOException {
+                edit.delete(taskId);
+                addToOutbox(new OutboxEntry(OutboxEntry.OP_DELETE, taskId));
+            }
+        });
+    }
+
+    /**
+     * Like {@link TasksLocalDataSource#replaceAllTasks(List)}, tasks that still have entries in
+     * the outbox keep their local state.
+     */
+    @Override
+    public void replaceAllTasks(@NonNull final List<Task> tasks) {
+        checkNotNull(tasks);
+        write(new Write() {
+            @Override
+            void edit(TaskJournal.Edit edit) throws IOException {
+                Set<String> pendingIds = getPendingTaskIds();
+                for (Task task : mJournal.getTasks()) {
+                    if (!pendingIds.contains(task.getId())) {
+                        edit.delete(task.getId());
+                    }
+                }
+                for (Task task : tasks) {
+                    if (!pendingIds.contains(task.getId())) {
+                        edit.put(task);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Note: {@link LoadTaskChangesCallback#onDataNotAvailable()} is always fired. Like the
+     * database, the journal doesn't keep tombstones once it is compacted.
+     */
+    @Override
+    public Cancellable getTaskChanges(long watermark,
+            @NonNull LoadTaskChangesCallback callback) {
+        checkNotNull(callback).onDataNotAvailable();
+        return new Cancellable();
+    }
+
+    @Override
+    public void applyTaskChanges(@NonNull final TaskChanges changes,
+            @NonNull final LoadTaskChangesCallback callback) {
+        checkNotNull(changes);
+        checkNotNull(callback);
+        final List<Task> changedTasks = new ArrayList<>();
+        final List<String> deletedTaskIds = new ArrayList<>();
+        write(new Write(new WriteCallback() {
+            @Override
+            public void onWriteCompleted() {
+                callback.onTaskChangesLoaded(new TaskChanges(changedTasks, deletedTaskIds,
+                        changes.getWatermark()));
+            }
+
+            @Override
+            public void onWriteFailed() {
+                callback.onDataNotAvailable();
+            }
+        }) {
+            @Override
+            void edit(TaskJournal.Edit edit) throws IOException {
+                Set<String> pendingIds = getPendingTaskIds();
+                for (Task task : changes.getChangedTasks()) {
+                    if (!pendingIds.contains(task.getId())) {
+                        edit.put(task);
+                        changedTasks.add(task);
+                    }
+                }
+                for (String taskId : changes.getDeletedTaskIds()) {
+                    if (!pendingIds.contains(taskId)) {
+                        edit.delete(taskId);
+                        deletedTaskIds.add(taskId);
+                    }
+                }
+            }
+        });
+    }
+
+    @VisibleForTesting
+    static void clearInstance() {
+        INSTANCE = null;
+    }
+
+    /**
+     * Closes the journal, the next read or write opens and replays it again, like after a
+     * restart.
+     */
+    @VisibleForTesting
+    void closeJournal() {
+        mAppExecutors.diskIO().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mJournal != null) {
+                    try {
+                        mJournal.close();
+                    } catch (IOException e) {
+                        Log.w(TAG, "Can't close " + mFile, e);
+                    }
+                    mJournal = null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads a list of tasks on the disk thread.
+     */
+    private abstract static class Read {
+
+        abstract List<Task> read(TaskJournal journal);
+    }
+
+    private Cancellable read(final Read read, final LoadTasksCallback callback) {
+        final Cancellable request = new Cancellable();
+        mAppExecutors.diskIO().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (request.isCancelled()) {
+                    return;
+                }
+                TaskJournal journal = getJournal();
+                final List<Task> tasks =
+                        journal == null ? new ArrayList<Task>() : read.read(journal);
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (request.isCancelled()) {
+                            return;
+                        }
+                        if (tasks.isEmpty()) {
+                            callback.onDataNotAvailable();
+                        } else {
+                            callback.onTasksLoaded(tasks);
+                        }
+                    }
+                });
+            }
+        });
+        return request;
+    }
+
+    /**
+     * One record, built on the disk thread.
+     */
+    private abstract static class Write {
+
+        @Nullable
+        final WriteCallback mCallback;
+
+        Write() {
+            this(null);
+        }
+
+        Write(@Nullable WriteCallback callback) {
+            mCallback = callback;
+        }
+
+        abstract void edit(TaskJournal.Edit edit) throws IOException;
+    }
+
+    private void setCompleted(@NonNull final Task task, final boolean completed,
+            @Nullable WriteCallback callback) {
+        checkNotNull(task);
+        write(new Write(callback) {
+            @Override
+            void edit(TaskJournal.Edit edit) throws IOException {
+                // The entry is replayed as a full save, so it holds the stored task: the caller
+                // may only have a summary without the description
+                Task storedTask = mJournal.getTask(task.getId());
+                edit.setCompleted(task.getId(), completed, System.currentTimeMillis());
+                addToOutbox(new OutboxEntry(
+                        completed ? OutboxEntry.OP_COMPLETE : OutboxEntry.OP_ACTIVATE,
+                        storedTask != null ? storedTask : task));
+            }
+        });
+    }
+
+    private void write(final Write write) {
+        mAppExecutors.diskIO().execute(new Runnable() {
+            @Override
+            public void run() {
+                int outboxSize = mUnsyncedOutbox.size();
+                boolean written = false;
+                TaskJournal journal = getJournal();
+                if (journal != null) {
+                    try {
+                        TaskJournal.Edit edit = journal.edit();
+                        write.edit(edit);
+                        edit.commit();
+                        written = true;
+                    } catch (IOException e) {
+                        Log.e(TAG, "Can't append to " + mFile, e);
+                    }
+                }
+                if (!written) {
+                    // Nothing was appended, so nothing may be sent
+                    mUnsyncedOutbox.subList(outboxSize, mUnsyncedOutbox.size()).clear();
+                }
+                if (write.mCallback != null) {
+                    final boolean succeeded = written;
+                    mUnsyncedCallbacks.add(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (succeeded) {
+                                write.mCallback.onWriteCompleted();
+                            } else {
+                                write.mCallback.onWriteFailed();
+                            }
+                        }
+                    });
+                }
+                if (!mSyncScheduled) {
+                    mSyncScheduled = true;
+                    mAppExecutors.diskIO().execute(mSync); //排在已经进队的写操作后面
+                }
+            }
+        });
+    }
+
+    private void addToOutbox(OutboxEntry entry) {
+        mUnsyncedOutbox.add(entry);
+    }
+
+    private Set<String> getPendingTaskIds() {
+        Set<String> pendingIds = new HashSet<>(mDatabase.outboxDao().getPendingTaskIds());
+        for (OutboxEntry entry : mUnsyncedOutbox) {
+            if (entry.getTaskId() != null) {
+                pendingIds.add(entry.getTaskId()); //还没进表的也算
+            }
+        }
+        return pendingIds;
+    }
+
+    private void sync() {
+        mSyncScheduled = false;
+        if (mJournal != null) {
+            mJournal.sync();
+        }
+        if (!mUnsyncedOutbox.isEmpty()) {
+            final List<OutboxEntry> entries = new ArrayList<>(mUnsyncedOutbox);
+            mUnsyncedOutbox.clear();
+            mDatabase.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    for (OutboxEntry entry : entries) {
+                        mDatabase.outboxDao().insertEntry(entry);
+                    }
+                }
+            });
+        }
+        for (Runnable callback : mUnsyncedCallbacks) {
+            mAppExecutors.mainThread().execute(callback);
+        }
+        mUnsyncedCallbacks.clear();
+
+        if (mJournal != null && mJournal.needsCompaction()) {
+            try {
+                mJournal.compact();
+            } catch (IOException e) {
+                Log.w(TAG, "Can't compact " + mFile, e); //下次再试，旧文件还能用
+            }
+        }
+    }
+
+    @Nullable
+    private TaskJournal getJournal() {
+        if (mJournal == null) {
+            try {
+                mJournal = TaskJournal.open(mFile);
+            } catch (IOException e) {
+                Log.e(TAG, "Can't open " + mFile, e);
+            }
+        }
+        return mJournal;
+    }
+
+    /**
+     * @param completed only keep the tasks in that state, or all of them if null
+     */
+    private static List<Task> toSummaries(List<Task> tasks, @Nullable Boolean completed) {
+        List<Task> summaries = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            if (completed == null || task.isCompleted() == completed) {
+                summaries.add(task.toSummary());
+            }
+        }
+        return summaries;
+    }
+
+    private static List<Task> search(List<Task> tasks, String query) {
+        String[] queryWords = toWords(query);
+        List<Task> titleMatches = new ArrayList<>();
+        List<Task> otherMatches = new ArrayList<>();
+        if (queryWords.length == 0) {
+            return titleMatches;
+        }
+        for (Task task : tasks) {
+            String[] titleWords = toWords(task.getTitle());
+            if (hasAll(titleWords, queryWords)) {
+                titleMatches.add(task.toSummary());
+                continue;
+            }
+            String[] descriptionWords = toWords(task.getDescription());
+            String[] words = Arrays.copyOf(titleWords, titleWords.length + descriptionWords.length);
+            System.arraycopy(descriptionWords, 0, words, titleWords.length,
+                    descriptionWords.length);
+            if (hasAll(words, queryWords)) {
+                otherMatches.add(task.toSummary());
+            }
+        }
+        titleMatches.addAll(otherMatches);
+        return titleMatches;
+    }
+
+    private static boolean hasAll(String[] words, String[] queryWords) {
+        for (String queryWord : queryWords) {
+            boolean found = false;
+            for (String word : words) {
+                if (word.startsWith(queryWord)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String[] toWords(@Nullable String text) {
+        if (text == null) {
+            return new String[0];
+        }
+        List<String> words = new ArrayList<>();
+        for (String word : text.toLowerCase(Locale.getDefault()).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words.toArray(new String[words.size()]);
+    }
+}
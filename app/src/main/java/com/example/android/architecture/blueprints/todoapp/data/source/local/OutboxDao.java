@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import android.arch.persistence.room.Dao;
+import android.arch.persistence.room.Insert;
+import android.arch.persistence.room.Query;
+
+import java.util.List;
+
+/**
+ * Data Access Object for the outbox table.
+ */
+@Dao
+public interface OutboxDao {
+
+    /**
+     * Append a pending mutation to the outbox.
+     *
+     * @param entry the mutation to record.
+     * @return the sequence number assigned to the entry.
+     */
+    @Insert
+    long insertEntry(OutboxEntry entry);
+
+    /**
+     * Select the oldest pending mutations, in the order they were recorded.
+     *
+     * @param limit maximum number of entries to return.
+     * @return at most {@code limit} entries.
+     */
+    @Query("SELECT * FROM outbox ORDER BY seq LIMIT :limit")
+    List<OutboxEntry> getOldestEntries(int limit);
+
+    /**
+     * Select the ids of the tasks that still have pending mutations.
+     *
+     * @return the distinct task ids in the outbox.
+     */
+    @Query("SELECT DISTINCT taskid FROM outbox WHERE taskid IS NOT NULL")
+    List<String> getPendingTaskIds();
+
+    /**
+     * Select the number of pending mutations.
+     *
+     * @return the number of entries in the outbox.
+     */
+    @Query("SELECT COUNT(*) FROM outbox")
+    int getEntryCount();
+
+    /**
+     * Delete every entry up to and including a sequence number, once they reached the remote.
+     *
+     * @param seq the last sequence number that was replayed.
+     * @return the number of entries deleted.
+     */
+    @Query("DELETE FROM outbox WHERE seq <= :seq")
+    int deleteEntriesUpTo(long seq);
+}
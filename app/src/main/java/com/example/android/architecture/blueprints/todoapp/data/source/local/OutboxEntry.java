@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Ignore;
+import android.arch.persistence.room.PrimaryKey;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+/**
+ * A mutation that was applied locally but has not reached the remote data source yet.
+ * <p>
+ * Rows are written by {@link TasksLocalDataSource} in the same transaction as the change to the
+ * tasks table, so the outbox never disagrees with the local data.
+ */
+@Entity(tableName = "outbox")
+public final class OutboxEntry {
+
+    /** Insert or replace a whole task. */
+    public static final int OP_SAVE = 1;
+
+    /** Mark a task as completed. */
+    public static final int OP_COMPLETE = 2;
+
+    /** Mark a task as active. */
+    public static final int OP_ACTIVATE = 3;
+
+    /** Delete a single task. */
+    public static final int OP_DELETE = 4;
+
+    /** Delete every completed task. Applies to all tasks, so it has no task id. */
+    public static final int OP_CLEAR_COMPLETED = 5;
+
+    /** Delete every task. Applies to all tasks, so it has no task id. */
+    public static final int OP_DELETE_ALL = 6;
+
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name = "seq")
+    private final long mSeq; //自增序号，决定回放顺序
+
+    @Nullable
+    @ColumnInfo(name = "taskid")
+    private final String mTaskId;
+
+    @ColumnInfo(name = "operation")
+    private final int mOperation;
+
+    @Nullable
+    @ColumnInfo(name = "title")
+    private final String mTitle;
+
+    @Nullable
+    @ColumnInfo(name = "description")
+    private final String mDescription;
+
+    @ColumnInfo(name = "completed")
+    private final boolean mCompleted;
+
+    public OutboxEntry(long seq, @Nullable String taskId, int operation, @Nullable String title,
+                       @Nullable String description, boolean completed) {
+        mSeq = seq;
+        mTaskId = taskId;
+        mOperation = operation;
+        mTitle = title;
+        mDescription = description;
+        mCompleted = completed;
+    }
+
+    /**
+     * Use this constructor for entries that carry the full state of a task. The sequence number
+     * is assigned by the database on insert.
+     */
+    @Ignore
+    public OutboxEntry(int operation, @NonNull Task task) {
+        this(0, task.getId(), operation, task.getTitle(), task.getDescription(),
+                task.isCompleted());
+    }
+
+    /**
+     * Use this constructor for entries that only need a task id, or none at all for
+     * {@link #OP_CLEAR_COMPLETED} and {@link #OP_DELETE_ALL}.
+     */
+    @Ignore
+    public OutboxEntry(int operation, @Nullable String taskId) {
+        this(0, taskId, operation, null, null, false);
+    }
+
+    public long getSeq() {
+        return mSeq;
+    }
+
+    @Nullable
+    public String getTaskId() {
+        return mTaskId;
+    }
+
+    public int getOperation() {
+        return mOperation;
+    }
+
+    @Nullable
+    public String getTitle() {
+        return mTitle;
+    }
+
+    @Nullable
+    public String getDescription() {
+        return mDescription;
+    }
+
+    public boolean isCompleted() {
+        return mCompleted;
+    }
+
+    /**
+     * @return true if this entry applies to every task instead of a single one.
+     */
+    public boolean isBulk() {
+        return mOperation == OP_CLEAR_COMPLETED || mOperation == OP_DELETE_ALL;
+    }
+
+    /**
+     * @return the task recorded in this entry, with the completion state the operation implies.
+     */
+    @NonNull
+    public Task toTask() {
+        boolean completed = mOperation == OP_COMPLETE
+                || (mOperation != OP_ACTIVATE && mCompleted);
+        return new Task(mTitle, mDescription, mTaskId, completed);
+    }
+
+    @Override
+    public String toString() {
+        return "OutboxEntry " + mSeq + " op " + mOperation + " for " + mTaskId;
+    }
+}
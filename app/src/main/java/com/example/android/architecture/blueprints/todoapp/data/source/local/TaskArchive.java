@@ -0,0 +1,278 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.room.RoomDatabase;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cold storage for old completed tasks. 归档表，放很久以前完成的任务
+ * <p>
+ * {@code archived_tasks} has the columns of {@code tasks} that an archived task still needs, all
+ * of its tasks are completed. A soft delete hides archived rows in place, with the same
+ * {@code deletion} number as the rows it hides in {@code tasks}, and the reads here skip them
+ * like those of {@link TasksDao} do. The reads of {@link TasksDao} don't see it, so the task
+ * list, the statistics and the repository cache only carry the tasks still in use; the archive is
+ * only read for the completed tasks, a task opened from them, and search, which has its own
+ * full-text index of the archive, see {@link TaskSearch}.
+ * <p>
+ * Rows are moved in both directions with {@code INSERT ... SELECT}, which Room can't declare in
+ * a DAO, so like the search index the table is created and used with plain SQL. Every method
+ * that writes must run in a transaction.
+ */
+final class TaskArchive {
+
+    private static final String[] TABLE_SQL = {
+            "CREATE TABLE IF NOT EXISTS `archived_tasks` (`entryid` TEXT NOT NULL, "
+                    + "`title` TEXT, `description` TEXT, `updatedat` INTEGER NOT NULL, "
+                    + "`deletion` INTEGER NOT NULL DEFAULT 0, PRIMARY KEY(`entryid`))",
+            "CREATE VIRTUAL TABLE IF NOT EXISTS `archived_tasks_fts` "
+                    + "USING fts4(`title`, `description`)",
+            "CREATE TRIGGER IF NOT EXISTS `archived_tasks_fts_ai` AFTER INSERT ON `archived_tasks` "
+                    + "BEGIN DELETE FROM `archived_tasks_fts` WHERE docid = new.rowid; "
+                    + "INSERT INTO `archived_tasks_fts`(docid, `title`, `description`) "
+                    + "VALUES (new.rowid, new.`title`, new.`description`); END",
+            "CREATE TRIGGER IF NOT EXISTS `archived_tasks_fts_ad` AFTER DELETE ON `archived_tasks` "
+                    + "BEGIN DELETE FROM `archived_tasks_fts` WHERE docid = old.rowid; END"
+    };
+
+    // The copy and the delete must pick the same rows, a LIMIT without an order doesn't promise it
+    private static final String ARCHIVABLE_ROWIDS = "SELECT rowid FROM tasks "
+            + "WHERE completed = 1 AND deletion = 0 AND updatedat < ? ORDER BY rowid LIMIT ?";
+
+    // Read by position in readTask
+    private static final String SUMMARY_SQL = "SELECT entryid, title, updatedat, "
+            + "CASE WHEN title IS NULL OR title = '' THEN description END AS description "
+            + "FROM archived_tasks WHERE deletion = 0";
+
+    private TaskArchive() {
+    }
+
+    /**
+     * Creates the archive as the latest version has it, for a new database. The migrations keep
+     * their own copy of the tables of their version, see {@link ToDoDatabase}.
+     */
+    static void createTable(@NonNull SupportSQLiteDatabase db) {
+        for (String sql : TABLE_SQL) {
+            db.execSQL(sql);
+        }
+    }
+
+    /**
+     * Moves some of the live completed tasks last changed before {@code updatedBefore} to the
+     * archive, so a large backlog is moved in short transactions.
+     *
+     * @param limit the most tasks to move.
+     * @return the number of tasks moved. Less than {@code limit} once none is left.
+     */
+    static int archiveCompletedTasks(@NonNull SupportSQLiteDatabase db, long updatedBefore,
+            int limit) {
+        Object[] args = {updatedBefore, limit};
+        db.execSQL("INSERT OR REPLACE INTO archived_tasks (entryid, title, description, updatedat) "
+                + "SELECT entryid, title, description, updatedat FROM tasks "
+                + "WHERE rowid IN (" + ARCHIVABLE_ROWIDS + ")", args);
+        db.execSQL("DELETE FROM tasks WHERE rowid IN (" + ARCHIVABLE_ROWIDS + ")", args);
+        return changes(db); //删掉几行就是搬了几行
+    }
+
+    /**
+     * Puts a task straight into the archive, for a task read from the backend that would only
+     * be moved there on the next pass.
+     */
+    static void archive(@NonNull SupportSQLiteDatabase db, @NonNull Task task) {
+        db.execSQL("INSERT OR REPLACE INTO archived_tasks (entryid, title, description, updatedat) "
+                + "VALUES (?, ?, ?, ?)", new Object[]{task.getId(), task.getTitle(),
+                task.getDescription(), task.getUpdatedAt()});
+    }
+
+    /**
+     * Moves an archived task back to {@code tasks}, completed, so the writes of {@link TasksDao}
+     * that update it in place find it. A hidden task stays hidden by the same soft delete.
+     * Nothing happens if it isn't archived.
+     */
+    static void unarchiveTask(@NonNull SupportSQLiteDatabase db, @NonNull String taskId) {
+        Object[] args = {taskId};
+        db.execSQL("INSERT OR REPLACE INTO tasks "
+                + "(entryid, title, description, completed, updatedat, deletion) "
+                + "SELECT entryid, title, description, 1, updatedat, deletion FROM archived_tasks "
+                + "WHERE entryid = ?", args);
+        db.execSQL("DELETE FROM archived_tasks WHERE entryid = ?", args);
+    }
+
+    /**
+     * @return the number for a new soft delete, one more than the latest in either table. See
+     * {@link Task#getDeletion()}.
+     */
+    static long nextDeletion(@NonNull SupportSQLiteDatabase db) {
+        Cursor cursor = db.query("SELECT MAX((SELECT IFNULL(MAX(deletion), 0) FROM tasks), "
+                + "(SELECT IFNULL(MAX(deletion), 0) FROM archived_tasks)) + 1");
+        try {
+            return cursor.moveToNext() ? cursor.getLong(0) : 1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Soft-deletes every archived task in place, in a single update, like
+     * {@link TasksDao#hideTasks(long)}. 只改标记，不用搬回热表
+     *
+     * @return the number of tasks hidden.
+     */
+    static int hideTasks(@NonNull SupportSQLiteDatabase db, long deletion) {
+        db.execSQL("UPDATE archived_tasks SET deletion = ? WHERE deletion = 0",
+                new Object[]{deletion});
+        return changes(db);
+    }
+
+    /**
+     * Soft-deletes the archived task with {@code taskId}, like
+     * {@link TasksDao#hideTaskById(String, long)}.
+     */
+    static void hideTask(@NonNull SupportSQLiteDatabase db, @NonNull String taskId,
+            long deletion) {
+        db.execSQL("UPDATE archived_tasks SET deletion = ? WHERE entryid = ? AND deletion = 0",
+                new Object[]{deletion, taskId});
+    }
+
+    /**
+     * @return the archived tasks hidden by the soft delete {@code deletion}.
+     */
+    @NonNull
+    static List<Task> getTasksOfDeletion(@NonNull SupportSQLiteDatabase db, long deletion) {
+        List<Task> tasks = new ArrayList<>();
+        Cursor cursor = db.query("SELECT entryid, title, updatedat, description "
+                + "FROM archived_tasks WHERE deletion = ?", new Object[]{deletion});
+        try {
+            while (cursor.moveToNext()) {
+                tasks.add(readTask(cursor, false));
+            }
+        } finally {
+            cursor.close();
+        }
+        return tasks;
+    }
+
+    /**
+     * Undoes the soft delete {@code deletion} in the archive, like
+     * {@link TasksDao#restoreDeletion(long)}.
+     */
+    static void restoreDeletion(@NonNull SupportSQLiteDatabase db, long deletion) {
+        db.execSQL("UPDATE archived_tasks SET deletion = 0 WHERE deletion = ?",
+                new Object[]{deletion});
+    }
+
+    /**
+     * Deletes for good some of the archived rows hidden by soft deletes, like
+     * {@link TasksDao#purgeHiddenTasks(long, int)}.
+     *
+     * @return the number of tasks deleted.
+     */
+    static int purgeHiddenTasks(@NonNull SupportSQLiteDatabase db, long keptDeletion, int limit) {
+        db.execSQL("DELETE FROM archived_tasks WHERE rowid IN (SELECT rowid FROM archived_tasks "
+                + "WHERE deletion != 0 AND deletion != ? LIMIT ?)",
+                new Object[]{keptDeletion, limit});
+        return changes(db);
+    }
+
+    static void deleteTask(@NonNull SupportSQLiteDatabase db, @NonNull String taskId) {
+        db.execSQL("DELETE FROM archived_tasks WHERE entryid = ?", new Object[]{taskId});
+    }
+
+    static void deleteTasks(@NonNull SupportSQLiteDatabase db) {
+        db.execSQL("DELETE FROM archived_tasks");
+    }
+
+    /**
+     * Must be called on a background thread.
+     *
+     * @return summaries of the archived tasks, in the order they were archived.
+     */
+    @NonNull
+    static List<Task> getSummaries(@NonNull RoomDatabase database) {
+        List<Task> tasks = new ArrayList<>();
+        Cursor cursor = database.query(SUMMARY_SQL, new Object[0]);
+        try {
+            while (cursor.moveToNext()) {
+                tasks.add(readTask(cursor, true));
+            }
+        } finally {
+            cursor.close();
+        }
+        return tasks;
+    }
+
+    /**
+     * Must be called on a background thread.
+     *
+     * @return the number of archived tasks that aren't hidden, all of them completed.
+     */
+    static int countTasks(@NonNull RoomDatabase database) {
+        Cursor cursor = database.query("SELECT COUNT(*) FROM archived_tasks WHERE deletion = 0",
+                new Object[0]);
+        try {
+            return cursor.moveToNext() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Must be called on a background thread.
+     *
+     * @return the archived task with {@code taskId}, or null if it isn't archived.
+     */
+    @Nullable
+    static Task getTask(@NonNull RoomDatabase database, @NonNull String taskId) {
+        Cursor cursor = database.query("SELECT entryid, title, updatedat, description "
+                + "FROM archived_tasks WHERE entryid = ? AND deletion = 0", new Object[]{taskId});
+        try {
+            return cursor.moveToNext() ? readTask(cursor, false) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads a row of {@code entryid, title, updatedat, description}.
+     */
+    private static Task readTask(Cursor cursor, boolean summary) {
+        String id = cursor.getString(0);
+        String title = cursor.getString(1);
+        long updatedAt = cursor.getLong(2);
+        String description = cursor.isNull(3) ? null : cursor.getString(3);
+        return summary ? Task.summaryOf(title, description, id, true, updatedAt)
+                : new Task(title, description, id, true, updatedAt);
+    }
+
+    private static int changes(SupportSQLiteDatabase db) {
+        Cursor cursor = db.query("SELECT changes()");
+        try {
+            return cursor.moveToNext() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
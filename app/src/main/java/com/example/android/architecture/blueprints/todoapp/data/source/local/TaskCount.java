@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import android.arch.persistence.room.ColumnInfo;
+
+/**
+ * One row of {@link TasksDao#getTaskCounts()}: how many tasks have the given completed state.
+ */
+public final class TaskCount {
+
+    @ColumnInfo(name = "completed")
+    private final boolean mCompleted;
+
+    @ColumnInfo(name = "count")
+    private final int mCount;
+
+    public TaskCount(boolean completed, int count) {
+        mCompleted = completed;
+        mCount = count;
+    }
+
+    public boolean isCompleted() {
+        return mCompleted;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+}
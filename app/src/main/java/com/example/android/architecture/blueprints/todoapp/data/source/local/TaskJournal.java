@@ -0,0 +1,516 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.google.common.base.Charsets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of task mutations in a memory-mapped file, with the tasks it adds up to kept
+ * in memory. 追加写的任务日志，文件用mmap映射
+ * <p>
+ * The file is a 4 byte header followed by records. A record is the length of its payload, the
+ * CRC32 of the payload and the payload: one or more operations, applied together or not at all.
+ * The mapped region grows in steps, and the bytes after the last record are zero. Opening the
+ * file replays every record into the in-memory index and stops at the first record that is cut
+ * short or doesn't match its checksum, which is where a crash left the file. That record and
+ * anything after it is discarded.
+ * <p>
+ * Every change appends, so the file keeps growing with old versions of the tasks.
+ * {@link #compact()} rewrites it with only the current tasks. Not thread safe: the owner keeps it
+ * on one thread.
+ */
+final class TaskJournal implements Closeable {
+
+    private static final byte MAGIC_0 = 'T';
+
+    private static final byte MAGIC_1 = 'J';
+
+    private static final byte VERSION = 1;
+
+    @VisibleForTesting
+    static final int HEADER_SIZE = 4;
+
+    private static final int RECORD_HEADER_SIZE = 8; //长度加CRC
+
+    private static final int GROWTH_STEP = 64 * 1024;
+
+    private static final int COMPACTION_MIN_OPERATIONS = 1024;
+
+    private static final int COMPACTION_OPERATIONS_PER_RECORD = 256;
+
+    private static final int OP_PUT = 1;
+
+    private static final int OP_SET_COMPLETED = 2;
+
+    private static final int OP_DELETE = 3;
+
+    private static final int OP_CLEAR_COMPLETED = 4;
+
+    private static final int OP_DELETE_ALL = 5;
+
+    private final File mFile;
+
+    private RandomAccessFile mRandomAccessFile;
+
+    private MappedByteBuffer mBuffer;
+
+    // Offset of the end of the last record
+    private int mEnd;
+
+    // Operations in the file, live or not, to tell when compacting is worth it
+    private int mOperationCount;
+
+    // The tasks as of the last record, in the order they were last put
+    private final Map<String, Task> mTasks = new LinkedHashMap<>();
+
+    private TaskJournal(@NonNull File file) {
+        mFile = file;
+    }
+
+    /**
+     * Opens the journal in {@code file}, creating it if it doesn't exist, and replays it.
+     *
+     * @throws IOException if the file can't be mapped or isn't a journal
+     */
+    @NonNull
+    static TaskJournal open(@NonNull File file) throws IOException {
+        TaskJournal journal = new TaskJournal(checkNotNull(file));
+        try {
+            journal.map();
+            journal.replay();
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    /**
+     * @return the tasks, in the order they were last saved
+     */
+    @NonNull
+    List<Task> getTasks() {
+        return new ArrayList<>(mTasks.values());
+    }
+
+    @Nullable
+    Task getTask(@NonNull String taskId) {
+        return mTasks.get(taskId);
+    }
+
+    int size() {
+        return mTasks.size();
+    }
+
+    /**
+     * @return the length of the records in the file, without the zeroes after them
+     */
+    int getLength() {
+        return mEnd;
+    }
+
+    /**
+     * Starts a record. Nothing changes until {@link Edit#commit()}.
+     */
+    @NonNull
+    Edit edit() {
+        return new Edit();
+    }
+
+    /**
+     * Writes the mapped pages to the storage device, so the records survive a power loss and
+     * not only a crash of the process.
+     */
+    void sync() {
+        mBuffer.force();
+    }
+
+    /**
+     * @return true once most of the file is old versions of the tasks
+     */
+    boolean needsCompaction() {
+        return mOperationCount >= COMPACTION_MIN_OPERATIONS
+                && mOperationCount > 2 * mTasks.size();
+    }
+
+    /**
+     * Rewrites the file with one put per current task. The new file is written and synced next
+     * to the old one and renamed over it, so a crash leaves one or the other.
+     */
+    void compact() throws IOException {
+        File compacted = new File(mFile.getPath() + ".compact");
+        RandomAccessFile out = new RandomAccessFile(compacted, "rw");
+        try {
+            out.setLength(0);
+            out.write(new byte[]{MAGIC_0, MAGIC_1, VERSION, 0});
+            Edit edit = new Edit();
+            for (Task task : mTasks.values()) {
+                edit.put(task);
+                if (edit.mOperations == COMPACTION_OPERATIONS_PER_RECORD) {
+                    out.write(edit.toRecord());
+                    edit = new Edit();
+                }
+            }
+            if (edit.mOperations > 0) {
+                out.write(edit.toRecord());
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        close();
+        if (!compacted.renameTo(mFile)) {
+            map(); //换不过去就接着用旧文件
+            throw new IOException("Can't replace " + mFile + " with " + compacted);
+        }
+        map();
+        replay();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mBuffer = null; //映射在buffer被回收的时候才解除
+        if (mRandomAccessFile != null) {
+            mRandomAccessFile.close();
+            mRandomAccessFile = null;
+        }
+    }
+
+    /**
+     * The operations of one record.
+     */
+    final class Edit {
+
+        private final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+
+        private final DataOutputStream mOut = new DataOutputStream(mBytes);
+
+        private int mOperations;
+
+        private Edit() {
+        }
+
+        /** Inserts or replaces a task. */
+        Edit put(@NonNull Task task) throws IOException {
+            mOut.writeByte(OP_PUT);
+            writeString(mOut, task.getId());
+            writeString(mOut, task.getTitle());
+            writeString(mOut, task.getDescription());
+            mOut.writeBoolean(task.isCompleted());
+            mOut.writeLong(task.getUpdatedAt());
+            mOperations++;
+            return this;
+        }
+
+        Edit setCompleted(@NonNull String taskId, boolean completed, long updatedAt)
+                throws IOException {
+            mOut.writeByte(OP_SET_COMPLETED);
+            writeString(mOut, taskId);
+            mOut.writeBoolean(completed);
+            mOut.writeLong(updatedAt);
+            mOperations++;
+            return this;
+        }
+
+        Edit delete(@NonNull String taskId) throws IOException {
+            mOut.writeByte(OP_DELETE);
+            writeString(mOut, taskId);
+            mOperations++;
+            return this;
+        }
+
+        Edit clearCompleted() throws IOException {
+            mOut.writeByte(OP_CLEAR_COMPLETED);
+            mOperations++;
+            return this;
+        }
+
+        Edit deleteAll() throws IOException {
+            mOut.writeByte(OP_DELETE_ALL);
+            mOperations++;
+            return this;
+        }
+
+        /**
+         * Appends the record and applies it to the tasks. The record is in the mapped file, so
+         * it survives the process dying, but not yet a power loss, see {@link #sync()}.
+         */
+        void commit() throws IOException {
+            if (mOperations == 0) {
+                return;
+            }
+            byte[] record = toRecord();
+            reserve(record.length);
+            // The length goes in last, a record without it is just zeroes to the replay
+            mBuffer.position(mEnd + 4);
+            mBuffer.put(record, 4, record.length - 4);
+            mBuffer.putInt(mEnd, record.length - RECORD_HEADER_SIZE);
+            mEnd += record.length;
+            apply(mBytes.toByteArray());
+        }
+
+        private byte[] toRecord() throws IOException {
+            mOut.flush();
+            byte[] payload = mBytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteArrayOutputStream record =
+                    new ByteArrayOutputStream(RECORD_HEADER_SIZE + payload.length);
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeInt(payload.length);
+            out.writeInt((int) crc.getValue());
+            out.write(payload);
+            return record.toByteArray();
+        }
+    }
+
+    /**
+     * One operation of a record, read back from the file.
+     */
+    private static final class Operation {
+
+        private final int mType;
+
+        @Nullable
+        private final String mTaskId;
+
+        @Nullable
+        private final Task mTask;
+
+        private final boolean mCompleted;
+
+        private final long mUpdatedAt;
+
+        private Operation(int type, @Nullable String taskId, @Nullable Task task,
+                boolean completed, long updatedAt) {
+            mType = type;
+            mTaskId = taskId;
+            mTask = task;
+            mCompleted = completed;
+            mUpdatedAt = updatedAt;
+        }
+
+        static Operation read(DataInputStream in) throws IOException {
+            int type = in.readUnsignedByte();
+            switch (type) {
+                case OP_PUT: {
+                    String taskId = readNonNullString(in);
+                    String title = readString(in);
+                    String description = readString(in);
+                    boolean completed = in.readBoolean();
+                    long updatedAt = in.readLong();
+                    return new Operation(type, taskId,
+                            new Task(title, description, taskId, completed, updatedAt),
+                            completed, updatedAt);
+                }
+                case OP_SET_COMPLETED: {
+                    String taskId = readNonNullString(in);
+                    boolean completed = in.readBoolean();
+                    return new Operation(type, taskId, null, completed, in.readLong());
+                }
+                case OP_DELETE:
+                    return new Operation(type, readNonNullString(in), null, false, 0);
+                case OP_CLEAR_COMPLETED:
+                case OP_DELETE_ALL:
+                    return new Operation(type, null, null, false, 0);
+                default:
+                    throw new IOException("Unknown journal operation " + type);
+            }
+        }
+
+        void applyTo(Map<String, Task> tasks) {
+            switch (mType) {
+                case OP_PUT:
+                    tasks.remove(mTaskId); //和REPLACE一样，重新放到最后
+                    tasks.put(mTaskId, mTask);
+                    break;
+                case OP_SET_COMPLETED:
+                    Task task = tasks.get(mTaskId);
+                    if (task != null) {
+                        tasks.put(mTaskId, new Task(task.getTitle(), task.getDescription(),
+                                mTaskId, mCompleted, mUpdatedAt));
+                    }
+                    break;
+                case OP_DELETE:
+                    tasks.remove(mTaskId);
+                    break;
+                case OP_CLEAR_COMPLETED:
+                    Iterator<Task> it = tasks.values().iterator();
+                    while (it.hasNext()) {
+                        if (it.next().isCompleted()) {
+                            it.remove();
+                        }
+                    }
+                    break;
+                default:
+                    tasks.clear();
+                    break;
+            }
+        }
+    }
+
+    private void map() throws IOException {
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        FileChannel channel = mRandomAccessFile.getChannel();
+        long length = channel.size();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException(mFile + " is too large");
+        }
+        boolean created = length < HEADER_SIZE;
+        mBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                created ? GROWTH_STEP : length);
+        if (created) {
+            mBuffer.put(0, MAGIC_0).put(1, MAGIC_1).put(2, VERSION).put(3, (byte) 0);
+        } else if (mBuffer.get(0) != MAGIC_0 || mBuffer.get(1) != MAGIC_1) {
+            throw new IOException(mFile + " is not a task journal");
+        } else if (mBuffer.get(2) != VERSION) {
+            throw new IOException("Unknown task journal version " + mBuffer.get(2));
+        }
+    }
+
+    private void replay() throws IOException {
+        mEnd = HEADER_SIZE;
+        mOperationCount = 0;
+        mTasks.clear();
+        skipRecords();
+        // Clear what a crash left after the last good record, so appends start on zeroes
+        for (int i = mEnd; i < mBuffer.capacity(); i++) {
+            if (mBuffer.get(i) != 0) {
+                mBuffer.put(i, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Applies the records from {@link #mEnd} on, and leaves it after the last good one.
+     */
+    private void skipRecords() {
+        int capacity = mBuffer.capacity();
+        while (mEnd + RECORD_HEADER_SIZE <= capacity) {
+            int length = mBuffer.getInt(mEnd);
+            if (length <= 0 || length > capacity - mEnd - RECORD_HEADER_SIZE) {
+                return; //到头了，或者是写了一半的记录
+            }
+            byte[] payload = new byte[length];
+            mBuffer.position(mEnd + RECORD_HEADER_SIZE);
+            mBuffer.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != mBuffer.getInt(mEnd + 4)) {
+                return;
+            }
+            try {
+                apply(payload);
+            } catch (IOException e) {
+                return; // A payload this version can't read, treat it like a torn record
+            }
+            mEnd += RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    /**
+     * Applies the operations of a payload to the tasks, all of them or none if it can't be read.
+     */
+    private void apply(byte[] payload) throws IOException {
+        List<Operation> operations = new ArrayList<>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        while (in.available() > 0) {
+            operations.add(Operation.read(in)); //先全部读出来，读不了就一个也不改
+        }
+        for (Operation operation : operations) {
+            operation.applyTo(mTasks);
+        }
+        mOperationCount += operations.size();
+    }
+
+    /**
+     * Makes room for {@code length} more bytes, mapping a larger region if needed.
+     */
+    private void reserve(int length) throws IOException {
+        if (mEnd + length <= mBuffer.capacity()) {
+            return;
+        }
+        long capacity = mBuffer.capacity();
+        while (capacity < mEnd + length) {
+            capacity = Math.max(capacity * 2, capacity + GROWTH_STEP);
+        }
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException(mFile + " is full");
+        }
+        mBuffer = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                capacity); //映射更大的区域，文件也跟着变长
+    }
+
+    private static void writeString(DataOutputStream out, @Nullable String value)
+            throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Nullable
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new IOException("String runs past the record");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    @NonNull
+    private static String readNonNullString(DataInputStream in) throws IOException {
+        String value = readString(in);
+        if (value == null) {
+            throw new IOException("Missing task id");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.room.RoomDatabase;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Full-text search of the task titles and descriptions. 全文搜索
+ * <p>
+ * Room can't declare virtual tables, so the index is an FTS4 table created with plain SQL next to
+ * the tables Room manages: {@code tasks_fts} holds a copy of each title and description, keyed by
+ * the rowid of the task, and triggers on {@code tasks} keep it up to date. The results are ranked
+ * by how many of the query words each task has, with words in the title counting more.
+ * <p>
+ * The archived tasks have an index of their own, {@code archived_tasks_fts}, kept up to date the
+ * same way, see {@link TaskArchive}. Their matches are ranked among themselves and come after
+ * those of the tasks in use.
+ */
+final class TaskSearch {
+
+    private static final String[] INDEX_SQL = {
+            "CREATE VIRTUAL TABLE IF NOT EXISTS `tasks_fts` USING fts4(`title`, `description`)",
+            "CREATE TRIGGER IF NOT EXISTS `tasks_fts_ai` AFTER INSERT ON `tasks` BEGIN "
+                    + "DELETE FROM `tasks_fts` WHERE docid = new.rowid; "
+                    + "INSERT INTO `tasks_fts`(docid, `title`, `description`) "
+                    + "VALUES (new.rowid, new.`title`, new.`description`); END",
+            "CREATE TRIGGER IF NOT EXISTS `tasks_fts_au` AFTER UPDATE OF `title`, `description` "
+                    + "ON `tasks` BEGIN "
+                    + "UPDATE `tasks_fts` SET `title` = new.`title`, "
+                    + "`description` = new.`description` WHERE docid = new.rowid; END",
+            "CREATE TRIGGER IF NOT EXISTS `tasks_fts_ad` AFTER DELETE ON `tasks` BEGIN "
+                    + "DELETE FROM `tasks_fts` WHERE docid = old.rowid; END"
+    };
+
+    /**
+     * The summary columns of {@link TasksDao#SUMMARY_COLUMNS}, plus what {@link #rank} needs.
+     */
+    private static final String SEARCH_SQL = "SELECT t.entryid, t.title, t.completed, "
+            + "t.updatedat, CASE WHEN t.title IS NULL OR t.title = '' THEN t.description END "
+            + "AS description, matchinfo(tasks_fts, 'pcx') AS matchinfo "
+            + "FROM tasks_fts JOIN tasks t ON t.rowid = tasks_fts.docid "
+            + "WHERE tasks_fts MATCH ? AND t.deletion = 0";
+
+    /**
+     * {@link #SEARCH_SQL} for the archive, whose tasks are all completed.
+     */
+    private static final String ARCHIVE_SEARCH_SQL = "SELECT a.entryid, a.title, 1 AS completed, "
+            + "a.updatedat, CASE WHEN a.title IS NULL OR a.title = '' THEN a.description END "
+            + "AS description, matchinfo(archived_tasks_fts, 'pcx') AS matchinfo "
+            + "FROM archived_tasks_fts JOIN archived_tasks a ON a.rowid = archived_tasks_fts.docid "
+            + "WHERE archived_tasks_fts MATCH ? AND a.deletion = 0";
+
+    // In the order of the columns of tasks_fts
+    private static final double[] COLUMN_WEIGHTS = {2.0, 1.0}; //标题里的词分量更重
+
+    private TaskSearch() {
+    }
+
+    static void createIndex(@NonNull SupportSQLiteDatabase db) {
+        for (String sql : INDEX_SQL) {
+            db.execSQL(sql);
+        }
+    }
+
+    /**
+     * Indexes the tasks already stored, for databases created before the index existed.
+     */
+    static void rebuildIndex(@NonNull SupportSQLiteDatabase db) {
+        db.execSQL("DELETE FROM `tasks_fts`");
+        db.execSQL("INSERT INTO `tasks_fts`(docid, `title`, `description`) "
+                + "SELECT rowid, `title`, `description` FROM `tasks`");
+    }
+
+    /**
+     * The DAO saves tasks with {@code INSERT OR REPLACE}, and SQLite only runs the delete trigger
+     * for the replaced row when recursive triggers are on. The insert trigger cleans up after
+     * it either way, this just keeps replaced rows from lingering in the index.
+     */
+    static void enableIndexTriggers(@NonNull SupportSQLiteDatabase db) {
+        db.execSQL("PRAGMA recursive_triggers = ON");
+    }
+
+    /**
+     * Must be called on a background thread.
+     *
+     * @return summaries of the tasks that have every word of {@code text}, or a word starting
+     * with it, best match first, then the archived ones
+     */
+    @NonNull
+    static List<Task> search(@NonNull RoomDatabase database, @NonNull String text) {
+        String match = toMatchExpression(text);
+        if (match == null) {
+            return new ArrayList<>();
+        }
+        List<Task> tasks = query(database, SEARCH_SQL, match);
+        tasks.addAll(query(database, ARCHIVE_SEARCH_SQL, match)); //归档的只在搜索时才读
+        return tasks;
+    }
+
+    private static List<Task> query(RoomDatabase database, String sql, String match) {
+        final List<Task> tasks = new ArrayList<>();
+        final List<Double> scores = new ArrayList<>();
+        Cursor cursor = database.query(sql, new Object[]{match});
+        try {
+            int idColumn = cursor.getColumnIndexOrThrow("entryid");
+            int titleColumn = cursor.getColumnIndexOrThrow("title");
+            int descriptionColumn = cursor.getColumnIndexOrThrow("description");
+            int completedColumn = cursor.getColumnIndexOrThrow("completed");
+            int updatedAtColumn = cursor.getColumnIndexOrThrow("updatedat");
+            int matchinfoColumn = cursor.getColumnIndexOrThrow("matchinfo");
+            while (cursor.moveToNext()) {
+                tasks.add(Task.summaryOf(cursor.getString(titleColumn),
+                        cursor.isNull(descriptionColumn) ? null
+                                : cursor.getString(descriptionColumn),
+                        cursor.getString(idColumn), cursor.getInt(completedColumn) != 0,
+                        cursor.getLong(updatedAtColumn)));
+                scores.add(rank(toInts(cursor.getBlob(matchinfoColumn))));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        List<Integer> order = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() { //稳定排序，同分的保持库里的顺序
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(scores.get(b), scores.get(a));
+            }
+        });
+        List<Task> ranked = new ArrayList<>(tasks.size());
+        for (int i : order) {
+            ranked.add(tasks.get(i));
+        }
+        return ranked;
+    }
+
+    /**
+     * Turns what the user typed into an FTS query that matches tasks having all of its words,
+     * the last one possibly unfinished. Each word is quoted so words like {@code OR} are not
+     * read as operators.
+     *
+     * @return the query, or null if {@code text} has no words
+     */
+    @VisibleForTesting
+    @Nullable
+    static String toMatchExpression(@NonNull String text) {
+        StringBuilder match = new StringBuilder();
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append('"').append(word).append("*\"");
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+
+    /**
+     * Scores a row from its {@code matchinfo(tasks_fts, 'pcx')}: for each query word and column,
+     * the hits in this row over the hits in all rows, weighted by column. Rare words count more
+     * than words most tasks have.
+     */
+    @VisibleForTesting
+    static double rank(@NonNull int[] matchinfo) {
+        int phrases = matchinfo[0];
+        int columns = matchinfo[1];
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns; column++) {
+                int offset = 2 + 3 * (phrase * columns + column);
+                int hitsThisRow = matchinfo[offset];
+                int hitsAllRows = matchinfo[offset + 1];
+                if (hitsThisRow > 0 && hitsAllRows > 0) {
+                    double weight = column < COLUMN_WEIGHTS.length ? COLUMN_WEIGHTS[column] : 1.0;
+                    score += weight * hitsThisRow / hitsAllRows;
+                }
+            }
+        }
+        return score;
+    }
+
+    /**
+     * matchinfo is an array of 32-bit integers in the byte order of the device.
+     */
+    @VisibleForTesting
+    static int[] toInts(@NonNull byte[] blob) {
+        IntBuffer buffer = ByteBuffer.wrap(blob).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int[] ints = new int[buffer.remaining()];
+        buffer.get(ints);
+        return ints;
+    }
+}
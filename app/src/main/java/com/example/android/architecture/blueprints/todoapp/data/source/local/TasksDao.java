@@ -34,20 +34,55 @@ import java.util.List;
 public interface TasksDao {
 
     /**
-     * Select all tasks from the tasks table.
+     * The columns of a task summary. See {@link Task#summaryOf}.
+     */
+    String SUMMARY_COLUMNS = "entryid, title, completed, updatedat, deletion, "
+            + "CASE WHEN title IS NULL OR title = '' THEN description END AS description";
+
+    /**
+     * Select all tasks from the tasks table. Rows hidden by a soft delete are skipped here and in
+     * every other read.
      *
      * @return all tasks.
      */
-    @Query("SELECT * FROM Tasks")
+    @Query("SELECT * FROM Tasks WHERE deletion = 0")
     List<Task> getTasks(); //获得所有任务，选择所有字段从Tasks表里
 
+    /**
+     * Select what the task list shows of every task. Descriptions are only read for the tasks
+     * without a title, the list shows the description in their place.
+     *
+     * @return all tasks, without the descriptions the list doesn't need.
+     */
+    @Query("SELECT " + SUMMARY_COLUMNS + " FROM Tasks WHERE deletion = 0")
+    List<Task> getTaskSummaries(); //列表只要标题和状态，长长的描述不用读出来
+
+    /**
+     * Select what the task list shows of the active or the completed tasks, using the index on
+     * the completed column.
+     *
+     * @param completed true for the completed tasks, false for the active ones.
+     * @return the tasks with that completed state, without the descriptions the list doesn't need.
+     */
+    @Query("SELECT " + SUMMARY_COLUMNS + " FROM Tasks "
+            + "WHERE completed = :completed AND deletion = 0")
+    List<Task> getTasksByCompleted(boolean completed); //只查要展示的那一半
+
+    /**
+     * Count the active and the completed tasks. A state that no task has gets no row.
+     *
+     * @return at most two rows, one per completed state.
+     */
+    @Query("SELECT completed, COUNT(*) AS count FROM Tasks WHERE deletion = 0 GROUP BY completed")
+    List<TaskCount> getTaskCounts(); //统计交给SQLite，不用把整张表读出来
+
     /**
      * Select a task by id.
      *
      * @param taskId the task id.
      * @return the task with taskId.
      */
-    @Query("SELECT * FROM Tasks WHERE entryid = :taskId") //从Tasks表里找到指定id的记录，其中选择所有字段
+    @Query("SELECT * FROM Tasks WHERE entryid = :taskId AND deletion = 0") //从Tasks表里找到指定id的记录，其中选择所有字段
     Task getTaskById(String taskId);
 
     /**
@@ -76,6 +111,16 @@ public interface TasksDao {
     @Query("UPDATE tasks SET completed = :completed WHERE entryid = :taskId")
     void updateCompleted(String taskId, boolean completed); //更新一条记录的更新状态，牛逼，指定entryid，然后变更他的completed字段　
 
+    /**
+     * Update the complete status of a task along with its modification time.
+     *
+     * @param taskId    id of the task
+     * @param completed status to be updated
+     * @param updatedAt time of the change, in milliseconds since the epoch
+     */
+    @Query("UPDATE tasks SET completed = :completed, updatedat = :updatedAt WHERE entryid = :taskId")
+    void updateCompletedAt(String taskId, boolean completed, long updatedAt);
+
     /**
      * Delete a task by id.
      *
@@ -85,16 +130,68 @@ public interface TasksDao {
     int deleteTaskById(String taskId); //通过id干掉记录， 被干掉记录的数量，肯定一直是1啊
 
     /**
-     * Delete all tasks.
+     * Soft-delete the completed tasks: they are marked with the number of this deletion and
+     * hidden from the reads, in a single update. The archive hides its rows with the same
+     * number, which it hands out, see {@link TaskArchive#nextDeletion}.
+     *
+     * @param deletion the number of the soft delete.
+     * @return the number of tasks hidden.
+     */
+    @Query("UPDATE tasks SET deletion = :deletion WHERE completed = 1 AND deletion = 0")
+    int hideCompletedTasks(long deletion); //只改标记，不真删
+
+    /**
+     * Soft-delete all tasks, like {@link #hideCompletedTasks(long)}.
+     *
+     * @return the number of tasks hidden.
+     */
+    @Query("UPDATE tasks SET deletion = :deletion WHERE deletion = 0")
+    int hideTasks(long deletion);
+
+    /**
+     * Soft-delete a task by id, like {@link #hideCompletedTasks(long)}.
+     *
+     * @return the number of tasks hidden. This should always be 1.
+     */
+    @Query("UPDATE tasks SET deletion = :deletion WHERE entryid = :taskId AND deletion = 0")
+    int hideTaskById(String taskId, long deletion);
+
+    /**
+     * Select the tasks hidden by a soft delete.
+     *
+     * @param deletion the number of the soft delete.
+     * @return the tasks {@link #restoreDeletion(long)} brings back.
+     */
+    @Query("SELECT * FROM Tasks WHERE deletion = :deletion")
+    List<Task> getTasksOfDeletion(long deletion);
+
+    /**
+     * Undo a soft delete, in a single update.
+     *
+     * @param deletion the number of the soft delete.
+     * @return the number of tasks restored.
+     */
+    @Query("UPDATE tasks SET deletion = 0 WHERE deletion = :deletion")
+    int restoreDeletion(long deletion); //撤销，把标记改回0
+
+    /**
+     * Delete for good some of the rows hidden by soft deletes, so a large clear is purged in
+     * short transactions.
+     *
+     * @param keptDeletion the number of a soft delete whose rows are kept, or 0.
+     * @param limit        the most rows to delete.
+     * @return the number of tasks deleted. Less than {@code limit} once nothing is left.
      */
-    @Query("DELETE FROM Tasks")
-    void deleteTasks(); //从Tasks表中删除所有记录
+    @Query("DELETE FROM Tasks WHERE entryid IN (SELECT entryid FROM Tasks "
+            + "WHERE deletion != 0 AND deletion != :keptDeletion LIMIT :limit)")
+    int purgeHiddenTasks(long keptDeletion, int limit); //分批真删，每次只删一点
 
     /**
-     * Delete all completed tasks from the table.
+     * Delete all tasks that have no pending mutation in the outbox.
      *
      * @return the number of tasks deleted.
      */
-    @Query("DELETE FROM Tasks WHERE completed = 1")
-    int deleteCompletedTasks(); //删除 completed = 1 的所有记录 ，表当然就是Tasks了,返回值是删除了几条记录
+    @Query("DELETE FROM Tasks WHERE entryid NOT IN "
+            + "(SELECT taskid FROM outbox WHERE taskid IS NOT NULL)")
+    int deleteTasksWithoutPendingChanges();
 }
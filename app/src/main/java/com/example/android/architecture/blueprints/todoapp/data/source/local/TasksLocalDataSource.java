@@ -18,40 +18,105 @@ package com.example.android.architecture.blueprints.todoapp.data.source.local;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.database.SQLException;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskChanges;
+import com.example.android.architecture.blueprints.todoapp.data.source.Cancellable;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
 import com.example.android.architecture.blueprints.todoapp.util.AppExecutors;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 
 /**
  * Concrete implementation of a data source as a db. //使用单例模式，就一个对象
+ * <p>
+ * Deletes are soft: the rows are only marked, see {@link Task#getDeletion()}, which is one cheap
+ * update however many tasks a clear hides. They are deleted for good later, a bounded batch at a
+ * time, whenever the main thread is idle. The rows of the latest clear or delete of every task
+ * made since the app started are kept until the next one, for {@link #restoreDeletedTasks()}.
+ * Rows still hidden when the app last stopped are purged after it starts. Archived rows are
+ * hidden, restored and purged the same way, where they are.
+ * <p>
+ * Completed tasks that haven't changed for {@link #ARCHIVE_AGE_MILLIS} are moved to the archive,
+ * see {@link TaskArchive}, in batches like the purge, after the app starts. Only the completed
+ * tasks, a single task and search read it. A write to an archived task moves it back first.
  */
 public class TasksLocalDataSource implements TasksDataSource {
 
+    @VisibleForTesting
+    static final int PURGE_BATCH_SIZE = 200; //一次最多真删这么多行
+
+    @VisibleForTesting
+    static final long ARCHIVE_AGE_MILLIS = TimeUnit.DAYS.toMillis(30); //完成超过30天没动过的就归档
+
+    @VisibleForTesting
+    static final int ARCHIVE_BATCH_SIZE = 200;
+
     private static volatile TasksLocalDataSource INSTANCE; //我去还用了volatile啊
 
+    private ToDoDatabase mDatabase;
+
     private TasksDao mTasksDao;
 
+    private OutboxDao mOutboxDao; //要同步到远程仓库的修改，和本地写入放在同一个事务里
+
     private AppExecutors mAppExecutors; //我去，上来就App的线程池管理，整个进程都有的线程池
 
+    private GroupCommitQueue mWriteQueue; //写操作排队，攒在一起提交
+
+    // Only touched on the disk thread
+    private long mUndoableDeletion; //还能撤销的那次软删除的编号，先不真删
+
+    private boolean mPurgeScheduled;
+
+    private final Runnable mPurge = new Runnable() {
+        @Override
+        public void run() {
+            mWriteQueue.enqueue(new PurgeWrite());
+        }
+    };
+
+    private boolean mArchiveScheduled;
+
+    private final Runnable mArchive = new Runnable() {
+        @Override
+        public void run() {
+            mWriteQueue.enqueue(new ArchiveWrite());
+        }
+    };
+
     // Prevent direct instantiation.
     private TasksLocalDataSource(@NonNull AppExecutors appExecutors, //我草，上来构造方法整个private，看来是要搞单例
-            @NonNull TasksDao tasksDao) {
+            @NonNull ToDoDatabase database) {
         mAppExecutors = appExecutors; //线程池对象
-        mTasksDao = tasksDao;  //操作数据库单对象
+        mDatabase = database;
+        mTasksDao = database.taskDao();  //操作数据库单对象
+        mOutboxDao = database.outboxDao();
+        mWriteQueue = new GroupCommitQueue(database, appExecutors.diskIO());
+        appExecutors.diskIO().execute(new Runnable() {
+            @Override
+            public void run() {
+                schedulePurge(); //上次退出时还没删完的行
+                scheduleArchive();
+            }
+        });
     }
 
     public static TasksLocalDataSource getInstance(@NonNull AppExecutors appExecutors,
-            @NonNull TasksDao tasksDao) {
+            @NonNull ToDoDatabase database) {
         if (INSTANCE == null) {
             synchronized (TasksLocalDataSource.class) {  //双向check，单例模式，类对象锁
                 if (INSTANCE == null) {
-                    INSTANCE = new TasksLocalDataSource(appExecutors, tasksDao);
+                    INSTANCE = new TasksLocalDataSource(appExecutors, database);
                 }
             }
         }
@@ -63,14 +128,21 @@ public class TasksLocalDataSource implements TasksDataSource {
      * or the table is empty.
      */
     @Override
-    public void getTasks(@NonNull final LoadTasksCallback callback) {
+    public Cancellable getTasks(@NonNull final LoadTasksCallback callback) {
+        final Cancellable request = new Cancellable();
         Runnable runnable = new Runnable() { //这个任务是放到磁盘线程池里执行的啊，这么牛逼
             @Override
             public void run() {
+                if (request.isCancelled()) {
+                    return; //排队的时候已经取消了，不用再查库
+                }
                 final List<Task> tasks = mTasksDao.getTasks(); //去库里拿到所有的记录，放到线性表里
                 mAppExecutors.mainThread().execute(new Runnable() { //用ui线程执行一个任务
                     @Override
                     public void run() {
+                        if (request.isCancelled()) {
+                            return;
+                        }
                         if (tasks.isEmpty()) { //检查表里有没有记录
                             // This will be called if the table is new or just empty.
                             callback.onDataNotAvailable();
@@ -83,21 +155,34 @@ public class TasksLocalDataSource implements TasksDataSource {
         };
 
         mAppExecutors.diskIO().execute(runnable);
+        return request;
     }
 
     /**
      * Note: {@link GetTaskCallback#onDataNotAvailable()} is fired if the {@link Task} isn't
      */
     @Override
-    public void getTask(@NonNull final String taskId, @NonNull final GetTaskCallback callback) {
+    public Cancellable getTask(@NonNull final String taskId,
+            @NonNull final GetTaskCallback callback) {
+        final Cancellable request = new Cancellable();
         Runnable runnable = new Runnable() {
             @Override
             public void run() {
-                final Task task = mTasksDao.getTaskById(taskId);
+                if (request.isCancelled()) {
+                    return;
+                }
+                Task found = mTasksDao.getTaskById(taskId);
+                if (found == null) {
+                    found = TaskArchive.getTask(mDatabase, taskId); //可能是从已完成列表里点进来的归档任务
+                }
+                final Task task = found;
 
                 mAppExecutors.mainThread().execute(new Runnable() {
                     @Override
                     public void run() {
+                        if (request.isCancelled()) {
+                            return;
+                        }
                         if (task != null) {
                             callback.onTaskLoaded(task);
                         } else {
@@ -109,30 +194,212 @@ public class TasksLocalDataSource implements TasksDataSource {
         };
 
         mAppExecutors.diskIO().execute(runnable);
+        return request;
     }
 
+    /**
+     * Note: {@link LoadTasksCallback#onDataNotAvailable()} is fired if the database doesn't exist
+     * or the table is empty.
+     */
     @Override
-    public void saveTask(@NonNull final Task task) {
-        checkNotNull(task);
-        Runnable saveRunnable = new Runnable() {
+    public Cancellable getTaskSummaries(@NonNull final LoadTasksCallback callback) {
+        final Cancellable request = new Cancellable();
+        Runnable runnable = new Runnable() {
             @Override
             public void run() {
-                mTasksDao.insertTask(task);
+                if (request.isCancelled()) {
+                    return;
+                }
+                final List<Task> tasks = toSummaries(mTasksDao.getTaskSummaries()); //不读详细描述
+
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (request.isCancelled()) {
+                            return;
+                        }
+                        if (tasks.isEmpty()) {
+                            callback.onDataNotAvailable();
+                        } else {
+                            callback.onTasksLoaded(tasks);
+                        }
+                    }
+                });
             }
         };
-        mAppExecutors.diskIO().execute(saveRunnable);
+
+        mAppExecutors.diskIO().execute(runnable);
+        return request;
     }
 
+    /**
+     * The completed tasks include the archived ones.
+     * <p>
+     * Note: {@link LoadTasksCallback#onDataNotAvailable()} is fired if no task has that completed
+     * state, the table may still have tasks with the other one.
+     */
     @Override
-    public void completeTask(@NonNull final Task task) {
-        Runnable completeRunnable = new Runnable() {
+    public Cancellable getTasksByCompleted(final boolean completed,
+            @NonNull final LoadTasksCallback callback) {
+        final Cancellable request = new Cancellable();
+        Runnable runnable = new Runnable() {
             @Override
             public void run() {
-                mTasksDao.updateCompleted(task.getId(), true);
+                if (request.isCancelled()) {
+                    return;
+                }
+                final List<Task> tasks =
+                        toSummaries(mTasksDao.getTasksByCompleted(completed)); //走completed索引
+                if (completed) {
+                    tasks.addAll(TaskArchive.getSummaries(mDatabase));
+                }
+
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (request.isCancelled()) {
+                            return;
+                        }
+                        if (tasks.isEmpty()) {
+                            callback.onDataNotAvailable();
+                        } else {
+                            callback.onTasksLoaded(tasks);
+                        }
+                    }
+                });
             }
         };
 
-        mAppExecutors.diskIO().execute(completeRunnable);
+        mAppExecutors.diskIO().execute(runnable);
+        return request;
+    }
+
+    /**
+     * The archived tasks are counted with the completed ones.
+     * <p>
+     * Note: {@link LoadTaskCountsCallback#onDataNotAvailable()} is fired if both tables are
+     * empty.
+     */
+    @Override
+    public Cancellable getTaskCounts(@NonNull final LoadTaskCountsCallback callback) {
+        final Cancellable request = new Cancellable();
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                if (request.isCancelled()) {
+                    return;
+                }
+                final List<TaskCount> counts = mTasksDao.getTaskCounts(); //最多两行
+                final int archivedTasks = TaskArchive.countTasks(mDatabase);
+
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (request.isCancelled()) {
+                            return;
+                        }
+                        int activeTasks = 0;
+                        int completedTasks = archivedTasks;
+                        for (TaskCount count : counts) {
+                            if (count.isCompleted()) {
+                                completedTasks += count.getCount();
+                            } else {
+                                activeTasks = count.getCount();
+                            }
+                        }
+                        if (activeTasks + completedTasks == 0) {
+                            callback.onDataNotAvailable();
+                        } else {
+                            callback.onTaskCountsLoaded(activeTasks, completedTasks);
+                        }
+                    }
+                });
+            }
+        };
+
+        mAppExecutors.diskIO().execute(runnable);
+        return request;
+    }
+
+    /**
+     * Searches the full-text indexes of the tasks and of the archive, see {@link TaskSearch}.
+     */
+    @Override
+    public Cancellable searchTasks(@NonNull final String query,
+            @NonNull final LoadTasksCallback callback) {
+        checkNotNull(query);
+        checkNotNull(callback);
+        final Cancellable request = new Cancellable();
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                if (request.isCancelled()) {
+                    return;
+                }
+                final List<Task> tasks = TaskSearch.search(mDatabase, query); //走tasks_fts全文索引
+
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!request.isCancelled()) {
+                            callback.onTasksLoaded(tasks);
+                        }
+                    }
+                });
+            }
+        };
+
+        mAppExecutors.diskIO().execute(runnable);
+        return request;
+    }
+
+    /**
+     * Writes are queued and committed in groups on the disk thread, see {@link GroupCommitQueue}.
+     * A read started after a write sees it.
+     */
+    @Override
+    public void saveTask(@NonNull final Task task) {
+        checkNotNull(task);
+        mWriteQueue.enqueue(new GroupCommitQueue.Write(task.getId(),
+                GroupCommitQueue.FIELDS_ALL) {
+            @Override
+            void run() {
+                TaskArchive.deleteTask(getWritableDatabase(), task.getId());
+                mTasksDao.insertTask(task);
+                mOutboxDao.insertEntry(new OutboxEntry(OutboxEntry.OP_SAVE, task));
+            }
+        });
+    }
+
+    /**
+     * Note: {@link WriteCallback#onWriteCompleted()} is fired once the task and its outbox entry
+     * are committed, {@link WriteCallback#onWriteFailed()} if the database rejects them.
+     */
+    @Override
+    public void saveTask(@NonNull final Task task, @NonNull WriteCallback callback) {
+        checkNotNull(task);
+        mWriteQueue.enqueue(new ReportingWrite(task.getId(), GroupCommitQueue.FIELDS_ALL,
+                callback) {
+            @Override
+            void run() {
+                TaskArchive.deleteTask(getWritableDatabase(), task.getId());
+                mTasksDao.insertTask(task);
+                mOutboxDao.insertEntry(new OutboxEntry(OutboxEntry.OP_SAVE, task));
+            }
+        });
+    }
+
+    @Override
+    public void completeTask(@NonNull final Task task) {
+        mWriteQueue.enqueue(new GroupCommitQueue.Write(task.getId(),
+                GroupCommitQueue.FIELDS_COMPLETED) {
+            @Override
+            void run() {
+                TaskArchive.unarchiveTask(getWritableDatabase(), task.getId());
+                mTasksDao.updateCompletedAt(task.getId(), true, System.currentTimeMillis());
+                mOutboxDao.insertEntry(newCompletedEntry(true, task));
+            }
+        });
     }
 
     @Override
@@ -143,13 +410,15 @@ public class TasksLocalDataSource implements TasksDataSource {
 
     @Override
     public void activateTask(@NonNull final Task task) {
-        Runnable activateRunnable = new Runnable() {
+        mWriteQueue.enqueue(new GroupCommitQueue.Write(task.getId(),
+                GroupCommitQueue.FIELDS_COMPLETED) {
             @Override
-            public void run() {
-                mTasksDao.updateCompleted(task.getId(), false);
+            void run() {
+                TaskArchive.unarchiveTask(getWritableDatabase(), task.getId()); //归档的先搬回来才能改
+                mTasksDao.updateCompletedAt(task.getId(), false, System.currentTimeMillis());
+                mOutboxDao.insertEntry(newCompletedEntry(false, task));
             }
-        };
-        mAppExecutors.diskIO().execute(activateRunnable);
+        });
     }
 
     @Override
@@ -158,17 +427,55 @@ public class TasksLocalDataSource implements TasksDataSource {
         // converting from a {@code taskId} to a {@link task} using its cached data.
     }
 
+    /**
+     * @return the outbox entry of a change to the completed state of {@code task}, holding the
+     * task as stored. The caller may only have a summary without the description, and the entry
+     * is replayed as a full save. 列表里的Task可能没有描述，要用库里完整的那一条
+     */
+    private OutboxEntry newCompletedEntry(boolean completed, Task task) {
+        Task storedTask = mTasksDao.getTaskById(task.getId());
+        return new OutboxEntry(completed ? OutboxEntry.OP_COMPLETE : OutboxEntry.OP_ACTIVATE,
+                storedTask != null ? storedTask : task);
+    }
+
+    /**
+     * Note: {@link WriteCallback#onWriteFailed()} is fired if the database rejects the update, in
+     * which case neither the task nor the outbox is changed.
+     */
+    @Override
+    public void setTaskCompleted(@NonNull final Task task, final boolean completed,
+            @NonNull final WriteCallback callback) {
+        checkNotNull(task);
+        mWriteQueue.enqueue(new ReportingWrite(task.getId(), GroupCommitQueue.FIELDS_COMPLETED,
+                callback) {
+            @Override
+            void run() {
+                TaskArchive.unarchiveTask(getWritableDatabase(), task.getId());
+                mTasksDao.updateCompletedAt(task.getId(), completed, System.currentTimeMillis());
+                mOutboxDao.insertEntry(newCompletedEntry(completed, task));
+            }
+        });
+    }
+
+    /**
+     * The completed tasks are only hidden, with a single update, so
+     * {@link #restoreDeletedTasks()} can bring them back. The archived ones are hidden in the
+     * archive by the same soft delete.
+     */
     @Override
     public void clearCompletedTasks() {
-        Runnable clearTasksRunnable = new Runnable() {
+        mWriteQueue.enqueue(new SoftDeleteWrite() {
             @Override
-            public void run() {
-                mTasksDao.deleteCompletedTasks();
-
+            void run() {
+                SupportSQLiteDatabase db = getWritableDatabase();
+                long deletion = TaskArchive.nextDeletion(db);
+                int hidden = mTasksDao.hideCompletedTasks(deletion)
+                        + TaskArchive.hideTasks(db, deletion); //归档的都是已完成的
+                mUndoableDeletion = hidden > 0 ? deletion : 0;
+                mOutboxDao.insertEntry(
+                        new OutboxEntry(OutboxEntry.OP_CLEAR_COMPLETED, (String) null));
             }
-        };
-
-        mAppExecutors.diskIO().execute(clearTasksRunnable);
+        });
     }
 
     @Override
@@ -177,32 +484,320 @@ public class TasksLocalDataSource implements TasksDataSource {
         // tasks from all the available data sources.
     }
 
+    /**
+     * Soft delete, like {@link #clearCompletedTasks()}.
+     */
     @Override
     public void deleteAllTasks() {
-        Runnable deleteRunnable = new Runnable() {
+        mWriteQueue.enqueue(new SoftDeleteWrite() {
             @Override
-            public void run() {
-                mTasksDao.deleteTasks();
+            void run() {
+                SupportSQLiteDatabase db = getWritableDatabase();
+                long deletion = TaskArchive.nextDeletion(db);
+                int hidden = mTasksDao.hideTasks(deletion) + TaskArchive.hideTasks(db, deletion);
+                mUndoableDeletion = hidden > 0 ? deletion : 0;
+                mOutboxDao.insertEntry(new OutboxEntry(OutboxEntry.OP_DELETE_ALL, (String) null));
             }
-        };
+        });
+    }
 
-        mAppExecutors.diskIO().execute(deleteRunnable);
+    /**
+     * Unhides the rows of the latest soft delete with a single update. The backend deleted them
+     * for real, so they are queued in the outbox to be saved there again.
+     */
+    @Override
+    public void restoreDeletedTasks() {
+        mWriteQueue.enqueue(new GroupCommitQueue.Write() {
+            @Override
+            void run() {
+                if (mUndoableDeletion == 0) {
+                    return; //已经没得撤销了
+                }
+                SupportSQLiteDatabase db = getWritableDatabase();
+                for (Task task : mTasksDao.getTasksOfDeletion(mUndoableDeletion)) {
+                    mOutboxDao.insertEntry(new OutboxEntry(OutboxEntry.OP_SAVE, task)); //远程是真删了，得重新发一遍
+                }
+                for (Task task : TaskArchive.getTasksOfDeletion(db, mUndoableDeletion)) {
+                    mOutboxDao.insertEntry(new OutboxEntry(OutboxEntry.OP_SAVE, task));
+                }
+                mTasksDao.restoreDeletion(mUndoableDeletion);
+                TaskArchive.restoreDeletion(db, mUndoableDeletion);
+                mUndoableDeletion = 0;
+            }
+        });
     }
 
+    /**
+     * Soft delete, like {@link #clearCompletedTasks()}, in the tasks table or in the archive. A
+     * single task can't be restored, so its row is purged with the next batch, and so are those of the clear before it: the repository
+     * only undoes a clear that was the latest change.
+     */
     @Override
     public void deleteTask(@NonNull final String taskId) {
-        Runnable deleteRunnable = new Runnable() {
+        mWriteQueue.enqueue(new SoftDeleteWrite(taskId) {
             @Override
-            public void run() {
-                mTasksDao.deleteTaskById(taskId);
+            void run() {
+                SupportSQLiteDatabase db = getWritableDatabase();
+                long deletion = TaskArchive.nextDeletion(db);
+                mTasksDao.hideTaskById(taskId, deletion);
+                TaskArchive.hideTask(db, taskId, deletion); //两张表用同一个标记
+                mUndoableDeletion = 0;
+                mOutboxDao.insertEntry(new OutboxEntry(OutboxEntry.OP_DELETE, taskId));
             }
-        };
+        });
+    }
 
-        mAppExecutors.diskIO().execute(deleteRunnable);
+    /**
+     * Tasks that still have entries in the outbox keep their local state: the backend snapshot
+     * was taken before those changes reached it. Old completed tasks go straight to the archive.
+     */
+    @Override
+    public void replaceAllTasks(@NonNull final List<Task> tasks) {
+        checkNotNull(tasks);
+        mWriteQueue.enqueue(new GroupCommitQueue.Write() {
+            @Override
+            void run() {
+                SupportSQLiteDatabase db = getWritableDatabase();
+                Set<String> pendingIds = new HashSet<>(mOutboxDao.getPendingTaskIds());
+                mTasksDao.deleteTasksWithoutPendingChanges();
+                TaskArchive.deleteTasks(db); //有待发修改的早就搬回来了
+                long archiveBefore = System.currentTimeMillis() - ARCHIVE_AGE_MILLIS;
+                for (Task task : tasks) {
+                    if (pendingIds.contains(task.getId())) {
+                        continue;
+                    }
+                    if (task.isCompleted() && task.getUpdatedAt() < archiveBefore) {
+                        TaskArchive.archive(db, task); //不用先进热表再搬一趟
+                    } else {
+                        mTasksDao.insertTask(task);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Note: {@link LoadTaskChangesCallback#onDataNotAvailable()} is always fired. The database
+     * doesn't keep tombstones, so it can't tell which tasks were deleted after a watermark.
+     */
+    @Override
+    public Cancellable getTaskChanges(long watermark,
+            @NonNull LoadTaskChangesCallback callback) {
+        checkNotNull(callback).onDataNotAvailable();
+        return new Cancellable();
+    }
+
+    /**
+     * Like {@link #replaceAllTasks(List)}, tasks that still have entries in the outbox keep their
+     * local state.
+     */
+    @Override
+    public void applyTaskChanges(@NonNull final TaskChanges changes,
+            @NonNull final LoadTaskChangesCallback callback) {
+        checkNotNull(changes);
+        checkNotNull(callback);
+        mWriteQueue.enqueue(new GroupCommitQueue.Write() {
+
+            private final List<Task> mChangedTasks = new ArrayList<>();
+
+            private final List<String> mDeletedTaskIds = new ArrayList<>();
+
+            @Override
+            void run() {
+                mChangedTasks.clear(); //批次回滚重跑时从头再来
+                mDeletedTaskIds.clear();
+                SupportSQLiteDatabase db = getWritableDatabase();
+                Set<String> pendingIds = new HashSet<>(mOutboxDao.getPendingTaskIds());
+                for (Task task : changes.getChangedTasks()) {
+                    if (!pendingIds.contains(task.getId())) {
+                        TaskArchive.deleteTask(db, task.getId());
+                        mTasksDao.insertTask(task);
+                        mChangedTasks.add(task);
+                    }
+                }
+                for (String taskId : changes.getDeletedTaskIds()) {
+                    if (!pendingIds.contains(taskId)) {
+                        TaskArchive.deleteTask(db, taskId);
+                        mTasksDao.deleteTaskById(taskId);
+                        mDeletedTaskIds.add(taskId);
+                    }
+                }
+            }
+
+            @Override
+            void onCommitted() {
+                final TaskChanges applied = new TaskChanges(mChangedTasks, mDeletedTaskIds,
+                        changes.getWatermark());
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onTaskChangesLoaded(applied);
+                    }
+                });
+            }
+
+            @Override
+            void onFailed(@NonNull SQLException e) {
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onDataNotAvailable();
+                    }
+                });
+            }
+        });
     }
 
     @VisibleForTesting
     static void clearInstance() {
         INSTANCE = null;
     }
+
+    /**
+     * The summary queries leave out the descriptions, this marks their rows as summaries.
+     */
+    private static List<Task> toSummaries(List<Task> rows) {
+        List<Task> summaries = new ArrayList<>(rows.size());
+        for (Task row : rows) {
+            summaries.add(row.toSummary());
+        }
+        return summaries;
+    }
+
+    /**
+     * For the writes of {@link TaskArchive}, on the disk thread.
+     */
+    private SupportSQLiteDatabase getWritableDatabase() {
+        return mDatabase.getOpenHelper().getWritableDatabase();
+    }
+
+    /**
+     * Makes sure a purge is coming. Must be called on the disk thread.
+     */
+    private void schedulePurge() {
+        if (!mPurgeScheduled) {
+            mPurgeScheduled = true;
+            mAppExecutors.mainThreadIdle().execute(mPurge); //等ui线程空闲了再排进写队列
+        }
+    }
+
+    /**
+     * Makes sure an archive pass is coming, like {@link #schedulePurge()}.
+     */
+    private void scheduleArchive() {
+        if (!mArchiveScheduled) {
+            mArchiveScheduled = true;
+            mAppExecutors.mainThreadIdle().execute(mArchive);
+        }
+    }
+
+    /**
+     * A soft delete, which schedules the purge of the rows it hid.
+     */
+    private abstract class SoftDeleteWrite extends GroupCommitQueue.Write {
+
+        SoftDeleteWrite() {
+        }
+
+        SoftDeleteWrite(@NonNull String taskId) {
+            super(taskId, GroupCommitQueue.FIELDS_ALL);
+        }
+
+        @Override
+        void onCommitted() {
+            schedulePurge();
+        }
+    }
+
+    /**
+     * Deletes one batch of hidden rows for good, and schedules the next batch while some are
+     * left. The writes queued in the meantime run between the batches.
+     */
+    private class PurgeWrite extends GroupCommitQueue.Write {
+
+        private int mPurged;
+
+        @Override
+        void run() {
+            mPurged = mTasksDao.purgeHiddenTasks(mUndoableDeletion, PURGE_BATCH_SIZE);
+            if (mPurged < PURGE_BATCH_SIZE) { //热表删完了再删归档里的
+                mPurged += TaskArchive.purgeHiddenTasks(getWritableDatabase(), mUndoableDeletion,
+                        PURGE_BATCH_SIZE - mPurged);
+            }
+        }
+
+        @Override
+        void onCommitted() {
+            mPurgeScheduled = false;
+            if (mPurged == PURGE_BATCH_SIZE) {
+                schedulePurge(); //还没删完，下次空闲接着删
+            }
+        }
+
+        @Override
+        void onFailed(@NonNull SQLException e) {
+            mPurgeScheduled = false; //下一次软删除再试
+        }
+    }
+
+    /**
+     * Moves one batch of old completed tasks to the archive, and schedules the next batch while
+     * some are left, like {@link PurgeWrite}.
+     */
+    private class ArchiveWrite extends GroupCommitQueue.Write {
+
+        private int mArchived;
+
+        @Override
+        void run() {
+            mArchived = TaskArchive.archiveCompletedTasks(getWritableDatabase(),
+                    System.currentTimeMillis() - ARCHIVE_AGE_MILLIS, ARCHIVE_BATCH_SIZE);
+        }
+
+        @Override
+        void onCommitted() {
+            mArchiveScheduled = false;
+            if (mArchived == ARCHIVE_BATCH_SIZE) {
+                scheduleArchive(); //还没搬完，下次空闲接着搬
+            }
+        }
+
+        @Override
+        void onFailed(@NonNull SQLException e) {
+            mArchiveScheduled = false; //下次启动再试
+        }
+    }
+
+    /**
+     * A write that reports its outcome to a {@link WriteCallback} on the main thread.
+     */
+    private abstract class ReportingWrite extends GroupCommitQueue.Write {
+
+        private final WriteCallback mCallback;
+
+        ReportingWrite(@NonNull String taskId, int fields, @NonNull WriteCallback callback) {
+            super(taskId, fields);
+            mCallback = checkNotNull(callback);
+        }
+
+        @Override
+        void onCommitted() {
+            mAppExecutors.mainThread().execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onWriteCompleted();
+                }
+            });
+        }
+
+        @Override
+        void onFailed(@NonNull SQLException e) {
+            mAppExecutors.mainThread().execute(new Runnable() { //事务已经回滚了
+                @Override
+                public void run() {
+                    mCallback.onWriteFailed();
+                }
+            });
+        }
+    }
 }
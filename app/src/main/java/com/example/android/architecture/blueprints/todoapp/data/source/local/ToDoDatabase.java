@@ -16,23 +16,151 @@
 
 package com.example.android.architecture.blueprints.todoapp.data.source.local;
 
+import android.arch.persistence.db.SupportSQLiteDatabase;
 import android.arch.persistence.room.Database;
 import android.arch.persistence.room.Room;
 import android.arch.persistence.room.RoomDatabase;
+import android.arch.persistence.room.migration.Migration;
 import android.content.Context;
+import android.support.annotation.VisibleForTesting;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
 
 /**
  * The Room Database that contains the Task table. //这个Room 数据库我也是第一次见啊
  */
-@Database(entities = {Task.class}, version = 1) //注解指明了表的类，以及数据库版本
+@Database(entities = {Task.class, OutboxEntry.class}, version = 8) //注解指明了表的类，以及数据库版本
 public abstract class ToDoDatabase extends RoomDatabase {
 
+    /**
+     * Version 2 adds the outbox table that queues mutations for the remote data source.
+     */
+    @VisibleForTesting
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `outbox` ("
+                    + "`seq` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`taskid` TEXT, "
+                    + "`operation` INTEGER NOT NULL, "
+                    + "`title` TEXT, "
+                    + "`description` TEXT, "
+                    + "`completed` INTEGER NOT NULL)");
+        }
+    };
+
+    /**
+     * Version 3 adds the modification time of each task, used for incremental sync. Existing
+     * rows get 0, i.e. older than any change the backend can report.
+     */
+    @VisibleForTesting
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `tasks` ADD COLUMN `updatedat` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    /**
+     * Version 4 indexes the completed column, so the filtered reads, the statistics and clearing
+     * the completed tasks don't scan the whole table.
+     */
+    @VisibleForTesting
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_tasks_completed` "
+                    + "ON `tasks` (`completed`)");
+        }
+    };
+
+    /**
+     * Version 5 adds the full-text index of the tasks, see {@link TaskSearch}, and fills it with
+     * the tasks already stored.
+     */
+    @VisibleForTesting
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            TaskSearch.createIndex(database);
+            TaskSearch.rebuildIndex(database);
+        }
+    };
+
+    /**
+     * Version 6 adds the soft-delete marker of each task, see {@link Task#getDeletion()}.
+     * Existing rows get 0, i.e. live.
+     */
+    @VisibleForTesting
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `tasks` ADD COLUMN `deletion` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    /**
+     * Version 7 adds the archive of old completed tasks, see {@link TaskArchive}. It starts empty,
+     * the tasks are moved there after the app starts. The tables are created as they were in
+     * version 7, later migrations change them from there.
+     */
+    @VisibleForTesting
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `archived_tasks` ("
+                    + "`entryid` TEXT NOT NULL, `title` TEXT, `description` TEXT, "
+                    + "`updatedat` INTEGER NOT NULL, PRIMARY KEY(`entryid`))"); //版本7的表，还没有deletion
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `archived_tasks_fts` "
+                    + "USING fts4(`title`, `description`)");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS `archived_tasks_fts_ai` "
+                    + "AFTER INSERT ON `archived_tasks` "
+                    + "BEGIN DELETE FROM `archived_tasks_fts` WHERE docid = new.rowid; "
+                    + "INSERT INTO `archived_tasks_fts`(docid, `title`, `description`) "
+                    + "VALUES (new.rowid, new.`title`, new.`description`); END");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS `archived_tasks_fts_ad` "
+                    + "AFTER DELETE ON `archived_tasks` "
+                    + "BEGIN DELETE FROM `archived_tasks_fts` WHERE docid = old.rowid; END");
+        }
+    };
+
+    /**
+     * Version 8 lets a soft delete hide archived tasks in place, with the soft-delete marker of
+     * {@code tasks}. Existing rows get 0, i.e. live.
+     */
+    @VisibleForTesting
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `archived_tasks` "
+                    + "ADD COLUMN `deletion` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    /**
+     * Creates the full-text index and the archive, with its own index, along with the tables Room
+     * knows about, which Room can't do itself, and keeps the indexes in sync on every open.
+     */
+    @VisibleForTesting
+    static final Callback SEARCH_INDEX_CALLBACK = new Callback() {
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            TaskSearch.createIndex(db);
+            TaskArchive.createTable(db);
+        }
+
+        @Override
+        public void onOpen(SupportSQLiteDatabase db) {
+            TaskSearch.enableIndexTriggers(db);
+        }
+    };
+
     private static ToDoDatabase INSTANCE;
 
     public abstract TasksDao taskDao();  //TasksDao作为对Task的操作一些方法，就是增删改查都在里面（业务逻辑）
 
+    public abstract OutboxDao outboxDao(); //还没有同步到远程仓库的修改
+
     private static final Object sLock = new Object(); //创建一个对象，用作锁
 
     public static ToDoDatabase getInstance(Context context) {
@@ -40,6 +168,9 @@ public abstract class ToDoDatabase extends RoomDatabase {
             if (INSTANCE == null) {
                 INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
                         ToDoDatabase.class, "Tasks.db") //还要Class对象，我去,很明显这里创建了名为Tasks.db的数据库
+                        .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5,
+                                MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8)
+                        .addCallback(SEARCH_INDEX_CALLBACK) //全文索引Room管不了，自己建
                         .build();
             }
             return INSTANCE;
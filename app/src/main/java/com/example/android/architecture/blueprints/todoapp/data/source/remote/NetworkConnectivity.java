@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.remote;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Reports the remote as reachable whenever the device has an active network connection.
+ */
+public class NetworkConnectivity implements OutboxRemoteDataSource.Connectivity {
+
+    private final Context mContext;
+
+    private final ConnectivityManager mConnectivityManager;
+
+    private BroadcastReceiver mReceiver;
+
+    public NetworkConnectivity(@NonNull Context context) {
+        mContext = checkNotNull(context).getApplicationContext();
+        mConnectivityManager = (ConnectivityManager) mContext
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    @Override
+    public boolean isConnected() {
+        NetworkInfo networkInfo = mConnectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    /**
+     * Listens to {@link ConnectivityManager#CONNECTIVITY_ACTION}, which is also delivered once
+     * right after registering, so what was left from an earlier run is sent on start too.
+     */
+    @Override
+    public void setOnConnectedListener(@Nullable final Runnable listener) {
+        if (mReceiver != null) {
+            mContext.unregisterReceiver(mReceiver);
+            mReceiver = null;
+        }
+        if (listener == null) {
+            return;
+        }
+        mReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (isConnected()) {
+                    listener.run();
+                }
+            }
+        };
+        mContext.registerReceiver(mReceiver,
+                new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+}
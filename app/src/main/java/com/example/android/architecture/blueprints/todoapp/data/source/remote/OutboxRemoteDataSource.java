@@ -0,0 +1,547 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.remote;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskChanges;
+import com.example.android.architecture.blueprints.todoapp.data.source.Cancellable;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.OutboxDao;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.OutboxEntry;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksLocalDataSource;
+import com.example.android.architecture.blueprints.todoapp.util.AppExecutors;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends local mutations to a remote data source through the outbox table.
+ * <p>
+ * {@link TasksLocalDataSource} records every mutation in the outbox in the same transaction as the
+ * local write, so the mutation methods here don't forward their arguments: they only ask for the
+ * outbox to be replayed. Replaying reads the oldest entries in batches, collapses the entries of
+ * each task into its final state and sends the result to the remote. Entries are only deleted
+ * once their batch was sent, so nothing is lost while the remote can't be reached.
+ * 远程仓库的包装类，离线时修改先留在outbox表里，联网后再批量回放
+ */
+public class OutboxRemoteDataSource implements TasksDataSource {
+
+    /**
+     * Tells whether the remote data source can be reached right now.
+     */
+    public interface Connectivity {
+
+        boolean isConnected();
+
+        /**
+         * @param listener run on the main thread whenever the remote can be reached again, or
+         *                 null to stop listening.
+         */
+        void setOnConnectedListener(@Nullable Runnable listener);
+    }
+
+    /**
+     * Told on the main thread how a replay ended.
+     */
+    private abstract static class ReplayListener {
+
+        /**
+         * The whole outbox was sent.
+         */
+        abstract void onOutboxSent();
+
+        /**
+         * The remote couldn't be reached or a batch failed, what is left of the outbox is sent
+         * by a later replay.
+         */
+        abstract void onReplayFailed();
+    }
+
+    @VisibleForTesting
+    static final int BATCH_SIZE = 100; //每一批回放的最大条数
+
+    private static volatile OutboxRemoteDataSource INSTANCE;
+
+    private final TasksDataSource mRemoteDataSource;
+
+    private final OutboxDao mOutboxDao;
+
+    private final AppExecutors mAppExecutors;
+
+    private final Connectivity mConnectivity;
+
+    // The replay state is only touched on the main thread.
+    private boolean mReplaying;
+
+    private boolean mReplayAgain;
+
+    // Whether the last replay sent the whole outbox, rather than stopping early
+    private boolean mOutboxSent;
+
+    private final List<ReplayListener> mReplayListeners = new ArrayList<>();
+
+    @VisibleForTesting
+    OutboxRemoteDataSource(@NonNull TasksDataSource remoteDataSource,
+                           @NonNull OutboxDao outboxDao,
+                           @NonNull AppExecutors appExecutors,
+                           @NonNull Connectivity connectivity) {
+        mRemoteDataSource = checkNotNull(remoteDataSource);
+        mOutboxDao = checkNotNull(outboxDao);
+        mAppExecutors = checkNotNull(appExecutors);
+        mConnectivity = checkNotNull(connectivity);
+        mConnectivity.setOnConnectedListener(new Runnable() {
+            @Override
+            public void run() {
+                replay(null); //网络恢复了，把离线时攒下的修改发出去
+            }
+        });
+    }
+
+    public static OutboxRemoteDataSource getInstance(@NonNull TasksDataSource remoteDataSource,
+                                                     @NonNull OutboxDao outboxDao,
+                                                     @NonNull AppExecutors appExecutors,
+                                                     @NonNull Connectivity connectivity) {
+        if (INSTANCE == null) {
+            synchronized (OutboxRemoteDataSource.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new OutboxRemoteDataSource(remoteDataSource, outboxDao,
+                            appExecutors, connectivity);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Pending mutations are sent before reading, so the backend snapshot already contains them.
+     * Note: {@link LoadTasksCallback#onDataNotAvailable()} is fired if the remote can't be reached
+     * or the outbox couldn't be sent.
+     */
+    @Override
+    public Cancellable getTasks(@NonNull final LoadTasksCallback callback) {
+        checkNotNull(callback);
+        final Cancellable request = new Cancellable();
+        if (!mConnectivity.isConnected()) {
+            callback.onDataNotAvailable();
+            return request;
+        }
+        replay(new ReplayListener() {
+            @Override
+            void onOutboxSent() {
+                if (!request.isCancelled()) {
+                    request.cancelWith(mRemoteDataSource.getTasks(callback));
+                }
+            }
+
+            @Override
+            void onReplayFailed() {
+                if (!request.isCancelled()) {
+                    callback.onDataNotAvailable();
+                }
+            }
+        });
+        return request;
+    }
+
+    @Override
+    public Cancellable getTask(@NonNull String taskId, @NonNull GetTaskCallback callback) {
+        return mRemoteDataSource.getTask(taskId, callback);
+    }
+
+    @Override
+    public Cancellable getTaskSummaries(@NonNull final LoadTasksCallback callback) {
+        checkNotNull(callback);
+        final Cancellable request = new Cancellable();
+        if (!mConnectivity.isConnected()) {
+            callback.onDataNotAvailable();
+            return request;
+        }
+        replay(new ReplayListener() {
+            @Override
+            void onOutboxSent() {
+                if (!request.isCancelled()) {
+                    request.cancelWith(mRemoteDataSource.getTaskSummaries(callback));
+                }
+            }
+
+            @Override
+            void onReplayFailed() {
+                if (!request.isCancelled()) {
+                    callback.onDataNotAvailable();
+                }
+            }
+        });
+        return request;
+    }
+
+    @Override
+    public Cancellable getTasksByCompleted(final boolean completed,
+            @NonNull final LoadTasksCallback callback) {
+        checkNotNull(callback);
+        final Cancellable request = new Cancellable();
+        if (!mConnectivity.isConnected()) {
+            callback.onDataNotAvailable();
+            return request;
+        }
+        replay(new ReplayListener() {
+            @Override
+            void onOutboxSent() {
+                if (!request.isCancelled()) {
+                    request.cancelWith(mRemoteDataSource.getTasksByCompleted(completed, callback));
+                }
+            }
+
+            @Override
+            void onReplayFailed() {
+                if (!request.isCancelled()) {
+                    callback.onDataNotAvailable();
+                }
+            }
+        });
+        return request;
+    }
+
+    @Override
+    public Cancellable getTaskCounts(@NonNull final LoadTaskCountsCallback callback) {
+        checkNotNull(callback);
+        final Cancellable request = new Cancellable();
+        if (!mConnectivity.isConnected()) {
+            callback.onDataNotAvailable();
+            return request;
+        }
+        replay(new ReplayListener() {
+            @Override
+            void onOutboxSent() {
+                if (!request.isCancelled()) {
+                    request.cancelWith(mRemoteDataSource.getTaskCounts(callback));
+                }
+            }
+
+            @Override
+            void onReplayFailed() {
+                if (!request.isCancelled()) {
+                    callback.onDataNotAvailable();
+                }
+            }
+        });
+        return request;
+    }
+
+    @Override
+    public Cancellable searchTasks(@NonNull final String query,
+            @NonNull final LoadTasksCallback callback) {
+        checkNotNull(query);
+        checkNotNull(callback);
+        final Cancellable request = new Cancellable();
+        if (!mConnectivity.isConnected()) {
+            callback.onDataNotAvailable();
+            return request;
+        }
+        replay(new ReplayListener() {
+            @Override
+            void onOutboxSent() {
+                if (!request.isCancelled()) {
+                    request.cancelWith(mRemoteDataSource.searchTasks(query, callback));
+                }
+            }
+
+            @Override
+            void onReplayFailed() {
+                if (!request.isCancelled()) {
+                    callback.onDataNotAvailable();
+                }
+            }
+        });
+        return request;
+    }
+
+    @Override
+    public void saveTask(@NonNull Task task) {
+        replay(null);
+    }
+
+    /**
+     * Acknowledged once the outbox, which already holds the task, was sent to the remote.
+     * Note: {@link WriteCallback#onWriteFailed()} is fired if the remote can't be reached. The
+     * task stays in the outbox and is sent with a later replay.
+     */
+    @Override
+    public void saveTask(@NonNull Task task, @NonNull final WriteCallback callback) {
+        checkNotNull(callback);
+        replay(new ReplayListener() {
+            @Override
+            void onOutboxSent() {
+                callback.onWriteCompleted();
+            }
+
+            @Override
+            void onReplayFailed() {
+                callback.onWriteFailed();
+            }
+        });
+    }
+
+    @Override
+    public void completeTask(@NonNull Task task) {
+        replay(null);
+    }
+
+    @Override
+    public void completeTask(@NonNull String taskId) {
+        // Not required for the remote data source because the {@link TasksRepository} handles
+        // converting from a {@code taskId} to a {@link task} using its cached data.
+    }
+
+    @Override
+    public void activateTask(@NonNull Task task) {
+        replay(null);
+    }
+
+    @Override
+    public void activateTask(@NonNull String taskId) {
+        // Not required for the remote data source because the {@link TasksRepository} handles
+        // converting from a {@code taskId} to a {@link task} using its cached data.
+    }
+
+    /**
+     * The change is already in the outbox when this is called, written by the local data source,
+     * so it can't fail here anymore. Replaying it is best effort.
+     */
+    @Override
+    public void setTaskCompleted(@NonNull Task task, boolean completed,
+            @NonNull WriteCallback callback) {
+        replay(null);
+        callback.onWriteCompleted();
+    }
+
+    @Override
+    public void clearCompletedTasks() {
+        replay(null);
+    }
+
+    @Override
+    public void refreshTasks() {
+        mRemoteDataSource.refreshTasks();
+    }
+
+    @Override
+    public void deleteAllTasks() {
+        replay(null);
+    }
+
+    /**
+     * The local data source queued the restored tasks as saves.
+     */
+    @Override
+    public void restoreDeletedTasks() {
+        replay(null);
+    }
+
+    @Override
+    public void deleteTask(@NonNull String taskId) {
+        replay(null);
+    }
+
+    @Override
+    public void replaceAllTasks(@NonNull List<Task> tasks) {
+        mRemoteDataSource.replaceAllTasks(tasks);
+    }
+
+    /**
+     * Like {@link #getTasks(LoadTasksCallback)}, pending mutations are sent first so the changes
+     * already contain them.
+     */
+    @Override
+    public Cancellable getTaskChanges(final long watermark,
+                               @NonNull final LoadTaskChangesCallback callback) {
+        checkNotNull(callback);
+        final Cancellable request = new Cancellable();
+        if (!mConnectivity.isConnected()) {
+            callback.onDataNotAvailable();
+            return request;
+        }
+        replay(new ReplayListener() {
+            @Override
+            void onOutboxSent() {
+                if (!request.isCancelled()) {
+                    request.cancelWith(mRemoteDataSource.getTaskChanges(watermark, callback));
+                }
+            }
+
+            @Override
+            void onReplayFailed() {
+                if (!request.isCancelled()) {
+                    callback.onDataNotAvailable();
+                }
+            }
+        });
+        return request;
+    }
+
+    @Override
+    public void applyTaskChanges(@NonNull TaskChanges changes,
+            @NonNull LoadTaskChangesCallback callback) {
+        mRemoteDataSource.applyTaskChanges(changes, callback);
+    }
+
+    /**
+     * Sends every pending mutation to the remote, if it can be reached.
+     *
+     * @param onFinished told once the outbox is empty or the replay stopped.
+     */
+    private void replay(@Nullable ReplayListener onFinished) {
+        if (onFinished != null) {
+            mReplayListeners.add(onFinished);
+        }
+        if (mReplaying) {
+            // Entries written while a batch is in flight are picked up by one more pass.
+            mReplayAgain = true;
+            return;
+        }
+        mReplaying = true;
+        replayNextBatch();
+    }
+
+    private void replayNextBatch() {
+        Runnable readRunnable = new Runnable() {
+            @Override
+            public void run() {
+                final List<OutboxEntry> entries = mConnectivity.isConnected()
+                        ? mOutboxDao.getOldestEntries(BATCH_SIZE) : null; //null表示离线
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendBatch(entries);
+                    }
+                });
+            }
+        };
+
+        mAppExecutors.diskIO().execute(readRunnable);
+    }
+
+    private void sendBatch(@Nullable List<OutboxEntry> entries) {
+        if (entries == null || entries.isEmpty()) {
+            mOutboxSent = entries != null;
+            finishReplay();
+            return;
+        }
+        try {
+            for (OutboxEntry entry : coalesce(entries)) {
+                send(entry);
+            }
+        } catch (RuntimeException e) {
+            // Keep the batch in the outbox, it is sent again on the next replay.
+            mOutboxSent = false;
+            mReplayAgain = false;
+            finishReplay();
+            return;
+        }
+
+        final long lastSeq = entries.get(entries.size() - 1).getSeq();
+        Runnable deleteRunnable = new Runnable() {
+            @Override
+            public void run() {
+                mOutboxDao.deleteEntriesUpTo(lastSeq);
+            }
+        };
+        mAppExecutors.diskIO().execute(deleteRunnable);
+        replayNextBatch(); //磁盘线程是单线程的，删除一定先于下一次读取执行
+    }
+
+    private void finishReplay() {
+        mReplaying = false;
+        if (mReplayAgain) {
+            mReplayAgain = false;
+            mReplaying = true;
+            replayNextBatch();
+            return;
+        }
+        List<ReplayListener> listeners = new ArrayList<>(mReplayListeners);
+        mReplayListeners.clear();
+        for (ReplayListener listener : listeners) {
+            if (mOutboxSent) {
+                listener.onOutboxSent();
+            } else {
+                listener.onReplayFailed(); //没发完就别去读远程，读到的快照会少了本地的修改
+            }
+        }
+    }
+
+    private void send(OutboxEntry entry) {
+        switch (entry.getOperation()) {
+            case OutboxEntry.OP_CLEAR_COMPLETED:
+                mRemoteDataSource.clearCompletedTasks();
+                break;
+            case OutboxEntry.OP_DELETE_ALL:
+                mRemoteDataSource.deleteAllTasks();
+                break;
+            case OutboxEntry.OP_DELETE:
+                mRemoteDataSource.deleteTask(entry.getTaskId());
+                break;
+            default:
+                // Save, complete and activate all carry the full task, so the final state is
+                // sent as a single save.
+                mRemoteDataSource.saveTask(entry.toTask());
+                break;
+        }
+    }
+
+    /**
+     * Collapses a batch so that each task is sent once, with its final state. Bulk operations
+     * act as barriers: entries are never moved across them, and everything before a
+     * {@link OutboxEntry#OP_DELETE_ALL} is dropped.
+     *
+     * @param entries outbox entries in sequence order.
+     * @return the entries to send, in order.
+     */
+    @VisibleForTesting
+    static List<OutboxEntry> coalesce(@NonNull List<OutboxEntry> entries) {
+        List<OutboxEntry> result = new ArrayList<>();
+        Map<String, OutboxEntry> pending = new LinkedHashMap<>();
+        for (OutboxEntry entry : entries) {
+            if (entry.isBulk()) {
+                if (entry.getOperation() == OutboxEntry.OP_DELETE_ALL) {
+                    result.clear();
+                } else {
+                    result.addAll(pending.values());
+                }
+                pending.clear();
+                result.add(entry);
+            } else {
+                // Every entry holds the whole state of its task, so the last one wins.
+                pending.remove(entry.getTaskId());
+                pending.put(entry.getTaskId(), entry);
+            }
+        }
+        result.addAll(pending.values());
+        return result;
+    }
+
+    @VisibleForTesting
+    static void clearInstance() {
+        INSTANCE = null;
+    }
+}
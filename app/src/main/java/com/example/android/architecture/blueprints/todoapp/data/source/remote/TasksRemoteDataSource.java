@@ -16,15 +16,23 @@
 
 package com.example.android.architecture.blueprints.todoapp.data.source.remote;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import android.os.Handler;
 import android.support.annotation.NonNull;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskChanges;
+import com.example.android.architecture.blueprints.todoapp.data.source.Cancellable;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -39,6 +47,12 @@ public class TasksRemoteDataSource implements TasksDataSource {
 
     private final static Map<String, Task> TASKS_SERVICE_DATA; //哈希表，静态常量
 
+    private final static Map<String, Long> TOMBSTONES = new LinkedHashMap<>(); //被删除Task的id和删除时间
+
+    private static List<Task> sLatestDeletion = new ArrayList<>(); //最近一次清空删掉的Task，撤销用
+
+    private static long sLastChangeTime; //服务端最后一次修改的时间，保证单调递增
+
     static {
         TASKS_SERVICE_DATA = new LinkedHashMap<>(2); //继续初始化一个有序的哈希表
         addTask("Build tower in Pisa", "Ground looks good, no foundation work required."); //添加一个Task
@@ -98,7 +112,74 @@ public class TasksRemoteDataSource implements TasksDataSource {
      */
     private static void addTask(String title, String description) {
         Task newTask = new Task(title, description); //new一个Task对象
-        TASKS_SERVICE_DATA.put(newTask.getId(), newTask); //向哈希表中放入Task，key为Task的id、value为Task对象
+        putTask(newTask.getTitle(), newTask.getDescription(), newTask.getId(), false); //向哈希表中放入Task，key为Task的id、value为Task对象
+    }
+
+    /**
+     * Stores a task stamped with the time the backend accepted the change.
+     */
+    private static void putTask(String title, String description, String id, boolean completed) {
+        TASKS_SERVICE_DATA.put(id, new Task(title, description, id, completed, nextChangeTime()));
+        TOMBSTONES.remove(id);
+    }
+
+    /**
+     * Completing or activating a task only changes its state. The task may come from the list
+     * without its description, so the stored title and description are kept.
+     */
+    private static void putCompleted(Task task, boolean completed) {
+        Task stored = TASKS_SERVICE_DATA.get(task.getId());
+        Task source = stored != null ? stored : task;
+        putTask(source.getTitle(), source.getDescription(), task.getId(), completed);
+    }
+
+    private static void removeTask(String id) {
+        if (TASKS_SERVICE_DATA.remove(id) != null) {
+            TOMBSTONES.put(id, nextChangeTime());
+        }
+    }
+
+    /**
+     * Matches every word of {@code query} in the title or the description, title matches first.
+     */
+    private static List<Task> searchServiceData(String query) {
+        List<Task> titleMatches = new ArrayList<>();
+        List<Task> otherMatches = new ArrayList<>();
+        String[] words = query.toLowerCase(Locale.getDefault()).split("[^\\p{L}\\p{N}]+");
+        for (Task task : TASKS_SERVICE_DATA.values()) {
+            String title = Strings.nullToEmpty(task.getTitle()).toLowerCase(Locale.getDefault());
+            String text = title + " "
+                    + Strings.nullToEmpty(task.getDescription()).toLowerCase(Locale.getDefault());
+            if (containsAll(title, words)) {
+                titleMatches.add(task.toSummary());
+            } else if (containsAll(text, words)) {
+                otherMatches.add(task.toSummary());
+            }
+        }
+        titleMatches.addAll(otherMatches);
+        return titleMatches;
+    }
+
+    private static boolean containsAll(String text, String[] words) {
+        boolean any = false;
+        for (String word : words) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (!text.contains(word)) {
+                return false;
+            }
+            any = true;
+        }
+        return any; //没有词的查询什么也不匹配
+    }
+
+    /**
+     * Change times never go backwards, even if the clock does, so a watermark never skips a change.
+     */
+    private static long nextChangeTime() {
+        sLastChangeTime = Math.max(System.currentTimeMillis(), sLastChangeTime + 1);
+        return sLastChangeTime;
     }
 
     /**
@@ -109,15 +190,14 @@ public class TasksRemoteDataSource implements TasksDataSource {
      * 在真正的远程数据来源实现， 如果服务器不能连接上或者服务器返回错误，这个onDataNotAvailable方法就会执行
      */
     @Override
-    public void getTasks(final @NonNull LoadTasksCallback callback) {
+    public Cancellable getTasks(final @NonNull LoadTasksCallback callback) {
         // Simulate network by delaying the execution. //模拟网络延迟执行
-        Handler handler = new Handler(); //一个Handler对象
-        handler.postDelayed(new Runnable() {
+        return respondDelayed(new Runnable() {
             @Override
             public void run() {
                 callback.onTasksLoaded(Lists.newArrayList(TASKS_SERVICE_DATA.values()));//哈希表的values（）会返回Tasks的List，每个value都是一个Task对象
             }
-        }, SERVICE_LATENCY_IN_MILLIS); //延迟5秒发出一个Runnable对象
+        }); //延迟5秒发出一个Runnable对象
     }
 
     /**
@@ -126,28 +206,111 @@ public class TasksRemoteDataSource implements TasksDataSource {
      * returns an error.
      */
     @Override
-    public void getTask(@NonNull String taskId, final @NonNull GetTaskCallback callback) {
+    public Cancellable getTask(@NonNull String taskId, final @NonNull GetTaskCallback callback) {
         final Task task = TASKS_SERVICE_DATA.get(taskId);
 
         // Simulate network by delaying the execution.
-        Handler handler = new Handler();
-        handler.postDelayed(new Runnable() {
+        return respondDelayed(new Runnable() {
             @Override
             public void run() {
                 callback.onTaskLoaded(task);
             }
-        }, SERVICE_LATENCY_IN_MILLIS);
+        });
+    }
+
+    /**
+     * The service leaves out the descriptions, which is most of what a task weighs.
+     */
+    @Override
+    public Cancellable getTaskSummaries(final @NonNull LoadTasksCallback callback) {
+        final List<Task> tasks = new ArrayList<>(TASKS_SERVICE_DATA.size());
+        for (Task task : TASKS_SERVICE_DATA.values()) {
+            tasks.add(task.toSummary());
+        }
+
+        // Simulate network by delaying the execution.
+        return respondDelayed(new Runnable() {
+            @Override
+            public void run() {
+                callback.onTasksLoaded(tasks);
+            }
+        });
+    }
+
+    /**
+     * The filtering is done by the service, only the summaries of the matching tasks are sent.
+     */
+    @Override
+    public Cancellable getTasksByCompleted(boolean completed,
+            final @NonNull LoadTasksCallback callback) {
+        final List<Task> tasks = new ArrayList<>();
+        for (Task task : TASKS_SERVICE_DATA.values()) {
+            if (task.isCompleted() == completed) {
+                tasks.add(task.toSummary());
+            }
+        }
+
+        // Simulate network by delaying the execution.
+        return respondDelayed(new Runnable() {
+            @Override
+            public void run() {
+                callback.onTasksLoaded(tasks);
+            }
+        });
+    }
+
+    @Override
+    public Cancellable getTaskCounts(final @NonNull LoadTaskCountsCallback callback) {
+        int completed = 0;
+        for (Task task : TASKS_SERVICE_DATA.values()) {
+            if (task.isCompleted()) {
+                completed++;
+            }
+        }
+        final int completedTasks = completed;
+        final int activeTasks = TASKS_SERVICE_DATA.size() - completed;
+
+        // Simulate network by delaying the execution.
+        return respondDelayed(new Runnable() {
+            @Override
+            public void run() {
+                callback.onTaskCountsLoaded(activeTasks, completedTasks);
+            }
+        });
+    }
+
+    /**
+     * The service has no search index, this simply looks for the words in every task, putting
+     * the tasks that have all of them in the title first.
+     */
+    @Override
+    public Cancellable searchTasks(@NonNull String query,
+            final @NonNull LoadTasksCallback callback) {
+        final List<Task> tasks = searchServiceData(query);
+
+        // Simulate network by delaying the execution.
+        return respondDelayed(new Runnable() {
+            @Override
+            public void run() {
+                callback.onTasksLoaded(tasks);
+            }
+        });
     }
 
     @Override
     public void saveTask(@NonNull Task task) {
-        TASKS_SERVICE_DATA.put(task.getId(), task);
+        putTask(task.getTitle(), task.getDescription(), task.getId(), task.isCompleted());
+    }
+
+    @Override
+    public void saveTask(@NonNull Task task, @NonNull WriteCallback callback) {
+        saveTask(task);
+        callback.onWriteCompleted();
     }
 
     @Override
     public void completeTask(@NonNull Task task) {
-        Task completedTask = new Task(task.getTitle(), task.getDescription(), task.getId(), true);
-        TASKS_SERVICE_DATA.put(task.getId(), completedTask);
+        putCompleted(task, true);
     }
 
     @Override
@@ -158,8 +321,7 @@ public class TasksRemoteDataSource implements TasksDataSource {
 
     @Override
     public void activateTask(@NonNull Task task) {
-        Task activeTask = new Task(task.getTitle(), task.getDescription(), task.getId());
-        TASKS_SERVICE_DATA.put(task.getId(), activeTask);
+        putCompleted(task, false);
     }
 
     @Override
@@ -168,13 +330,28 @@ public class TasksRemoteDataSource implements TasksDataSource {
         // converting from a {@code taskId} to a {@link task} using its cached data.
     }
 
+    @Override
+    public void setTaskCompleted(@NonNull Task task, boolean completed,
+            @NonNull WriteCallback callback) {
+        if (completed) {
+            completeTask(task);
+        } else {
+            activateTask(task);
+        }
+        callback.onWriteCompleted();
+    }
+
     @Override
     public void clearCompletedTasks() {
+        long changeTime = nextChangeTime();
+        sLatestDeletion = new ArrayList<>();
         Iterator<Map.Entry<String, Task>> it = TASKS_SERVICE_DATA.entrySet().iterator();
         while (it.hasNext()) {
             Map.Entry<String, Task> entry = it.next();
             if (entry.getValue().isCompleted()) {
+                sLatestDeletion.add(entry.getValue());
                 it.remove();
+                TOMBSTONES.put(entry.getKey(), changeTime);
             }
         }
     }
@@ -187,11 +364,98 @@ public class TasksRemoteDataSource implements TasksDataSource {
 
     @Override
     public void deleteAllTasks() {
+        long changeTime = nextChangeTime();
+        for (String taskId : TASKS_SERVICE_DATA.keySet()) {
+            TOMBSTONES.put(taskId, changeTime);
+        }
+        sLatestDeletion = new ArrayList<>(TASKS_SERVICE_DATA.values());
         TASKS_SERVICE_DATA.clear();
     }
 
+    /**
+     * The restored tasks are stored again as new changes, so an incremental sync picks them up.
+     */
+    @Override
+    public void restoreDeletedTasks() {
+        for (Task task : sLatestDeletion) {
+            putTask(task.getTitle(), task.getDescription(), task.getId(), task.isCompleted());
+        }
+        sLatestDeletion = new ArrayList<>();
+    }
+
     @Override
     public void deleteTask(@NonNull String taskId) {
-        TASKS_SERVICE_DATA.remove(taskId);
+        removeTask(taskId);
+    }
+
+    @Override
+    public void replaceAllTasks(@NonNull List<Task> tasks) {
+        // Not required for the remote data source because the backend is the one that provides
+        // the snapshot.
+    }
+
+    /**
+     * Note: {@link LoadTaskChangesCallback#onDataNotAvailable()} is never fired. In a real remote
+     * data source implementation, this would be fired if the server can't be contacted, or if the
+     * tombstones older than the watermark were already pruned.
+     */
+    @Override
+    public Cancellable getTaskChanges(long watermark,
+            final @NonNull LoadTaskChangesCallback callback) {
+        List<Task> changedTasks = new ArrayList<>();
+        for (Task task : TASKS_SERVICE_DATA.values()) {
+            if (task.getUpdatedAt() > watermark) {
+                changedTasks.add(task);
+            }
+        }
+        List<String> deletedTaskIds = new ArrayList<>();
+        for (Map.Entry<String, Long> tombstone : TOMBSTONES.entrySet()) {
+            if (tombstone.getValue() > watermark) {
+                deletedTaskIds.add(tombstone.getKey());
+            }
+        }
+        final TaskChanges changes = new TaskChanges(changedTasks, deletedTaskIds,
+                Math.max(watermark, sLastChangeTime));
+
+        // Simulate network by delaying the execution. Only the changes are sent, so this is
+        // where a real backend saves most of the transfer.
+        return respondDelayed(new Runnable() {
+            @Override
+            public void run() {
+                callback.onTaskChangesLoaded(changes);
+            }
+        });
+    }
+
+    /**
+     * Posts {@code response} after the simulated latency. Cancelling the returned request removes
+     * it from the queue, so the callback it holds can be collected right away.
+     */
+    private static Cancellable respondDelayed(final Runnable response) {
+        final Cancellable request = new Cancellable();
+        final Handler handler = new Handler();
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (!request.isCancelled()) {
+                    response.run();
+                }
+            }
+        }, SERVICE_LATENCY_IN_MILLIS);
+        request.doOnCancel(new Runnable() {
+            @Override
+            public void run() {
+                handler.removeCallbacksAndMessages(null); //这个Handler只发了这一条消息
+            }
+        });
+        return request;
+    }
+
+    @Override
+    public void applyTaskChanges(@NonNull TaskChanges changes,
+            @NonNull LoadTaskChangesCallback callback) {
+        // Not required for the remote data source because the backend is the one that provides
+        // the changes.
+        checkNotNull(callback).onDataNotAvailable();
     }
 }
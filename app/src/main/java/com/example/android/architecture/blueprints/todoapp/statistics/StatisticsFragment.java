@@ -81,6 +81,12 @@ public class StatisticsFragment extends Fragment implements StatisticsContract.V
         mPresenter.start(); //fragment初始化时，直接调用presenter的start（）
     }
 
+    @Override
+    public void onPause() {
+        mPresenter.stop(); //View不可见了，还没回来的请求就不要了，免得回调一直拉着fragment
+        super.onPause();
+    }
+
 
     /**
      * 设置是否展示进度状态
@@ -17,14 +17,14 @@
 package com.example.android.architecture.blueprints.todoapp.statistics;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
-import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.Cancellable;
+import com.example.android.architecture.blueprints.todoapp.data.source.LifecycleCallbacks;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
 import com.example.android.architecture.blueprints.todoapp.util.EspressoIdlingResource;
 
-import java.util.List;
-
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -37,6 +37,15 @@ public class StatisticsPresenter implements StatisticsContract.Presenter {
 
     private final StatisticsContract.View mStatisticsView;
 
+    private final LifecycleCallbacks mCallbacks = new LifecycleCallbacks(); //View不可见时解绑回调
+
+    @Nullable
+    private Cancellable mLoadRequest; //最近一次加载，再次加载时还没回调的话就取消掉它
+
+    private boolean mLoadDone = true;
+
+    private long mRenderedVersion = -1; //展示的统计对应仓库的哪个数据版本
+
     public StatisticsPresenter(@NonNull TasksRepository tasksRepository,
                                @NonNull StatisticsContract.View statisticsView) {
         mTasksRepository = checkNotNull(tasksRepository, "tasksRepository cannot be null");
@@ -50,21 +59,44 @@ public class StatisticsPresenter implements StatisticsContract.Presenter {
      */
     @Override
     public void start() {
+        mCallbacks.attach();
+        if (mLoadDone && mRenderedVersion == mTasksRepository.getDataVersion()) {
+            return; //Task没变过，统计结果也不会变
+        }
         loadStatistics(); //fragment下的onResume（），在首次执行时，就调用了onResume（）方法
     }
 
+    @Override
+    public void stop() {
+        mCallbacks.detach();
+        if (!mLoadDone) {
+            mLoadDone = true; //被取消了，不会再回调
+            if (!EspressoIdlingResource.getIdlingResource().isIdleNow()) {
+                EspressoIdlingResource.decrement();
+            }
+        }
+    }
+
     private void loadStatistics() {
+        if (mLoadRequest != null && !mLoadDone) {
+            mLoadRequest.cancel(); //上一次的还没回来，结果用不上了
+            if (!EspressoIdlingResource.getIdlingResource().isIdleNow()) {
+                EspressoIdlingResource.decrement();
+            }
+        }
+        mLoadDone = false;
         mStatisticsView.setProgressIndicator(true); //先显示一个进度条
 
         // The network request might be handled in a different thread so make sure Espresso knows
         // that the app is busy until the response is handled.
         EspressoIdlingResource.increment(); // App is busy until further notice //自动化测试部分
 
-        mTasksRepository.getTasks(new TasksDataSource.LoadTasksCallback() { //去仓库里拿Task
+        mLoadRequest = mCallbacks.getTaskCounts(mTasksRepository,
+                new TasksDataSource.LoadTaskCountsCallback() { //去仓库里拿统计，计数交给仓库
             @Override
-            public void onTasksLoaded(List<Task> tasks) {
-                int activeTasks = 0; //活动的Tasks，计数
-                int completedTasks = 0; //完成的Tasks，计数
+            public void onTaskCountsLoaded(int activeTasks, int completedTasks) {
+                mLoadDone = true;
+                long version = mTasksRepository.getDataVersion();
 
                 // This callback may be called twice, once for the cache and once for loading
                 // the data from the server API, so we check before decrementing, otherwise
@@ -74,14 +106,6 @@ public class StatisticsPresenter implements StatisticsContract.Presenter {
                     EspressoIdlingResource.decrement(); // Set app as idle.
                 }
 
-                // We calculate number of active and completed tasks
-                for (Task task : tasks) {  //遍历Tasks
-                    if (task.isCompleted()) { //如果task是已经完成的
-                        completedTasks += 1; //completedTasks加1
-                    } else {
-                        activeTasks += 1; //否则activeTasks加1
-                    }
-                }
                 // The view may not be able to handle UI updates anymore
                 if (!mStatisticsView.isActive()) { //如果fragment没有依附到Activity，直接return
                     return;
@@ -90,6 +114,7 @@ public class StatisticsPresenter implements StatisticsContract.Presenter {
                 mStatisticsView.setProgressIndicator(false); //不展示进度条
 
                 mStatisticsView.showStatistics(activeTasks, completedTasks); //调用fragment的show方法，把completed、active的数量传过去
+                mRenderedVersion = version;
             }
 
             /**
@@ -97,6 +122,8 @@ public class StatisticsPresenter implements StatisticsContract.Presenter {
              */
             @Override
             public void onDataNotAvailable() {
+                mLoadDone = true;
+                mRenderedVersion = -1;
                 // The view may not be able to handle UI updates anymore
                 if (!mStatisticsView.isActive()) {
                     return; //fragment没有依附到Activity上，直接中断方法
@@ -86,6 +86,12 @@ public class TaskDetailFragment extends Fragment implements TaskDetailContract.V
         mPresenter.start(); //调用了start()方法，我们看下mPresenter在哪里初始化的，是调用的setPresenter方法哦
     }
 
+    @Override
+    public void onPause() {
+        mPresenter.stop(); //View不可见了，还没回来的请求就不要了，免得回调一直拉着fragment
+        super.onPause();
+    }
+
     /**
      * 生命周期方法
      * @param inflater
@@ -20,6 +20,8 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.Cancellable;
+import com.example.android.architecture.blueprints.todoapp.data.source.LifecycleCallbacks;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
 import com.google.common.base.Strings;
@@ -39,6 +41,11 @@ public class TaskDetailPresenter implements TaskDetailContract.Presenter {
     @Nullable
     private String mTaskId;
 
+    private final LifecycleCallbacks mCallbacks = new LifecycleCallbacks(); //View不可见时解绑回调
+
+    @Nullable
+    private Cancellable mLoadRequest; //最近一次打开Task的请求，再次打开时取消掉还没回来的
+
     public TaskDetailPresenter(@Nullable String taskId,
                                @NonNull TasksRepository tasksRepository,
                                @NonNull TaskDetailContract.View taskDetailView) {
@@ -51,17 +58,27 @@ public class TaskDetailPresenter implements TaskDetailContract.Presenter {
 
     @Override
     public void start() {
+        mCallbacks.attach();
         openTask();
     }
 
+    @Override
+    public void stop() {
+        mCallbacks.detach();
+    }
+
     private void openTask() {
         if (Strings.isNullOrEmpty(mTaskId)) {
             mTaskDetailView.showMissingTask();
             return;
         }
 
+        if (mLoadRequest != null) {
+            mLoadRequest.cancel(); //已经回调过的话什么也不做
+        }
         mTaskDetailView.setLoadingIndicator(true);
-        mTasksRepository.getTask(mTaskId, new TasksDataSource.GetTaskCallback() {
+        mLoadRequest = mCallbacks.getTask(mTasksRepository, mTaskId,
+                new TasksDataSource.GetTaskCallback() {
             @Override
             public void onTaskLoaded(Task task) {
                 // The view may not be able to handle UI updates anymore
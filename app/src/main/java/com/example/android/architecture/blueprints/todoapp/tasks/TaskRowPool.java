@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.tasks;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.view.AsyncLayoutInflater;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.example.android.architecture.blueprints.todoapp.R;
+
+import java.util.ArrayDeque;
+
+/**
+ * Rows of the task list inflated on a background thread while the screen starts, so the first
+ * fill of the list doesn't inflate {@code R.layout.task_item} once per visible row in a single
+ * frame. 预先在后台线程解析好的列表行
+ * <p>
+ * {@link AsyncLayoutInflater} doesn't use the AppCompat view factory, which is why the row layout
+ * names the AppCompat widgets itself. The first row that is ready also tells
+ * {@link TaskTitleWarmer} what the titles look like. Must be used on the main thread.
+ */
+class TaskRowPool implements AsyncLayoutInflater.OnInflateFinishedListener {
+
+    private final ArrayDeque<View> mRows = new ArrayDeque<>();
+
+    private final int mRowCount;
+
+    private final int mWidth;
+
+    /**
+     * Starts inflating one screen of rows. {@code parent} only provides the layout params.
+     */
+    TaskRowPool(@NonNull Context context, @NonNull ViewGroup parent) {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        mRowCount = getVisibleRowCount(context);
+        mWidth = metrics.widthPixels;
+
+        AsyncLayoutInflater inflater = new AsyncLayoutInflater(context);
+        for (int i = 0; i < mRowCount; i++) {
+            inflater.inflate(R.layout.task_item, parent, this);
+        }
+    }
+
+    /**
+     * @return how many rows fit on the screen, plus one that is partly visible
+     */
+    static int getVisibleRowCount(Context context) {
+        TypedValue rowHeight = new TypedValue();
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        if (!context.getTheme().resolveAttribute(
+                android.R.attr.listPreferredItemHeight, rowHeight, true)) {
+            return 1;
+        }
+        int rowPixels = (int) rowHeight.getDimension(metrics);
+        return rowPixels <= 0 ? 1 : metrics.heightPixels / rowPixels + 1;
+    }
+
+    /**
+     * @return a row that is ready to bind, or null if there is none left (or none ready yet)
+     */
+    @Nullable
+    View obtain() {
+        return mRows.poll();
+    }
+
+    int size() {
+        return mRows.size();
+    }
+
+    @Override
+    public void onInflateFinished(@NonNull View view, int resid, @Nullable ViewGroup parent) {
+        if (mRows.isEmpty()) {
+            TextView titleView = (TextView) view.findViewById(R.id.title);
+            int padding = view.getPaddingLeft() + view.getPaddingRight();
+            TaskTitleWarmer.setTitleStyle(titleView, mWidth - padding, mRowCount);
+        }
+        mRows.add(view);
+    }
+}
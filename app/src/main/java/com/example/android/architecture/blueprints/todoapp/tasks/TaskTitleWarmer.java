@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.tasks;
+
+import android.support.annotation.NonNull;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.widget.TextView;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import java.util.List;
+
+/**
+ * Lays out the titles of the first rows of the task list on a background thread, before the list
+ * is handed to the main thread. 在后台线程先把标题排一遍版
+ * <p>
+ * The layouts themselves are thrown away. What is kept is the text shaping of the words, which
+ * the platform caches process-wide (from Marshmallow on), so measuring the row titles in the
+ * first frame finds them ready. On older releases this only costs a little background time.
+ */
+final class TaskTitleWarmer {
+
+    // Written on the main thread, read on the list pipeline thread
+    private static volatile Style sStyle; //标题的字体、字号和宽度，第一行View解析出来之后才知道
+
+    private TaskTitleWarmer() {
+    }
+
+    /**
+     * Remembers the text style of a row's title view, which the next {@link #warm} calls use.
+     * Must be called on the main thread.
+     */
+    static void setTitleStyle(@NonNull TextView titleView, int width, int rows) {
+        sStyle = new Style(new TextPaint(titleView.getPaint()), width, rows);
+    }
+
+    /**
+     * Lays out the titles of the tasks shown in the first screen of rows. Does nothing until a
+     * title style is known.
+     */
+    static void warm(List<Task> tasks) {
+        Style style = sStyle;
+        if (style == null) {
+            return;
+        }
+        int count = Math.min(style.mRows, tasks.size());
+        for (int i = 0; i < count; i++) {
+            String title = tasks.get(i).getTitleForList();
+            if (title != null) {
+                new StaticLayout(title, style.mPaint, style.mWidth, Layout.Alignment.ALIGN_NORMAL,
+                        1f, 0f, false);
+            }
+        }
+    }
+
+    private static class Style {
+
+        // Only used by the single list pipeline thread once published
+        final TextPaint mPaint;
+
+        final int mWidth;
+
+        final int mRows;
+
+        Style(TextPaint paint, int width, int rows) {
+            mPaint = paint;
+            mWidth = Math.max(width, 1);
+            mRows = rows;
+        }
+    }
+}
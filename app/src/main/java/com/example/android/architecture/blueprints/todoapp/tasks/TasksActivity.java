@@ -27,6 +27,7 @@ import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.view.MenuItem;
+import android.view.ViewGroup;
 
 import com.example.android.architecture.blueprints.todoapp.Injection;
 import com.example.android.architecture.blueprints.todoapp.R;
@@ -75,9 +76,26 @@ public class TasksActivity extends AppCompatActivity {
                     getSupportFragmentManager(), tasksFragment, R.id.contentFrame);
         }
 
+        // Inflate the first screen of rows in the background while the tasks load. Only on a cold
+        // start: a recreated activity shows the list it already has right away, and the rows are
+        // inflated with this activity's context so they can't be kept for the next one.
+        if (savedInstanceState == null) {
+            tasksFragment.setRowPool(
+                    new TaskRowPool(this, (ViewGroup) findViewById(R.id.contentFrame)));
+        }
+
+        // Reuse the presenter of the previous instance after a configuration change. It still has
+        // the filter, the shown list and any load in flight.
+        mTasksPresenter = (TasksPresenter) getLastCustomNonConfigurationInstance();
+        if (mTasksPresenter != null) {
+            mTasksPresenter.attachView(tasksFragment); //旋转屏幕，不用重新加载和过滤
+            return;
+        }
+
         // Create the presenter相关业务逻辑presenter对象在主Activity下创建 ,在这里将TasksFragment传过去了，在这里将fragment、tasksRepository以及和presenter绑定在一起，当然还创建一个TasksRepository
         mTasksPresenter = new TasksPresenter(
-                Injection.provideTasksRepository(getApplicationContext()), tasksFragment); //创建一个P，把M也创建了，作为V的Fragment就更不用说了
+                Injection.provideTasksRepository(getApplicationContext()), tasksFragment,
+                new TasksListPipeline()); //创建一个P，把M也创建了，作为V的Fragment就更不用说了，过滤放到后台线程
 
         // Load previously saved state, if available.
         if (savedInstanceState != null) { //这里只是保留了Activity意外被干掉后，存储的一个filter
@@ -87,6 +105,14 @@ public class TasksActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Keeps the presenter across configuration changes, see {@link TasksPresenter#attachView}.
+     */
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return mTasksPresenter;
+    }
+
     /**
      * 进程被意外干掉、或者Activity Task中 Activity被意外干掉时，回调的方法
      *
@@ -17,6 +17,7 @@
 package com.example.android.architecture.blueprints.todoapp.tasks;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.example.android.architecture.blueprints.todoapp.BaseView;
 import com.example.android.architecture.blueprints.todoapp.data.Task;
@@ -52,6 +53,10 @@ public interface TasksContract { //非要把Presenter和View放在一个interfac
 
         void showTasks(List<Task> tasks); //加载完Task，需要展示Task，传入一个包含Task的线性表
 
+        void showTaskChanged(int position, Task task); //只刷新列表中的一行，不用重新提交整个列表
+
+        void showTaskRemoved(int position); //只从列表中移除一行，比如过滤条件下它不该再显示了
+
         void showAddTask(); //这里是show，意为展示给用户看，那就是打开新增Task页面
 
         void showTaskDetailsUi(String taskId); //根据任务id，打开Task详情页
@@ -64,6 +69,8 @@ public interface TasksContract { //非要把Presenter和View放在一个interfac
 
         void showLoadingTasksError();  //展示加载Task时出错的View
 
+        void showUpdatingTaskError(); //展示标记Task失败的提示
+
         void showNoTasks(); //展示没有Task时的view
 
         void showActiveFilterLabel(); //展示过滤为已活动Task的标签
@@ -76,6 +83,8 @@ public interface TasksContract { //非要把Presenter和View放在一个interfac
 
         void showNoCompletedTasks(); //展示选择过滤后，没有已完成Task的View
 
+        void showNoSearchResults(); //展示搜索后，没有匹配的Task的View
+
         void showSuccessfullySavedMessage(); //展示保存任务成功时的View,一个SnackBar
 
         boolean isActive(); //判断是否是活动状态，貌似是Fragment是否为Attached状态
@@ -106,8 +115,17 @@ public interface TasksContract { //非要把Presenter和View放在一个interfac
 
         void clearCompletedTasks();  //删除列表中标记的已完成的Task
 
+        void undoClearCompletedTasks(); //撤销刚才的清空
+
         void setFiltering(TasksFilterType requestType); //支持设置过滤的类型，应该是Task在筛选时可以设定条件
 
         TasksFilterType getFiltering(); //得到过滤Task的分类类型
+
+        void setSearchQuery(@Nullable String query); //按关键词搜索Task，null表示不搜索，显示全部
+
+        void setTypeAheadQuery(@Nullable String query); //边打字边搜索，只搜标题
+
+        @Nullable
+        String getSearchQuery(); //得到当前搜索的关键词
     }
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.tasks;
+
+import android.support.v7.util.DiffUtil;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.google.common.base.Objects;
+
+import java.util.List;
+
+/**
+ * Compares two task lists for {@link DiffUtil}. Rows are the same task when their ids match, and
+ * only need rebinding when something a row shows changed: the title (or the description it falls
+ * back to) and the completed state. {@link Task#equals(Object)} can't be used for the second
+ * check because it ignores the completed state.
+ */
+class TasksDiffCallback extends DiffUtil.Callback {
+
+    private final List<Task> mOldTasks;
+
+    private final List<Task> mNewTasks;
+
+    TasksDiffCallback(List<Task> oldTasks, List<Task> newTasks) {
+        mOldTasks = oldTasks;
+        mNewTasks = newTasks;
+    }
+
+    @Override
+    public int getOldListSize() {
+        return mOldTasks.size();
+    }
+
+    @Override
+    public int getNewListSize() {
+        return mNewTasks.size();
+    }
+
+    @Override
+    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+        return mOldTasks.get(oldItemPosition).getId()
+                .equals(mNewTasks.get(newItemPosition).getId());
+    }
+
+    @Override
+    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+        Task oldTask = mOldTasks.get(oldItemPosition);
+        Task newTask = mNewTasks.get(newItemPosition);
+        return oldTask.isCompleted() == newTask.isCompleted()
+                && Objects.equal(oldTask.getTitleForList(), newTask.getTitleForList());
+    }
+}
@@ -18,34 +18,46 @@ package com.example.android.architecture.blueprints.todoapp.tasks;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.Fragment;
 import android.support.v4.content.ContextCompat;
+import android.support.v4.view.ViewCompat;
 import android.support.v4.widget.SwipeRefreshLayout;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.PopupMenu;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.CheckBox;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
-import android.widget.ListView;
 import android.widget.TextView;
 
+import com.example.android.architecture.blueprints.todoapp.Injection;
 import com.example.android.architecture.blueprints.todoapp.R;
 import com.example.android.architecture.blueprints.todoapp.addedittask.AddEditTaskActivity;
 import com.example.android.architecture.blueprints.todoapp.data.Task;
 import com.example.android.architecture.blueprints.todoapp.taskdetail.TaskDetailActivity;
+import com.example.android.architecture.blueprints.todoapp.util.EspressoIdlingResource;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -55,6 +67,12 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class TasksFragment extends Fragment implements TasksContract.View { //任务列表，最最重要的Fragment
 
+    /**
+     * How long typing has to pause before the typed query is searched. Short enough to feel
+     * instant, long enough to skip most of the queries of a word typed quickly.
+     */
+    private static final long TYPE_AHEAD_DELAY_MS = 100;
+
     private TasksContract.Presenter mPresenter; //V中也要拿到Presenter嘛，虽然TasksFragment作为V已经传递给P了
 
     private TasksAdapter mListAdapter; //适配器。。。，没办法TasksFragment就是个RecyclerView
@@ -71,6 +89,21 @@ public class TasksFragment extends Fragment implements TasksContract.View { //
 
     private TextView mFilteringLabelView;
 
+    @Nullable
+    private TaskRowPool mRowPool; //Activity创建时就开始在后台解析的列表行
+
+    private final Handler mTypeAheadHandler = new Handler(Looper.getMainLooper());
+
+    @Nullable
+    private String mTypeAheadQuery; //还没搜索的、正在输入的关键词
+
+    private final Runnable mTypeAheadSearch = new Runnable() {
+        @Override
+        public void run() {
+            mPresenter.setTypeAheadQuery(mTypeAheadQuery);
+        }
+    };
+
     public TasksFragment() { //必须有一个空的public构造方法，谁用Fragment谁知道。。。。
         // Requires empty public constructor
     }
@@ -82,7 +115,9 @@ public class TasksFragment extends Fragment implements TasksContract.View { //
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        mListAdapter = new TasksAdapter(new ArrayList<Task>(0), mItemListener); //初始化TasksAdapter
+        mListAdapter = new TasksAdapter(new ArrayList<Task>(0), mItemListener, //初始化TasksAdapter
+                Injection.provideAppExecutors().diskIO()); //diff放到app的后台线程上算
+        mListAdapter.setRowPool(mRowPool);
                                          //初始化的由数组组成的线性表，初始化容量为0，
     }
 
@@ -92,6 +127,26 @@ public class TasksFragment extends Fragment implements TasksContract.View { //
         mPresenter.start(); //看来在Fragment建立完后，就会调用Presenter的start（）方法，这里面又调用了onRefresh，所以每次初始化的时候，你都看见执行下拉刷新一次
     }
 
+    @Override
+    public void onPause() {
+        mTypeAheadHandler.removeCallbacks(mTypeAheadSearch); //还没到时间的搜索不做了
+        if (!getActivity().isChangingConfigurations()) {
+            // On a rotation the presenter is kept, and its loads go on for the new fragment
+            mPresenter.stop(); //View不可见了，还没回来的请求就不要了，免得回调一直拉着fragment
+        }
+        super.onPause();
+    }
+
+    /**
+     * Gives the list rows that were inflated ahead of time, see {@link TaskRowPool}.
+     */
+    void setRowPool(@Nullable TaskRowPool rowPool) {
+        mRowPool = rowPool;
+        if (mListAdapter != null) {
+            mListAdapter.setRowPool(rowPool);
+        }
+    }
+
     /**
      * 这个方法用于初始化在TasksFragment下的Presenter
      * @param presenter
@@ -120,8 +175,10 @@ public class TasksFragment extends Fragment implements TasksContract.View { //
         View root = inflater.inflate(R.layout.tasks_frag, container, false);
 
         // Set up tasks view
-        ListView listView = (ListView) root.findViewById(R.id.tasks_list);
-        listView.setAdapter(mListAdapter);
+        RecyclerView recyclerView = (RecyclerView) root.findViewById(R.id.tasks_list);
+        recyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
+        recyclerView.setHasFixedSize(true); //列表的大小不随内容变化，增删item时不用重新布局整个RecyclerView
+        recyclerView.setAdapter(mListAdapter);
         mFilteringLabelView = (TextView) root.findViewById(R.id.filteringLabel);
         mTasksView = (LinearLayout) root.findViewById(R.id.tasksLL);
 
@@ -158,7 +215,7 @@ public class TasksFragment extends Fragment implements TasksContract.View { //
                 ContextCompat.getColor(getActivity(), R.color.colorPrimaryDark)
         );
         // Set the scrolling view in the custom SwipeRefreshLayout.
-        swipeRefreshLayout.setScrollUpChild(listView);
+        swipeRefreshLayout.setScrollUpChild(recyclerView);
 
         swipeRefreshLayout.setOnRefreshListener(new SwipeRefreshLayout.OnRefreshListener() {
             @Override
@@ -201,6 +258,58 @@ public class TasksFragment extends Fragment implements TasksContract.View { //
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.tasks_fragment_menu, menu);
+        setUpSearchView(menu.findItem(R.id.menu_search));
+    }
+
+    /**
+     * Searches the titles as the query is typed, once typing pauses for
+     * {@link #TYPE_AHEAD_DELAY_MS}, and everything when it is submitted. Goes back to all tasks
+     * when the query is cleared or the search view is closed. A query the presenter kept across a
+     * rotation is put back.
+     */
+    private void setUpSearchView(MenuItem searchItem) {
+        final SearchView searchView = (SearchView) searchItem.getActionView();
+        String searchQuery = mPresenter.getSearchQuery();
+        if (searchQuery != null) { //旋转屏幕后，Presenter还在搜索，把搜索框恢复出来
+            searchItem.expandActionView();
+            searchView.setQuery(searchQuery, false);
+            searchView.clearFocus();
+        }
+
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mTypeAheadHandler.removeCallbacks(mTypeAheadSearch);
+                mPresenter.setSearchQuery(query);
+                searchView.clearFocus(); //收起软键盘，好看结果
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mTypeAheadHandler.removeCallbacks(mTypeAheadSearch); //上一个字符的搜索作废
+                if (newText.isEmpty()) {
+                    mPresenter.setSearchQuery(null);
+                } else if (!newText.trim().equals(mPresenter.getSearchQuery())) {
+                    mTypeAheadQuery = newText;
+                    mTypeAheadHandler.postDelayed(mTypeAheadSearch, TYPE_AHEAD_DELAY_MS);
+                }
+                return true;
+            }
+        });
+        searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                mTypeAheadHandler.removeCallbacks(mTypeAheadSearch);
+                mPresenter.setSearchQuery(null);
+                return true;
+            }
+        });
     }
 
     /**
@@ -233,8 +342,8 @@ public class TasksFragment extends Fragment implements TasksContract.View { //
     }
 
     /**
-     * Listener for clicks on tasks in the ListView.
-     * ListView每一个Item的点击事件，写的太牛逼了把，这个最后还是传递到Adapter中了
+     * Listener for clicks on tasks in the RecyclerView.
+     * RecyclerView每一个Item的点击事件，写的太牛逼了把，这个最后还是传递到Adapter中了
      * 牛逼
      */
     TaskItemListener mItemListener = new TaskItemListener() {
@@ -275,12 +384,22 @@ public class TasksFragment extends Fragment implements TasksContract.View { //
 
     @Override
     public void showTasks(List<Task> tasks) {
-        mListAdapter.replaceData(tasks); //哈哈，把Tasks交给ListView的Adapter，替换数据，此时ListView会刷新
+        mListAdapter.replaceData(tasks); //哈哈，把Tasks交给RecyclerView的Adapter，替换数据，只刷新变化的item
 
-        mTasksView.setVisibility(View.VISIBLE); //我去要显示整个ListView了
+        mTasksView.setVisibility(View.VISIBLE); //我去要显示整个RecyclerView了
         mNoTasksView.setVisibility(View.GONE);  //显示任务的时候，当然要gone掉没有任务的View了
     }
 
+    @Override
+    public void showTaskChanged(int position, Task task) {
+        mListAdapter.replaceTask(position, task); //只重新绑定这一行
+    }
+
+    @Override
+    public void showTaskRemoved(int position) {
+        mListAdapter.removeTask(position); //只移除这一行
+    }
+
     /**
      * 没有标记为活动的任务时，调用该方法，里面肯定是处理View的哈，将View显示出来
      * 牛13，用同一个布局玩出了花样，没有任务时、没有活动任务时，没有完成任务时，
@@ -318,6 +437,18 @@ public class TasksFragment extends Fragment implements TasksContract.View { //
         );
     }
 
+    /**
+     * 搜索没有匹配的任务时，View的处理情况
+     */
+    @Override
+    public void showNoSearchResults() {
+        showNoTasksViews(
+                getResources().getString(R.string.no_tasks_search),
+                R.drawable.ic_search,
+                false
+        );
+    }
+
     /**
      * 保存任务成功时，调用的方法
      */
@@ -411,7 +542,14 @@ public class TasksFragment extends Fragment implements TasksContract.View { //
      */
     @Override
     public void showCompletedTasksCleared() {
-        showMessage(getString(R.string.completed_tasks_cleared));
+        Snackbar.make(getView(), getString(R.string.completed_tasks_cleared), Snackbar.LENGTH_LONG)
+                .setAction(R.string.undo, new View.OnClickListener() { //带一个撤销按钮
+                    @Override
+                    public void onClick(View v) {
+                        mPresenter.undoClearCompletedTasks();
+                    }
+                })
+                .show();
     }
 
     /**
@@ -422,6 +560,14 @@ public class TasksFragment extends Fragment implements TasksContract.View { //
         showMessage(getString(R.string.loading_tasks_error));
     }
 
+    /**
+     *  展示标记Task失败的提示
+     */
+    @Override
+    public void showUpdatingTaskError() {
+        showMessage(getString(R.string.updating_task_error));
+    }
+
     /**
      *  嘿嘿，所有提示统一的处理，就是SnackBar
      * @param message  SnackBar中改变的 内容
@@ -442,30 +588,121 @@ public class TasksFragment extends Fragment implements TasksContract.View { //
 
 
     /**
-     * private的静态内部类来了，是Adapter，ListView的Adapter，ListView在TasksFragment下，所以，Adapter内部类也放在这里
+     * private的静态内部类来了，是Adapter，RecyclerView的Adapter，RecyclerView在TasksFragment下，所以，Adapter内部类也放在这里
+     * <p>
+     * New lists are compared with the shown one by {@link DiffUtil} on a background thread, and
+     * only the rows that actually changed are inserted, removed, moved or rebound. Item ids are
+     * stable, derived from {@link Task#getId()}, so a task keeps its row across updates.
      */
-    private static class TasksAdapter extends BaseAdapter {
+    private static class TasksAdapter extends RecyclerView.Adapter<TasksAdapter.TaskViewHolder> {
+
+        private final Executor mDiffExecutor;
 
-        private List<Task> mTasks; //线性表，持有Task
+        private final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
+
+        private final Map<String, Long> mItemIds = new HashMap<>(); //Task的id到RecyclerView稳定id的映射，只留当前列表里的
+
+        private long mNextItemId;
+
+        private List<Task> mTasks; //线性表，持有Task，即当前显示的数据
+
+        private List<Task> mLatestTasks; //最近一次提交的数据，diff还没算完时和mTasks不同
         private TaskItemListener mItemListener; //每一条Task的监听器
 
+        private int mGeneration; //每次replaceData都加一，过期的diff结果直接丢掉
+
+        @Nullable
+        private TaskRowPool mRowPool; //第一屏先用预先解析好的行
+
         /**
          * 构造方法
          * @param tasks 线性表，里面每个元素为Task，
          * @param itemListener TaskItem 监听器
+         * @param diffExecutor runs the diffs, a newer list makes the diff in flight stale anyway
          */
-        public TasksAdapter(List<Task> tasks, TaskItemListener itemListener) {
+        public TasksAdapter(List<Task> tasks, TaskItemListener itemListener,
+                Executor diffExecutor) {
+            mDiffExecutor = checkNotNull(diffExecutor);
             setList(tasks);
             mItemListener = itemListener;
+            setHasStableIds(true);
+        }
+
+        void setRowPool(@Nullable TaskRowPool rowPool) {
+            mRowPool = rowPool;
         }
 
         /**
-         * 替换数据
+         * 替换数据，在后台线程计算差异，然后在主线程只通知变化的item
          * @param tasks Task线性表，要新替换的数据
          */
         public void replaceData(List<Task> tasks) {
-            setList(tasks); //设置为新替换的数据
-            notifyDataSetChanged(); //通知数据已经发生改变，观察者模式，这时候RecyclerView要重绘了吧
+            final List<Task> newTasks = new ArrayList<>(checkNotNull(tasks));
+            final List<Task> oldTasks = mTasks;
+            final int generation = ++mGeneration;
+            mLatestTasks = newTasks;
+
+            if (oldTasks.isEmpty() || newTasks.isEmpty()) {
+                // Nothing to compare, inserting or removing everything is already minimal
+                setList(newTasks);
+                if (!oldTasks.isEmpty()) {
+                    notifyItemRangeRemoved(0, oldTasks.size());
+                } else if (!newTasks.isEmpty()) {
+                    notifyItemRangeInserted(0, newTasks.size());
+                }
+                return;
+            }
+
+            // The app is busy until the diff is applied, let Espresso wait for it
+            EspressoIdlingResource.increment();
+
+            mDiffExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final DiffUtil.DiffResult result =
+                            DiffUtil.calculateDiff(new TasksDiffCallback(oldTasks, newTasks));
+                    mMainThreadHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation == mGeneration) { //期间没有更新的数据，才应用这次的结果
+                                setList(newTasks);
+                                result.dispatchUpdatesTo(TasksAdapter.this);
+                            }
+                            EspressoIdlingResource.decrement();
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * Replaces one row. Positions refer to the latest list passed to
+         * {@link #replaceData(List)}; while its diff is still running the change is folded into
+         * that list instead, so the pending diff can't apply to a list it wasn't computed for.
+         */
+        public void replaceTask(int position, Task task) {
+            if (mLatestTasks == mTasks) {
+                mTasks.set(position, task);
+                notifyItemChanged(position); //只重新绑定这一行
+            } else {
+                List<Task> tasks = new ArrayList<>(mLatestTasks);
+                tasks.set(position, task);
+                replaceData(tasks);
+            }
+        }
+
+        /**
+         * Removes one row, see {@link #replaceTask(int, Task)} for the positions.
+         */
+        public void removeTask(int position) {
+            if (mLatestTasks == mTasks) {
+                mTasks.remove(position);
+                notifyItemRemoved(position); //只移除这一行
+            } else {
+                List<Task> tasks = new ArrayList<>(mLatestTasks);
+                tasks.remove(position);
+                replaceData(tasks);
+            }
         }
 
         /**
@@ -474,6 +711,23 @@ public class TasksFragment extends Fragment implements TasksContract.View { //
          */
         private void setList(List<Task> tasks) {
             mTasks = checkNotNull(tasks); //赋值给mTasks
+            mLatestTasks = tasks;
+            pruneItemIds();
+        }
+
+        /**
+         * Forgets the item ids of tasks that are no longer shown, so the ids don't pile up as
+         * tasks come and go.
+         */
+        private void pruneItemIds() {
+            if (mItemIds.isEmpty()) {
+                return;
+            }
+            Set<String> shownIds = new HashSet<>(mTasks.size());
+            for (Task task : mTasks) {
+                shownIds.add(task.getId());
+            }
+            mItemIds.keySet().retainAll(shownIds);
         }
 
         /**
@@ -481,82 +735,91 @@ public class TasksFragment extends Fragment implements TasksContract.View { //
          * @return 返回线性表数量，有多少个元素，即多少个Task
          */
         @Override
-        public int getCount() {
+        public int getItemCount() {
             return mTasks.size();
         }
 
         /**
-         * 还好封装好的，不然就是越界的命
-         * @param i 元素下标
-         * @return 返回指定索引的元素，即Task
+         * 获取每一个Item的id，同一个Task永远是同一个id
+         * @param position 传入的Item下标
+         * @return 返回的id
          */
         @Override
-        public Task getItem(int i) {
-            return mTasks.get(i);
+        public long getItemId(int position) {
+            String taskId = mTasks.get(position).getId();
+            Long itemId = mItemIds.get(taskId);
+            if (itemId == null) {
+                itemId = mNextItemId++; //不能用size()，删掉的id可能还在别的行上
+                mItemIds.put(taskId, itemId);
+            }
+            return itemId;
         }
 
         /**
-         * 获取每一个Item的id
-         * @param i 传入的Item下标
-         * @return 返回的id
+         * 只在没有可复用的ViewHolder时才解析布局
          */
         @Override
-        public long getItemId(int i) {
-            return i;
+        public TaskViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            View row = mRowPool != null ? mRowPool.obtain() : null;
+            if (row == null) { //预先解析的行用完了，或者还没解析好
+                LayoutInflater inflater = LayoutInflater.from(parent.getContext()); //先拿到布局解析器对象，即LayoutInflater
+                row = inflater.inflate(R.layout.task_item, parent, false); //解析一条Item的View
+            }
+            return new TaskViewHolder(row);
+        }
+
+        @Override
+        public void onBindViewHolder(TaskViewHolder holder, int position) {
+            holder.bind(mTasks.get(position)); //嘿嘿，按位置，获得对应的Task
         }
 
         /**
-         * 重要方法
-         * @param i 显示是item的位置
-         * @param view 嘿嘿，显示是每一个Item的View
-         * @param viewGroup 是啥？还不知道，郁闷！
-         * @return
+         * Holds the views of a row and its listeners, which are created once and act on whatever
+         * task is bound at the time of the click.
          */
-        @Override
-        public View getView(int i, View view, ViewGroup viewGroup) {
-            View rowView = view; //先做赋值
-            if (rowView == null) { //如果rowView为null，开始解析一个View
-                LayoutInflater inflater = LayoutInflater.from(viewGroup.getContext()); //先拿到布局解析器对象，即LayoutInflater
-                rowView = inflater.inflate(R.layout.task_item, viewGroup, false); //解析一条Item的View
-            }
+        class TaskViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
 
-            final Task task = getItem(i); //嘿嘿，按位置，获得对应的Task
+            private final TextView mTitleView;
 
-            TextView titleTV = (TextView) rowView.findViewById(R.id.title); //获取标题View
-            titleTV.setText(task.getTitleForList()); //设置标题
+            private final CheckBox mCompleteView;
 
-            CheckBox completeCB = (CheckBox) rowView.findViewById(R.id.complete); //获取checkBox
+            private Task mTask;
 
-            // Active/completed task UI
-            completeCB.setChecked(task.isCompleted()); //初始化每一个Item的checkBox状态，根据Task的状态决定，真牛逼
+            private int mBackgroundRes; //当前的背景，没变就不用重新设置
 
-            if (task.isCompleted()) { //如果Task已经完成
-                rowView.setBackgroundDrawable(viewGroup.getContext() //改变item的背景色
-                        .getResources().getDrawable(R.drawable.list_completed_touch_feedback)); //这牛逼
-            } else { //如果Task仍是活动状态
-                rowView.setBackgroundDrawable(viewGroup.getContext()
-                        .getResources().getDrawable(R.drawable.touch_feedback)); //改变为活动时的Item颜色
+            TaskViewHolder(View itemView) {
+                super(itemView);
+                mTitleView = (TextView) itemView.findViewById(R.id.title); //获取标题View
+                mCompleteView = (CheckBox) itemView.findViewById(R.id.complete); //获取checkBox
+                itemView.setOnClickListener(this);
+                mCompleteView.setOnClickListener(this);
             }
 
-            completeCB.setOnClickListener(new View.OnClickListener() { //checkBox的监听器
-                @Override
-                public void onClick(View v) {
-                    if (!task.isCompleted()) { //每当点击checkBox时，当Task是未完成时
-                        mItemListener.onCompleteTaskClick(task); //调用onCompleteTaskClick方法
-                    } else {
-                        mItemListener.onActivateTaskClick(task); //每当点击checkBox时，当Task已经完成，调用onActivateTaskClick方法
-                    }
+            void bind(Task task) {
+                mTask = task;
+                mTitleView.setText(task.getTitleForList()); //设置标题
+
+                // Active/completed task UI
+                mCompleteView.setChecked(task.isCompleted());
+                int backgroundRes = task.isCompleted()
+                        ? R.drawable.list_completed_touch_feedback : R.drawable.touch_feedback;
+                if (backgroundRes != mBackgroundRes) {
+                    ViewCompat.setBackground(itemView,
+                            ContextCompat.getDrawable(itemView.getContext(), backgroundRes));
+                    mBackgroundRes = backgroundRes;
                 }
-            });
+            }
 
-            rowView.setOnClickListener(new View.OnClickListener() { //每一个Item的点击监听器
-                @Override
-                public void onClick(View view) {
-                    mItemListener.onTaskClick(task); //直接调用onTaskClick（）
+            @Override
+            public void onClick(View v) {
+                if (v != mCompleteView) {
+                    mItemListener.onTaskClick(mTask); //整条Item的点击
+                } else if (!mTask.isCompleted()) { //每当点击checkBox时，当Task是未完成时
+                    mItemListener.onCompleteTaskClick(mTask);
+                } else {
+                    mItemListener.onActivateTaskClick(mTask);
                 }
-            });   //大神这牛逼，把item的所有事件，包括整条Item的交互、单个checkBox的交互，全部放到mItemListener里面，牛逼
-
-            return rowView;
+            }
         }
     }
 
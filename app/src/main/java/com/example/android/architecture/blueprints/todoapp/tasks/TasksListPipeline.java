@@ -0,0 +1,263 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.tasks;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.util.EspressoIdlingResource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Turns the tasks loaded by the repository into the list the tasks screen shows, off the main
+ * thread. 过滤放到后台线程，主线程只负责展示
+ * <p>
+ * Each {@link #process} call runs on a background thread. Large lists are split into chunks that
+ * are filtered on a pool with one thread per core, the calling thread taking the first chunk
+ * itself, and the results are joined in their original order. The final list is unmodifiable and
+ * delivered on the main thread. A call made while an older one is still running makes the older
+ * one stale: it is skipped if it hasn't started and its result is dropped if it has.
+ * <p>
+ * New stages, like sorting or grouping, go into {@link #run}, between the filter and the delivery.
+ * The last stage lays out the titles of the first rows, see {@link TaskTitleWarmer}.
+ */
+class TasksListPipeline {
+
+    /**
+     * Below this many tasks per chunk, handing work to another thread costs more than it saves.
+     */
+    @VisibleForTesting
+    static final int MIN_CHUNK_SIZE = 2048;
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    private static Executor sBackgroundExecutor; //跑整条流水线的线程，所有Presenter共用
+
+    private static ExecutorService sWorkers; //分块过滤的线程，每个核一根
+
+    interface Callback {
+
+        void onListProcessed(List<Task> tasks); //主线程回调，拿到最终要展示的Task
+    }
+
+    private final Executor mBackgroundExecutor;
+
+    @Nullable
+    private final ExecutorService mWorkers;
+
+    private final Executor mMainThread;
+
+    private final int mParallelism;
+
+    // Only written on the main thread, volatile so the background thread can skip stale work
+    private volatile int mGeneration; //每次process都加一，过期的结果直接丢掉
+
+    private int mFinishedGeneration;
+
+    /**
+     * Uses thread pools shared by all pipelines of the process.
+     */
+    TasksListPipeline() {
+        this(getBackgroundExecutor(), getWorkers(), new MainThreadExecutor(), CORES);
+    }
+
+    @VisibleForTesting
+    TasksListPipeline(@NonNull Executor backgroundExecutor, @Nullable ExecutorService workers,
+            @NonNull Executor mainThread, int parallelism) {
+        mBackgroundExecutor = checkNotNull(backgroundExecutor);
+        mWorkers = workers;
+        mMainThread = checkNotNull(mainThread);
+        mParallelism = workers == null ? 1 : parallelism;
+    }
+
+    /**
+     * A pipeline that does all of its work on the calling thread, for callers that need the
+     * result right away.
+     */
+    static TasksListPipeline createSynchronous() {
+        Executor directExecutor = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                command.run();
+            }
+        };
+        return new TasksListPipeline(directExecutor, null, directExecutor, 1);
+    }
+
+    private static synchronized Executor getBackgroundExecutor() {
+        if (sBackgroundExecutor == null) {
+            sBackgroundExecutor = Executors.newSingleThreadExecutor();
+        }
+        return sBackgroundExecutor;
+    }
+
+    private static synchronized ExecutorService getWorkers() {
+        if (sWorkers == null && CORES > 1) {
+            // The background thread filters one chunk itself, so one thread less is enough
+            sWorkers = Executors.newFixedThreadPool(CORES - 1);
+        }
+        return sWorkers;
+    }
+
+    /**
+     * @return true if {@code task} belongs in the list for {@code filtering}.
+     */
+    static boolean matches(TasksFilterType filtering, Task task) {
+        switch (filtering) {  //根据不同的过滤标签
+            case ACTIVE_TASKS: //活动任务
+                return task.isActive(); //判断Task是否为活动状态
+            case COMPLETED_TASKS: //已完成任务
+                return task.isCompleted(); //判断Task是否为完成状态
+            default:
+                return true; //所有任务，或者没有过滤标签，全部展示
+        }
+    }
+
+    /**
+     * @return true while the result of the latest {@link #process} call hasn't been delivered.
+     */
+    boolean isProcessing() {
+        return mFinishedGeneration != mGeneration;
+    }
+
+    /**
+     * Must be called on the main thread. {@code tasks} must not change afterwards.
+     */
+    void process(@NonNull final List<Task> tasks, @NonNull final TasksFilterType filtering,
+            @NonNull final Callback callback) {
+        checkNotNull(tasks);
+        checkNotNull(filtering);
+        checkNotNull(callback);
+        final int generation = ++mGeneration;
+
+        // The app is busy until the list is delivered, let Espresso wait for it
+        EspressoIdlingResource.increment();
+
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Skip the work if a newer list is already waiting behind this one
+                final List<Task> result = generation == mGeneration
+                        ? TasksListPipeline.this.run(tasks, filtering) : null;
+
+                mMainThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean latest = generation == mGeneration;
+                        if (latest) {
+                            mFinishedGeneration = generation;
+                        }
+                        if (!EspressoIdlingResource.getIdlingResource().isIdleNow()) {
+                            EspressoIdlingResource.decrement();
+                        }
+                        if (latest && result != null) {
+                            callback.onListProcessed(result);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return the list to show, or null if the thread was interrupted.
+     */
+    @Nullable
+    private List<Task> run(List<Task> tasks, TasksFilterType filtering) {
+        List<Task> filtered;
+        try {
+            filtered = filter(tasks, filtering);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        TaskTitleWarmer.warm(filtered); //主线程绑定第一屏之前，先把标题排好版
+        return Collections.unmodifiableList(filtered);
+    }
+
+    private List<Task> filter(final List<Task> tasks, final TasksFilterType filtering)
+            throws InterruptedException {
+        int chunks = Math.min(mParallelism, tasks.size() / MIN_CHUNK_SIZE);
+        if (mWorkers == null || chunks <= 1) {
+            return filterRange(tasks, 0, tasks.size(), filtering);
+        }
+
+        // Fork all chunks but the first, filter the first one here, then join in order
+        int chunkSize = (tasks.size() + chunks - 1) / chunks;
+        List<Future<List<Task>>> forked = new ArrayList<>(chunks - 1);
+        for (int start = chunkSize; start < tasks.size(); start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(start + chunkSize, tasks.size());
+            forked.add(mWorkers.submit(new Callable<List<Task>>() {
+                @Override
+                public List<Task> call() {
+                    return filterRange(tasks, from, to, filtering);
+                }
+            }));
+        }
+        List<Task> filtered = filterRange(tasks, 0, chunkSize, filtering);
+        try {
+            for (Future<List<Task>> chunk : forked) {
+                filtered.addAll(chunk.get());
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (Future<List<Task>> chunk : forked) {
+                chunk.cancel(false); //中途出错的话，还没开始的分块就不用做了
+            }
+        }
+        return filtered;
+    }
+
+    private static List<Task> filterRange(List<Task> tasks, int from, int to,
+            TasksFilterType filtering) {
+        List<Task> filtered = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            Task task = tasks.get(i);
+            if (matches(filtering, task)) {
+                filtered.add(task);
+            }
+        }
+        return filtered;
+    }
+
+    private static class MainThreadExecutor implements Executor {
+
+        private final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mMainThreadHandler.post(command);
+        }
+    }
+}
@@ -18,12 +18,17 @@ package com.example.android.architecture.blueprints.todoapp.tasks;
 
 import android.app.Activity;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.example.android.architecture.blueprints.todoapp.addedittask.AddEditTaskActivity;
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.Cancellable;
+import com.example.android.architecture.blueprints.todoapp.data.source.LifecycleCallbacks;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
 import com.example.android.architecture.blueprints.todoapp.util.EspressoIdlingResource;
+import com.google.common.base.Objects;
+import com.google.common.base.Strings;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -38,32 +43,122 @@ public class TasksPresenter implements TasksContract.Presenter { //Tasks Present
 
     private final TasksRepository mTasksRepository; //Model
 
-    private final TasksContract.View mTasksView; //View
+    private TasksContract.View mTasksView; //View
 
     private TasksFilterType mCurrentFiltering = TasksFilterType.ALL_TASKS; //Task标签，默认为ALL_TASKS
 
     private boolean mFirstLoad = true; //标志位，标记是否为第一次加载, 默认为true
 
+    private final TasksListPipeline mListPipeline; //在后台线程过滤Task
+
+    private List<Task> mShownTasks = new ArrayList<>(); //View当前展示的Task，乐观更新时直接修改这里
+
+    private boolean mShownTasksMutable = true; //流水线给的是只读的线性表，第一次修改前先复制
+
+    private long mRenderedVersion = -1; //View当前展示的是仓库哪个数据版本，-1表示还没展示过
+
+    private TasksFilterType mRenderedFiltering; //展示时用的过滤条件
+
+    @Nullable
+    private String mSearchQuery; //搜索的关键词，null表示不在搜索
+
+    private boolean mSearchTitlesOnly; //边打字边搜的时候只搜标题
+
+    @Nullable
+    private String mRenderedSearchQuery; //展示时用的关键词
+
+    private boolean mRenderedSearchTitlesOnly;
+
+    private boolean mViewHasShownTasks; //当前的View有没有拿到过mShownTasks，旋转屏幕后新的View还没有
+
+    private final LifecycleCallbacks mCallbacks = new LifecycleCallbacks(); //View不可见时解绑回调
+
+    @Nullable
+    private Cancellable mLoadRequest; //正在进行的加载，新的加载开始时取消掉它
+
+    private boolean mLoadDone = true; //mLoadRequest是否已经回调过了
+
+    private boolean mLoadShowsLoadingUI; //mLoadRequest是否打开了加载的View
+
     /**
      * 构造方法，在TasksActivity下进行的初始化
      * @param tasksRepository
      * @param tasksView
      */
     public TasksPresenter(@NonNull TasksRepository tasksRepository, @NonNull TasksContract.View tasksView) {
+        this(tasksRepository, tasksView, TasksListPipeline.createSynchronous());
+    }
+
+    /**
+     * @param listPipeline filters the loaded tasks, see {@link TasksListPipeline}
+     */
+    TasksPresenter(@NonNull TasksRepository tasksRepository, @NonNull TasksContract.View tasksView,
+            @NonNull TasksListPipeline listPipeline) {
         mTasksRepository = checkNotNull(tasksRepository, "tasksRepository cannot be null"); //传入的M，即Repository
+        mListPipeline = checkNotNull(listPipeline, "listPipeline cannot be null!");
         mTasksView = checkNotNull(tasksView, "tasksView cannot be null!"); //传入的V，即Fragment
 
         mTasksView.setPresenter(this); //这里将Presenter传到Fragment中，牛逼，因为是先创建的Fragment，所以这里靠谱，调用TasksFragment的实例方法
     }
 
+    /**
+     * Hands a presenter that was kept across a configuration change the view of the recreated
+     * screen. The next {@link #start()} shows the tasks it last rendered again, without loading
+     * or filtering them, and a load that is still running delivers to the new view.
+     * 旋转屏幕后，把新的Fragment交给保留下来的Presenter
+     */
+    void attachView(@NonNull TasksContract.View tasksView) {
+        mTasksView = checkNotNull(tasksView, "tasksView cannot be null!");
+        mViewHasShownTasks = false;
+        mTasksView.setPresenter(this);
+    }
+
     /**
      * 这个方法在Fragment下调用，即V下调用，目的就是加载Task，调用了loadTasks（false）方法
      */
     @Override
     public void start() {
+        mCallbacks.attach();
+        if (!mFirstLoad) {
+            if (!mLoadDone || mListPipeline.isProcessing()) {
+                // A load is still running, e.g. one started before a rotation
+                if (mLoadShowsLoadingUI) {
+                    mTasksView.setLoadingIndicator(true);
+                }
+                return;
+            }
+            if (isRenderedUpToDate()) {
+                if (!mViewHasShownTasks) {
+                    processTasks(mShownTasks); //新的View，直接交给它上次的列表，不用重新过滤
+                }
+                return; //数据和过滤条件都没变，比如从详情页直接返回，不用重新加载和绑定
+            }
+        }
         loadTasks(false);
     }
 
+    /**
+     * @return true if the view shows the repository's current data with the current filter
+     */
+    private boolean isRenderedUpToDate() {
+        return mLoadDone && !mListPipeline.isProcessing()
+                && mRenderedVersion == mTasksRepository.getDataVersion()
+                && mRenderedFiltering == mCurrentFiltering
+                && Objects.equal(mRenderedSearchQuery, mSearchQuery)
+                && mRenderedSearchTitlesOnly == mSearchTitlesOnly;
+    }
+
+    @Override
+    public void stop() {
+        mCallbacks.detach();
+        if (!mLoadDone) {
+            mLoadDone = true; //被取消了，不会再回调
+            if (!EspressoIdlingResource.getIdlingResource().isIdleNow()) {
+                EspressoIdlingResource.decrement();
+            }
+        }
+    }
+
     /**
      * 在TasksActivity下打开的组件，即Activity后，关掉后，会调用onActivityResult，然后会调用该result（）方法
      * @param requestCode
@@ -94,7 +189,24 @@ public class TasksPresenter implements TasksContract.Presenter { //Tasks Present
      * @param forceUpdate   Pass in true to refresh the data in the {@link TasksDataSource}
      * @param showLoadingUI Pass in true to display a loading icon in the UI
      */
-    private void loadTasks(boolean forceUpdate, final boolean showLoadingUI) {
+    private void loadTasks(boolean forceUpdate, boolean showLoadingUI) {
+        if (!mCallbacks.isAttached()) {
+            return; //View不可见，start()的时候会重新加载
+        }
+        if (!mLoadDone || mListPipeline.isProcessing()) {
+            // A newer load replaces the pending one, its result would be thrown away anyway
+            if (mLoadRequest != null && !mLoadDone) {
+                mLoadRequest.cancel();
+                if (!EspressoIdlingResource.getIdlingResource().isIdleNow()) {
+                    EspressoIdlingResource.decrement(); //被取消的加载不会再回调了
+                }
+            }
+            showLoadingUI |= mLoadShowsLoadingUI; //它打开的加载View交给新的加载去关
+        }
+        mLoadRequest = null;
+        mLoadDone = false;
+        mLoadShowsLoadingUI = showLoadingUI;
+
         if (showLoadingUI) { //如果需要展示Loading UI
             mTasksView.setLoadingIndicator(true); //设置加载Ui
         }
@@ -107,11 +219,15 @@ public class TasksPresenter implements TasksContract.Presenter { //Tasks Present
         EspressoIdlingResource.increment(); // App is busy until further notice 这是Ui自动化测试部分
 
         // 获取任务，new了一个数据源对象，传给getTasks（）方法，数据源对象，是个你匿名对象
-        mTasksRepository.getTasks(new TasksDataSource.LoadTasksCallback() {
+        final boolean loadShowsLoadingUI = showLoadingUI;
+        TasksDataSource.LoadTasksCallback callback = new TasksDataSource.LoadTasksCallback() {
             @Override
             public void onTasksLoaded(List<Task> tasks) {
-                List<Task> tasksToShow = new ArrayList<Task>(); //又拿一个线性表，用来过滤传进来的tasks
-
+                mLoadDone = true;
+                final long version = mTasksRepository.getDataVersion(); //这批数据对应的版本
+                final TasksFilterType filtering = mCurrentFiltering;
+                final String searchQuery = mSearchQuery;
+                final boolean searchTitlesOnly = mSearchTitlesOnly;
                 // This callback may be called twice, once for the cache and once for loading
                 // the data from the server API, so we check before decrementing, otherwise
                 // it throws "Counter has been corrupted!" exception.
@@ -119,38 +235,26 @@ public class TasksPresenter implements TasksContract.Presenter { //Tasks Present
                     EspressoIdlingResource.decrement(); // Set app as idle. //自动化Ui部分
                 }
 
-                // We filter the tasks based on the requestType
-                for (Task task : tasks) { //哈哈遍历所有传进来的List的所有Task
-                    switch (mCurrentFiltering) {  //根据不同的过滤标签
-                        case ALL_TASKS:
-                            tasksToShow.add(task); //加入到前面创建的要展示Task的List里面
-                            break;
-                        case ACTIVE_TASKS: //活动任务
-                            if (task.isActive()) {  //判断Task是否为活动状态
-                                tasksToShow.add(task); //如果是，加入到要展示Task的List里面
-                            }
-                            break;
-                        case COMPLETED_TASKS: //已完成任务
-                            if (task.isCompleted()) { //判断Task是否为完成状态
-                                tasksToShow.add(task); //如果是，加入到要展示到线性表里
-                            }
-                            break;
-                        default:
-                            tasksToShow.add(task); //如果没有过滤标签，直接全部加入 tasksToShow里面，关键是这个枚举，有可能是空的吗？
-                            break;
+                // We filter the tasks based on the requestType, off the main thread
+                mListPipeline.process(tasks, filtering, new TasksListPipeline.Callback() {
+                    @Override
+                    public void onListProcessed(List<Task> tasksToShow) {
+                        // The view may not be able to handle UI updates anymore
+                        if (!mTasksView.isActive()) { //这牛逼，还要判断Fragment有没有加入到Activity中，大神牛逼
+                            return; //方法在这里中断，肯定是有目的，如果Fragment没有加入Activity中的话，直接break
+                        }
+
+                        if (loadShowsLoadingUI) { //如果展示过加载View
+                            mTasksView.setLoadingIndicator(false); //这里把加载的View gone掉
+                        }
+
+                        processTasks(tasksToShow);  //把要展示的Task的List传到processTasks方法里
+                        mRenderedVersion = version;
+                        mRenderedFiltering = filtering;
+                        mRenderedSearchQuery = searchQuery;
+                        mRenderedSearchTitlesOnly = searchTitlesOnly;
                     }
-                }
-
-                // The view may not be able to handle UI updates anymore
-                if (!mTasksView.isActive()) { //这牛逼，还要判断Fragment有没有加入到Activity中，大神牛逼
-                    return; //方法在这里中断，肯定是有目的，如果Fragment没有加入Activity中的话，直接break
-                }
-
-                if (showLoadingUI) { //如果展示过加载View
-                    mTasksView.setLoadingIndicator(false); //这里把加载的View gone掉
-                }
-
-                processTasks(tasksToShow);  //把要展示的Task的List传到processTasks方法里
+                });
             }
 
             /**
@@ -158,16 +262,48 @@ public class TasksPresenter implements TasksContract.Presenter { //Tasks Present
              */
             @Override
             public void onDataNotAvailable() {
+                mLoadDone = true;
+                mRenderedVersion = -1; //展示的是错误，下次回来要重新加载
                 // The view may not be able to handle UI updates anymore
                 if (!mTasksView.isActive()) {
                     return; //如果Fragment没有加进来，直接中断方法
                 }
                 mTasksView.showLoadingTasksError(); //在V ，Fragment中展示加载Task错误的View
             }
-        });
+        };
+        Cancellable request = requestTasks(callback);
+        if (!mLoadDone) {
+            mLoadRequest = request; //缓存命中的话已经同步回调过了，不用记
+        }
+    }
+
+    /**
+     * Asks the repository for the summaries of the tasks of the current filter only, so it can
+     * read just those rows, and not their descriptions, while nothing is cached. The list
+     * pipeline still filters, which keeps the result right however the repository answered.
+     * While searching, the search results are filtered instead.
+     */
+    private Cancellable requestTasks(TasksDataSource.LoadTasksCallback callback) {
+        if (mSearchQuery != null && mSearchTitlesOnly) {
+            return mCallbacks.searchTaskTitles(mTasksRepository, mSearchQuery, callback); //内存索引
+        }
+        if (mSearchQuery != null) {
+            return mCallbacks.searchTasks(mTasksRepository, mSearchQuery, callback); //按匹配度排序
+        }
+        switch (mCurrentFiltering) {
+            case ACTIVE_TASKS:
+                return mCallbacks.getTasksByCompleted(mTasksRepository, false, callback);
+            case COMPLETED_TASKS:
+                return mCallbacks.getTasksByCompleted(mTasksRepository, true, callback);
+            default:
+                return mCallbacks.getTaskSummaries(mTasksRepository, callback);
+        }
     }
 
     private void processTasks(List<Task> tasks) { //把要展示的Tasks传过来
+        mShownTasks = tasks;
+        mShownTasksMutable = false;
+        mViewHasShownTasks = true;
         if (tasks.isEmpty()) { //牛币，上来就判断tasks有没有元素
             // Show a message indicating there are no tasks for that filter type.
             processEmptyTasks(); //要是一个元素也没有，就调用processEmptyTasks
@@ -194,6 +330,10 @@ public class TasksPresenter implements TasksContract.Presenter { //Tasks Present
     }
 
     private void processEmptyTasks() { //我草，连空任务时，都写的这么严谨？对啊，不同的任务类型展示不同的View
+        if (mSearchQuery != null) {
+            mTasksView.showNoSearchResults(); //搜索没有结果，不管是什么过滤条件
+            return;
+        }
         switch (mCurrentFiltering) { //根据不同的filter，展示不同的View，作者咋这么牛逼
             case ACTIVE_TASKS:
                 mTasksView.showNoActiveTasks(); //没有活动的Task时，展示中间的View
@@ -233,9 +373,8 @@ public class TasksPresenter implements TasksContract.Presenter { //Tasks Present
     @Override
     public void completeTask(@NonNull Task completedTask) {
         checkNotNull(completedTask, "completedTask cannot be null!");
-        mTasksRepository.completeTask(completedTask); //去Model里标记为已完成Task
+        setTaskCompleted(completedTask, true);
         mTasksView.showTaskMarkedComplete(); //展示已经标记Task为completed的提示
-        loadTasks(false, false);  //不知道为啥要在这里调用这个方法
     }
 
     /**
@@ -245,9 +384,75 @@ public class TasksPresenter implements TasksContract.Presenter { //Tasks Present
     @Override
     public void activateTask(@NonNull Task activeTask) {
         checkNotNull(activeTask, "activeTask cannot be null!"); //先检查不能为空
-        mTasksRepository.activateTask(activeTask); //将Task仓库中的Task先修改为活动状态，让我们进去看看
+        setTaskCompleted(activeTask, false);
         mTasksView.showTaskMarkedActive(); //展示一个已经标记的Toast
-        loadTasks(false, false); //加载Task，刷新View
+    }
+
+    /**
+     * Patches the one row of the task in the shown list right away instead of reloading and
+     * re-filtering all tasks, then writes the change. If the write fails the repository has
+     * rolled back its cache, and the list is reloaded from it.
+     */
+    private void setTaskCompleted(@NonNull Task task, boolean completed) {
+        boolean renderedUpToDate = mRenderedVersion == mTasksRepository.getDataVersion();
+        boolean patched = showTaskChanged(task.withCompleted(completed));
+
+        mTasksRepository.setTaskCompleted(task, completed, new TasksDataSource.WriteCallback() {
+            @Override
+            public void onWriteCompleted() {
+                // The shown list already has the change
+            }
+
+            @Override
+            public void onWriteFailed() {
+                // The view may not be able to handle UI updates anymore
+                if (!mTasksView.isActive()) {
+                    return;
+                }
+                mTasksView.showUpdatingTaskError();
+                loadTasks(false, false); //回滚：重新从仓库的缓存加载
+            }
+        });
+
+        if (!patched || mListPipeline.isProcessing()) {
+            // Not a row of the shown list, only a full load knows where it goes. A list that is
+            // still being filtered was loaded before this change, so it is loaded again.
+            loadTasks(false, false);
+        } else if (renderedUpToDate) {
+            mRenderedVersion = mTasksRepository.getDataVersion(); //改过的那一行已经是最新的了
+        }
+    }
+
+    /**
+     * @return false if the task isn't in the shown list, so there was no row to patch.
+     */
+    private boolean showTaskChanged(Task task) {
+        int position = -1;
+        for (int i = 0; i < mShownTasks.size(); i++) {
+            if (mShownTasks.get(i).getId().equals(task.getId())) {
+                position = i;
+                break;
+            }
+        }
+        if (position < 0) {
+            return false;
+        }
+
+        if (!mShownTasksMutable) {
+            mShownTasks = new ArrayList<>(mShownTasks);
+            mShownTasksMutable = true;
+        }
+        if (TasksListPipeline.matches(mCurrentFiltering, task)) {
+            mShownTasks.set(position, task);
+            mTasksView.showTaskChanged(position, task); //只刷新这一行
+        } else {
+            mShownTasks.remove(position);
+            mTasksView.showTaskRemoved(position); //过滤条件下不该再显示，只移除这一行
+            if (mShownTasks.isEmpty()) {
+                processEmptyTasks();
+            }
+        }
+        return true;
     }
 
     /**
@@ -260,6 +465,16 @@ public class TasksPresenter implements TasksContract.Presenter { //Tasks Present
         loadTasks(false, false);
     }
 
+    /**
+     * Brings back the tasks the latest {@link #clearCompletedTasks()} removed, see
+     * {@link TasksRepository#restoreDeletedTasks()}. 撤销清空
+     */
+    @Override
+    public void undoClearCompletedTasks() {
+        mTasksRepository.restoreDeletedTasks();
+        loadTasks(false, false);
+    }
+
     /**
      * Sets the current task filtering type. 设置当前Task的过滤类型
      *
@@ -277,4 +492,43 @@ public class TasksPresenter implements TasksContract.Presenter { //Tasks Present
         return mCurrentFiltering;
     }
 
+    /**
+     * Shows only the tasks that match {@code query}, best match first, and still filtered by the
+     * current filtering type. A null or blank query goes back to showing all tasks.
+     */
+    @Override
+    public void setSearchQuery(@Nullable String query) {
+        setSearchQuery(query, false, true);
+    }
+
+    /**
+     * Like {@link #setSearchQuery(String)}, for a query that is still being typed: only the
+     * titles are searched, from the repository's cache when it can, and no loading indicator is
+     * shown. A search still running for the previous query is cancelled.
+     */
+    @Override
+    public void setTypeAheadQuery(@Nullable String query) {
+        setSearchQuery(query, true, false);
+    }
+
+    private void setSearchQuery(@Nullable String query, boolean titlesOnly,
+            boolean showLoadingUI) {
+        String searchQuery = Strings.emptyToNull(query == null ? null : query.trim());
+        if (searchQuery == null) {
+            titlesOnly = false;
+        }
+        if (Objects.equal(searchQuery, mSearchQuery) && titlesOnly == mSearchTitlesOnly) {
+            return; //关键词没变，不用重新搜索
+        }
+        mSearchQuery = searchQuery;
+        mSearchTitlesOnly = titlesOnly;
+        loadTasks(false, showLoadingUI);
+    }
+
+    @Nullable
+    @Override
+    public String getSearchQuery() {
+        return mSearchQuery;
+    }
+
 }
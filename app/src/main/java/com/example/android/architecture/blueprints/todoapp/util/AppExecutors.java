@@ -18,6 +18,7 @@ package com.example.android.architecture.blueprints.todoapp.util;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.MessageQueue;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
@@ -42,16 +43,27 @@ public class AppExecutors { //线程池管理类，里面写了三个线程池
 
     private final Executor mainThread; //ui线程，每个Runnable交给ui线程处理，每个Task都是如此
 
+    private final Executor mainThreadIdle; //ui线程闲下来才执行
+
+    /**
+     * Runs {@link #mainThreadIdle()} commands on {@code mainThread} right away.
+     */
     @VisibleForTesting
     AppExecutors(Executor diskIO, Executor networkIO, Executor mainThread) {
+        this(diskIO, networkIO, mainThread, mainThread);
+    }
+
+    private AppExecutors(Executor diskIO, Executor networkIO, Executor mainThread,
+            Executor mainThreadIdle) {
         this.diskIO = diskIO;
         this.networkIO = networkIO; //newFixedTreadPool，这是啥线程池来着？妈蛋，定长线程池吧？指定要3根线程
         this.mainThread = mainThread; //ui线程、这尼玛能算Executor嘛……，把Runnable交给ui线程
+        this.mainThreadIdle = mainThreadIdle;
     }
 
     public AppExecutors() {
         this(new DiskIOThreadExecutor(), Executors.newFixedThreadPool(THREAD_COUNT), //newFixedThreadPool，是定长的线程池吗？果然是
-                new MainThreadExecutor());
+                new MainThreadExecutor(), new MainThreadIdleExecutor());
     }
 
     /**
@@ -80,6 +92,17 @@ public class AppExecutors { //线程池管理类，里面写了三个线程池
         return mainThread;
     }
 
+    /**
+     * Runs commands on the main thread once it has nothing else to do, i.e. no input, drawing or
+     * callbacks waiting. For housekeeping that can wait, and should start it from here rather
+     * than compete with the screen.
+     *
+     * @return 等ui线程空闲时才执行的Executor
+     */
+    public Executor mainThreadIdle() {
+        return mainThreadIdle;
+    }
+
     /**
      * 静态内部类
      */
@@ -91,4 +114,28 @@ public class AppExecutors { //线程池管理类，里面写了三个线程池
             mainThreadHandler.post(command);  //虽然在里面Runnable会被转换为Message
         } //Handler的post方法干了啥了，发过去一个Runnable对象，就是放到MessageQueue里面，交给Ui线程执行啊。。。
     }
+
+    /**
+     * Posts to the main thread, which then registers the command as a one-shot idle handler of
+     * its message queue.
+     */
+    private static class MainThreadIdleExecutor implements Executor {
+        private Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(@NonNull final Runnable command) {
+            mainThreadHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                        @Override
+                        public boolean queueIdle() {
+                            command.run();
+                            return false; //只跑一次
+                        }
+                    });
+                }
+            });
+        }
+    }
 }
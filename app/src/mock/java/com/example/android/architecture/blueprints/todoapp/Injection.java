@@ -18,14 +18,19 @@ package com.example.android.architecture.blueprints.todoapp;
 
 import android.content.Context;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.example.android.architecture.blueprints.todoapp.data.FakeTasksRemoteDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.JournalTasksDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.local.ToDoDatabase;
 import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksLocalDataSource;
+import com.example.android.architecture.blueprints.todoapp.data.source.remote.OutboxRemoteDataSource;
 import com.example.android.architecture.blueprints.todoapp.util.AppExecutors;
 
+import java.io.File;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -35,11 +40,52 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class Injection {
 
+    private static AppExecutors sAppExecutors;
+
+    /**
+     * The fake remote lives in memory, so it can always be reached.
+     */
+    private static final OutboxRemoteDataSource.Connectivity ALWAYS_CONNECTED =
+            new OutboxRemoteDataSource.Connectivity() {
+                @Override
+                public boolean isConnected() {
+                    return true;
+                }
+
+                @Override
+                public void setOnConnectedListener(@Nullable Runnable listener) {
+                    // Never disconnected, so never connected again either.
+                }
+            };
+
     public static TasksRepository provideTasksRepository(@NonNull Context context) {
         checkNotNull(context);
         ToDoDatabase database = ToDoDatabase.getInstance(context); //fk，一看就是数据库了，听说挺牛逼
-        return TasksRepository.getInstance(FakeTasksRemoteDataSource.getInstance(), //这个任务仓库需要两个对象，一个伪装的远层数据资源对象？大写懵逼，一个本地数据资源对象
-                TasksLocalDataSource.getInstance(new AppExecutors(),
-                        database.taskDao()));     //好吧，TasksRepository
+        AppExecutors appExecutors = provideAppExecutors();
+        // The local data source records every mutation in the outbox, the fake remote is sent
+        // them through it like the real one, which also keeps the outbox drained.
+        return TasksRepository.getInstance(
+                OutboxRemoteDataSource.getInstance(FakeTasksRemoteDataSource.getInstance(), //这个任务仓库需要两个对象，一个伪装的远层数据资源对象？大写懵逼，一个本地数据资源对象
+                        database.outboxDao(), appExecutors, ALWAYS_CONNECTED),
+                provideLocalDataSource(context, appExecutors, database));     //好吧，TasksRepository
+    }
+
+    /**
+     * @return the executors shared by the whole app, created on first use.
+     */
+    public static synchronized AppExecutors provideAppExecutors() {
+        if (sAppExecutors == null) {
+            sAppExecutors = new AppExecutors(); //整个进程只要一套线程
+        }
+        return sAppExecutors;
+    }
+
+    private static TasksDataSource provideLocalDataSource(@NonNull Context context,
+            @NonNull AppExecutors appExecutors, @NonNull ToDoDatabase database) {
+        if (BuildConfig.USE_TASK_JOURNAL) { //换成日志文件存任务，开关在build.gradle里
+            return JournalTasksDataSource.getInstance(appExecutors, database,
+                    new File(context.getFilesDir(), "tasks.journal"));
+        }
+        return TasksLocalDataSource.getInstance(appExecutors, database);
     }
 }
@@ -16,14 +16,21 @@
 
 package com.example.android.architecture.blueprints.todoapp.data;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
+import com.example.android.architecture.blueprints.todoapp.data.source.Cancellable;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -36,6 +43,12 @@ public class FakeTasksRemoteDataSource implements TasksDataSource { //我去看
 
     private static final Map<String, Task> TASKS_SERVICE_DATA = new LinkedHashMap<>(); //用了有序的HashMap,看看要干嘛
 
+    private static final Map<String, Long> TOMBSTONES = new LinkedHashMap<>(); //被删除Task的id和删除时间
+
+    private static List<Task> sLatestDeletion = new ArrayList<>(); //最近一次清空删掉的Task
+
+    private static long sLastChangeTime;
+
     // Prevent direct instantiation.
     private FakeTasksRemoteDataSource() {}
 
@@ -52,11 +65,12 @@ public class FakeTasksRemoteDataSource implements TasksDataSource { //我去看
      * @param callback 接受一个实现了LoadTasksCallback接口的对象
      */
     @Override
-    public void getTasks(@NonNull LoadTasksCallback callback) {
+    public Cancellable getTasks(@NonNull LoadTasksCallback callback) {
         callback.onTasksLoaded(Lists.newArrayList(TASKS_SERVICE_DATA.values())); //里面会调用传入的实现了LoadTasksCallback接口的对象的onTasksLoaded方法
                                                                                 //onTasksLoaded方法中接受一个什么呢？
                                                                                 //再把LinkedHashMap中的所有Value，转换成一个ArrayList传进去，牛比，看来HashMap的key和value都可以全部拿出来使用，牛逼
                                    //onTasksLoaded就是个典型的回调方法，有意思
+        return new Cancellable(); //同步返回，没有什么可取消的
     }
 
     /**
@@ -65,20 +79,85 @@ public class FakeTasksRemoteDataSource implements TasksDataSource { //我去看
      * @param callback
      */
     @Override
-    public void getTask(@NonNull String taskId, @NonNull GetTaskCallback callback) {
+    public Cancellable getTask(@NonNull String taskId, @NonNull GetTaskCallback callback) {
         Task task = TASKS_SERVICE_DATA.get(taskId);
         callback.onTaskLoaded(task);
+        return new Cancellable();
+    }
+
+    @Override
+    public Cancellable getTaskSummaries(@NonNull LoadTasksCallback callback) {
+        List<Task> tasks = new ArrayList<>(TASKS_SERVICE_DATA.size());
+        for (Task task : TASKS_SERVICE_DATA.values()) {
+            tasks.add(task.toSummary());
+        }
+        callback.onTasksLoaded(tasks);
+        return new Cancellable();
+    }
+
+    @Override
+    public Cancellable getTasksByCompleted(boolean completed,
+            @NonNull LoadTasksCallback callback) {
+        List<Task> tasks = new ArrayList<>();
+        for (Task task : TASKS_SERVICE_DATA.values()) {
+            if (task.isCompleted() == completed) {
+                tasks.add(task.toSummary());
+            }
+        }
+        callback.onTasksLoaded(tasks);
+        return new Cancellable();
+    }
+
+    @Override
+    public Cancellable getTaskCounts(@NonNull LoadTaskCountsCallback callback) {
+        int completedTasks = 0;
+        for (Task task : TASKS_SERVICE_DATA.values()) {
+            if (task.isCompleted()) {
+                completedTasks++;
+            }
+        }
+        callback.onTaskCountsLoaded(TASKS_SERVICE_DATA.size() - completedTasks, completedTasks);
+        return new Cancellable();
+    }
+
+    /**
+     * Tasks with every word of the query in the title come first, then those that have them in
+     * the title and description together.
+     */
+    @Override
+    public Cancellable searchTasks(@NonNull String query, @NonNull LoadTasksCallback callback) {
+        List<Task> titleMatches = new ArrayList<>();
+        List<Task> otherMatches = new ArrayList<>();
+        String[] words = query.toLowerCase(Locale.getDefault()).split("[^\\p{L}\\p{N}]+");
+        for (Task task : TASKS_SERVICE_DATA.values()) {
+            String title = Strings.nullToEmpty(task.getTitle()).toLowerCase(Locale.getDefault());
+            String text = title + " "
+                    + Strings.nullToEmpty(task.getDescription()).toLowerCase(Locale.getDefault());
+            if (containsAll(title, words)) {
+                titleMatches.add(task.toSummary());
+            } else if (containsAll(text, words)) {
+                otherMatches.add(task.toSummary());
+            }
+        }
+        titleMatches.addAll(otherMatches);
+        callback.onTasksLoaded(titleMatches);
+        return new Cancellable();
     }
 
     @Override
     public void saveTask(@NonNull Task task) {
-        TASKS_SERVICE_DATA.put(task.getId(), task);
+        putTask(task, task.isCompleted());
+    }
+
+    @Override
+    public void saveTask(@NonNull Task task, @NonNull WriteCallback callback) {
+        saveTask(task);
+        callback.onWriteCompleted();
     }
 
     @Override
     public void completeTask(@NonNull Task task) {
-        Task completedTask = new Task(task.getTitle(), task.getDescription(), task.getId(), true);
-        TASKS_SERVICE_DATA.put(task.getId(), completedTask);
+        putCompleted(task, true);
     }
 
     @Override
@@ -88,8 +167,7 @@ public class FakeTasksRemoteDataSource implements TasksDataSource { //我去看
 
     @Override
     public void activateTask(@NonNull Task task) {
-        Task activeTask = new Task(task.getTitle(), task.getDescription(), task.getId());
-        TASKS_SERVICE_DATA.put(task.getId(), activeTask);
+        putCompleted(task, false);
     }
 
     @Override
@@ -97,13 +175,28 @@ public class FakeTasksRemoteDataSource implements TasksDataSource { //我去看
         // Not required for the remote data source.
     }
 
+    @Override
+    public void setTaskCompleted(@NonNull Task task, boolean completed,
+            @NonNull WriteCallback callback) {
+        if (completed) {
+            completeTask(task);
+        } else {
+            activateTask(task);
+        }
+        callback.onWriteCompleted();
+    }
+
     @Override
     public void clearCompletedTasks() {
+        long changeTime = nextChangeTime();
+        sLatestDeletion = new ArrayList<>();
         Iterator<Map.Entry<String, Task>> it = TASKS_SERVICE_DATA.entrySet().iterator();
         while (it.hasNext()) {
             Map.Entry<String, Task> entry = it.next();
             if (entry.getValue().isCompleted()) {
+                sLatestDeletion.add(entry.getValue());
                 it.remove();
+                TOMBSTONES.put(entry.getKey(), changeTime);
             }
         }
     }
@@ -115,18 +208,99 @@ public class FakeTasksRemoteDataSource implements TasksDataSource { //我去看
 
     @Override
     public void deleteTask(@NonNull String taskId) {
-        TASKS_SERVICE_DATA.remove(taskId);
+        if (TASKS_SERVICE_DATA.remove(taskId) != null) {
+            TOMBSTONES.put(taskId, nextChangeTime());
+        }
     }
 
     @Override
     public void deleteAllTasks() {
+        long changeTime = nextChangeTime();
+        for (String taskId : TASKS_SERVICE_DATA.keySet()) {
+            TOMBSTONES.put(taskId, changeTime);
+        }
+        sLatestDeletion = new ArrayList<>(TASKS_SERVICE_DATA.values());
         TASKS_SERVICE_DATA.clear();
     }
 
+    @Override
+    public void restoreDeletedTasks() {
+        for (Task task : sLatestDeletion) {
+            putTask(task, task.isCompleted());
+        }
+        sLatestDeletion = new ArrayList<>();
+    }
+
+    @Override
+    public void replaceAllTasks(@NonNull List<Task> tasks) {
+        // Not required for the remote data source.
+    }
+
+    @Override
+    public Cancellable getTaskChanges(long watermark, @NonNull LoadTaskChangesCallback callback) {
+        List<Task> changedTasks = new ArrayList<>();
+        for (Task task : TASKS_SERVICE_DATA.values()) {
+            if (task.getUpdatedAt() > watermark) {
+                changedTasks.add(task);
+            }
+        }
+        List<String> deletedTaskIds = new ArrayList<>();
+        for (Map.Entry<String, Long> tombstone : TOMBSTONES.entrySet()) {
+            if (tombstone.getValue() > watermark) {
+                deletedTaskIds.add(tombstone.getKey());
+            }
+        }
+        callback.onTaskChangesLoaded(new TaskChanges(changedTasks, deletedTaskIds,
+                Math.max(watermark, sLastChangeTime)));
+        return new Cancellable();
+    }
+
+    @Override
+    public void applyTaskChanges(@NonNull TaskChanges changes,
+            @NonNull LoadTaskChangesCallback callback) {
+        // Not required for the remote data source.
+        checkNotNull(callback).onDataNotAvailable();
+    }
+
     @VisibleForTesting
     public void addTasks(Task... tasks) {
         for (Task task : tasks) {
-            TASKS_SERVICE_DATA.put(task.getId(), task);
+            putTask(task, task.isCompleted());
+        }
+    }
+
+    /**
+     * Stores a copy of the task stamped with the time of the change, like a backend would.
+     */
+    private static void putTask(Task task, boolean completed) {
+        TASKS_SERVICE_DATA.put(task.getId(), new Task(task.getTitle(), task.getDescription(),
+                task.getId(), completed, nextChangeTime()));
+        TOMBSTONES.remove(task.getId());
+    }
+
+    /**
+     * Only the state changes, the stored title and description are kept like a backend would.
+     */
+    private static void putCompleted(Task task, boolean completed) {
+        Task stored = TASKS_SERVICE_DATA.get(task.getId());
+        putTask(stored != null ? stored : task, completed);
+    }
+
+    private static boolean containsAll(String text, String[] words) {
+        boolean any = false;
+        for (String word : words) {
+            if (!word.isEmpty()) {
+                if (!text.contains(word)) {
+                    return false;
+                }
+                any = true;
+            }
         }
+        return any;
+    }
+
+    private static long nextChangeTime() {
+        sLastChangeTime = Math.max(System.currentTimeMillis(), sLastChangeTime + 1);
+        return sLastChangeTime;
     }
 }
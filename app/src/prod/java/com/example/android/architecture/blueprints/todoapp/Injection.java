@@ -16,16 +16,23 @@
 
 package com.example.android.architecture.blueprints.todoapp;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.support.annotation.NonNull;
+import android.support.v4.app.ActivityManagerCompat;
 
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.JournalTasksDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksLocalDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.local.ToDoDatabase;
+import com.example.android.architecture.blueprints.todoapp.data.source.remote.NetworkConnectivity;
+import com.example.android.architecture.blueprints.todoapp.data.source.remote.OutboxRemoteDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.remote.TasksRemoteDataSource;
 import com.example.android.architecture.blueprints.todoapp.util.AppExecutors;
 
+import java.io.File;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -34,11 +41,38 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class Injection {
 
+    private static AppExecutors sAppExecutors;
+
     public static TasksRepository provideTasksRepository(@NonNull Context context) {
         checkNotNull(context);
         ToDoDatabase database = ToDoDatabase.getInstance(context);
-        return TasksRepository.getInstance(TasksRemoteDataSource.getInstance(),
-                TasksLocalDataSource.getInstance(new AppExecutors(),
-                        database.taskDao()));
+        AppExecutors appExecutors = provideAppExecutors();
+        TasksRepository repository = TasksRepository.getInstance(
+                OutboxRemoteDataSource.getInstance(TasksRemoteDataSource.getInstance(),
+                        database.outboxDao(), appExecutors, new NetworkConnectivity(context)),
+                provideLocalDataSource(context, appExecutors, database));
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        repository.setMemoryLeanCache(ActivityManagerCompat.isLowRamDevice(activityManager)); //低内存设备用省内存的缓存
+        return repository;
+    }
+
+    /**
+     * @return the executors shared by the whole app, created on first use.
+     */
+    public static synchronized AppExecutors provideAppExecutors() {
+        if (sAppExecutors == null) {
+            sAppExecutors = new AppExecutors(); //整个进程只要一套线程
+        }
+        return sAppExecutors;
+    }
+
+    private static TasksDataSource provideLocalDataSource(@NonNull Context context,
+            @NonNull AppExecutors appExecutors, @NonNull ToDoDatabase database) {
+        if (BuildConfig.USE_TASK_JOURNAL) { //换成日志文件存任务，开关在build.gradle里
+            return JournalTasksDataSource.getInstance(appExecutors, database,
+                    new File(context.getFilesDir(), "tasks.journal"));
+        }
+        return TasksLocalDataSource.getInstance(appExecutors, database);
     }
 }
@@ -31,6 +31,7 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -52,6 +53,9 @@ public class AddEditTaskPresenterTest {
     @Captor
     private ArgumentCaptor<TasksDataSource.GetTaskCallback> mGetTaskCallbackCaptor;
 
+    @Captor
+    private ArgumentCaptor<TasksDataSource.WriteCallback> mWriteCallbackCaptor;
+
     private AddEditTaskPresenter mAddEditTaskPresenter;
 
     @Before
@@ -83,11 +87,31 @@ public class AddEditTaskPresenterTest {
         // When the presenter is asked to save a task
         mAddEditTaskPresenter.saveTask("New Task Title", "Some Task Description");
 
-        // Then a task is saved in the repository and the view updated
-        verify(mTasksRepository).saveTask(any(Task.class)); // saved to the model
+        // Then a task is saved in the repository and the view updated once it is committed
+        verify(mTasksRepository).saveTask(any(Task.class), eq(TasksRepository.Durability.LOCAL),
+                mWriteCallbackCaptor.capture()); // saved to the model
+        verify(mAddEditTaskView, never()).showTasksList();
+        mWriteCallbackCaptor.getValue().onWriteCompleted();
         verify(mAddEditTaskView).showTasksList(); // shown in the UI
     }
 
+    @Test
+    public void saveTask_failedWriteShowsErrorUi() {
+        // Get a reference to the class under test
+        mAddEditTaskPresenter = new AddEditTaskPresenter(
+                null, mTasksRepository, mAddEditTaskView, true);
+
+        // When the presenter is asked to save a task that can't be written
+        mAddEditTaskPresenter.saveTask("New Task Title", "Some Task Description");
+        verify(mTasksRepository).saveTask(any(Task.class), eq(TasksRepository.Durability.LOCAL),
+                mWriteCallbackCaptor.capture());
+        mWriteCallbackCaptor.getValue().onWriteFailed();
+
+        // Then the error is shown and the edit screen stays
+        verify(mAddEditTaskView).showSaveError();
+        verify(mAddEditTaskView, never()).showTasksList();
+    }
+
     @Test
     public void saveTask_emptyTaskShowsErrorUi() {
         // Get a reference to the class under test
@@ -111,7 +135,9 @@ public class AddEditTaskPresenterTest {
         mAddEditTaskPresenter.saveTask("Existing Task Title", "Some Task Description");
 
         // Then a task is saved in the repository and the view updated
-        verify(mTasksRepository).saveTask(any(Task.class)); // saved to the model
+        verify(mTasksRepository).saveTask(any(Task.class), eq(TasksRepository.Durability.LOCAL),
+                mWriteCallbackCaptor.capture()); // saved to the model
+        mWriteCallbackCaptor.getValue().onWriteCompleted();
         verify(mAddEditTaskView).showTasksList(); // shown in the UI
     }
 
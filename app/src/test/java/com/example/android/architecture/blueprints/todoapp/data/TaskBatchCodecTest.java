@@ -0,0 +1,260 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Charsets;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Unit tests for {@link TaskBatchCodec}.
+ */
+public class TaskBatchCodecTest {
+
+    private static final int LIST_TASKS = 10000;
+
+    @Test
+    public void encodeDecode_roundTripsEveryField() throws IOException {
+        List<Task> tasks = Arrays.asList(
+                new Task("Title", "Description", UUID.randomUUID().toString(), true, 1000),
+                new Task("Title", "Description", TaskId.newId(), true, 1100),
+                new Task(null, "Only a description", "legacy-id", false, 900),
+                new Task("Only a title", null, "id", false, 0),
+                new Task("Ünïcödé ✓", "", UUID.randomUUID().toString(), false, Long.MAX_VALUE));
+
+        for (boolean compress : new boolean[] {false, true}) {
+            List<Task> decoded = TaskBatchCodec.decode(TaskBatchCodec.encode(tasks, compress));
+
+            assertThat(decoded.size(), is(tasks.size()));
+            for (int i = 0; i < tasks.size(); i++) {
+                assertThat(decoded.get(i), is(tasks.get(i)));
+                assertThat(decoded.get(i).isCompleted(), is(tasks.get(i).isCompleted()));
+                assertThat(decoded.get(i).getUpdatedAt(), is(tasks.get(i).getUpdatedAt()));
+            }
+        }
+    }
+
+    @Test
+    public void reader_streamsTasksUntilEndOfBatch() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TaskBatchCodec.Writer writer = new TaskBatchCodec.Writer(out, true);
+        writer.write(new Task("A", "a"));
+        writer.write(new Task("B", "b"));
+        writer.close();
+
+        TaskBatchCodec.Reader reader =
+                new TaskBatchCodec.Reader(new ByteArrayInputStream(out.toByteArray()));
+        assertThat(reader.read().getTitle(), is("A"));
+        assertThat(reader.read().getTitle(), is("B"));
+        assertThat(reader.read(), is(nullValue()));
+        reader.close();
+    }
+
+    @Test
+    public void encode_storesUlidsAndUuidsIn16Bytes() {
+        byte[] ulid = TaskBatchCodec.encode(Arrays.asList(new Task("", null, TaskId.newId())),
+                false);
+        byte[] uuid = TaskBatchCodec.encode(
+                Arrays.asList(new Task("", null, UUID.randomUUID().toString())), false);
+        byte[] legacy = TaskBatchCodec.encode(
+                Arrays.asList(new Task("", null, "0123456789abcdef")), false);
+
+        assertThat(ulid.length, is(uuid.length));
+        assertTrue(ulid.length < legacy.length);
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_truncatedBatch_throws() throws IOException {
+        byte[] bytes = TaskBatchCodec.encode(Arrays.asList(new Task("Title", "Description")),
+                false);
+
+        TaskBatchCodec.decode(Arrays.copyOf(bytes, bytes.length - 3));
+    }
+
+    /**
+     * Compares the codec with a plain JSON array of the same tasks, which is what it replaces on
+     * the wire.
+     */
+    @Test
+    public void encode_isLessThanHalfTheSizeOfJson() throws IOException {
+        List<Task> tasks = createListTasks();
+
+        byte[] json = encodeJson(tasks);
+        byte[] binary = TaskBatchCodec.encode(tasks, false);
+        byte[] compressed = TaskBatchCodec.encode(tasks, true);
+
+        // Both sides hold the same tasks
+        assertThat(decodeJson(json), is(tasks));
+        assertThat(TaskBatchCodec.decode(binary), is(tasks));
+        assertThat(TaskBatchCodec.decode(compressed), is(tasks));
+
+        assertTrue(binary.length * 2 < json.length);
+        assertTrue(compressed.length < binary.length);
+    }
+
+    /**
+     * Tasks with UUID ids and titles drawn from a small set, like a real list.
+     */
+    private static List<Task> createListTasks() {
+        Random random = new Random(42);
+        String[] titles = {"Buy milk", "Call mom", "Pay rent", "Water plants", "Gym"};
+        long time = 1500000000000L;
+        List<Task> tasks = new ArrayList<>(LIST_TASKS);
+        for (int i = 0; i < LIST_TASKS; i++) {
+            time += random.nextInt(60000);
+            String description = random.nextInt(4) == 0 ? "Details for task " + i : "";
+            tasks.add(new Task(titles[random.nextInt(titles.length)], description,
+                    UUID.randomUUID().toString(), random.nextBoolean(), time));
+        }
+        return tasks;
+    }
+
+    private static byte[] encodeJson(List<Task> tasks) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < tasks.size(); i++) {
+            Task task = tasks.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":");
+            appendJsonString(json, task.getId());
+            json.append(",\"title\":");
+            appendJsonString(json, task.getTitle());
+            json.append(",\"description\":");
+            appendJsonString(json, task.getDescription());
+            json.append(",\"completed\":").append(task.isCompleted());
+            json.append(",\"updatedAt\":").append(task.getUpdatedAt()).append('}');
+        }
+        return json.append(']').toString().getBytes(Charsets.UTF_8);
+    }
+
+    private static void appendJsonString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Parses the output of {@link #encodeJson(List)}, field order included.
+     */
+    private static List<Task> decodeJson(byte[] bytes) {
+        JsonCursor cursor = new JsonCursor(new String(bytes, Charsets.UTF_8));
+        List<Task> tasks = new ArrayList<>();
+        cursor.expect('[');
+        while (cursor.peek() == '{') {
+            cursor.expect('{');
+            String id = cursor.field("id").string();
+            String title = cursor.expect(',').field("title").string();
+            String description = cursor.expect(',').field("description").string();
+            boolean completed = cursor.expect(',').field("completed").literal().equals("true");
+            long updatedAt = Long.parseLong(cursor.expect(',').field("updatedAt").literal());
+            cursor.expect('}');
+            tasks.add(new Task(title, description, id, completed, updatedAt));
+            if (cursor.peek() == ',') {
+                cursor.expect(',');
+            }
+        }
+        cursor.expect(']');
+        return tasks;
+    }
+
+    private static class JsonCursor {
+
+        private final String mJson;
+
+        private int mPosition;
+
+        JsonCursor(String json) {
+            mJson = json;
+        }
+
+        char peek() {
+            return mJson.charAt(mPosition);
+        }
+
+        JsonCursor expect(char c) {
+            if (mJson.charAt(mPosition++) != c) {
+                throw new IllegalArgumentException("Expected " + c + " at " + (mPosition - 1));
+            }
+            return this;
+        }
+
+        JsonCursor field(String name) {
+            if (!name.equals(string())) {
+                throw new IllegalArgumentException("Expected field " + name);
+            }
+            return expect(':');
+        }
+
+        String literal() {
+            int start = mPosition;
+            while (",}]".indexOf(peek()) < 0) {
+                mPosition++;
+            }
+            return mJson.substring(start, mPosition);
+        }
+
+        String string() {
+            if (peek() == 'n') {
+                literal();
+                return null;
+            }
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            char c;
+            while ((c = mJson.charAt(mPosition++)) != '"') {
+                if (c == '\\') {
+                    c = mJson.charAt(mPosition++);
+                    if (c == 'u') {
+                        c = (char) Integer.parseInt(
+                                mJson.substring(mPosition, mPosition + 4), 16);
+                        mPosition += 4;
+                    }
+                }
+                value.append(c);
+            }
+            return value.toString();
+        }
+    }
+}
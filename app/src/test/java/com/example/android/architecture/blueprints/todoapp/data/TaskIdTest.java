@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+/**
+ * Unit tests for {@link TaskId}.
+ */
+public class TaskIdTest {
+
+    @Test
+    public void newId_isTimeOrdered() {
+        String previous = TaskId.newId(1000);
+        for (long time = 1000; time < 1100; time++) {
+            // Several ids per millisecond, and some with a clock that went back
+            for (int i = 0; i < 3; i++) {
+                String id = TaskId.newId(i == 2 ? time - 500 : time);
+                assertTrue(id.compareTo(previous) > 0);
+                previous = id;
+            }
+        }
+    }
+
+    @Test
+    public void newId_roundTripsThroughBits() {
+        String id = TaskId.newId();
+
+        UUID bits = TaskId.parseUlid(id);
+
+        assertThat(id.length(), is(TaskId.ULID_LENGTH));
+        assertThat(TaskId.formatUlid(bits.getMostSignificantBits(),
+                bits.getLeastSignificantBits()), is(id));
+    }
+
+    @Test
+    public void getCreationTime_readsTimestamp() {
+        long now = System.currentTimeMillis() + 60000;
+
+        assertThat(TaskId.getCreationTime(TaskId.newId(now)), is(now));
+        assertThat(TaskId.getCreationTime(UUID.randomUUID().toString()), is(-1L));
+    }
+
+    @Test
+    public void parse_acceptsExistingUuidIds() {
+        String uuid = UUID.randomUUID().toString();
+
+        assertThat(TaskId.parseUuid(uuid).toString(), is(uuid));
+        assertThat(TaskId.parseUlid(uuid), is(nullValue()));
+    }
+
+    @Test
+    public void parse_rejectsNonCanonicalIds() {
+        String uuid = UUID.randomUUID().toString();
+
+        assertThat(TaskId.parseUuid(uuid.toUpperCase()), is(nullValue()));
+        assertThat(TaskId.parseUuid("1-1-1-1-1"), is(nullValue()));
+        assertThat(TaskId.parseUlid(TaskId.newId().toLowerCase()), is(nullValue()));
+        assertThat(TaskId.parseUlid("8ZZZZZZZZZZZZZZZZZZZZZZZZZ"), is(nullValue()));
+        assertThat(TaskId.parseUlid("id"), is(nullValue()));
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskId;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Unit tests for {@link CompactTaskMap}.
+ */
+public class CompactTaskMapTest {
+
+    private static final int FOOTPRINT_TASKS = 100000;
+
+    @Test
+    public void put_get_roundTripsEveryField() {
+        CompactTaskMap map = new CompactTaskMap();
+        Task task = new Task("Title", "Déscription", TaskId.newId(), true, 1234);
+
+        map.put(task.getId(), task);
+
+        Task cached = map.get(task.getId());
+        assertThat(cached, is(task));
+        assertThat(cached.isCompleted(), is(true));
+        assertThat(cached.getUpdatedAt(), is(1234L));
+    }
+
+    @Test
+    public void put_get_keepsSummaries() {
+        CompactTaskMap map = new CompactTaskMap();
+        Task summary = new Task("Title", "Description", TaskId.newId(), false, 1234).toSummary();
+
+        map.put(summary.getId(), summary);
+
+        Task cached = map.get(summary.getId());
+        assertTrue(cached.isSummary());
+        assertThat(cached.getDescription(), is(nullValue()));
+        assertThat(cached, is(summary));
+    }
+
+    @Test
+    public void randomOperations_behaveLikeLinkedHashMap() {
+        Random random = new Random(7);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            // A mix of the id forms the app has seen
+            ids.add(i % 3 == 0 ? TaskId.newId()
+                    : i % 3 == 1 ? UUID.randomUUID().toString() : "id" + i);
+        }
+        Map<String, Task> expected = new LinkedHashMap<>();
+        CompactTaskMap map = new CompactTaskMap();
+
+        for (int i = 0; i < 20000; i++) {
+            String id = ids.get(random.nextInt(ids.size()));
+            if (random.nextInt(3) == 0) {
+                assertThat(map.remove(id), is(expected.remove(id)));
+            } else {
+                String title = random.nextBoolean() ? null : "title" + random.nextInt(5);
+                Task task = new Task(title, random.nextBoolean() ? "" : "d" + i, id,
+                        random.nextBoolean(), i);
+                assertThat(map.put(id, task), is(expected.put(id, task)));
+            }
+        }
+
+        assertThat(map.size(), is(expected.size()));
+        assertThat(new ArrayList<>(map.keySet()), is(new ArrayList<>(expected.keySet())));
+        for (Task task : expected.values()) {
+            Task cached = map.get(task.getId());
+            assertThat(cached, is(task));
+            assertThat(cached.isCompleted(), is(task.isCompleted()));
+        }
+        List<Task> completed = filterByCompleted(expected.values(), true);
+        assertThat(map.countCompleted(), is(completed.size()));
+        assertThat(map.getByCompleted(true), is(completed));
+        assertThat(map.getByCompleted(false), is(filterByCompleted(expected.values(), false)));
+    }
+
+    @Test
+    public void put_sharesRepeatedTitles() {
+        CompactTaskMap map = new CompactTaskMap();
+
+        for (int i = 0; i < 1000; i++) {
+            Task task = new Task(new String("Buy milk"), "");
+            map.put(task.getId(), task);
+        }
+
+        assertThat(map.getTitlePoolSize(), is(1));
+    }
+
+    @Test
+    public void entryIteratorRemove_removesCompletedTasks() {
+        CompactTaskMap map = new CompactTaskMap();
+        Task active = new Task("Active", "");
+        Task completed = new Task("Completed", "", true);
+        map.put(active.getId(), active);
+        map.put(completed.getId(), completed);
+
+        Iterator<Map.Entry<String, Task>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue().isCompleted()) {
+                it.remove();
+            }
+        }
+
+        assertThat(map.size(), is(1));
+        assertThat(map.get(completed.getId()), is(nullValue()));
+        assertThat(map.get(active.getId()), is(active));
+    }
+
+    @Test
+    public void removeCompleted_keepsActiveTasksInOrder() {
+        CompactTaskMap map = new CompactTaskMap();
+        List<Task> active = new ArrayList<>();
+        List<String> completedIds = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Task task = new Task("Title" + i, "", i % 3 == 0);
+            map.put(task.getId(), task);
+            if (task.isCompleted()) {
+                completedIds.add(task.getId());
+            } else {
+                active.add(task);
+            }
+        }
+
+        assertThat(map.removeCompleted(), is(completedIds));
+
+        assertThat(map.countCompleted(), is(0));
+        assertThat(new ArrayList<>(map.values()), is(active));
+        assertThat(map.get(completedIds.get(0)), is(nullValue()));
+        // The freed slots are reused once the arrays are full
+        for (int i = 0; i < 100; i++) {
+            Task task = new Task("More" + i, "", true);
+            map.put(task.getId(), task);
+        }
+        assertThat(map.countCompleted(), is(100));
+        assertThat(map.getByCompleted(false), is(active));
+    }
+
+    @Test
+    public void hideCompleted_restoreHidden_putsTasksBackInOrder() {
+        CompactTaskMap map = new CompactTaskMap();
+        List<Task> tasks = new ArrayList<>();
+        List<String> completedIds = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Task task = new Task("Title" + i, "Description" + i, i % 3 == 0);
+            map.put(task.getId(), task);
+            tasks.add(task);
+            if (task.isCompleted()) {
+                completedIds.add(task.getId());
+            }
+        }
+
+        assertThat(map.hideCompleted(), is(completedIds));
+
+        // Hidden tasks are gone from every read
+        assertThat(map.size(), is(100 - completedIds.size()));
+        assertThat(map.countCompleted(), is(0));
+        assertThat(map.containsKey(completedIds.get(0)), is(false));
+        assertThat(new ArrayList<>(map.values()), is(filterByCompleted(tasks, false)));
+
+        map.restoreHidden();
+
+        assertThat(map.size(), is(100));
+        assertThat(map.countCompleted(), is(completedIds.size()));
+        assertThat(new ArrayList<>(map.values()), is(tasks));
+        assertThat(map.get(completedIds.get(0)).getDescription(), is("Description0"));
+    }
+
+    @Test
+    public void dropHidden_removesTheHiddenTasksForGood() {
+        CompactTaskMap map = new CompactTaskMap();
+        Task active = new Task("Active", "", TaskId.newId(), false);
+        Task completed = new Task("Completed", "", "legacy-id", true);
+        map.put(active.getId(), active);
+        map.put(completed.getId(), completed);
+        map.hideCompleted();
+
+        map.dropHidden();
+        map.restoreHidden();
+
+        assertThat(new ArrayList<>(map.values()), is(Collections.singletonList(active)));
+        // Its id can be used again
+        map.put(completed.getId(), completed);
+        assertThat(map.get(completed.getId()), is(completed));
+        assertThat(map.size(), is(2));
+    }
+
+    @Test
+    public void completedColumn_followsEveryChange() {
+        CompactTaskMap map = new CompactTaskMap();
+        Task first = new Task("First", "", TaskId.newId(), false);
+        Task second = new Task("Second", "", "legacy-id", true);
+        map.put(first.getId(), first);
+        map.put(second.getId(), second);
+
+        // Completing a task moves it to the completed side
+        Task completedFirst = first.withCompleted(true);
+        map.put(first.getId(), completedFirst);
+        assertThat(map.countCompleted(), is(2));
+        assertThat(map.getByCompleted(true), is(Arrays.asList(completedFirst, second)));
+        assertThat(map.getByCompleted(false).isEmpty(), is(true));
+
+        // Activating it moves it back, removing a task drops it from both sides
+        map.put(first.getId(), first);
+        map.remove(second.getId());
+        assertThat(map.countCompleted(), is(0));
+        assertThat(map.getByCompleted(true).isEmpty(), is(true));
+        assertThat(map.getByCompleted(false), is(Collections.singletonList(first)));
+
+        // Nothing completed, nothing removed
+        assertThat(map.removeCompleted().isEmpty(), is(true));
+        assertThat(map.size(), is(1));
+    }
+
+    @Test
+    public void completedColumn_survivesCompaction() {
+        CompactTaskMap map = new CompactTaskMap();
+        List<Task> kept = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Task task = new Task("Title" + i, "", TaskId.newId(), i % 2 == 0);
+            map.put(task.getId(), task);
+            if (i % 4 < 2) {
+                kept.add(task);
+            } else {
+                map.remove(task.getId()); //留下空洞，数组满了就会被压实
+            }
+        }
+        for (int i = 0; i < 2000; i++) {
+            Task task = new Task("More" + i, "", TaskId.newId(), false);
+            map.put(task.getId(), task);
+            kept.add(task);
+        }
+
+        List<Task> completed = filterByCompleted(kept, true);
+        assertThat(map.countCompleted(), is(completed.size()));
+        assertThat(map.getByCompleted(true), is(completed));
+        assertThat(map.getByCompleted(false), is(filterByCompleted(kept, false)));
+        assertThat(map.removeCompleted().size(), is(completed.size()));
+        assertThat(new ArrayList<>(map.values()), is(filterByCompleted(kept, false)));
+    }
+
+    /**
+     * Counts what the arrays hold at 100k tasks. A task in a {@code LinkedHashMap} takes well over
+     * 100 bytes with its entry, the {@link Task} and its id String, before its title.
+     */
+    @Test
+    public void footprint_100kTasks() {
+        String[] titles = {"Buy milk", "Call mom", "Pay rent", "Water plants", "Gym"};
+        Random random = new Random(42);
+        Map<String, Task> plain = new LinkedHashMap<>();
+        long descriptionBytes = 0;
+        for (int i = 0; i < FOOTPRINT_TASKS; i++) {
+            // Copies, so repeated titles are separate objects like after a database read
+            String description = random.nextInt(4) == 0 ? "Details for task " + i : "";
+            Task task = new Task(new String(titles[random.nextInt(titles.length)]), description,
+                    TaskId.newId(), random.nextBoolean());
+            plain.put(task.getId(), task);
+            descriptionBytes += description.length(); //都是ASCII，一个字符一个字节
+        }
+
+        CompactTaskMap compact = new CompactTaskMap(plain);
+
+        assertThat(compact.size(), is(plain.size()));
+        // Every title is stored once
+        assertThat(compact.getTitlePoolSize(), is(titles.length));
+        // The id, the title, the flags and the time take less than 48 bytes a task
+        assertTrue(compact.getSlotBytes() < 48L * FOOTPRINT_TASKS);
+        // Descriptions cost their UTF-8 bytes, empty ones nothing
+        assertThat(compact.getDescriptionBytes(), is(descriptionBytes));
+    }
+
+    private static List<Task> filterByCompleted(Iterable<Task> tasks, boolean completed) {
+        List<Task> filtered = new ArrayList<>();
+        for (Task task : tasks) {
+            if (task.isCompleted() == completed) {
+                filtered.add(task);
+            }
+        }
+        return filtered;
+    }
+}
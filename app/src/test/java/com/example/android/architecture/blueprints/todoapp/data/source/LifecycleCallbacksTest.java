@@ -0,0 +1,239 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import android.support.annotation.NonNull;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskChanges;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for {@link LifecycleCallbacks}.
+ */
+public class LifecycleCallbacksTest {
+
+    private static final int ROTATIONS = 50;
+
+    private HoldingTasksDataSource mDataSource;
+
+    private TasksRepository mTasksRepository;
+
+    private List<List<Task>> mDelivered;
+
+    @Before
+    public void setupTasksRepository() {
+        mDataSource = new HoldingTasksDataSource();
+        mTasksRepository = TasksRepository.getInstance(mDataSource, mDataSource);
+        mDelivered = new ArrayList<>();
+    }
+
+    @After
+    public void destroyRepositoryInstance() {
+        TasksRepository.destroyInstance();
+    }
+
+    @Test
+    public void detach_dropsPendingCallback() {
+        LifecycleCallbacks callbacks = new LifecycleCallbacks();
+        Cancellable request = callbacks.getTasks(mTasksRepository, newCallback(new Object()));
+        assertThat(callbacks.getPendingCount(), is(1));
+
+        // When the view goes inactive before the tasks arrive
+        callbacks.detach();
+        mDataSource.mHeldCallbacks.get(0).onTasksLoaded(Collections.<Task>emptyList());
+
+        // Then the read is cancelled and the callback isn't invoked
+        assertTrue(request.isCancelled());
+        assertThat(callbacks.getPendingCount(), is(0));
+        assertThat(mDelivered.size(), is(0));
+    }
+
+    @Test
+    public void getTasks_whileDetached_doesNotStartRead() {
+        LifecycleCallbacks callbacks = new LifecycleCallbacks();
+        callbacks.detach();
+
+        Cancellable request = callbacks.getTasks(mTasksRepository, newCallback(new Object()));
+
+        assertTrue(request.isCancelled());
+        assertThat(mDataSource.mHeldCallbacks.size(), is(0));
+    }
+
+    /**
+     * Each rotation starts a load from a new screen and stops it before the data source answers,
+     * like the remote data source holding its callback in a delayed message. None of the screens
+     * may stay reachable through the callbacks the data source still holds.
+     */
+    @Test
+    public void rotationStorm_retainsNoScreen() {
+        List<WeakReference<Object>> screens = new ArrayList<>();
+        for (int i = 0; i < ROTATIONS; i++) {
+            Object screen = new byte[64 * 1024]; //代表Presenter和它拉着的fragment
+            screens.add(new WeakReference<>(screen));
+            LifecycleCallbacks callbacks = new LifecycleCallbacks();
+            callbacks.getTasks(mTasksRepository, newCallback(screen));
+            callbacks.detach();
+        }
+        assertThat(mDataSource.mHeldCallbacks.size(), is(ROTATIONS));
+
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+
+        for (WeakReference<Object> screen : screens) {
+            assertThat(screen.get(), is(nullValue()));
+        }
+    }
+
+    private TasksDataSource.LoadTasksCallback newCallback(final Object screen) {
+        return new TasksDataSource.LoadTasksCallback() {
+            @Override
+            public void onTasksLoaded(List<Task> tasks) {
+                mDelivered.add(tasks);
+                screen.hashCode();
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                screen.hashCode();
+            }
+        };
+    }
+
+    /**
+     * Keeps every read callback and never answers or lets go of it, even when the read is
+     * cancelled.
+     */
+    private static class HoldingTasksDataSource implements TasksDataSource {
+
+        final List<LoadTasksCallback> mHeldCallbacks = new ArrayList<>();
+
+        @Override
+        public Cancellable getTasks(@NonNull LoadTasksCallback callback) {
+            mHeldCallbacks.add(callback);
+            return new Cancellable();
+        }
+
+        @Override
+        public Cancellable getTask(@NonNull String taskId, @NonNull GetTaskCallback callback) {
+            return new Cancellable();
+        }
+
+        @Override
+        public Cancellable getTaskSummaries(@NonNull LoadTasksCallback callback) {
+            mHeldCallbacks.add(callback);
+            return new Cancellable();
+        }
+
+        @Override
+        public Cancellable getTasksByCompleted(boolean completed,
+                @NonNull LoadTasksCallback callback) {
+            mHeldCallbacks.add(callback);
+            return new Cancellable();
+        }
+
+        @Override
+        public Cancellable getTaskCounts(@NonNull LoadTaskCountsCallback callback) {
+            return new Cancellable();
+        }
+
+        @Override
+        public Cancellable searchTasks(@NonNull String query,
+                @NonNull LoadTasksCallback callback) {
+            mHeldCallbacks.add(callback);
+            return new Cancellable();
+        }
+
+        @Override
+        public void saveTask(@NonNull Task task) {
+        }
+
+        @Override
+        public void saveTask(@NonNull Task task, @NonNull WriteCallback callback) {
+        }
+
+        @Override
+        public void completeTask(@NonNull Task task) {
+        }
+
+        @Override
+        public void completeTask(@NonNull String taskId) {
+        }
+
+        @Override
+        public void activateTask(@NonNull Task task) {
+        }
+
+        @Override
+        public void activateTask(@NonNull String taskId) {
+        }
+
+        @Override
+        public void setTaskCompleted(@NonNull Task task, boolean completed,
+                @NonNull WriteCallback callback) {
+        }
+
+        @Override
+        public void clearCompletedTasks() {
+        }
+
+        @Override
+        public void refreshTasks() {
+        }
+
+        @Override
+        public void deleteAllTasks() {
+        }
+
+        @Override
+        public void restoreDeletedTasks() {
+        }
+
+        @Override
+        public void deleteTask(@NonNull String taskId) {
+        }
+
+        @Override
+        public void replaceAllTasks(@NonNull List<Task> tasks) {
+        }
+
+        @Override
+        public Cancellable getTaskChanges(long watermark,
+                @NonNull LoadTaskChangesCallback callback) {
+            return new Cancellable();
+        }
+
+        @Override
+        public void applyTaskChanges(@NonNull TaskChanges changes,
+                @NonNull LoadTaskChangesCallback callback) {
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Unit tests for {@link TaskTitleIndex}.
+ */
+public class TaskTitleIndexTest {
+
+    private TaskTitleIndex mIndex;
+
+    @Before
+    public void setupIndex() {
+        mIndex = new TaskTitleIndex();
+        mIndex.put("1", "Buy milk");
+        mIndex.put("2", "Milk the cow");
+        mIndex.put("3", "Call Emily");
+        mIndex.put("4", null);
+    }
+
+    @Test
+    public void search_matchesWordStartsAndSubstrings() {
+        // "mil" starts a word of 1 and 2 and is inside a word of 3, the first word of 2 is "milk"
+        assertThat(mIndex.search("mil"), is(Arrays.asList("2", "1", "3")));
+    }
+
+    @Test
+    public void search_singleCharacter_onlyMatchesWordStarts() {
+        assertThat(mIndex.search("c"), is(Arrays.asList("3", "2")));
+    }
+
+    @Test
+    public void search_matchesEveryWord() {
+        assertThat(mIndex.search("cow MILK"), is(Collections.singletonList("2")));
+        assertThat(mIndex.search("milk emily"), is(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void search_gramsFromDifferentWords_doNotMatch() {
+        // Every three characters of "rainbow" are in one of the words, but it isn't
+        mIndex.put("5", "Rain bowls");
+        mIndex.put("6", "Inbox");
+
+        assertThat(mIndex.search("rainbow"), is(Collections.<String>emptyList()));
+        assertThat(mIndex.search("rain"), is(Collections.singletonList("5")));
+    }
+
+    @Test
+    public void put_changedTitle_replacesOldWords() {
+        mIndex.put("1", "Buy bread");
+
+        assertThat(mIndex.search("milk"), is(Collections.singletonList("2")));
+        assertThat(mIndex.search("bre"), is(Collections.singletonList("1")));
+    }
+
+    @Test
+    public void remove_dropsTask() {
+        mIndex.remove("2");
+
+        assertThat(mIndex.search("milk"), is(Collections.singletonList("1")));
+        assertThat(mIndex.size(), is(3));
+    }
+
+    @Test
+    public void search_withoutWords_isEmpty() {
+        assertThat(mIndex.search(" ,. "), is(Collections.<String>emptyList()));
+    }
+}
@@ -20,14 +20,19 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
-import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import android.content.Context;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.TaskChanges;
 import com.google.common.collect.Lists;
 
 import org.junit.After;
@@ -38,6 +43,7 @@ import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -54,6 +60,10 @@ public class TasksRepositoryTest {
     private static List<Task> TASKS = Lists.newArrayList(new Task("Title1", "Description1"),
             new Task("Title2", "Description2"));
 
+    private static List<Task> VERSIONED_TASKS = Lists.newArrayList(
+            new Task("Title1", "Description1", "1", false, 100),
+            new Task("Title2", "Description2", "2", false, 200));
+
     private TasksRepository mTasksRepository;
 
     @Mock
@@ -68,6 +78,9 @@ public class TasksRepositoryTest {
     @Mock
     private TasksDataSource.LoadTasksCallback mLoadTasksCallback;
 
+    @Mock
+    private TasksDataSource.LoadTaskCountsCallback mLoadTaskCountsCallback;
+
     /**
      * {@link ArgumentCaptor} is a powerful Mockito API to capture argument values and use them to
      * perform further actions or assertions on them.
@@ -82,6 +95,15 @@ public class TasksRepositoryTest {
     @Captor
     private ArgumentCaptor<TasksDataSource.GetTaskCallback> mTaskCallbackCaptor;
 
+    @Captor
+    private ArgumentCaptor<TasksDataSource.LoadTaskChangesCallback> mTaskChangesCallbackCaptor;
+
+    @Captor
+    private ArgumentCaptor<TasksDataSource.WriteCallback> mWriteCallbackCaptor;
+
+    @Mock
+    private TasksDataSource.WriteCallback mWriteCallback;
+
     @Before
     public void setupTasksRepository() {
         // Mockito has a very convenient way to inject mocks by using the @Mock annotation. To
@@ -117,6 +139,202 @@ public class TasksRepositoryTest {
         verify(mTasksLocalDataSource).getTasks(any(TasksDataSource.LoadTasksCallback.class));
     }
 
+    @Test
+    public void getTasks_cancelled_cancelsLocalReadAndDropsResult() {
+        // Given a pending read on the local data source
+        Cancellable localRequest = new Cancellable();
+        when(mTasksLocalDataSource.getTasks(any(TasksDataSource.LoadTasksCallback.class)))
+                .thenReturn(localRequest);
+        Cancellable request = mTasksRepository.getTasks(mLoadTasksCallback);
+
+        // When the request is cancelled before the tasks arrive
+        request.cancel();
+        setTasksAvailable(mTasksLocalDataSource, TASKS);
+
+        // Then the local read is cancelled too and the callback isn't invoked
+        assertTrue(localRequest.isCancelled());
+        verify(mLoadTasksCallback, never()).onTasksLoaded(anyListOf(Task.class));
+        // But the tasks that arrived anyway are cached
+        assertThat(mTasksRepository.mCachedTasks.size(), is(2));
+    }
+
+    @Test
+    public void getTasks_cancelled_doesNotFallBackToRemoteDataSource() {
+        Cancellable request = mTasksRepository.getTasks(mLoadTasksCallback);
+
+        // When the request is cancelled and the local data source has no data
+        request.cancel();
+        setTasksNotAvailable(mTasksLocalDataSource);
+
+        // Then the network isn't asked for the tasks nobody waits for
+        verify(mTasksRemoteDataSource, never()).getTasks(
+                any(TasksDataSource.LoadTasksCallback.class));
+        verify(mLoadTasksCallback, never()).onDataNotAvailable();
+    }
+
+    @Test
+    public void getTaskSummaries_nothingCached_cachesSummariesFromLocal() {
+        Task task = new Task(TASK_TITLE, "A long description");
+
+        // When the list asks for the tasks before anything is cached
+        mTasksRepository.getTaskSummaries(mLoadTasksCallback);
+        verify(mTasksLocalDataSource).getTaskSummaries(mTasksCallbackCaptor.capture());
+        mTasksCallbackCaptor.getValue().onTasksLoaded(Lists.newArrayList(task));
+
+        // Then the full tasks aren't read, and the cache holds the summary
+        verify(mTasksLocalDataSource, never()).getTasks(
+                any(TasksDataSource.LoadTasksCallback.class));
+        Task cachedTask = mTasksRepository.mCachedTasks.get(task.getId());
+        assertTrue(cachedTask.isSummary());
+        assertThat(cachedTask.getDescription() == null, is(true));
+    }
+
+    @Test
+    public void getTask_summaryCached_loadsFullTaskFromLocal() {
+        // Given the summary of a task is cached
+        Task task = new Task(TASK_TITLE, "A long description");
+        mTasksRepository.getTaskSummaries(mLoadTasksCallback);
+        verify(mTasksLocalDataSource).getTaskSummaries(mTasksCallbackCaptor.capture());
+        mTasksCallbackCaptor.getValue().onTasksLoaded(Lists.newArrayList(task.toSummary()));
+
+        // When the task is requested
+        mTasksRepository.getTask(task.getId(), mGetTaskCallback);
+
+        // Then its description is loaded from the local data source
+        setTaskAvailable(mTasksLocalDataSource, task);
+        verify(mGetTaskCallback).onTaskLoaded(task);
+        // And the cache keeps the summary
+        assertTrue(mTasksRepository.mCachedTasks.get(task.getId()).isSummary());
+    }
+
+    @Test
+    public void getTasks_summariesCached_loadsFullTasksFromLocal() {
+        // Given summaries are cached
+        mTasksRepository.getTaskSummaries(mLoadTasksCallback);
+        verify(mTasksLocalDataSource).getTaskSummaries(mTasksCallbackCaptor.capture());
+        mTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
+
+        // When the full tasks are requested
+        TasksDataSource.LoadTasksCallback callback = mock(TasksDataSource.LoadTasksCallback.class);
+        mTasksRepository.getTasks(callback);
+
+        // Then they are read again instead of handing out the summaries
+        setTasksAvailable(mTasksLocalDataSource, TASKS);
+        verify(callback).onTasksLoaded(TASKS);
+        assertThat(mTasksRepository.mCachedTasks.get(TASKS.get(0).getId()).isSummary(), is(false));
+    }
+
+    @Test
+    public void getTasksByCompleted_nothingCached_queriesOnlyMatchingTasksFromLocal() {
+        // When the completed tasks are requested before anything is cached
+        mTasksRepository.getTasksByCompleted(true, mLoadTasksCallback);
+
+        // Then the local data source filters them, without loading every task
+        verify(mTasksLocalDataSource).getTasksByCompleted(eq(true), mTasksCallbackCaptor.capture());
+        verify(mTasksLocalDataSource, never()).getTasks(
+                any(TasksDataSource.LoadTasksCallback.class));
+        List<Task> completedTasks = Lists.newArrayList(new Task(TASK_TITLE, "", true));
+        mTasksCallbackCaptor.getValue().onTasksLoaded(completedTasks);
+        verify(mLoadTasksCallback).onTasksLoaded(completedTasks);
+        // And the partial result isn't cached
+        assertThat(mTasksRepository.mCachedTasks == null, is(true));
+    }
+
+    @Test
+    public void getTasksByCompleted_tasksCached_filtersCache() {
+        // Given every task is cached, one of them active
+        Task activeTask = new Task(TASK_TITLE, "");
+        mTasksRepository.getTasks(mLoadTasksCallback);
+        setTasksAvailable(mTasksLocalDataSource, Lists.newArrayList(
+                activeTask, new Task(TASK_TITLE2, "", true), new Task(TASK_TITLE3, "", true)));
+
+        // When the active tasks are requested
+        mTasksRepository.getTasksByCompleted(false, mLoadTasksCallback);
+
+        // Then they come from the cache
+        verify(mLoadTasksCallback).onTasksLoaded(Lists.newArrayList(activeTask));
+        verify(mTasksLocalDataSource, never()).getTasksByCompleted(anyBoolean(),
+                any(TasksDataSource.LoadTasksCallback.class));
+    }
+
+    @Test
+    public void getTasksByCompleted_completedWithTasksCached_readsLocalForArchivedTasks() {
+        // Given every task in use is cached
+        mTasksRepository.getTasks(mLoadTasksCallback);
+        setTasksAvailable(mTasksLocalDataSource, Lists.newArrayList(
+                new Task(TASK_TITLE, ""), new Task(TASK_TITLE2, "", true)));
+
+        // When the completed tasks are requested
+        mTasksRepository.getTasksByCompleted(true, mLoadTasksCallback);
+
+        // Then the local data source reads them, along with the archived ones the cache lacks
+        verify(mTasksLocalDataSource).getTasksByCompleted(eq(true), mTasksCallbackCaptor.capture());
+        List<Task> completedTasks = Lists.newArrayList(new Task(TASK_TITLE2, "", true),
+                new Task(TASK_TITLE3, "", true));
+        mTasksCallbackCaptor.getValue().onTasksLoaded(completedTasks);
+        verify(mLoadTasksCallback).onTasksLoaded(completedTasks);
+        // And the cache is left as it was
+        assertThat(mTasksRepository.mCachedTasks.size(), is(2));
+    }
+
+    @Test
+    public void getTaskCounts_nothingCached_countsInLocalDataSource() {
+        mTasksRepository.getTaskCounts(mLoadTaskCountsCallback);
+
+        verify(mTasksLocalDataSource).getTaskCounts(
+                any(TasksDataSource.LoadTaskCountsCallback.class));
+        verify(mTasksLocalDataSource, never()).getTasks(
+                any(TasksDataSource.LoadTasksCallback.class));
+    }
+
+    @Test
+    public void getTaskCounts_tasksCached_stillCountsInLocalDataSource() {
+        // Given every task is cached, one of them completed
+        mTasksRepository.getTasks(mLoadTasksCallback);
+        setTasksAvailable(mTasksLocalDataSource, Lists.newArrayList(
+                new Task(TASK_TITLE, ""), new Task(TASK_TITLE2, ""),
+                new Task(TASK_TITLE3, "", true)));
+
+        mTasksRepository.getTaskCounts(mLoadTaskCountsCallback);
+
+        // Then the local data source counts them, since it also holds the archived tasks
+        verify(mTasksLocalDataSource).getTaskCounts(
+                any(TasksDataSource.LoadTaskCountsCallback.class));
+    }
+
+    @Test
+    public void getTaskCounts_dirtyCache_countsRemoteTasks() {
+        // Given a refresh is asked for
+        mTasksRepository.refreshTasks();
+
+        mTasksRepository.getTaskCounts(mLoadTaskCountsCallback);
+        setTasksAvailable(mTasksRemoteDataSource, Lists.newArrayList(
+                new Task(TASK_TITLE, ""), new Task(TASK_TITLE3, "", true)));
+
+        verify(mLoadTaskCountsCallback).onTaskCountsLoaded(1, 1);
+        verify(mTasksLocalDataSource, never()).getTaskCounts(
+                any(TasksDataSource.LoadTaskCountsCallback.class));
+    }
+
+    @Test
+    public void memoryLeanCache_filtersAndClearsOnCompletedColumn() {
+        // Given every task is cached in the lean layout, one of them completed
+        mTasksRepository.setMemoryLeanCache(true);
+        Task activeTask = new Task(TASK_TITLE, "");
+        Task completedTask = new Task(TASK_TITLE3, "", true);
+        mTasksRepository.getTasks(mLoadTasksCallback);
+        setTasksAvailable(mTasksLocalDataSource, Lists.newArrayList(activeTask, completedTask));
+
+        // Then filtering is answered by the cache
+        mTasksRepository.getTasksByCompleted(false, mLoadTasksCallback);
+        verify(mLoadTasksCallback).onTasksLoaded(Lists.newArrayList(activeTask));
+
+        // And clearing the completed tasks leaves the active one
+        mTasksRepository.clearCompletedTasks();
+        assertThat(mTasksRepository.mCachedTasks.size(), is(1));
+        assertThat(mTasksRepository.mCachedTasks.get(activeTask.getId()), is(activeTask));
+    }
+
     @Test
     public void saveTask_savesTaskToServiceAPI() {
         // Given a stub task with title and description
@@ -131,6 +349,28 @@ public class TasksRepositoryTest {
         assertThat(mTasksRepository.mCachedTasks.size(), is(1));
     }
 
+    @Test
+    public void getDataVersion_growsOnWritesAndRefresh() {
+        long version = mTasksRepository.getDataVersion();
+
+        mTasksRepository.saveTask(new Task(TASK_TITLE, "Some Task Description"));
+        long afterSave = mTasksRepository.getDataVersion();
+        mTasksRepository.refreshTasks();
+
+        assertTrue(afterSave > version);
+        assertTrue(mTasksRepository.getDataVersion() > afterSave);
+    }
+
+    @Test
+    public void getDataVersion_unchangedByCachedRead() {
+        twoTasksLoadCallsToRepository(mLoadTasksCallback);
+        long version = mTasksRepository.getDataVersion();
+
+        mTasksRepository.getTasks(mLoadTasksCallback);
+
+        assertThat(mTasksRepository.getDataVersion(), is(version));
+    }
+
     @Test
     public void completeTask_completesTaskToServiceAPIUpdatesCache() {
         // Given a stub active task with title and description added in the repository
@@ -147,6 +387,128 @@ public class TasksRepositoryTest {
         assertThat(mTasksRepository.mCachedTasks.get(newTask.getId()).isActive(), is(false));
     }
 
+    @Test
+    public void setTaskCompleted_updatesCacheBeforeLocalWriteAndRemoteAfter() {
+        // Given a stub active task in the repository
+        Task newTask = new Task(TASK_TITLE, "Some Task Description");
+        mTasksRepository.saveTask(newTask);
+
+        // When the task is completed with a write callback
+        mTasksRepository.setTaskCompleted(newTask, true, mWriteCallback);
+
+        // Then the cache is updated right away, but the remote isn't told yet
+        assertThat(mTasksRepository.mCachedTasks.get(newTask.getId()).isCompleted(), is(true));
+        verify(mTasksRemoteDataSource, never()).completeTask(any(Task.class));
+
+        // When the local write completes
+        verify(mTasksLocalDataSource).setTaskCompleted(eq(newTask), eq(true),
+                mWriteCallbackCaptor.capture());
+        mWriteCallbackCaptor.getValue().onWriteCompleted();
+
+        // Then the remote is told and the caller is notified
+        verify(mTasksRemoteDataSource).completeTask(newTask);
+        verify(mWriteCallback).onWriteCompleted();
+    }
+
+    @Test
+    public void setTaskCompleted_localWriteFails_rollsBackCache() {
+        // Given a stub active task in the repository
+        Task newTask = new Task(TASK_TITLE, "Some Task Description");
+        mTasksRepository.saveTask(newTask);
+
+        // When the task is completed and the local write fails
+        mTasksRepository.setTaskCompleted(newTask, true, mWriteCallback);
+        verify(mTasksLocalDataSource).setTaskCompleted(eq(newTask), eq(true),
+                mWriteCallbackCaptor.capture());
+        mWriteCallbackCaptor.getValue().onWriteFailed();
+
+        // Then the cache holds the active task again and the remote never hears of it
+        assertThat(mTasksRepository.mCachedTasks.get(newTask.getId()).isActive(), is(true));
+        verify(mTasksRemoteDataSource, never()).completeTask(any(Task.class));
+        verify(mWriteCallback).onWriteFailed();
+    }
+
+    @Test
+    public void saveTaskInMemory_acknowledgesBeforeLocalWrite() {
+        // When a task is saved at memory durability
+        Task newTask = new Task(TASK_TITLE, "Some Task Description");
+        mTasksRepository.saveTask(newTask, TasksRepository.Durability.MEMORY, mWriteCallback);
+
+        // Then it is acknowledged right away, with the task already in the cache
+        verify(mWriteCallback).onWriteCompleted();
+        assertThat(mTasksRepository.mCachedTasks.containsKey(newTask.getId()), is(true));
+        assertThat(mTasksRepository.getSaveLatencies().getCount(
+                TasksRepository.Durability.MEMORY), is(1));
+    }
+
+    @Test
+    public void saveTaskInMemory_failedLocalWriteIsReportedAfterAcknowledgement() {
+        // Given a task saved at memory durability, already acknowledged
+        Task newTask = new Task(TASK_TITLE, "Some Task Description");
+        mTasksRepository.saveTask(newTask, TasksRepository.Durability.MEMORY, mWriteCallback);
+        verify(mWriteCallback).onWriteCompleted();
+
+        // When the local write fails
+        verify(mTasksLocalDataSource).saveTask(eq(newTask), mWriteCallbackCaptor.capture());
+        mWriteCallbackCaptor.getValue().onWriteFailed();
+
+        // Then the caller is told, and the task is rolled back
+        verify(mWriteCallback).onWriteFailed();
+        assertThat(mTasksRepository.mCachedTasks.containsKey(newTask.getId()), is(false));
+    }
+
+    @Test
+    public void saveTaskLocally_acknowledgesOnceCommittedAndTellsRemote() {
+        // When a task is saved at local durability
+        Task newTask = new Task(TASK_TITLE, "Some Task Description");
+        mTasksRepository.saveTask(newTask, TasksRepository.Durability.LOCAL, mWriteCallback);
+
+        // Then it isn't acknowledged until the local write completes
+        verify(mWriteCallback, never()).onWriteCompleted();
+        verify(mTasksRemoteDataSource, never()).saveTask(any(Task.class));
+        verify(mTasksLocalDataSource).saveTask(eq(newTask), mWriteCallbackCaptor.capture());
+        mWriteCallbackCaptor.getValue().onWriteCompleted();
+
+        // And then the remote is told and the latency of the local level is recorded
+        verify(mWriteCallback).onWriteCompleted();
+        verify(mTasksRemoteDataSource).saveTask(newTask);
+        assertThat(mTasksRepository.getSaveLatencies().getCount(
+                TasksRepository.Durability.LOCAL), is(1));
+    }
+
+    @Test
+    public void saveTaskRemotely_acknowledgesOnceRemoteAcknowledges() {
+        // Given a task saved at remote durability and committed locally
+        Task newTask = new Task(TASK_TITLE, "Some Task Description");
+        mTasksRepository.saveTask(newTask, TasksRepository.Durability.REMOTE, mWriteCallback);
+        verify(mTasksLocalDataSource).saveTask(eq(newTask), mWriteCallbackCaptor.capture());
+        mWriteCallbackCaptor.getValue().onWriteCompleted();
+        verify(mWriteCallback, never()).onWriteCompleted();
+
+        // When the remote acknowledges it
+        verify(mTasksRemoteDataSource).saveTask(eq(newTask), mWriteCallbackCaptor.capture());
+        mWriteCallbackCaptor.getValue().onWriteCompleted();
+
+        // Then the save is acknowledged
+        verify(mWriteCallback).onWriteCompleted();
+        assertThat(mTasksRepository.getSaveLatencies().getCount(
+                TasksRepository.Durability.REMOTE), is(1));
+    }
+
+    @Test
+    public void saveTask_localWriteFails_rollsBackCache() {
+        // When a new task is saved and the local write fails
+        Task newTask = new Task(TASK_TITLE, "Some Task Description");
+        mTasksRepository.saveTask(newTask, TasksRepository.Durability.LOCAL, mWriteCallback);
+        verify(mTasksLocalDataSource).saveTask(eq(newTask), mWriteCallbackCaptor.capture());
+        mWriteCallbackCaptor.getValue().onWriteFailed();
+
+        // Then the task is gone from the cache and the remote never hears of it
+        assertThat(mTasksRepository.mCachedTasks.containsKey(newTask.getId()), is(false));
+        verify(mTasksRemoteDataSource, never()).saveTask(any(Task.class));
+        verify(mWriteCallback).onWriteFailed();
+    }
+
     @Test
     public void completeTaskId_completesTaskToServiceAPIUpdatesCache() {
         // Given a stub active task with title and description added in the repository
@@ -228,6 +590,79 @@ public class TasksRepositoryTest {
         assertThat(mTasksRepository.mCachedTasks.get(newTask2.getId()).getTitle(), is(TASK_TITLE2));
     }
 
+    @Test
+    public void restoreDeletedTasks_afterClear_swapsCacheBackAndRestoresDataSources() {
+        // Given a completed and an active task, and the completed tasks cleared
+        Task completedTask = new Task(TASK_TITLE, "Some Task Description", true);
+        mTasksRepository.saveTask(completedTask);
+        Task activeTask = new Task(TASK_TITLE2, "Some Task Description");
+        mTasksRepository.saveTask(activeTask);
+        mTasksRepository.clearCompletedTasks();
+        assertTrue(mTasksRepository.canRestoreDeletedTasks());
+
+        // When the clear is undone
+        mTasksRepository.restoreDeletedTasks();
+
+        // Then both data sources restore the tasks and the cache has both of them again
+        verify(mTasksRemoteDataSource).restoreDeletedTasks();
+        verify(mTasksLocalDataSource).restoreDeletedTasks();
+        assertThat(mTasksRepository.mCachedTasks.size(), is(2));
+        assertThat(mTasksRepository.mCachedTasks.get(completedTask.getId()), is(completedTask));
+        assertThat(mTasksRepository.canRestoreDeletedTasks(), is(false));
+    }
+
+    @Test
+    public void restoreDeletedTasks_memoryLeanCache_bringsBackTheHiddenTasks() {
+        // Given the lean cache, and the completed tasks cleared
+        mTasksRepository.setMemoryLeanCache(true);
+        Task completedTask = new Task(TASK_TITLE, "Some Task Description", true);
+        mTasksRepository.saveTask(completedTask);
+        Task activeTask = new Task(TASK_TITLE2, "Some Task Description");
+        mTasksRepository.saveTask(activeTask);
+        mTasksRepository.clearCompletedTasks();
+        assertThat(mTasksRepository.mCachedTasks.size(), is(1));
+
+        // When the clear is undone
+        mTasksRepository.restoreDeletedTasks();
+
+        // Then the cache has both tasks again, in their order
+        assertThat(Lists.newArrayList(mTasksRepository.mCachedTasks.values()),
+                is((List<Task>) Lists.newArrayList(completedTask, activeTask)));
+    }
+
+    @Test
+    public void clearCompletedTasks_snapshotIsReleasedByTheNextChange() {
+        // Given the completed tasks cleared, which keeps the old cache for undo
+        mTasksRepository.saveTask(new Task(TASK_TITLE, "Some Task Description", true));
+        mTasksRepository.clearCompletedTasks();
+        assertThat(mTasksRepository.mUndoSnapshot == null, is(false));
+
+        // When another change is made
+        mTasksRepository.saveTask(new Task(TASK_TITLE2, "Some Task Description"));
+
+        // Then the old cache isn't held anymore
+        assertThat(mTasksRepository.mUndoSnapshot == null, is(true));
+    }
+
+    @Test
+    public void restoreDeletedTasks_afterAnotherChange_doesNothing() {
+        // Given all tasks deleted, and a task saved after that
+        mTasksRepository.saveTask(new Task(TASK_TITLE, "Some Task Description"));
+        mTasksRepository.deleteAllTasks();
+        Task newTask = new Task(TASK_TITLE2, "Some Task Description");
+        mTasksRepository.saveTask(newTask);
+
+        // When the delete is undone
+        mTasksRepository.restoreDeletedTasks();
+
+        // Then it is too late: nothing is restored and the new task is kept
+        assertThat(mTasksRepository.canRestoreDeletedTasks(), is(false));
+        verify(mTasksLocalDataSource, never()).restoreDeletedTasks();
+        verify(mTasksRemoteDataSource, never()).restoreDeletedTasks();
+        assertThat(mTasksRepository.mCachedTasks.size(), is(1));
+        assertThat(mTasksRepository.mCachedTasks.get(newTask.getId()), is(newTask));
+    }
+
     @Test
     public void deleteAllTasks_deleteTasksToServiceAPIUpdatesCache() {
         // Given 2 stub completed tasks and 1 stub active tasks in the repository
@@ -339,8 +774,125 @@ public class TasksRepositoryTest {
         // Make the remote data source return data
         setTasksAvailable(mTasksRemoteDataSource, TASKS);
 
-        // Verify that the data fetched from the remote data source was saved in local.
-        verify(mTasksLocalDataSource, times(TASKS.size())).saveTask(any(Task.class));
+        // Verify that the data fetched from the remote data source was saved in local, without
+        // going through saveTask, which would queue it to be sent back to the remote.
+        verify(mTasksLocalDataSource).replaceAllTasks(TASKS);
+        verify(mTasksLocalDataSource, never()).saveTask(any(Task.class));
+    }
+
+    @Test
+    public void getTasksWithDirtyCacheAfterSync_onlyChangesAreRetrievedFromRemote() {
+        // Given tasks that were loaded from the remote data source once
+        mTasksRepository.refreshTasks();
+        mTasksRepository.getTasks(mLoadTasksCallback);
+        setTasksAvailable(mTasksRemoteDataSource, VERSIONED_TASKS);
+        assertThat(mTasksRepository.mSyncWatermark, is(200L));
+
+        // When the tasks are refreshed again
+        mTasksRepository.refreshTasks();
+        mTasksRepository.getTasks(mLoadTasksCallback);
+
+        // Then only the changes since the last sync are requested
+        verify(mTasksRemoteDataSource).getTasks(any(TasksDataSource.LoadTasksCallback.class));
+        verify(mTasksRemoteDataSource).getTaskChanges(eq(200L),
+                mTaskChangesCallbackCaptor.capture());
+
+        // And applying them updates the cache, the local data source and the watermark
+        Task editedTask = new Task("Edited", "Description1", "1", true, 300);
+        TaskChanges changes = new TaskChanges(Collections.singletonList(editedTask),
+                Collections.singletonList("2"), 310);
+        mTaskChangesCallbackCaptor.getValue().onTaskChangesLoaded(changes);
+        verify(mTasksLocalDataSource).applyTaskChanges(eq(changes),
+                mTaskChangesCallbackCaptor.capture());
+        mTaskChangesCallbackCaptor.getValue().onTaskChangesLoaded(changes);
+
+        assertThat(mTasksRepository.mCachedTasks.size(), is(1));
+        assertThat(mTasksRepository.mCachedTasks.get("1").isCompleted(), is(true));
+        assertThat(mTasksRepository.mSyncWatermark, is(310L));
+    }
+
+    @Test
+    public void applyTaskChanges_cacheKeepsTasksTheLocalDataSourceKept() {
+        // Given tasks that were loaded from the remote data source once
+        mTasksRepository.refreshTasks();
+        mTasksRepository.getTasks(mLoadTasksCallback);
+        setTasksAvailable(mTasksRemoteDataSource, VERSIONED_TASKS);
+
+        // When changes to both tasks come in, but task 1 still has local changes to send
+        TaskChanges changes = new TaskChanges(
+                Collections.singletonList(new Task("Edited", "Description1", "1", true, 300)),
+                Collections.singletonList("2"), 310);
+        mTasksRepository.applyTaskChanges(changes,
+                mock(TasksDataSource.LoadTaskChangesCallback.class));
+        verify(mTasksLocalDataSource).applyTaskChanges(eq(changes),
+                mTaskChangesCallbackCaptor.capture());
+        mTaskChangesCallbackCaptor.getValue().onTaskChangesLoaded(new TaskChanges(
+                Collections.<Task>emptyList(), Collections.singletonList("2"), 310));
+
+        // Then the cache only applies what the local data source applied
+        assertThat(mTasksRepository.mCachedTasks.size(), is(1));
+        assertThat(mTasksRepository.mCachedTasks.get("1").getTitle(), is("Title1"));
+    }
+
+    @Test
+    public void getTasksWithDirtyCacheBeforeSync_allTasksAreRetrievedFromRemote() {
+        // When the tasks are refreshed before they were ever loaded from the remote
+        mTasksRepository.refreshTasks();
+        mTasksRepository.getTasks(mLoadTasksCallback);
+
+        // Then the whole dataset is requested
+        verify(mTasksRemoteDataSource).getTasks(any(TasksDataSource.LoadTasksCallback.class));
+        verify(mTasksRemoteDataSource, never()).getTaskChanges(anyLong(),
+                any(TasksDataSource.LoadTaskChangesCallback.class));
+    }
+
+    @Test
+    public void searchTaskTitles_withCachedTasks_appendsArchivedTitleMatches() {
+        // Given the tasks are cached
+        twoTasksLoadCallsToRepository(mLoadTasksCallback);
+
+        // When the titles are searched
+        TasksDataSource.LoadTasksCallback callback = mock(TasksDataSource.LoadTasksCallback.class);
+        mTasksRepository.searchTaskTitles("title2", callback);
+
+        // And the local data source also finds an archived task, and one by its description
+        Task archivedTask = new Task("Title2 last year", "", true).toSummary();
+        Task describedTask = new Task("Other", "Title2 in the description", true).toSummary();
+        verify(mTasksLocalDataSource).searchTasks(eq("title2"), mTasksCallbackCaptor.capture());
+        mTasksCallbackCaptor.getValue().onTasksLoaded(
+                Lists.newArrayList(TASKS.get(1), archivedTask, describedTask));
+
+        // Then the cached match comes first, then the archived task matched by its title
+        verify(callback).onTasksLoaded(Lists.newArrayList(TASKS.get(1), archivedTask));
+    }
+
+    @Test
+    public void searchTaskTitles_followsChangesToTheCache() {
+        // Given the titles were searched once
+        twoTasksLoadCallsToRepository(mLoadTasksCallback);
+        mTasksRepository.searchTaskTitles("title", mock(TasksDataSource.LoadTasksCallback.class));
+
+        // When a task is saved and another deleted
+        Task newTask = new Task("Title3", "Description3");
+        mTasksRepository.saveTask(newTask);
+        mTasksRepository.deleteTask(TASKS.get(0).getId());
+
+        // Then the next search sees both changes, even if the archive can't be searched
+        TasksDataSource.LoadTasksCallback callback = mock(TasksDataSource.LoadTasksCallback.class);
+        mTasksRepository.searchTaskTitles("tit", callback);
+        verify(mTasksLocalDataSource).searchTasks(eq("tit"), mTasksCallbackCaptor.capture());
+        mTasksCallbackCaptor.getValue().onDataNotAvailable();
+        verify(callback).onTasksLoaded(Lists.newArrayList(TASKS.get(1), newTask));
+    }
+
+    @Test
+    public void searchTaskTitles_nothingCached_searchesLocalDataSource() {
+        // When the titles are searched before the tasks are loaded
+        mTasksRepository.searchTaskTitles("title", mLoadTasksCallback);
+
+        // Then the full-text search of the local data source answers
+        verify(mTasksLocalDataSource).searchTasks(eq("title"),
+                any(TasksDataSource.LoadTasksCallback.class));
     }
 
     /**
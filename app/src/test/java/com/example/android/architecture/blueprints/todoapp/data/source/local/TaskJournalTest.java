@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link TaskJournal}, on a file in the temporary directory.
+ */
+public class TaskJournalTest {
+
+    private static final Task TASK1 = new Task("Title1", "Description1", "1", false, 100);
+
+    private static final Task TASK2 = new Task("Title2", null, "2", true, 200);
+
+    private static final Task TASK3 = new Task("Title3", "Description3", "3", false, 300);
+
+    private File mFile;
+
+    private TaskJournal mJournal;
+
+    @Before
+    public void createJournal() throws IOException {
+        mFile = File.createTempFile("tasks", ".journal");
+        assertTrue(mFile.delete());
+        mJournal = TaskJournal.open(mFile);
+    }
+
+    @After
+    public void deleteJournal() throws IOException {
+        mJournal.close();
+        mFile.delete();
+        new File(mFile.getPath() + ".compact").delete();
+    }
+
+    @Test
+    public void reopen_replaysEveryRecord() throws IOException {
+        // Given tasks saved, one completed, one deleted
+        mJournal.edit().put(TASK1).put(TASK2).commit();
+        mJournal.edit().put(TASK3).commit();
+        mJournal.edit().setCompleted("1", true, 400).commit();
+        mJournal.edit().delete("2").commit();
+
+        // When the journal is opened again
+        reopen();
+
+        // Then the tasks are the same, in the order they were saved
+        assertThat(mJournal.getTasks(), is(Arrays.asList(TASK1, TASK3)));
+        assertThat(mJournal.getTask("1").isCompleted(), is(true));
+        assertThat(mJournal.getTask("1").getUpdatedAt(), is(400L));
+        assertThat(mJournal.getTask("2"), is(nullValue()));
+    }
+
+    @Test
+    public void putAgain_movesTaskToTheEnd() throws IOException {
+        mJournal.edit().put(TASK1).put(TASK2).commit();
+
+        mJournal.edit().put(new Task("New title", "", "1", false, 300)).commit();
+
+        assertThat(mJournal.getTasks().get(1).getTitle(), is("New title"));
+    }
+
+    @Test
+    public void clearCompletedAndDeleteAll_surviveReopen() throws IOException {
+        mJournal.edit().put(TASK1).put(TASK2).put(TASK3).commit();
+        mJournal.edit().clearCompleted().commit();
+        reopen();
+        assertThat(mJournal.getTasks(), is(Arrays.asList(TASK1, TASK3)));
+
+        mJournal.edit().deleteAll().commit();
+        reopen();
+        assertThat(mJournal.size(), is(0));
+    }
+
+    @Test
+    public void tornRecord_isDroppedOnOpen() throws IOException {
+        // Given a record whose last bytes never made it to the file
+        mJournal.edit().put(TASK1).commit();
+        int goodLength = mJournal.getLength();
+        mJournal.edit().put(TASK2).commit();
+        int tornLength = mJournal.getLength();
+        mJournal.close();
+        zero(mFile, tornLength - 3, 3);
+
+        // When the journal is opened again
+        mJournal = TaskJournal.open(mFile);
+
+        // Then only the records before it are kept, and the journal takes new records after them
+        assertThat(mJournal.getTasks(), is(Arrays.asList(TASK1)));
+        assertThat(mJournal.getLength(), is(goodLength));
+        mJournal.edit().put(TASK3).commit();
+        reopen();
+        assertThat(mJournal.getTasks(), is(Arrays.asList(TASK1, TASK3)));
+    }
+
+    @Test
+    public void corruptedRecord_failsItsChecksum() throws IOException {
+        // Given a record with a flipped byte in its payload
+        mJournal.edit().put(TASK1).commit();
+        int goodLength = mJournal.getLength();
+        mJournal.edit().put(TASK2).commit();
+        mJournal.close();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(goodLength + 12);
+        int value = file.read();
+        file.seek(goodLength + 12);
+        file.write(value ^ 0xff);
+        file.close();
+
+        // Then it is dropped on open
+        mJournal = TaskJournal.open(mFile);
+        assertThat(mJournal.getTasks(), is(Arrays.asList(TASK1)));
+    }
+
+    @Test
+    public void compact_keepsTasksAndShrinksFile() throws IOException {
+        // Given a task saved many times over
+        mJournal.edit().put(TASK1).put(TASK2).commit();
+        for (int i = 0; i < 2000; i++) {
+            mJournal.edit().setCompleted("1", i % 2 == 0, 1000 + i).commit();
+        }
+        assertTrue(mJournal.needsCompaction());
+        int length = mJournal.getLength();
+
+        // When the journal is compacted
+        mJournal.compact();
+
+        // Then the tasks are kept, in a much shorter file
+        assertTrue(mJournal.getLength() < length / 10);
+        assertThat(mJournal.needsCompaction(), is(false));
+        assertThat(mJournal.getTask("1").getUpdatedAt(), is(2999L));
+        mJournal.edit().put(TASK3).commit();
+        reopen();
+        assertThat(mJournal.getTasks(), is(Arrays.asList(TASK1, TASK2, TASK3)));
+    }
+
+    @Test(expected = IOException.class)
+    public void open_otherFile_throws() throws IOException {
+        mJournal.close();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(0);
+        file.write(new byte[]{'N', 'O', 'P', 'E', 0, 0, 0, 0});
+        file.close();
+
+        mJournal = TaskJournal.open(mFile);
+    }
+
+    private void reopen() throws IOException {
+        mJournal.close();
+        mJournal = TaskJournal.open(mFile);
+    }
+
+    private static void zero(File file, int offset, int length) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.seek(offset);
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Unit tests for the parts of {@link TaskSearch} that don't need a database.
+ */
+public class TaskSearchTest {
+
+    @Test
+    public void toMatchExpression_prefixMatchesEveryWord() {
+        assertThat(TaskSearch.toMatchExpression("  buy  milk, eggs! "),
+                is("\"buy*\" \"milk*\" \"eggs*\""));
+    }
+
+    @Test
+    public void toMatchExpression_quotesOperators() {
+        assertThat(TaskSearch.toMatchExpression("this OR that"),
+                is("\"this*\" \"OR*\" \"that*\""));
+    }
+
+    @Test
+    public void toMatchExpression_withoutWords_isNull() {
+        assertThat(TaskSearch.toMatchExpression(" -*\" "), is(nullValue()));
+    }
+
+    @Test
+    public void rank_titleHitCountsMoreThanDescriptionHit() {
+        // One phrase, two columns: hits this row, hits all rows, rows with hits
+        int[] inTitle = {1, 2, 1, 4, 2, 0, 4, 2};
+        int[] inDescription = {1, 2, 0, 4, 2, 1, 4, 2};
+
+        assertTrue(TaskSearch.rank(inTitle) > TaskSearch.rank(inDescription));
+    }
+
+    @Test
+    public void rank_rareWordCountsMoreThanCommonWord() {
+        int[] rare = {1, 2, 1, 1, 1, 0, 0, 0};
+        int[] common = {1, 2, 1, 10, 10, 0, 0, 0};
+
+        assertTrue(TaskSearch.rank(rare) > TaskSearch.rank(common));
+    }
+
+    @Test
+    public void toInts_readsNativeOrder() {
+        ByteBuffer blob = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+        blob.putInt(1).putInt(258);
+
+        int[] ints = TaskSearch.toInts(blob.array());
+
+        assertThat(ints.length, is(2));
+        assertThat(ints[0], is(1));
+        assertThat(ints[1], is(258));
+    }
+}
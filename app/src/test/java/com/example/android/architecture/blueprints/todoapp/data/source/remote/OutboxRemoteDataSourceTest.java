@@ -0,0 +1,230 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.remote;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.OutboxDao;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.OutboxEntry;
+import com.example.android.architecture.blueprints.todoapp.util.AppExecutors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Unit tests for the outbox replay in {@link OutboxRemoteDataSource}.
+ */
+public class OutboxRemoteDataSourceTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Mock
+    private TasksDataSource mRemoteDataSource;
+
+    @Mock
+    private OutboxDao mOutboxDao;
+
+    @Mock
+    private AppExecutors mAppExecutors;
+
+    @Mock
+    private OutboxRemoteDataSource.Connectivity mConnectivity;
+
+    @Mock
+    private TasksDataSource.LoadTasksCallback mLoadTasksCallback;
+
+    private OutboxRemoteDataSource mOutboxRemoteDataSource;
+
+    @Before
+    public void setupOutboxRemoteDataSource() {
+        MockitoAnnotations.initMocks(this);
+
+        when(mAppExecutors.diskIO()).thenReturn(DIRECT);
+        when(mAppExecutors.mainThread()).thenReturn(DIRECT);
+        when(mConnectivity.isConnected()).thenReturn(true);
+
+        mOutboxRemoteDataSource = new OutboxRemoteDataSource(mRemoteDataSource, mOutboxDao,
+                mAppExecutors, mConnectivity);
+    }
+
+    @Test
+    public void coalesce_burstOfEditsBecomesOneEntryPerTask() {
+        // Given 500 toggles spread over 5 tasks
+        List<OutboxEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            int op = i % 2 == 0 ? OutboxEntry.OP_COMPLETE : OutboxEntry.OP_ACTIVATE;
+            entries.add(new OutboxEntry(i + 1, "id" + (i % 5), op, "title", "", false));
+        }
+
+        // When the batch is coalesced
+        List<OutboxEntry> coalesced = OutboxRemoteDataSource.coalesce(entries);
+
+        // Then each task is sent once, with the state of its last edit
+        assertThat(coalesced.size(), is(5));
+        for (OutboxEntry entry : coalesced) {
+            assertThat(entry.getSeq() > 495, is(true));
+        }
+    }
+
+    @Test
+    public void coalesce_keepsBulkOperationsInOrder() {
+        // Given edits on both sides of a clear
+        List<OutboxEntry> entries = Arrays.asList(
+                new OutboxEntry(1, "a", OutboxEntry.OP_SAVE, "a", "", false),
+                new OutboxEntry(2, "a", OutboxEntry.OP_COMPLETE, "a", "", false),
+                new OutboxEntry(3, null, OutboxEntry.OP_CLEAR_COMPLETED, null, null, false),
+                new OutboxEntry(4, "a", OutboxEntry.OP_SAVE, "a2", "", false));
+
+        // When the batch is coalesced
+        List<OutboxEntry> coalesced = OutboxRemoteDataSource.coalesce(entries);
+
+        // Then the edits are not moved across the clear
+        assertThat(coalesced.size(), is(3));
+        assertThat(coalesced.get(0).getSeq(), is(2L));
+        assertThat(coalesced.get(1).getOperation(), is(OutboxEntry.OP_CLEAR_COMPLETED));
+        assertThat(coalesced.get(2).getSeq(), is(4L));
+    }
+
+    @Test
+    public void coalesce_deleteAllDropsEarlierEntries() {
+        List<OutboxEntry> entries = Arrays.asList(
+                new OutboxEntry(1, "a", OutboxEntry.OP_SAVE, "a", "", false),
+                new OutboxEntry(2, null, OutboxEntry.OP_DELETE_ALL, null, null, false),
+                new OutboxEntry(3, "b", OutboxEntry.OP_SAVE, "b", "", false));
+
+        List<OutboxEntry> coalesced = OutboxRemoteDataSource.coalesce(entries);
+
+        assertThat(coalesced.size(), is(2));
+        assertThat(coalesced.get(0).getOperation(), is(OutboxEntry.OP_DELETE_ALL));
+        assertThat(coalesced.get(1).getTaskId(), is("b"));
+    }
+
+    @Test
+    public void saveTask_replaysOutboxAndDeletesSentEntries() {
+        // Given a task that was saved and then completed while offline
+        when(mOutboxDao.getOldestEntries(anyInt())).thenReturn(
+                Arrays.asList(
+                        new OutboxEntry(7, "a", OutboxEntry.OP_SAVE, "title", "desc", false),
+                        new OutboxEntry(8, "a", OutboxEntry.OP_COMPLETE, "title", "desc", false)),
+                Collections.<OutboxEntry>emptyList());
+
+        // When a mutation asks for a replay
+        mOutboxRemoteDataSource.saveTask(new Task("title", "desc", "a"));
+
+        // Then the remote receives the final state once and the entries are removed
+        ArgumentCaptor<Task> taskCaptor = ArgumentCaptor.forClass(Task.class);
+        verify(mRemoteDataSource).saveTask(taskCaptor.capture());
+        assertThat(taskCaptor.getValue().getId(), is("a"));
+        assertThat(taskCaptor.getValue().isCompleted(), is(true));
+        verify(mOutboxDao).deleteEntriesUpTo(8);
+    }
+
+    @Test
+    public void saveTask_whenDisconnected_keepsEntries() {
+        // Given the remote can't be reached
+        when(mConnectivity.isConnected()).thenReturn(false);
+
+        // When a mutation asks for a replay
+        mOutboxRemoteDataSource.saveTask(new Task("title", "desc", "a"));
+
+        // Then nothing is sent and nothing is deleted
+        verify(mOutboxDao, never()).getOldestEntries(anyInt());
+        verify(mRemoteDataSource, never()).saveTask(any(Task.class));
+        verify(mOutboxDao, never()).deleteEntriesUpTo(anyLong());
+    }
+
+    @Test
+    public void getTasks_sendsPendingEntriesBeforeReading() {
+        when(mOutboxDao.getOldestEntries(anyInt())).thenReturn(
+                Collections.singletonList(
+                        new OutboxEntry(1, "a", OutboxEntry.OP_DELETE, null, null, false)),
+                Collections.<OutboxEntry>emptyList());
+
+        mOutboxRemoteDataSource.getTasks(mLoadTasksCallback);
+
+        verify(mRemoteDataSource).deleteTask("a");
+        verify(mRemoteDataSource).getTasks(mLoadTasksCallback);
+    }
+
+    @Test
+    public void getTasks_whenDisconnected_firesOnDataNotAvailable() {
+        when(mConnectivity.isConnected()).thenReturn(false);
+
+        mOutboxRemoteDataSource.getTasks(mLoadTasksCallback);
+
+        verify(mLoadTasksCallback).onDataNotAvailable();
+        verify(mRemoteDataSource, never()).getTasks(any(TasksDataSource.LoadTasksCallback.class));
+    }
+
+    @Test
+    public void getTasks_whenBatchFails_firesOnDataNotAvailable() {
+        // Given a pending entry the remote fails to apply
+        when(mOutboxDao.getOldestEntries(anyInt())).thenReturn(Collections.singletonList(
+                new OutboxEntry(1, "a", OutboxEntry.OP_DELETE, null, null, false)));
+        doThrow(new RuntimeException()).when(mRemoteDataSource).deleteTask("a");
+
+        // When the tasks are read
+        mOutboxRemoteDataSource.getTasks(mLoadTasksCallback);
+
+        // Then the remote isn't read without the entry, which stays in the outbox
+        verify(mLoadTasksCallback).onDataNotAvailable();
+        verify(mRemoteDataSource, never()).getTasks(any(TasksDataSource.LoadTasksCallback.class));
+        verify(mOutboxDao, never()).deleteEntriesUpTo(anyLong());
+    }
+
+    @Test
+    public void reconnecting_replaysOutbox() {
+        // Given entries left from while the remote couldn't be reached
+        ArgumentCaptor<Runnable> listenerCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(mConnectivity).setOnConnectedListener(listenerCaptor.capture());
+        when(mOutboxDao.getOldestEntries(anyInt())).thenReturn(
+                Collections.singletonList(
+                        new OutboxEntry(1, "a", OutboxEntry.OP_DELETE, null, null, false)),
+                Collections.<OutboxEntry>emptyList());
+
+        // When the connection comes back
+        listenerCaptor.getValue().run();
+
+        // Then they are sent without waiting for the next mutation
+        verify(mRemoteDataSource).deleteTask("a");
+        verify(mOutboxDao).deleteEntriesUpTo(1);
+    }
+}
@@ -16,10 +16,8 @@
 
 package com.example.android.architecture.blueprints.todoapp.statistics;
 
-import com.example.android.architecture.blueprints.todoapp.data.Task;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
-import com.google.common.collect.Lists;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -28,8 +26,6 @@ import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
-import java.util.List;
-
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -38,8 +34,6 @@ import static org.mockito.Mockito.when;
  */
 public class StatisticsPresenterTest {
 
-    private static List<Task> TASKS;
-
     @Mock
     private TasksRepository mTasksRepository;
 
@@ -51,7 +45,7 @@ public class StatisticsPresenterTest {
      * perform further actions or assertions on them.
      */
     @Captor
-    private ArgumentCaptor<TasksDataSource.LoadTasksCallback> mLoadTasksCallbackCaptor;
+    private ArgumentCaptor<TasksDataSource.LoadTaskCountsCallback> mLoadTaskCountsCallbackCaptor;
 
 
     private StatisticsPresenter mStatisticsPresenter;
@@ -67,10 +61,6 @@ public class StatisticsPresenterTest {
 
         // The presenter won't update the view unless it's active.
         when(mStatisticsView.isActive()).thenReturn(true);
-
-        // We start the tasks to 3, with one active and two completed
-        TASKS = Lists.newArrayList(new Task("Title1", "Description1"),
-                new Task("Title2", "Description2", true), new Task("Title3", "Description3", true));
     }
 
     @Test
@@ -85,7 +75,6 @@ public class StatisticsPresenterTest {
     @Test
     public void loadEmptyTasksFromRepository_CallViewToDisplay() {
         // Given an initialized StatisticsPresenter with no tasks
-        TASKS.clear();
 
         // When loading of Tasks is requested
         mStatisticsPresenter.start();
@@ -93,9 +82,9 @@ public class StatisticsPresenterTest {
         //Then progress indicator is shown
         verify(mStatisticsView).setProgressIndicator(true);
 
-        // Callback is captured and invoked with stubbed tasks
-        verify(mTasksRepository).getTasks(mLoadTasksCallbackCaptor.capture());
-        mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
+        // Callback is captured and invoked with stubbed counts
+        verify(mTasksRepository).getTaskCounts(mLoadTaskCountsCallbackCaptor.capture());
+        mLoadTaskCountsCallbackCaptor.getValue().onTaskCountsLoaded(0, 0);
 
         // Then progress indicator is hidden and correct data is passed on to the view
         verify(mStatisticsView).setProgressIndicator(false);
@@ -112,9 +101,9 @@ public class StatisticsPresenterTest {
         //Then progress indicator is shown
         verify(mStatisticsView).setProgressIndicator(true);
 
-        // Callback is captured and invoked with stubbed tasks
-        verify(mTasksRepository).getTasks(mLoadTasksCallbackCaptor.capture());
-        mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
+        // Callback is captured and invoked with stubbed counts
+        verify(mTasksRepository).getTaskCounts(mLoadTaskCountsCallbackCaptor.capture());
+        mLoadTaskCountsCallbackCaptor.getValue().onTaskCountsLoaded(1, 2);
 
         // Then progress indicator is hidden and correct data is passed on to the view
         verify(mStatisticsView).setProgressIndicator(false);
@@ -127,8 +116,8 @@ public class StatisticsPresenterTest {
         mStatisticsPresenter.start();
 
         // And tasks data isn't available
-        verify(mTasksRepository).getTasks(mLoadTasksCallbackCaptor.capture());
-        mLoadTasksCallbackCaptor.getValue().onDataNotAvailable();
+        verify(mTasksRepository).getTaskCounts(mLoadTaskCountsCallbackCaptor.capture());
+        mLoadTaskCountsCallbackCaptor.getValue().onDataNotAvailable();
 
         // Then an error message is shown
         verify(mStatisticsView).showLoadingStatisticsError();
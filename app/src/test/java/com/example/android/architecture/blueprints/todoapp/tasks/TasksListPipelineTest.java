@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.tasks;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import android.support.annotation.NonNull;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Unit tests for {@link TasksListPipeline}.
+ */
+public class TasksListPipelineTest {
+
+    private ExecutorService mWorkers;
+
+    private List<Runnable> mQueuedWork;
+
+    private List<List<Task>> mDelivered;
+
+    @Before
+    public void setupExecutors() {
+        mWorkers = Executors.newFixedThreadPool(3);
+        mQueuedWork = new ArrayList<>();
+        mDelivered = new ArrayList<>();
+    }
+
+    @After
+    public void shutdownWorkers() {
+        mWorkers.shutdownNow();
+    }
+
+    @Test
+    public void process_largeList_filtersChunksInParallelAndKeepsOrder() {
+        // Given a pipeline with four threads and a list of many chunks
+        TasksListPipeline pipeline =
+                new TasksListPipeline(mDirectExecutor, mWorkers, mDirectExecutor, 4);
+        List<Task> tasks = new ArrayList<>();
+        List<Task> expected = new ArrayList<>();
+        for (int i = 0; i < TasksListPipeline.MIN_CHUNK_SIZE * 10 + 7; i++) {
+            Task task = new Task("Title" + i, "", "id" + i, i % 3 == 0);
+            tasks.add(task);
+            if (task.isCompleted()) {
+                expected.add(task);
+            }
+        }
+
+        // When the completed tasks are requested
+        pipeline.process(tasks, TasksFilterType.COMPLETED_TASKS, mCallback);
+
+        // Then the result holds them in their original order and can't be changed
+        assertThat(mDelivered.size(), is(1));
+        assertThat(mDelivered.get(0), is(expected));
+        try {
+            mDelivered.get(0).add(new Task("Title", ""));
+            fail("The delivered list must be unmodifiable");
+        } catch (UnsupportedOperationException expectedException) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void process_newerCall_dropsStaleResult() {
+        // Given a pipeline whose background work waits in a queue
+        TasksListPipeline pipeline =
+                new TasksListPipeline(mQueuingExecutor, mWorkers, mDirectExecutor, 4);
+        List<Task> first = new ArrayList<>();
+        first.add(new Task("Old", ""));
+        List<Task> second = new ArrayList<>();
+        second.add(new Task("New", ""));
+
+        // When a second list overtakes the first before it was processed
+        pipeline.process(first, TasksFilterType.ALL_TASKS, mCallback);
+        pipeline.process(second, TasksFilterType.ALL_TASKS, mCallback);
+        assertThat(pipeline.isProcessing(), is(true));
+        for (Runnable work : mQueuedWork) {
+            work.run();
+        }
+
+        // Then only the newer result is delivered
+        assertThat(mDelivered.size(), is(1));
+        assertThat(mDelivered.get(0), is(second));
+        assertThat(pipeline.isProcessing(), is(false));
+    }
+
+    @Test
+    public void createSynchronous_deliversBeforeReturning() {
+        TasksListPipeline pipeline = TasksListPipeline.createSynchronous();
+        List<Task> tasks = new ArrayList<>();
+        tasks.add(new Task("Active", ""));
+        tasks.add(new Task("Completed", "", true));
+
+        pipeline.process(tasks, TasksFilterType.ACTIVE_TASKS, mCallback);
+
+        assertThat(mDelivered.size(), is(1));
+        assertThat(mDelivered.get(0).size(), is(1));
+        assertThat(mDelivered.get(0).get(0).getTitle(), is("Active"));
+    }
+
+    private final TasksListPipeline.Callback mCallback = new TasksListPipeline.Callback() {
+        @Override
+        public void onListProcessed(List<Task> tasks) {
+            mDelivered.add(tasks);
+        }
+    };
+
+    private final Executor mDirectExecutor = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    private final Executor mQueuingExecutor = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mQueuedWork.add(command);
+        }
+    };
+}
@@ -17,6 +17,8 @@
 package com.example.android.architecture.blueprints.todoapp.tasks;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.Cancellable;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource.LoadTasksCallback;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
 import com.google.common.collect.Lists;
@@ -33,7 +35,11 @@ import java.util.List;
 
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -57,6 +63,9 @@ public class TasksPresenterTest {
     @Captor
     private ArgumentCaptor<LoadTasksCallback> mLoadTasksCallbackCaptor;
 
+    @Captor
+    private ArgumentCaptor<TasksDataSource.WriteCallback> mWriteCallbackCaptor;
+
     private TasksPresenter mTasksPresenter;
 
     @Before
@@ -93,7 +102,7 @@ public class TasksPresenterTest {
         mTasksPresenter.loadTasks(true);
 
         // Callback is captured and invoked with stubbed tasks
-        verify(mTasksRepository).getTasks(mLoadTasksCallbackCaptor.capture());
+        verify(mTasksRepository).getTaskSummaries(mLoadTasksCallbackCaptor.capture());
         mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
 
         // Then progress indicator is shown
@@ -114,7 +123,8 @@ public class TasksPresenterTest {
         mTasksPresenter.loadTasks(true);
 
         // Callback is captured and invoked with stubbed tasks
-        verify(mTasksRepository).getTasks(mLoadTasksCallbackCaptor.capture());
+        verify(mTasksRepository).getTasksByCompleted(eq(false),
+                mLoadTasksCallbackCaptor.capture());
         mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
 
         // Then progress indicator is hidden and active tasks are shown in UI
@@ -132,7 +142,8 @@ public class TasksPresenterTest {
         mTasksPresenter.loadTasks(true);
 
         // Callback is captured and invoked with stubbed tasks
-        verify(mTasksRepository).getTasks(mLoadTasksCallbackCaptor.capture());
+        verify(mTasksRepository).getTasksByCompleted(eq(true),
+                mLoadTasksCallbackCaptor.capture());
         mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
 
         // Then progress indicator is hidden and completed tasks are shown in UI
@@ -142,6 +153,87 @@ public class TasksPresenterTest {
         assertTrue(showTasksArgumentCaptor.getValue().size() == 2);
     }
 
+    @Test
+    public void searchTasks_showsMatchingTasks() {
+        // When a search is submitted
+        mTasksPresenter.setSearchQuery("Title");
+
+        // Then the repository is searched and the matches are shown in UI
+        verify(mTasksRepository).searchTasks(eq("Title"), mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
+
+        verify(mTasksView).setLoadingIndicator(false);
+        ArgumentCaptor<List> showTasksArgumentCaptor = ArgumentCaptor.forClass(List.class);
+        verify(mTasksView).showTasks(showTasksArgumentCaptor.capture());
+        assertTrue(showTasksArgumentCaptor.getValue().size() == 3);
+    }
+
+    @Test
+    public void searchTasks_withoutMatches_showsNoSearchResults() {
+        // When a search finds no tasks
+        mTasksPresenter.setSearchQuery("Nothing");
+        verify(mTasksRepository).searchTasks(eq("Nothing"), mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onTasksLoaded(Lists.<Task>newArrayList());
+
+        // Then the no search results UI is shown
+        verify(mTasksView).showNoSearchResults();
+    }
+
+    @Test
+    public void typeAheadQuery_searchesTitlesWithoutLoadingIndicator() {
+        // When a query is being typed
+        mTasksPresenter.setTypeAheadQuery("Tit");
+
+        // Then only the titles are searched and the matches are shown in UI
+        verify(mTasksRepository).searchTaskTitles(eq("Tit"), mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
+
+        verify(mTasksView, never()).setLoadingIndicator(true);
+        verify(mTasksView).showTasks(any(List.class));
+    }
+
+    @Test
+    public void typeAheadQuery_supersededQueryIsCancelled() {
+        // Given a search for the query typed so far that hasn't answered yet
+        Cancellable firstRequest = new Cancellable();
+        when(mTasksRepository.searchTaskTitles(eq("Ti"), any(LoadTasksCallback.class)))
+                .thenReturn(firstRequest);
+        mTasksPresenter.setTypeAheadQuery("Ti");
+
+        // When the next character is typed
+        mTasksPresenter.setTypeAheadQuery("Tit");
+
+        // Then the first search is cancelled
+        assertTrue(firstRequest.isCancelled());
+        verify(mTasksRepository).searchTaskTitles(eq("Tit"), any(LoadTasksCallback.class));
+    }
+
+    @Test
+    public void submitTypedQuery_searchesEverything() {
+        // Given the titles were searched while typing
+        mTasksPresenter.setTypeAheadQuery("Title");
+
+        // When the same query is submitted
+        mTasksPresenter.setSearchQuery("Title");
+
+        // Then the full search runs as well
+        verify(mTasksRepository).searchTasks(eq("Title"), any(LoadTasksCallback.class));
+    }
+
+    @Test
+    public void clearSearchQuery_loadsAllTasksAgain() {
+        // Given a search was shown
+        mTasksPresenter.setSearchQuery("Title");
+        verify(mTasksRepository).searchTasks(eq("Title"), mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
+
+        // When the query is cleared
+        mTasksPresenter.setSearchQuery(" ");
+
+        // Then all the tasks are loaded again
+        verify(mTasksRepository).getTaskSummaries(any(LoadTasksCallback.class));
+    }
+
     @Test
     public void clickOnFab_ShowsAddTaskUi() {
         // When adding a new task
@@ -172,7 +264,8 @@ public class TasksPresenterTest {
         mTasksPresenter.completeTask(task);
 
         // Then repository is called and task marked complete UI is shown
-        verify(mTasksRepository).completeTask(task);
+        verify(mTasksRepository).setTaskCompleted(eq(task), eq(true),
+                any(TasksDataSource.WriteCallback.class));
         verify(mTasksView).showTaskMarkedComplete();
     }
 
@@ -186,10 +279,156 @@ public class TasksPresenterTest {
         mTasksPresenter.activateTask(task);
 
         // Then repository is called and task marked active UI is shown
-        verify(mTasksRepository).activateTask(task);
+        verify(mTasksRepository).setTaskCompleted(eq(task), eq(false),
+                any(TasksDataSource.WriteCallback.class));
         verify(mTasksView).showTaskMarkedActive();
     }
 
+    @Test
+    public void undoClearCompletedTasks_restoresTasksAndReloadsList() {
+        // Given all tasks are shown
+        mTasksPresenter.setFiltering(TasksFilterType.ALL_TASKS);
+
+        // When the clear of the completed tasks is undone
+        mTasksPresenter.undoClearCompletedTasks();
+
+        // Then the repository restores them and the list is reloaded with them
+        InOrder inOrder = inOrder(mTasksRepository);
+        inOrder.verify(mTasksRepository).restoreDeletedTasks();
+        inOrder.verify(mTasksRepository).getTaskSummaries(mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
+        ArgumentCaptor<List> showTasksArgumentCaptor = ArgumentCaptor.forClass(List.class);
+        verify(mTasksView).showTasks(showTasksArgumentCaptor.capture());
+        assertTrue(showTasksArgumentCaptor.getValue().size() == 3);
+    }
+
+    @Test
+    public void completeShownTask_changesOnlyItsRow() {
+        // Given all tasks are shown
+        mTasksPresenter.setFiltering(TasksFilterType.ALL_TASKS);
+        mTasksPresenter.loadTasks(true);
+        verify(mTasksRepository).getTaskSummaries(mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
+
+        // When the active task is marked as complete
+        mTasksPresenter.completeTask(TASKS.get(0));
+
+        // Then only its row is changed, without loading the tasks again
+        ArgumentCaptor<Task> taskCaptor = ArgumentCaptor.forClass(Task.class);
+        verify(mTasksView).showTaskChanged(eq(0), taskCaptor.capture());
+        assertTrue(taskCaptor.getValue().isCompleted());
+        verify(mTasksView).showTasks(any(List.class));
+        verify(mTasksRepository).getTaskSummaries(any(LoadTasksCallback.class));
+    }
+
+    @Test
+    public void completeShownTask_withActiveFilter_removesItsRow() {
+        // Given the active tasks are shown
+        mTasksPresenter.setFiltering(TasksFilterType.ACTIVE_TASKS);
+        mTasksPresenter.loadTasks(true);
+        verify(mTasksRepository).getTasksByCompleted(eq(false),
+                mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
+
+        // When the only active task is marked as complete
+        mTasksPresenter.completeTask(TASKS.get(0));
+
+        // Then its row is removed and the empty state is shown
+        verify(mTasksView).showTaskRemoved(0);
+        verify(mTasksView).showNoActiveTasks();
+    }
+
+    @Test
+    public void completeShownTask_writeFails_reloadsTasks() {
+        // Given all tasks are shown
+        mTasksPresenter.setFiltering(TasksFilterType.ALL_TASKS);
+        mTasksPresenter.loadTasks(true);
+        verify(mTasksRepository).getTaskSummaries(mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
+
+        // When the active task is marked as complete and the write fails
+        mTasksPresenter.completeTask(TASKS.get(0));
+        verify(mTasksRepository).setTaskCompleted(eq(TASKS.get(0)), eq(true),
+                mWriteCallbackCaptor.capture());
+        mWriteCallbackCaptor.getValue().onWriteFailed();
+
+        // Then an error is shown and the tasks are loaded again from the repository
+        verify(mTasksView).showUpdatingTaskError();
+        verify(mTasksRepository, times(2)).getTaskSummaries(any(LoadTasksCallback.class));
+    }
+
+    @Test
+    public void loadTasks_whileLoading_cancelsSupersededLoad() {
+        // Given a load that hasn't returned yet
+        Cancellable firstRequest = new Cancellable();
+        when(mTasksRepository.getTaskSummaries(any(LoadTasksCallback.class))).thenReturn(firstRequest);
+        mTasksPresenter.loadTasks(true);
+
+        // When the tasks are loaded again, e.g. after a pull to refresh
+        mTasksPresenter.loadTasks(true);
+
+        // Then the first load is cancelled
+        assertTrue(firstRequest.isCancelled());
+    }
+
+    @Test
+    public void start_dataVersionUnchanged_skipsReload() {
+        // Given tasks that were loaded and shown
+        when(mTasksRepository.getDataVersion()).thenReturn(3L);
+        mTasksPresenter.start();
+        verify(mTasksRepository).getTaskSummaries(mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
+
+        // When the user comes back to the screen and nothing changed
+        mTasksPresenter.stop();
+        mTasksPresenter.start();
+
+        // Then the tasks are neither loaded nor shown again
+        verify(mTasksRepository).getTaskSummaries(any(LoadTasksCallback.class));
+        verify(mTasksView).showTasks(any(List.class));
+    }
+
+    @Test
+    public void start_dataVersionChanged_reloads() {
+        // Given tasks that were loaded and shown
+        when(mTasksRepository.getDataVersion()).thenReturn(3L);
+        mTasksPresenter.start();
+        verify(mTasksRepository).getTaskSummaries(mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
+
+        // When a task was changed on another screen
+        mTasksPresenter.stop();
+        when(mTasksRepository.getDataVersion()).thenReturn(4L);
+        mTasksPresenter.start();
+
+        // Then the tasks are loaded again
+        verify(mTasksRepository, times(2)).getTaskSummaries(any(LoadTasksCallback.class));
+    }
+
+    @Test
+    public void attachView_afterRotation_showsRetainedTasksWithoutLoading() {
+        // Given active tasks that were loaded and shown
+        mTasksPresenter.setFiltering(TasksFilterType.ACTIVE_TASKS);
+        mTasksPresenter.start();
+        verify(mTasksRepository).getTasksByCompleted(eq(false),
+                mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
+
+        // When the screen is recreated and the retained presenter gets the new view
+        TasksContract.View newView = mock(TasksContract.View.class);
+        when(newView.isActive()).thenReturn(true);
+        mTasksPresenter.attachView(newView);
+        mTasksPresenter.start();
+
+        // Then the new view shows the same filtered list and nothing is loaded again
+        verify(newView).setPresenter(mTasksPresenter);
+        ArgumentCaptor<List> showTasksArgumentCaptor = ArgumentCaptor.forClass(List.class);
+        verify(newView).showTasks(showTasksArgumentCaptor.capture());
+        assertTrue(showTasksArgumentCaptor.getValue().size() == 1);
+        verify(newView).showActiveFilterLabel();
+        verify(mTasksRepository).getTasksByCompleted(eq(false), any(LoadTasksCallback.class));
+    }
+
     @Test
     public void unavailableTasks_ShowsError() {
         // When tasks are loaded
@@ -197,7 +436,7 @@ public class TasksPresenterTest {
         mTasksPresenter.loadTasks(true);
 
         // And the tasks aren't available in the repository
-        verify(mTasksRepository).getTasks(mLoadTasksCallbackCaptor.capture());
+        verify(mTasksRepository).getTaskSummaries(mLoadTasksCallbackCaptor.capture());
         mLoadTasksCallbackCaptor.getValue().onDataNotAvailable();
 
         // Then an error message is shown